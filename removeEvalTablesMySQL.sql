@@ -25,6 +25,7 @@ drop table if exists  EVAL_ADHOC_PARTICIPANTS;
 drop table if exists  EVAL_ADHOC_GROUP;
 drop table if exists  EVAL_ADHOC_USER;
 drop table if exists  EVAL_CONFIG;
+drop table if exists  EVAL_ITEM_RESULTS;
 drop table if exists  EVAL_LOCK;
 drop table if exists  EVAL_TAGS;
 drop table if exists  EVAL_TAGS_META;
@@ -32,6 +33,7 @@ drop table if exists  EVAL_TRANSLATION;
 drop table if exists  EVAL_ASSIGN_GROUP;
 drop table if exists  EVAL_ASSIGN_USER;
 drop table if exists  EVAL_ANSWER;
+drop table if exists  EVAL_RESPONSE_SUBMISSION;
 drop table if exists  EVAL_RESPONSE;
 drop table if exists  EVAL_TEMPLATEITEM;
 drop table if exists  EVAL_EVALUATION;
@@ -24,6 +24,7 @@ drop table EVAL_ADHOC_PARTICIPANTS;
 drop table EVAL_ADHOC_GROUP cascade constraints;
 drop table EVAL_ADHOC_USER;
 drop table EVAL_CONFIG;
+drop table EVAL_ITEM_RESULTS;
 drop table EVAL_LOCK;
 drop table EVAL_TAGS;
 drop table EVAL_TAGS_META;
@@ -31,6 +32,7 @@ drop table EVAL_TRANSLATION;
 drop table EVAL_ASSIGN_GROUP;
 drop table EVAL_ASSIGN_USER;
 drop table EVAL_ANSWER;
+drop table EVAL_RESPONSE_SUBMISSION;
 drop table EVAL_RESPONSE;
 drop table EVAL_TEMPLATEITEM;
 drop table EVAL_EVALUATION;
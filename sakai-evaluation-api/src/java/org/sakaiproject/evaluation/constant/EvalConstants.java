@@ -812,5 +812,22 @@ public class EvalConstants {
 	public static final byte AVAILABLE_EMAIL_SENT = 02;
 	public static final byte AVAILABLE_EMAIL_ALL = 077;
 
+    /**
+     * Response submission status: the response was validated and is waiting to be saved
+     */
+    public static final String RESPONSE_SUBMISSION_QUEUED = "queued";
+    /**
+     * Response submission status: the response (and its answers) has been saved
+     */
+    public static final String RESPONSE_SUBMISSION_SAVED = "saved";
+    /**
+     * Response submission status: the response was accepted but could not be saved
+     */
+    public static final String RESPONSE_SUBMISSION_FAILED = "failed";
+    /**
+     * Response submission status: the submission id is not known (invalid or expired)
+     */
+    public static final String RESPONSE_SUBMISSION_UNKNOWN = "unknown";
+
 
 }
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.dao;
+
+import java.util.List;
+
+import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalResponse;
+
+/**
+ * Handles the answers for one response at a time when streaming answers
+ * (from the dao or {@link org.sakaiproject.evaluation.logic.EvalDeliveryService})
+ */
+public interface ResponseAnswersHandler {
+
+   /**
+    * @param responseId the id of the {@link EvalResponse} the answers belong to
+    * @param evalGroupId the eval group id of the response
+    * @param answers all the answers for this response (in order by answer id),
+    * the answers are detached once this returns so do not keep them around
+    */
+   public void handleResponseAnswers(Long responseId, String evalGroupId, List<EvalAnswer> answers);
+
+}
@@ -15,6 +15,7 @@
 package org.sakaiproject.evaluation.logic;
 
 import java.util.List;
+import java.util.Map;
 
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.externals.ExternalContent;
@@ -77,6 +78,24 @@ public interface EvalCommonLogic extends ExternalUsers, ExternalEvalGroups, Exte
      */
     public List<EvalUser> getEvalUsersByIds(String[] userIds);
 
+    /**
+     * Start remembering every user resolved by {@link #getEvalUserById(String)} and {@link #getEvalUsersByIds(String[])}
+     * in the current thread (e.g. for the length of a request), valid users are also held in a limited shared cache<br/>
+     * <b>NOTE:</b> This MUST be matched by a call to {@link #endUserRequestCache()} (normally in a finally block)
+     */
+    public void startUserRequestCache();
+
+    /**
+     * Stop remembering the users resolved in the current thread,
+     * see {@link #startUserRequestCache()}
+     */
+    public void endUserRequestCache();
+
+    /**
+     * @return the hit/miss counts and size of the user cache (name -> value)
+     */
+    public Map<String, Long> getUserCacheStats();
+
     // GROUPS
 
     /**
@@ -15,11 +15,16 @@
 package org.sakaiproject.evaluation.logic;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.sakaiproject.evaluation.dao.ResponseAnswersHandler;
 import org.sakaiproject.evaluation.logic.exceptions.ResponseSaveException;
 import org.sakaiproject.evaluation.model.EvalAnswer;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.evaluation.model.EvalItemResults;
 import org.sakaiproject.evaluation.model.EvalResponse;
+import org.sakaiproject.evaluation.model.EvalResponseSubmission;
 
 
 /**
@@ -58,6 +63,50 @@ public interface EvalDeliveryService {
     */
    public void saveResponse(EvalResponse response, String userId);
 
+   /**
+    * Submits a response from a single user, this performs all the same checks as
+    * {@link #saveResponse(EvalResponse, String)} on the calling thread but when
+    * queued submission is enabled ({@link EvalSettings#ENABLE_QUEUED_RESPONSE_SUBMISSION})
+    * and the response is complete the response and answers are saved later (in a batch with
+    * other responses) instead of immediately<br/>
+    * Incomplete responses and submissions while queuing is disabled are saved immediately
+    * exactly like {@link #saveResponse(EvalResponse, String)}<br/>
+    * A queued response is stored (as an {@link EvalResponseSubmission}) in the same transaction so it is
+    * never lost once this returns, use {@link #getResponseSubmissionStatus(String)} to find out when the response was saved
+    *
+    * @param response the response object to save, should be filled with answers
+    * @param userId the internal user id (not username)
+    * @return the submission id which can be used to check the status of the queued submission
+    * OR null if the response was saved immediately
+    * @throws IllegalArgumentException if the inputs are invalid
+    * @throws SecurityException if the user cannot save a response
+    * @throws ResponseSaveException with information about the reason why the response could not be saved,
+    * this includes the case where the submission queue is too busy to accept the response
+    */
+   public String submitResponse(EvalResponse response, String userId);
+
+   /**
+    * Check the status of a submission made with {@link #submitResponse(EvalResponse, String)}
+    *
+    * @param submissionId the id returned when the response was submitted
+    * @return the status constant, one of the EvalConstants.RESPONSE_SUBMISSION_* constants,
+    * statuses of finished submissions are only kept for a limited time after which UNKNOWN is returned
+    */
+   public String getResponseSubmissionStatus(String submissionId);
+
+   /**
+    * Get the queued submissions made by a user (see {@link #submitResponse(EvalResponse, String)}),
+    * this is how a user finds out that a queued response could not be saved,
+    * failed submissions are kept until the user submits a response for the same evaluation and group again
+    * (or for a limited time)
+    *
+    * @param userId the internal user id (not username)
+    * @param status (OPTIONAL) only get submissions with this status (one of the EvalConstants.RESPONSE_SUBMISSION_* constants),
+    * if null then get submissions with any status
+    * @return the list of submissions in the order they were made
+    */
+   public List<EvalResponseSubmission> getResponseSubmissionsForUser(String userId, String status);
+
    /**
     * Get a response by its unique id<br/>
     * A response represents a single user response to an evaluation in a specific evalGroupId<br/>
@@ -156,6 +205,58 @@ public interface EvalDeliveryService {
     */
    public List<EvalAnswer> getAnswersForEval(Long evaluationId, String[] evalGroupIds, Long[] templateItemIds);
 
+   /**
+    * Streams the answers associated with this evaluation to the handler one response at a time,
+    * in order by response id, this is the same set of answers as {@link #getAnswersForEval(Long, String[], Long[])}
+    * but the answers are read with a forward only cursor and only the answers for the current response are held
+    * in memory so it is safe to use for evaluations with a very large number of responses (e.g. exports)
+    * 
+    * @param evaluationId the id of an {@link EvalEvaluation} object
+    * @param evalGroupIds the internal eval group ids (represents a site or group),
+    * if null or empty array include answers for all eval groups for this evaluation
+    * @param templateItemIds the ids of {@link EvalTemplateItem} objects to return answers for,
+    * if null or empty array then return the answers for all template items
+    * @param handler called once for each completed response which has answers
+    * @return the number of responses passed to the handler
+    */
+   public int streamAnswersForEval(Long evaluationId, String[] evalGroupIds, Long[] templateItemIds, ResponseAnswersHandler handler);
+
+   /**
+    * Get the ids of all the associates (e.g. instructors) which have answers in this evaluation,
+    * this is a lot cheaper than getting all the answers when only the associates are needed
+    * 
+    * @param evaluationId the id of an {@link EvalEvaluation} object
+    * @param evalGroupIds the internal eval group ids (represents a site or group),
+    * if null or empty array include answers for all eval groups for this evaluation
+    * @param associateType the type of associate (e.g. {@link org.sakaiproject.evaluation.constant.EvalConstants#ITEM_CATEGORY_INSTRUCTOR})
+    * @return the set of associate ids (never includes blank ids)
+    */
+   public Set<String> getAnswerAssociateIdsForEval(Long evaluationId, String[] evalGroupIds, String associateType);
+
+   /**
+    * Get the pre-aggregated results (counts, N/A count, choice histogram, sums) for each template item
+    * and associate in this evaluation, these are maintained as responses are saved so this is O(items) 
+    * and does not have to go through the answers, the results for all the groups are added together
+    * 
+    * @param evaluationId the id of an {@link EvalEvaluation} object
+    * @param evalGroupIds the internal eval group ids (represents a site or group),
+    * if null or empty array include results for all eval groups for this evaluation
+    * @return a map of template item answer key (see {@link org.sakaiproject.evaluation.utils.TemplateItemUtils#makeTemplateItemAnswerKey(Long, String, String)})
+    * -> results, also includes the {@link EvalItemResults#RESPONSES_KEY} results for the number of responses,
+    * OR null if the results for any of the groups are stale (they do not include all the completed responses) and the answers have to be used instead
+    */
+   public Map<String, EvalItemResults> getItemResultsForEval(Long evaluationId, String[] evalGroupIds);
+
+   /**
+    * Rebuilds the pre-aggregated results for an evaluation from the saved answers,
+    * this is needed for the responses which were saved before the results were being maintained
+    * (or if the results are out of sync for any other reason)
+    * 
+    * @param evaluationId the id of an {@link EvalEvaluation} object
+    * @return the number of completed responses which were added to the results
+    */
+   public int rebuildItemResults(Long evaluationId);
+
 
    // PERMISSIONS
 
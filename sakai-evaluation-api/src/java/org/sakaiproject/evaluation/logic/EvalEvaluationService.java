@@ -14,6 +14,7 @@
  */
 package org.sakaiproject.evaluation.logic;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collection;
 import java.util.Date;
@@ -275,6 +276,29 @@ public interface EvalEvaluationService {
      */
     public List<EvalAssignUser> getParticipantsForEval(Long evaluationId, String userId, String[] evalGroupIds, String assignTypeConstant, String assignStatusConstant, String includeConstant, String evalStateConstant);
 
+    /**
+     * Get the participants for all the groups of an evaluation in one go, grouped by eval group,
+     * this is the same as calling {@link #getParticipantsForEval(Long, String, String[], String, String, String, String)}
+     * for each group but only queries the assignments (and responses) once <br/>
+     * Will not include any assignments with {@link EvalAssignUser#STATUS_REMOVED}
+     * 
+     * @param evaluationId the unique id of an {@link EvalEvaluation} object
+     * @param evalGroupIds (OPTIONAL) an array of unique IDs for eval groups, 
+     * if this is null or empty then results include participants from the entire evaluation,
+     * NOTE: these ids are not validated
+     * @param assignTypeConstant (OPTIONAL) a constant to indicate which types of assignment participants to include,
+     * use the TYPE_* constants from {@link EvalAssignUser}, default (null) is to include all types of assignments
+     * @param includeConstant (OPTIONAL) a constant to indicate what users should be retrieved, 
+     * EVAL_INCLUDE_* from {@link EvalConstants}, default (null) is {@link EvalConstants#EVAL_INCLUDE_ALL},
+     * <b>NOTE</b>: if this is non-null it will filter users to type {@link EvalAssignUser#TYPE_EVALUATOR} automatically
+     * regardless of what the assignTypeConstant is set to,
+     * responses only count in the group they were made in
+     * @return a map of evalGroupId -> the list of user assignments in that group,
+     * groups without any matching participants are not included
+     * @throws IllegalArgumentException if the evaluationId is null or the inputs are invalid
+     */
+    public Map<String, List<EvalAssignUser>> getParticipantsForEvalByGroup(Long evaluationId, String[] evalGroupIds, String assignTypeConstant, String includeConstant);
+
     /**
      * Gets the total count of evaluator participants for an evaluation (will not include evaluatee or assistants) <br/>
      * Convenience method related to {@link #getParticipantsForEval(Long, String, String, String, String, String, String)} <br/>
@@ -663,7 +687,8 @@ public interface EvalEvaluationService {
      * Access one page of summary info needed to render consolidated email templates. 
      * The summary info consists of a user-id, a user-eid, a template-id (EmailTemplate.ID) and the earliest 
      * due date of Active evals which use the email template and which the referenced user can take.
-     * @param sendingAvailableEmails TODO
+     * @param sendingAvailableEmails Should be true if the results will be used to send notifications that new 
+     * 		evaluations are opening, and false if they are to be used for reminders. 
      * @param pageSize The maximum number of mappings to return. A mapping consists of a user-id, an email template
      * 		id and a date.
      * @param page The zero-based starting page. In other words, return a page of items beginning at index 
@@ -677,6 +702,19 @@ public interface EvalEvaluationService {
      */
 	public List<Map<String, Object>> getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, int page);
 
+	/**
+	 * Access the page of consolidated email mappings which comes after the given (emailTemplateId, userId),
+	 * this is the same as {@link #getConsolidatedEmailMapping(boolean, int, int)} but the page is found
+	 * from the last mapping of the previous page so the earlier pages do not have to be scanned again
+	 * @param sendingAvailableEmails Should be true if the results will be used to send notifications that new 
+	 * 		evaluations are opening, and false if they are to be used for reminders. 
+	 * @param pageSize The maximum number of mappings to return
+	 * @param afterEmailTemplateId the email template id of the last mapping in the previous page, null for the first page
+	 * @param afterUserId the user id of the last mapping in the previous page, null for the first page
+	 * @return the mappings (same as {@link #getConsolidatedEmailMapping(boolean, int, int)})
+	 */
+	public List<Map<String, Object>> getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, Long afterEmailTemplateId, String afterUserId);
+
 	/**
 	 * Retrieve the email processing queue by adding one record for each evalAssignUser record 
 	 * matching the search criteria.  Search criteria are determined based on the values of 
@@ -711,6 +749,33 @@ public interface EvalEvaluationService {
 	 */
 	public int resetConsolidatedEmailRecipients();
 
+	/**
+	 * Remove the records for one kind of consolidated email from the email processing queue 
+	 * and report the number of items removed.
+	 * @param sendingAvailableEmails true for the available email records, false for the reminder records
+	 * @return the number of records removed
+	 */
+	public int resetConsolidatedEmailRecipients(boolean sendingAvailableEmails);
+
+	/**
+	 * Prepare to resume a run of consolidated emails which was interrupted (for example by a server restart),
+	 * the records which were already sent (or are for evaluations which are past their due date)
+	 * are removed from the email processing queue and the number of records still waiting to be sent is reported
+	 * @param sendingAvailableEmails true for the available email records, false for the reminder records
+	 * @return the number of records still waiting to be sent, 0 if there is nothing to resume
+	 */
+	public int resumeConsolidatedEmailRecipients(boolean sendingAvailableEmails);
+
+	/**
+	 * Mark the consolidated emails to these users as sent, this should be called once the emails
+	 * are delivered so they are not sent again (even if the run is interrupted and resumed)
+	 * @param sendingAvailableEmails true if available emails were sent, false for reminders
+	 * @param emailTemplateId the id of the email template which was sent
+	 * @param userIds the ids of the users the email was delivered to
+	 * @return the number of email processing queue records marked
+	 */
+	public int markConsolidatedEmailsSent(boolean sendingAvailableEmails, Long emailTemplateId, List<String> userIds);
+
 	/* Method used to get access to the ToolAPI */
     public void setToolApi(ToolApi t);
 
@@ -750,6 +815,72 @@ public interface EvalEvaluationService {
 
     public void exportReport(EvalEvaluation evaluation, String[] groupIds, String evaluateeId, OutputStream outputStream, String exportType);
 
+    /**
+     * Handles the output for each group when exporting separate reports for a set of groups
+     * with {@link EvalEvaluationService#exportGroupPDFReports(EvalEvaluation, String[], GroupReportHandler)}
+     */
+    public static interface GroupReportHandler {
+        /**
+         * @param evalGroupId the eval group the next report is for
+         * @return the stream to write the report for this group into
+         * @throws IOException if the output cannot be opened (the group is skipped)
+         */
+        public OutputStream startGroupReport(String evalGroupId) throws IOException;
+
+        /**
+         * Called once the report for a group is written (or failed), always called after
+         * {@link #startGroupReport(String)} returns a stream (which may already be closed by the report writer)
+         * 
+         * @param evalGroupId the eval group the report is for
+         * @param outputStream the stream from {@link #startGroupReport(String)}
+         * @param complete true if the whole report was written, false if it failed part way through
+         * @throws IOException
+         */
+        public void endGroupReport(String evalGroupId, OutputStream outputStream, boolean complete) throws IOException;
+    }
+
+    /**
+     * Exports a separate PDF results report for each of the groups,
+     * the template layout is worked out once for the evaluation and then each group's results are rendered into it
+     * so this is much faster than calling {@link #exportReport(EvalEvaluation, String[], String, OutputStream, String)}
+     * for each group when there are lots of groups<br/>
+     * A failure for one group is logged and the rest of the groups are still exported
+     * 
+     * @param evaluation - Evaluation to generate reports for
+     * @param groupIds - Group ids to generate a report for each of, if this is null it uses getResultsViewableEvalGroupIdsForCurrentUser
+     * @param handler - provides the output for the report for each group
+     * @return the number of group reports which were completed
+     * @throws SecurityException if the current user cannot view the results for all the groups
+     */
+    public int exportGroupPDFReports(EvalEvaluation evaluation, String[] groupIds, GroupReportHandler handler);
+
+    /**
+     * Same as {@link #exportGroupPDFReports(EvalEvaluation, String[], GroupReportHandler)} but all the group reports
+     * are put into a single PDF document (each group starts on a new page with its own title page) with
+     * a bookmark for each group
+     * 
+     * @param evaluation - Evaluation to generate reports for
+     * @param groupIds - Group ids to generate a report for each of, if this is null it uses getResultsViewableEvalGroupIdsForCurrentUser
+     * @param outputStream - Output stream to write the combined report to
+     * @throws SecurityException if the current user cannot view the results for all the groups
+     */
+    public void exportGroupPDFReports(EvalEvaluation evaluation, String[] groupIds, OutputStream outputStream);
+
+    /**
+     * Exports the results reports for a set of groups in several formats at once,
+     * the template items are only loaded once and all the reports are written from a single pass over the responses
+     * so this is much faster than calling {@link #exportReport(EvalEvaluation, String[], String, OutputStream, String)}
+     * for each format<br/>
+     * A failure in one format is logged and the rest of the formats are still exported
+     * 
+     * @param evaluation - Evaluation to generate reports for
+     * @param groupIds - Group ids to include in the reports, if this is null it uses getResultsViewableEvalGroupIdsForCurrentUser
+     * @param outputStreams - map of report type (e.g. {@link #CSV_RESULTS_REPORT}) -> output stream to write that report to
+     * @return the report types which were completed
+     * @throws SecurityException if the current user cannot view the results for all the groups
+     */
+    public Set<String> exportReports(EvalEvaluation evaluation, String[] groupIds, Map<String, OutputStream> outputStreams);
+
 	
  	/**
  	 * Retrieve a list of evaluations with matching eval group Ids.
@@ -211,6 +211,21 @@ public interface EvalEvaluationSetupService {
      */
     public List<Long> synchronizeUserAssignments(Long evaluationId, String evalGroupId);
 
+    /**
+     * Synchronizes the user assignments for many evaluations at once (e.g. all the evaluations in a term),
+     * this skips the evaluation state checks like a forced synchronization does<br/>
+     * The membership of all the assigned groups is fetched up front (in bulk), compared against the
+     * existing user assignments in memory, and the changes are then written in batches, this is much
+     * faster than calling {@link #synchronizeUserAssignments(Long, String)} for each evaluation
+     * <br/> Always run as an admin for permissions handling
+     *
+     * @param evaluationIds the ids of {@link EvalEvaluation} objects
+     * @param removeAllowed if true then will remove assignments as well, otherwise only adds
+     * @return the number of {@link EvalAssignUser} which were created or deleted
+     * @throws IllegalArgumentException if the evaluationIds are null
+     */
+    public int synchronizeUserAssignmentsForEvaluations(Long[] evaluationIds, boolean removeAllowed);
+
 
     // ASSIGNMENTS - HIERARCHY
 
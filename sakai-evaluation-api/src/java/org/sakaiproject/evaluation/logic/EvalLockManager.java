@@ -49,4 +49,42 @@ public interface EvalLockManager {
      */
     public Boolean releaseLock(String lockId, String executerId);
 
+    /**
+     * Checks who is holding a lock without trying to obtain it,
+     * this is useful for checking if another server has already done (or is doing) some work
+     * 
+     * @param lockId the name of the lock to check
+     * @param timePeriod the length of time (in milliseconds) that the lock is valid for
+     * (the same time period that is used when obtaining the lock)
+     * @return the executer id of the holder of the lock OR null if the lock is not held or has expired
+     */
+    public String getLockHolder(String lockId, long timePeriod);
+
+    /**
+     * Obtains a lease on a lock which is kept alive by a heartbeat on this server until it is released
+     * (or this server shuts down), use this for long running jobs instead of obtaining the lock for
+     * the longest time the job might take, the lease is only held for the time period after the last
+     * heartbeat so a server which dies only blocks the lock for a short time<br/>
+     * The returned fencing token goes up every time the lock changes hands, use
+     * {@link #checkLease(String, String, long)} before doing work which must not be done twice
+     * 
+     * @param lockId the name of the lock which we are seeking
+     * @param executerId a unique id for the executer of this lock (normally a server id)
+     * @param timePeriod the length of time (in milliseconds) that the lease is valid for after each heartbeat
+     * @return the fencing token (always greater than 0) if the lease was obtained,
+     * 0 if another executer holds the lock, null if failure
+     */
+    public Long obtainLease(String lockId, String executerId, long timePeriod);
+
+    /**
+     * Checks that a lease is still held with the given fencing token,
+     * this will be false if the lease expired and another executer obtained the lock since then
+     * 
+     * @param lockId the name of the lock
+     * @param executerId a unique id for the executer of this lock (normally a server id)
+     * @param token the fencing token returned when the lease was obtained
+     * @return true if the lock is still held by this executer with the same token
+     */
+    public boolean checkLease(String lockId, String executerId, long token);
+
 }
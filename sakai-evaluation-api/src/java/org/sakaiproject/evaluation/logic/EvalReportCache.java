@@ -0,0 +1,80 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Caches the rendered report output (CSV, XLS, PDF) on the local disk so the same report
+ * for a closed evaluation does not have to be rebuilt every time someone downloads it<br/>
+ * The key includes a watermark of the responses (count and last modified) so a report is never served
+ * after the responses change, the cached reports for an evaluation are also dropped when responses are saved
+ */
+public interface EvalReportCache {
+
+    /**
+     * Make the key for a report, this includes the current responses watermark for the evaluation
+     *
+     * @param evaluationId the unique id of an evaluation
+     * @param evalGroupIds the eval groups in the report (order does not matter), null or empty for all groups
+     * @param viewerClass identifies what the viewer is allowed to see in the report (e.g. all items or only their own),
+     * viewers with the same class must get identical reports
+     * @param variant anything else which changes the report output (e.g. the report type and style)
+     * @return the report key OR null if the report for this evaluation should not be cached (e.g. it is still active)
+     */
+    public String makeReportKey(Long evaluationId, String[] evalGroupIds, String viewerClass, String... variant);
+
+    /**
+     * Write a cached report to the given stream
+     *
+     * @param reportKey a key from {@link #makeReportKey(Long, String[], String, String...)}
+     * @param outputStream the stream to write the report to
+     * @return true if the cached report was written, false if it is not cached (nothing was written)
+     */
+    public boolean copyReport(String reportKey, OutputStream outputStream);
+
+    /**
+     * Start caching a report as it is written,
+     * the report must be written to the returned stream and then {@link #endReport(OutputStream, boolean)} must be called
+     *
+     * @param reportKey a key from {@link #makeReportKey(Long, String[], String, String...)}
+     * @param evaluationId the unique id of the evaluation the report is for
+     * @param outputStream the stream the report is being written to
+     * @return a stream which writes to the given stream and to the cache
+     */
+    public OutputStream startReport(String reportKey, Long evaluationId, OutputStream outputStream);
+
+    /**
+     * Finish caching a report (normally in a finally block)
+     *
+     * @param reportStream the stream returned from {@link #startReport(String, Long, OutputStream)}
+     * @param complete true if the report was written completely and should be cached, false to discard it
+     */
+    public void endReport(OutputStream reportStream, boolean complete);
+
+    /**
+     * Remove all the cached reports for an evaluation
+     *
+     * @param evaluationId the unique id of an evaluation
+     */
+    public void invalidate(Long evaluationId);
+
+    /**
+     * @return the hit/miss counts and sizes for the cache (name -> value)
+     */
+    public Map<String, Long> getStats();
+
+}
@@ -14,7 +14,10 @@
  */
 package org.sakaiproject.evaluation.logic;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.utils.SettingsLogicUtils;
 
 /**
  * This allows access to and control of all system settings for the evaluation
@@ -32,6 +35,7 @@ import org.sakaiproject.evaluation.constant.EvalConstants;
  * Usage: The public static final variables should be used when doing gets or sets of values (use the ones marked CONSTANT).<br/>
  * Example:<br/>
  * String s = (String) evalSettings.get(EvaluationSettings.FROM_EMAIL_ADDRESS);<br/>
+ * Settings which are read often (e.g. in loops) should use a typed key instead, see {@link BooleanKey}<br/>
  * <br/>
  * <b>Note:</b> Meant to be used internally in the evaluation system app only
  * 
@@ -506,12 +510,25 @@ public interface EvalSettings {
 	 */
 	public static final String SYNC_SERVER = "SYNC_SERVER:java.lang.String";
 
+	/**
+	 * If true, the group membership sync is split into shards (ranges of evaluation ids) and every server which runs
+	 * the sync job claims shards through the eval locks and syncs them in parallel, SYNC_SERVER is ignored in this case.
+	 * Shards held by a server which fails are picked up by the other servers once the lock expires.  Default is false.
+	 */
+	public static final String SYNC_SHARDED = "SYNC_SHARDED:java.lang.Boolean";
+
 	/**
 	 * If this is set then the local CSS file identified at the given path will be loaded on all pages,
 	 * if not set or blank or null then this does nothing
 	 */
     public static final String LOCAL_CSS_PATH = "LOCAL_CSS_PATH:java.lang.String";
 
+    /**
+     * CONSTANT: If true then completed responses are validated and queued when they are submitted and
+     * then saved in batches in the background (see EvalDeliveryService#submitResponse) - {@link Boolean}, default False
+     */
+    public static final String ENABLE_QUEUED_RESPONSE_SUBMISSION = "ENABLE_QUEUED_RESPONSE_SUBMISSION:java.lang.Boolean";
+
 
     /**
      * This is here to identify all the boolean ONLY settings in the system,
@@ -553,6 +570,7 @@ public interface EvalSettings {
         ENABLE_PDF_REPORT_BANNER,
         ENABLE_PDF_REPORT_EXPORT,
         ENABLE_PROVIDER_SYNC,
+        ENABLE_QUEUED_RESPONSE_SUBMISSION,
         ENABLE_REMINDER_STATUS,
         ENABLE_SINGLE_EMAIL_PER_STUDENT,
         ENABLE_SITE_GROUP_PUBLISH_CHECK,
@@ -578,6 +596,7 @@ public interface EvalSettings {
         SYNC_USER_ASSIGNMENTS_ON_GROUP_UPDATE,
         SYNC_USER_ASSIGNMENTS_ON_STATE_CHANGE,
         SYNC_UNASSIGNED_GROUPS_ON_STARTUP,
+        SYNC_SHARDED,
         USE_ADMIN_AS_FROM_EMAIL,
         USE_EXPERT_ITEMS,
         USE_EXPERT_TEMPLATES,
@@ -622,6 +641,33 @@ public interface EvalSettings {
      */
     public Object get(String settingConstant);
 
+    /**
+     * Get the value of a boolean setting using a typed key, this is the same as {@link #get(String)}
+     * except that the value is already parsed and no cast is needed
+     * 
+     * @param key a typed key for a boolean setting constant
+     * @param defaultValue the value to use if the setting is not set (only possible for ternary settings)
+     * @return the value of the setting OR the default if it is not set
+     */
+    public boolean getBoolean(BooleanKey key, boolean defaultValue);
+
+    /**
+     * Get the value of an integer setting using a typed key
+     * 
+     * @param key a typed key for an integer setting constant
+     * @param defaultValue the value to use if the setting is not set
+     * @return the value of the setting OR the default if it is not set
+     */
+    public int getInt(IntKey key, int defaultValue);
+
+    /**
+     * Get the value of a string setting using a typed key
+     * 
+     * @param key a typed key for a string setting constant
+     * @return the value of the setting OR null if it is not set
+     */
+    public String getString(StringKey key);
+
     /**
      * Allows for setting the value of a system setting based on the constant<br/>
      * <b>Note:</b> Setting a value to null will remove it and effectively set it to unspecified<br/>
@@ -645,4 +691,78 @@ public interface EvalSettings {
      */
     public void resetCache(String settingConstant);
 
+    /**
+     * A typed handle for a setting constant, the constant is checked and split up when the key is created
+     * so it does not have to be parsed every time the setting is read<br/>
+     * Keys should be created once and kept in static final fields<br/>
+     * Example:<br/>
+     * private static final EvalSettings.BooleanKey USE_DATE_TIME = new EvalSettings.BooleanKey(EvalSettings.EVAL_USE_DATE_TIME);<br/>
+     * boolean b = evalSettings.getBoolean(USE_DATE_TIME, false);
+     */
+    public static abstract class SettingKey {
+
+        private static final AtomicInteger KEY_COUNT = new AtomicInteger();
+
+        /**
+         * the setting constant for this key (from {@link EvalSettings})
+         */
+        public final String constant;
+        /**
+         * the setting name (the constant without the type)
+         */
+        public final String name;
+        /**
+         * unique index for this key, can be used by implementations to store values in an array
+         */
+        public final int index;
+
+        protected SettingKey(String constant, String type) {
+            this.name = SettingsLogicUtils.getName(constant);
+            if (! type.equals(SettingsLogicUtils.getType(constant))) {
+                throw new IllegalArgumentException("Setting constant (" + constant + ") is not of type " + type);
+            }
+            this.constant = constant;
+            this.index = KEY_COUNT.getAndIncrement();
+        }
+
+        /**
+         * @return the number of keys which have been created so far
+         */
+        public static int getKeyCount() {
+            return KEY_COUNT.get();
+        }
+
+        @Override
+        public String toString() {
+            return constant;
+        }
+    }
+
+    /**
+     * Typed key for a java.lang.Boolean setting constant
+     */
+    public static final class BooleanKey extends SettingKey {
+        public BooleanKey(String constant) {
+            super(constant, Boolean.class.getName());
+        }
+    }
+
+    /**
+     * Typed key for a java.lang.Integer setting constant
+     */
+    public static final class IntKey extends SettingKey {
+        public IntKey(String constant) {
+            super(constant, Integer.class.getName());
+        }
+    }
+
+    /**
+     * Typed key for a java.lang.String setting constant
+     */
+    public static final class StringKey extends SettingKey {
+        public StringKey(String constant) {
+            super(constant, SettingsLogicUtils.DEFAULT_TYPE);
+        }
+    }
+
 }
@@ -15,6 +15,7 @@
 package org.sakaiproject.evaluation.logic.externals;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.sakaiproject.evaluation.constant.EvalConstants;
@@ -73,6 +74,19 @@ public interface ExternalEvalGroups {
 	 */
 	public Set<String> getUserIdsForEvalGroup(String evalGroupId, String permission, Boolean sectionAware);
 
+	/**
+	 * Get the user ids for a set of evalGroupIds and permissions at once, this is the bulk version of
+	 * {@link #getUserIdsForEvalGroup(String, String, Boolean)} and should be used when the membership
+	 * of many groups is needed (e.g. when synchronizing all the evaluations in a term)
+	 *
+	 * @param evalGroupIds the internal unique IDs for the evalGroups
+	 * @param permissions the permission string constants
+	 * @param sectionAware if returning users for one section of a site/group or all sections
+	 * @return a map of permission -> (evalGroupId -> Set of user ids), every requested permission and
+	 * evalGroupId will be in the map (the set of user ids is empty if no users have that permission)
+	 */
+	public Map<String, Map<String, Set<String>>> getUserIdsForEvalGroups(String[] evalGroupIds, String[] permissions, Boolean sectionAware);
+
 	/**
 	 * Get a count of all user ids that have a specific permission in a evalGroupId
 	 * 
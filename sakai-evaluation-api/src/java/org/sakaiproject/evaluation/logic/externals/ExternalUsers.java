@@ -16,6 +16,7 @@ package org.sakaiproject.evaluation.logic.externals;
 
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import org.sakaiproject.evaluation.logic.EvalCommonLogic;
 import org.sakaiproject.evaluation.logic.model.EvalUser;
@@ -80,6 +81,14 @@ public interface ExternalUsers {
      */
     public Locale getUserLocale(String userId);
 
+    /**
+     * Get the locales for a set of users in one call
+     * 
+     * @param userIds the internal user ids (not usernames)
+     * @return a map of userId -> Locale (based on their preferences) for all the userIds
+     */
+    public Map<String, Locale> getUserLocales(String[] userIds);
+
 	/**
 	 * Get the URL to go to a the evaluation tool in a user's MyWorkspace.
 	 * 
@@ -88,4 +97,12 @@ public interface ExternalUsers {
 	 */
 	public String getMyWorkspaceDashboard(String userId);
 
+	/**
+	 * Get the URLs to go to the evaluation tool in the MyWorkspace of a set of users in one call
+	 * 
+	 * @param userIds the internal user ids (not usernames)
+	 * @return a map of userId -> URL for all the userIds (the server URL if the user has no evaluation tool page)
+	 */
+	public Map<String, String> getMyWorkspaceDashboards(String[] userIds);
+
 }
@@ -28,6 +28,18 @@ public class EvalEmailProcessingData implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * processingStatus for a record whose email has been delivered, 
+     * records which are still waiting to be sent have no status
+     */
+    public static final Byte STATUS_SENT = 1;
+
+    /**
+     * processingStatus for the records which are being marked as sent right now,
+     * the evalAssignUser records are updated for these in one statement and then they become {@link #STATUS_SENT}
+     */
+    public static final Byte STATUS_MARKING = 2;
+
     protected Long id;
 	protected Long eauId;
 	protected String userId;
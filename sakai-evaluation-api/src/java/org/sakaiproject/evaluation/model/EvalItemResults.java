@@ -0,0 +1,385 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.model;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.utils.EvalUtils;
+import org.sakaiproject.evaluation.utils.TemplateItemUtils;
+
+/**
+ * Holds the pre-aggregated results (counts) for a single template item and associate
+ * (e.g. instructor) in a single evaluation group, these are maintained as responses are submitted
+ * so the summary reports do not have to go through all the answers<br/>
+ * There is also one special row per evaluation group (no template item, see {@link #RESPONSES_KEY})
+ * which holds the number of completed responses that have been added to the results for that group
+ * and marks the results for the group as stale when they were started after the group already had responses
+ * (see {@link #getStale()}), stale results have to be rebuilt before they can be used<br/>
+ * <b>NOTE:</b> The counts are stored as signed deltas are applied to them so they can be added together
+ * (see {@link #add(EvalItemResults)}) to get the results for several groups
+ */
+public class EvalItemResults implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The key for the special row which holds the number of completed responses for the group
+     */
+    public static final String RESPONSES_KEY = "responses";
+
+    // Fields
+
+    private Long id;
+
+    private Date lastModified;
+
+    private Long evaluationId;
+
+    private String evalGroupId;
+
+    /**
+     * The template item these results are for, null for the responses row
+     */
+    private Long templateItemId;
+
+    /**
+     * The type of the thing associated with these results (e.g. instructor), null for course items
+     */
+    private String associatedType;
+
+    /**
+     * The id of the thing associated with these results, null for course items
+     */
+    private String associatedId;
+
+    /**
+     * The number of answers (including N/A), or the number of completed responses for the responses row
+     */
+    private Integer responsesCount;
+
+    /**
+     * The number of answers which were set to N/A
+     */
+    private Integer naCount;
+
+    /**
+     * The number of numeric answers (not N/A or blank) which are included in the sums
+     */
+    private Integer numericCount;
+
+    private Long numericSum;
+
+    private Long numericSumSquares;
+
+    /**
+     * The encoded choice histogram, like so: 0=3,2=5 (choice=count),
+     * numeric answers and the decoded multiple answers both count against the choice
+     */
+    private String choiceCounts;
+
+    /**
+     * Non-persistent decoded version of the {@link #choiceCounts}
+     */
+    private transient Map<Integer, Integer> choices;
+
+    /**
+     * Only used on the responses row, true if the results for the group do not include all the
+     * completed responses (some were saved before the results were kept), cleared when the results are rebuilt
+     */
+    private Boolean stale;
+
+    // Constructors
+
+    /** default constructor */
+    public EvalItemResults() {
+    }
+
+    /**
+     * minimal constructor, creates empty results
+     *
+     * @param evaluationId
+     * @param evalGroupId
+     * @param templateItemId the template item OR null for the responses row
+     * @param associatedType
+     * @param associatedId
+     */
+    public EvalItemResults(Long evaluationId, String evalGroupId, Long templateItemId, String associatedType, String associatedId) {
+        this.lastModified = new Date();
+        this.evaluationId = evaluationId;
+        this.evalGroupId = evalGroupId;
+        this.templateItemId = templateItemId;
+        if (! EvalConstants.ITEM_CATEGORY_COURSE.equals(associatedType)) {
+            this.associatedType = associatedType;
+            this.associatedId = associatedId;
+        }
+        this.responsesCount = 0;
+        this.naCount = 0;
+        this.numericCount = 0;
+        this.numericSum = 0l;
+        this.numericSumSquares = 0l;
+        this.stale = false;
+    }
+
+    // Aggregation methods
+
+    /**
+     * @return the key for these results, this matches the template item answer key
+     * (see {@link TemplateItemUtils#makeTemplateItemAnswerKey(Long, String, String)})
+     * OR it is {@link #RESPONSES_KEY} for the responses row
+     */
+    public String getKey() {
+        if (templateItemId == null) {
+            return RESPONSES_KEY;
+        }
+        return TemplateItemUtils.makeTemplateItemAnswerKey(templateItemId, associatedType, associatedId);
+    }
+
+    /**
+     * Adds the values from a single answer to these results
+     *
+     * @param numeric the numeric value of the answer (may be {@link EvalConstants#NA_VALUE} or {@link EvalConstants#NO_NUMERIC_ANSWER})
+     * @param multiAnswerCode the encoded multiple answers (may be {@link EvalConstants#NO_MULTIPLE_ANSWER} or null)
+     * @param sign 1 to add the answer OR -1 to remove an answer which was added before
+     * (other values add or remove the same answer that many times)
+     */
+    public void addAnswer(Integer numeric, String multiAnswerCode, int sign) {
+        responsesCount += sign;
+        if (EvalConstants.NA_VALUE.equals(numeric)) {
+            naCount += sign;
+            return;
+        }
+        if (numeric != null && ! EvalConstants.NO_NUMERIC_ANSWER.equals(numeric)) {
+            incrementChoice(numeric, sign);
+            if (numeric >= 0) {
+                numericCount += sign;
+                numericSum += sign * (long) numeric;
+                numericSumSquares += sign * (long) numeric * numeric;
+            }
+        }
+        if (multiAnswerCode != null && ! EvalConstants.NO_MULTIPLE_ANSWER.equals(multiAnswerCode)) {
+            for (Integer choice : EvalUtils.decodeMultipleAnswers(multiAnswerCode)) {
+                incrementChoice(choice, sign);
+            }
+        }
+    }
+
+    /**
+     * Adds all the counts from other results to these results (e.g. to combine the results for several groups)
+     *
+     * @param other the results to add, the key should match
+     */
+    public void add(EvalItemResults other) {
+        responsesCount += other.responsesCount;
+        naCount += other.naCount;
+        numericCount += other.numericCount;
+        numericSum += other.numericSum;
+        numericSumSquares += other.numericSumSquares;
+        for (Entry<Integer, Integer> entry : other.getChoices().entrySet()) {
+            incrementChoice(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return true if there is nothing counted in these results
+     */
+    public boolean isEmpty() {
+        return responsesCount == 0 && naCount == 0 && numericCount == 0
+                && numericSum == 0 && numericSumSquares == 0 && getChoices().isEmpty();
+    }
+
+    /**
+     * Get the answer counts for each choice in the same form as
+     * {@link org.sakaiproject.evaluation.utils.TemplateItemDataList#getAnswerChoicesCounts(String, int, java.util.List)},
+     * any N/A answers and answers which are out of range are counted in the extra last slot
+     *
+     * @param scaleChoices the number of scale choices (normally this is the array length of the scale options)
+     * @return an array of the counts for each choice with one more element than the scaleChoices for the N/A count
+     */
+    public int[] getAnswerChoicesCounts(int scaleChoices) {
+        int[] togo = new int[scaleChoices+1];
+        int na = togo.length - 1;
+        togo[na] += naCount;
+        for (Entry<Integer, Integer> entry : getChoices().entrySet()) {
+            int choice = entry.getKey();
+            togo[choice >= 0 && choice < na ? choice : na] += entry.getValue();
+        }
+        return togo;
+    }
+
+    /**
+     * @return the mean of the numeric answers OR null if there are none
+     */
+    public Double getNumericMean() {
+        if (numericCount <= 0) {
+            return null;
+        }
+        return (double) numericSum / numericCount;
+    }
+
+    private void incrementChoice(Integer choice, int amount) {
+        Map<Integer, Integer> counts = getChoices();
+        Integer count = counts.get(choice);
+        int total = (count == null ? 0 : count) + amount;
+        if (total == 0) {
+            counts.remove(choice);
+        } else {
+            counts.put(choice, total);
+        }
+    }
+
+    private Map<Integer, Integer> getChoices() {
+        if (choices == null) {
+            choices = new TreeMap<>();
+            if (choiceCounts != null && ! "".equals(choiceCounts)) {
+                for (String pair : choiceCounts.split(",")) {
+                    int split = pair.indexOf('=');
+                    choices.put(Integer.valueOf(pair.substring(0, split)), Integer.valueOf(pair.substring(split + 1)));
+                }
+            }
+        }
+        return choices;
+    }
+
+    // Property accessors
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public Long getEvaluationId() {
+        return evaluationId;
+    }
+
+    public void setEvaluationId(Long evaluationId) {
+        this.evaluationId = evaluationId;
+    }
+
+    public String getEvalGroupId() {
+        return evalGroupId;
+    }
+
+    public void setEvalGroupId(String evalGroupId) {
+        this.evalGroupId = evalGroupId;
+    }
+
+    public Long getTemplateItemId() {
+        return templateItemId;
+    }
+
+    public void setTemplateItemId(Long templateItemId) {
+        this.templateItemId = templateItemId;
+    }
+
+    public String getAssociatedType() {
+        return associatedType;
+    }
+
+    public void setAssociatedType(String associatedType) {
+        this.associatedType = associatedType;
+    }
+
+    public String getAssociatedId() {
+        return associatedId;
+    }
+
+    public void setAssociatedId(String associatedId) {
+        this.associatedId = associatedId;
+    }
+
+    public Integer getResponsesCount() {
+        return responsesCount;
+    }
+
+    public void setResponsesCount(Integer responsesCount) {
+        this.responsesCount = responsesCount;
+    }
+
+    public Integer getNaCount() {
+        return naCount;
+    }
+
+    public void setNaCount(Integer naCount) {
+        this.naCount = naCount;
+    }
+
+    public Integer getNumericCount() {
+        return numericCount;
+    }
+
+    public void setNumericCount(Integer numericCount) {
+        this.numericCount = numericCount;
+    }
+
+    public Long getNumericSum() {
+        return numericSum;
+    }
+
+    public void setNumericSum(Long numericSum) {
+        this.numericSum = numericSum;
+    }
+
+    public Long getNumericSumSquares() {
+        return numericSumSquares;
+    }
+
+    public void setNumericSumSquares(Long numericSumSquares) {
+        this.numericSumSquares = numericSumSquares;
+    }
+
+    public String getChoiceCounts() {
+        if (choices != null) {
+            // encode the current counts
+            StringBuilder sb = new StringBuilder();
+            for (Entry<Integer, Integer> entry : choices.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(entry.getKey()).append('=').append(entry.getValue());
+            }
+            choiceCounts = sb.toString();
+        }
+        return choiceCounts;
+    }
+
+    public void setChoiceCounts(String choiceCounts) {
+        this.choiceCounts = choiceCounts;
+        this.choices = null;
+    }
+
+    public Boolean getStale() {
+        return stale;
+    }
+
+    public void setStale(Boolean stale) {
+        this.stale = stale;
+    }
+
+}
@@ -38,6 +38,11 @@ public class EvalLock implements java.io.Serializable {
 	 */
 	private String holder;
 
+	/**
+	 * The fencing token for the current holder, this goes up every time the lock changes hands
+	 */
+	private Long token;
+
 	// Constructors
 
 	/** default constructor */
@@ -51,6 +56,7 @@ public class EvalLock implements java.io.Serializable {
 		this.lastModified = new Date();
 		this.name = name;
 		this.holder = holder;
+		this.token = 1l;
 	}
 
 	// Property accessors
@@ -86,5 +92,13 @@ public class EvalLock implements java.io.Serializable {
       this.holder = holder;
    }
 
+   public Long getToken() {
+      return token;
+   }
+
+   public void setToken(Long token) {
+      this.token = token;
+   }
+
 
 }
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.model;
+
+import java.util.Date;
+
+import org.sakaiproject.evaluation.constant.EvalConstants;
+
+/**
+ * A response which was submitted to be saved in the background (queued response submission),
+ * this is written in the same transaction which accepts the response so an accepted response is never lost
+ * (even if the server goes down before it is saved) and it holds the status of the submission so it can be
+ * checked from any server<br/>
+ * The payload holds the encoded response and answers, it is only needed when the response has to be
+ * saved by a server other than the one which accepted it
+ */
+public class EvalResponseSubmission implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Fields
+
+    private Long id;
+
+    private Date lastModified;
+
+    /**
+     * The unique id which is given to the user who submitted the response
+     */
+    private String submissionId;
+
+    /**
+     * The internal user id of the user who submitted the response
+     */
+    private String owner;
+
+    private Long evaluationId;
+
+    private String evalGroupId;
+
+    /**
+     * The id of the response if it was saved before it was submitted, null for a new response
+     */
+    private Long responseId;
+
+    /**
+     * One of the EvalConstants.RESPONSE_SUBMISSION_* constants (never UNKNOWN)
+     */
+    private String status;
+
+    /**
+     * The encoded response and answers, cleared once the response is saved
+     */
+    private String payload;
+
+    // Constructors
+
+    /** default constructor */
+    public EvalResponseSubmission() {
+    }
+
+    /**
+     * full constructor, creates a queued submission
+     *
+     * @param submissionId
+     * @param owner
+     * @param evaluationId
+     * @param evalGroupId
+     * @param responseId
+     * @param payload
+     */
+    public EvalResponseSubmission(String submissionId, String owner, Long evaluationId, String evalGroupId,
+            Long responseId, String payload) {
+        this.lastModified = new Date();
+        this.submissionId = submissionId;
+        this.owner = owner;
+        this.evaluationId = evaluationId;
+        this.evalGroupId = evalGroupId;
+        this.responseId = responseId;
+        this.status = EvalConstants.RESPONSE_SUBMISSION_QUEUED;
+        this.payload = payload;
+    }
+
+    // Property accessors
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public String getSubmissionId() {
+        return submissionId;
+    }
+
+    public void setSubmissionId(String submissionId) {
+        this.submissionId = submissionId;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public Long getEvaluationId() {
+        return evaluationId;
+    }
+
+    public void setEvaluationId(Long evaluationId) {
+        this.evaluationId = evaluationId;
+    }
+
+    public String getEvalGroupId() {
+        return evalGroupId;
+    }
+
+    public void setEvalGroupId(String evalGroupId) {
+        this.evalGroupId = evalGroupId;
+    }
+
+    public Long getResponseId() {
+        return responseId;
+    }
+
+    public void setResponseId(Long responseId) {
+        this.responseId = responseId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+}
@@ -16,7 +16,10 @@
 package org.sakaiproject.evaluation.toolaccess;
 
 import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
 
+import org.sakaiproject.evaluation.logic.EvalEvaluationService.GroupReportHandler;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 
 public interface EvaluationAccessAPI {
@@ -24,4 +27,7 @@ public interface EvaluationAccessAPI {
 	public void setToolApi (ToolApi t);
 	public void exportReport(EvalEvaluation evaluation, String groupIds, OutputStream outputStream, String exportType);
 	public void exportReport(EvalEvaluation evaluation, String[] groupIds, String evaluateeId,OutputStream outputStream, String exportType);
+	public int exportGroupPDFReports(EvalEvaluation evaluation, String[] groupIds, GroupReportHandler handler);
+	public void exportGroupPDFReports(EvalEvaluation evaluation, String[] groupIds, OutputStream outputStream);
+	public Set<String> exportReports(EvalEvaluation evaluation, String[] groupIds, Map<String, OutputStream> outputStreams);
 }
\ No newline at end of file
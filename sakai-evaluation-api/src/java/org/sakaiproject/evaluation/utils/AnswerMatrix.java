@@ -0,0 +1,485 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.dao.ResponseAnswersHandler;
+import org.sakaiproject.evaluation.logic.EvalDeliveryService;
+import org.sakaiproject.evaluation.model.EvalAnswer;
+
+/**
+ * A compact column store for the answers to an evaluation which can be used for aggregating the results
+ * without keeping the {@link EvalAnswer} entities around<br/>
+ * There is one column per template item answer key (from {@link TemplateItemUtils#makeTemplateItemAnswerKey(Long, String, String)}
+ * which is the same as {@link TemplateItemDataList.DataTemplateItem#getKey()}) and one row per response,
+ * each column only holds the responses which answered it: the numeric answers are held in int arrays,
+ * the multiple answers as bitsets and the text answers and comments as indexes into a shared string pool<br/>
+ * This can be filled from a list of answers or passed straight to
+ * {@link EvalDeliveryService#streamAnswersForEval(Long, String[], Long[], ResponseAnswersHandler)}
+ * so the answers never have to be loaded all at once<br/>
+ * <b>NOTE:</b> This is not thread safe while it is being filled
+ */
+public class AnswerMatrix implements ResponseAnswersHandler {
+
+    private static final byte FLAG_NA = 1;
+    private static final byte FLAG_NUMERIC = 2;
+    private static final byte FLAG_MULTIPLE = 4;
+    private static final int NO_STRING = -1;
+
+    /**
+     * All the answers for one template item answer key, entries are in the order they were added
+     */
+    private static class Column {
+        int size = 0;
+        int[] responses = new int[16];
+        byte[] flags = new byte[16];
+        int[] numerics = new int[16];
+        int[] texts = new int[16];
+        int[] comments = new int[16];
+        /** the multiple answers bitsets, multipleWords longs per entry, null until there is a multiple answer */
+        long[] multiples = null;
+        int multipleWords = 0;
+        /** decoded multiple answers which cannot go in a bitset (negative) */
+        int invalidMultiples = 0;
+        /** entry indexes sorted by response index, null until needed */
+        int[] byResponse = null;
+
+        int add(int response) {
+            if (size == responses.length) {
+                int capacity = size * 2;
+                responses = Arrays.copyOf(responses, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+                numerics = Arrays.copyOf(numerics, capacity);
+                texts = Arrays.copyOf(texts, capacity);
+                comments = Arrays.copyOf(comments, capacity);
+                if (multiples != null) {
+                    multiples = Arrays.copyOf(multiples, capacity * multipleWords);
+                }
+            }
+            responses[size] = response;
+            byResponse = null;
+            return size++;
+        }
+
+        void setMultiple(int entry, int choice) {
+            int word = choice >>> 6;
+            if (word >= multipleWords) {
+                // widen the bitsets (only happens for scales with more than 64 choices)
+                int words = word + 1;
+                long[] widened = new long[responses.length * words];
+                if (multiples != null) {
+                    for (int i = 0; i < size; i++) {
+                        System.arraycopy(multiples, i * multipleWords, widened, i * words, multipleWords);
+                    }
+                }
+                multiples = widened;
+                multipleWords = words;
+            }
+            multiples[entry * multipleWords + word] |= 1L << (choice & 63);
+        }
+
+        int find(int response) {
+            if (byResponse == null) {
+                long[] sorted = new long[size];
+                for (int i = 0; i < size; i++) {
+                    sorted[i] = ((long) responses[i] << 32) | i;
+                }
+                Arrays.sort(sorted);
+                byResponse = new int[size];
+                for (int i = 0; i < size; i++) {
+                    byResponse[i] = (int) sorted[i];
+                }
+            }
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int r = responses[byResponse[mid]];
+                if (r < response) {
+                    low = mid + 1;
+                } else if (r > response) {
+                    high = mid - 1;
+                } else {
+                    return byResponse[mid];
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final Map<String, Column> columns = new HashMap<>();
+    private final Map<Long, Integer> responseIndexes = new HashMap<>();
+    private long[] responseIds = new long[64];
+    private int responsesCount = 0;
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+    /**
+     * Create an empty matrix, add answers with {@link #addAnswer(Long, EvalAnswer)}
+     * or by passing this to the delivery service as an answers handler
+     */
+    public AnswerMatrix() {
+    }
+
+    /**
+     * Create a matrix from a list of answers
+     * @param answers a list of {@link EvalAnswer} (must be connected to their responses)
+     */
+    public AnswerMatrix(List<EvalAnswer> answers) {
+        if (answers != null) {
+            for (EvalAnswer answer : answers) {
+                addAnswer(answer.getResponse().getId(), answer);
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.ResponseAnswersHandler#handleResponseAnswers(java.lang.Long, java.lang.String, java.util.List)
+     */
+    public void handleResponseAnswers(Long responseId, String evalGroupId, List<EvalAnswer> answers) {
+        for (EvalAnswer answer : answers) {
+            addAnswer(responseId, answer);
+        }
+    }
+
+    /**
+     * Add an answer to the matrix, only the values are kept (not the answer)
+     *
+     * @param responseId the id of the response this answer belongs to
+     * @param answer an {@link EvalAnswer}
+     */
+    public void addAnswer(Long responseId, EvalAnswer answer) {
+        if (responseId == null || answer == null) {
+            throw new IllegalArgumentException("responseId and answer must be set");
+        }
+        String key = TemplateItemUtils.makeTemplateItemAnswerKey(answer.getTemplateItem().getId(),
+                answer.getAssociatedType(), answer.getAssociatedId());
+        Column column = columns.get(key);
+        if (column == null) {
+            column = new Column();
+            columns.put(key, column);
+        }
+        int entry = column.add(getResponseIndex(responseId));
+
+        byte flags = 0;
+        if (EvalConstants.NA_VALUE.equals(answer.getNumeric())) {
+            flags |= FLAG_NA;
+        }
+        if (answer.getNumeric() != null && ! EvalConstants.NO_NUMERIC_ANSWER.equals(answer.getNumeric())) {
+            flags |= FLAG_NUMERIC;
+            column.numerics[entry] = answer.getNumeric();
+        }
+        if (answer.getMultiAnswerCode() != null && ! EvalConstants.NO_MULTIPLE_ANSWER.equals(answer.getMultiAnswerCode())) {
+            flags |= FLAG_MULTIPLE;
+            for (Integer choice : EvalUtils.decodeMultipleAnswers(answer.getMultiAnswerCode())) {
+                if (choice < 0) {
+                    column.invalidMultiples++;
+                } else {
+                    column.setMultiple(entry, choice);
+                }
+            }
+        }
+        column.flags[entry] = flags;
+        column.texts[entry] = pool(answer.getText());
+        column.comments[entry] = pool(answer.getComment());
+    }
+
+    private int getResponseIndex(Long responseId) {
+        Integer index = responseIndexes.get(responseId);
+        if (index == null) {
+            if (responsesCount == responseIds.length) {
+                responseIds = Arrays.copyOf(responseIds, responsesCount * 2);
+            }
+            index = responsesCount;
+            responseIds[responsesCount++] = responseId;
+            responseIndexes.put(responseId, index);
+        }
+        return index;
+    }
+
+    private int pool(String value) {
+        if (value == null) {
+            return NO_STRING;
+        }
+        Integer index = stringIndexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value);
+            stringIndexes.put(value, index);
+        }
+        return index;
+    }
+
+    // PUBLIC aggregation methods
+
+    /**
+     * @return the number of responses with answers in this matrix
+     */
+    public int getResponsesCount() {
+        return responsesCount;
+    }
+
+    /**
+     * @return the sorted list of all response ids with answers in this matrix
+     */
+    public List<Long> getResponseIds() {
+        long[] sorted = Arrays.copyOf(responseIds, responsesCount);
+        Arrays.sort(sorted);
+        List<Long> ids = new ArrayList<>(sorted.length);
+        for (long id : sorted) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * @param key a template item answer key (e.g. {@link TemplateItemDataList.DataTemplateItem#getKey()})
+     * @return the number of answers for this key
+     */
+    public int countAnswers(String key) {
+        Column column = columns.get(key);
+        return column == null ? 0 : column.size;
+    }
+
+    /**
+     * @param key a template item answer key (e.g. {@link TemplateItemDataList.DataTemplateItem#getKey()})
+     * @return the number of NA answers for this key
+     */
+    public int countNA(String key) {
+        int count = 0;
+        Column column = columns.get(key);
+        if (column != null) {
+            for (int i = 0; i < column.size; i++) {
+                if ((column.flags[i] & FLAG_NA) != 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Same as {@link TemplateItemDataList#getAnswerChoicesCounts(String, int, List)} but uses the answers in this matrix
+     *
+     * @param key a template item answer key (e.g. {@link TemplateItemDataList.DataTemplateItem#getKey()})
+     * @param templateItemType the template item type from {@link TemplateItemUtils#getTemplateItemType(org.sakaiproject.evaluation.model.EvalTemplateItem)}
+     * @param scaleChoices the number of scale choices
+     * @return an integer array which is the same size as the number of choices + 1 (for NA)
+     * @throws IllegalArgumentException if this is not an itemType that has numeric answers (Scaled/MC/MA/...)
+     */
+    public int[] getAnswerChoicesCounts(String key, String templateItemType, int scaleChoices) {
+        checkChoicesItemType(templateItemType);
+        int[] togo = new int[scaleChoices+1];
+        int na = togo.length - 1;
+        Column column = columns.get(key);
+        if (column == null) {
+            return togo;
+        }
+        boolean multipleAnswer = EvalConstants.ITEM_TYPE_MULTIPLEANSWER.equals(templateItemType);
+        for (int i = 0; i < column.size; i++) {
+            byte flags = column.flags[i];
+            if ((flags & FLAG_NA) != 0) {
+                togo[na]++;
+            } else if (multipleAnswer) {
+                if ((flags & FLAG_MULTIPLE) != 0) {
+                    int offset = i * column.multipleWords;
+                    for (int w = 0; w < column.multipleWords; w++) {
+                        long bits = column.multiples[offset + w];
+                        while (bits != 0) {
+                            int choice = (w << 6) + Long.numberOfTrailingZeros(bits);
+                            togo[choice < na ? choice : na]++;
+                            bits &= bits - 1;
+                        }
+                    }
+                }
+            } else if ((flags & FLAG_NUMERIC) != 0) {
+                int value = column.numerics[i];
+                togo[value >= 0 && value < na ? value : na]++;
+            }
+        }
+        if (multipleAnswer) {
+            togo[na] += column.invalidMultiples;
+        }
+        return togo;
+    }
+
+    /**
+     * Make sure the item type is one which has choice counts
+     *
+     * @param templateItemType the template item type
+     * @throws IllegalArgumentException if this is not an itemType that has numeric answers (Scaled/MC/MA/...)
+     */
+    public static void checkChoicesItemType(String templateItemType) {
+        if (! EvalConstants.ITEM_TYPE_SCALED.equals(templateItemType)
+                && ! EvalConstants.ITEM_TYPE_MULTIPLEANSWER.equals(templateItemType)
+                && ! EvalConstants.ITEM_TYPE_MULTIPLECHOICE.equals(templateItemType)
+                && ! EvalConstants.ITEM_TYPE_BLOCK_CHILD.equals(templateItemType) ) {
+            throw new IllegalArgumentException("The itemType needs to be one that has numeric answers, this one is invalid: " + templateItemType);
+        }
+    }
+
+    /**
+     * @param key a template item answer key (e.g. {@link TemplateItemDataList.DataTemplateItem#getKey()})
+     * @return the list of all text answers for this key (in the order they were added), may include nulls
+     */
+    public List<String> getTextAnswers(String key) {
+        return getStrings(key, false, false);
+    }
+
+    /**
+     * @param key a template item answer key (e.g. {@link TemplateItemDataList.DataTemplateItem#getKey()})
+     * @param includeNA if true then NA answers are included, otherwise they are skipped
+     * @return the list of all non-blank text answers for this key (in the order they were added)
+     */
+    public List<String> getNonBlankTextAnswers(String key, boolean includeNA) {
+        return getStrings(key, false, ! includeNA);
+    }
+
+    /**
+     * @param key a template item answer key (e.g. {@link TemplateItemDataList.DataTemplateItem#getKey()})
+     * @return the list of all non-blank comments for this key (in the order they were added)
+     */
+    public List<String> getComments(String key) {
+        return getStrings(key, true, false);
+    }
+
+    private List<String> getStrings(String key, boolean comments, boolean skipNA) {
+        Column column = columns.get(key);
+        if (column == null) {
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<>();
+        int[] indexes = comments ? column.comments : column.texts;
+        boolean nonBlank = comments || skipNA;
+        for (int i = 0; i < column.size; i++) {
+            if (skipNA && (column.flags[i] & FLAG_NA) != 0) {
+                continue;
+            }
+            String value = indexes[i] == NO_STRING ? null : strings.get(indexes[i]);
+            if (! nonBlank || ! EvalUtils.isBlank(value)) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    // PUBLIC per response methods
+
+    /**
+     * @param key a template item answer key (e.g. {@link TemplateItemDataList.DataTemplateItem#getKey()})
+     * @param responseId the id of a response
+     * @return true if the response has an answer for this key
+     */
+    public boolean hasAnswer(String key, Long responseId) {
+        return findEntry(key, responseId) >= 0;
+    }
+
+    /**
+     * @param key a template item answer key
+     * @param responseId the id of a response
+     * @return true if the answer for this key and response is NA
+     */
+    public boolean isNA(String key, Long responseId) {
+        int entry = findEntry(key, responseId);
+        return entry >= 0 && (columns.get(key).flags[entry] & FLAG_NA) != 0;
+    }
+
+    /**
+     * @param key a template item answer key
+     * @param responseId the id of a response
+     * @return the numeric answer for this key and response OR null if there is none
+     */
+    public Integer getNumeric(String key, Long responseId) {
+        int entry = findEntry(key, responseId);
+        if (entry >= 0) {
+            Column column = columns.get(key);
+            if ((column.flags[entry] & FLAG_NUMERIC) != 0) {
+                return column.numerics[entry];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param key a template item answer key
+     * @param responseId the id of a response
+     * @return the sorted multiple answers for this key and response (empty if there are none)
+     */
+    public int[] getMultipleAnswers(String key, Long responseId) {
+        int entry = findEntry(key, responseId);
+        if (entry >= 0) {
+            Column column = columns.get(key);
+            if ((column.flags[entry] & FLAG_MULTIPLE) != 0) {
+                int count = 0;
+                int offset = entry * column.multipleWords;
+                for (int w = 0; w < column.multipleWords; w++) {
+                    count += Long.bitCount(column.multiples[offset + w]);
+                }
+                int[] choices = new int[count];
+                int c = 0;
+                for (int w = 0; w < column.multipleWords; w++) {
+                    long bits = column.multiples[offset + w];
+                    while (bits != 0) {
+                        choices[c++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                    }
+                }
+                return choices;
+            }
+        }
+        return new int[0];
+    }
+
+    /**
+     * @param key a template item answer key
+     * @param responseId the id of a response
+     * @return the text answer for this key and response OR null if there is none
+     */
+    public String getText(String key, Long responseId) {
+        int entry = findEntry(key, responseId);
+        return entry < 0 ? null : getString(columns.get(key).texts[entry]);
+    }
+
+    /**
+     * @param key a template item answer key
+     * @param responseId the id of a response
+     * @return the comment for this key and response OR null if there is none
+     */
+    public String getComment(String key, Long responseId) {
+        int entry = findEntry(key, responseId);
+        return entry < 0 ? null : getString(columns.get(key).comments[entry]);
+    }
+
+    private String getString(int index) {
+        return index == NO_STRING ? null : strings.get(index);
+    }
+
+    private int findEntry(String key, Long responseId) {
+        Column column = columns.get(key);
+        Integer response = responseIndexes.get(responseId);
+        if (column == null || response == null) {
+            return -1;
+        }
+        return column.find(response);
+    }
+
+}
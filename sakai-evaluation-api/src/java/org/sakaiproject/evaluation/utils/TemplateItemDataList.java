@@ -26,6 +26,7 @@ import java.util.Set;
 import java.util.Map.Entry;
 
 import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.dao.ResponseAnswersHandler;
 import org.sakaiproject.evaluation.logic.EvalAuthoringService;
 import org.sakaiproject.evaluation.logic.EvalDeliveryService;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
@@ -33,6 +34,7 @@ import org.sakaiproject.evaluation.logic.externals.ExternalHierarchyLogic;
 import org.sakaiproject.evaluation.logic.model.EvalHierarchyNode;
 import org.sakaiproject.evaluation.model.EvalAnswer;
 import org.sakaiproject.evaluation.model.EvalAssignUser;
+import org.sakaiproject.evaluation.model.EvalItemResults;
 import org.sakaiproject.evaluation.model.EvalResponse;
 import org.sakaiproject.evaluation.model.EvalScale;
 import org.sakaiproject.evaluation.model.EvalTemplateItem;
@@ -113,6 +115,32 @@ public class TemplateItemDataList {
     private Long evaluationId;
     private String evalGroupId;
     private EvalEvaluationService evaluationService;
+
+    /**
+     * Make a copy of this structure for one of the eval groups it was built for (without any answers or results),
+     * the template items which were added at the group level for any of the other groups are left out<br/>
+     * Use this when a structure built for several groups is used to make a separate report for each group
+     * 
+     * @param evalGroupId the unique id of an eval group
+     * @return a new structure with only the template items for this group
+     */
+    public TemplateItemDataList makeGroupTemplateItemDataList(String evalGroupId) {
+        if (evalGroupId == null) {
+            throw new IllegalArgumentException("evalGroupId must be set");
+        }
+        List<EvalTemplateItem> groupTemplateItems = new ArrayList<>();
+        for (EvalTemplateItem templateItem : allTemplateItems) {
+            if (! EvalConstants.HIERARCHY_LEVEL_GROUP.equals(templateItem.getHierarchyLevel())
+                    || evalGroupId.equals(templateItem.getHierarchyNodeId())) {
+                groupTemplateItems.add(templateItem);
+            }
+        }
+        TemplateItemDataList groupTidl = new TemplateItemDataList(groupTemplateItems, hierarchyNodes, associates, null);
+        groupTidl.evaluationId = evaluationId;
+        groupTidl.evalGroupId = evalGroupId;
+        groupTidl.evaluationService = evaluationService;
+        return groupTidl;
+    }
     
     private List<EvalHierarchyNode> hierarchyNodes = null;
     /**
@@ -152,6 +180,44 @@ public class TemplateItemDataList {
      */
     private Map<Long, Map<String, EvalAnswer>> responseAnswersMap = null;
 
+    private AnswerMatrix answerMatrix = null;
+    /**
+     * Get the compact (columnar) form of the answers in this structure, this is built from the answers
+     * the first time it is requested if it was not set with {@link #setAnswerMatrix(AnswerMatrix)}
+     * 
+     * @return the matrix of all the answers in this structure (empty if there are no answers)
+     */
+    public AnswerMatrix getAnswerMatrix() {
+        if (answerMatrix == null) {
+            answerMatrix = new AnswerMatrix(answers);
+        }
+        return answerMatrix;
+    }
+    /**
+     * Set the answers matrix for a structure which was built without answers
+     * (e.g. the matrix was filled using 
+     * {@link EvalDeliveryService#streamAnswersForEval(Long, String[], Long[], ResponseAnswersHandler)}),
+     * the {@link DataTemplateItem} aggregate methods will use the matrix once it is set
+     * 
+     * @param answerMatrix the matrix of answers for the template items in this structure
+     */
+    public void setAnswerMatrix(AnswerMatrix answerMatrix) {
+        this.answerMatrix = answerMatrix;
+    }
+
+    private Map<String, EvalItemResults> itemResults = null;
+    /**
+     * Set the pre-aggregated results for the items in this structure
+     * (from {@link EvalDeliveryService#getItemResultsForEval(Long, String[])}),
+     * the {@link DataTemplateItem} counts will come from these results once they are set
+     * and the answer matrix is only needed for the text answers and comments
+     * 
+     * @param itemResults map of template item answer key -> results
+     */
+    public void setItemResults(Map<String, EvalItemResults> itemResults) {
+        this.itemResults = itemResults;
+    }
+
     /**
      * Generate the rendering data structure for working with template items,
      * this is primarily used for sorting and grouping the template items properly<br/>
@@ -267,6 +333,27 @@ public class TemplateItemDataList {
     public TemplateItemDataList(Long evaluationId, String[] evalGroupIds, 
             EvalAuthoringService authoringService, EvalDeliveryService deliveryService,
             ExternalHierarchyLogic hierarchyLogic) {
+        this(evaluationId, evalGroupIds, authoringService, deliveryService, hierarchyLogic, true);
+    }
+
+    /**
+     * Same as {@link #TemplateItemDataList(Long, String[], EvalAuthoringService, EvalDeliveryService, ExternalHierarchyLogic)}
+     * but the answers can be left out, use this when the answers are going to be streamed with
+     * {@link EvalDeliveryService#streamAnswersForEval(Long, String[], Long[], ResponseAnswersHandler)}
+     * (only the instructors/assistants which have answers are looked up so the structure is the same)
+     * 
+     * @param evaluationId the unique id of the evaluation
+     * @param evalGroupIds an array of all eval group ids to get items/answers for
+     * @param authoringService the authoring service (used to lookup template items)
+     * @param deliveryService the delivery service (used to lookup evaluation answers)
+     * @param hierarchyLogic (OPTIONAL) the hierarchy service (used to lookup hierarchy levels for this group),
+     * if null then no hierarchy levels are resolved and thus some items may be missing from the structure
+     * @param includeAnswers if true then all the answers are loaded into the structure,
+     * if false then there will be no answers in the structure
+     */
+    public TemplateItemDataList(Long evaluationId, String[] evalGroupIds, 
+            EvalAuthoringService authoringService, EvalDeliveryService deliveryService,
+            ExternalHierarchyLogic hierarchyLogic, boolean includeAnswers) {
         if (evaluationId == null 
                 || evalGroupIds == null || evalGroupIds.length == 0
                 || deliveryService == null
@@ -279,11 +366,20 @@ public class TemplateItemDataList {
                 new String[0], evalGroupIds);
 
         // get all the answers
-        List<EvalAnswer> evalAnswers = deliveryService.getAnswersForEval(evaluationId, evalGroupIds, null);
-
-        // get the list of all instructors/assistants (getting it from the answers though so it may not be comprehensive)
-        Set<String> instructorIds = TemplateItemDataList.getInstructorsForAnswers(evalAnswers);
-        Set<String> assistantIds = TemplateItemDataList.getAssistantsForAnswers(evalAnswers);
+        List<EvalAnswer> evalAnswers = null;
+        Set<String> instructorIds;
+        Set<String> assistantIds;
+        if (includeAnswers) {
+            evalAnswers = deliveryService.getAnswersForEval(evaluationId, evalGroupIds, null);
+
+            // get the list of all instructors/assistants (getting it from the answers though so it may not be comprehensive)
+            instructorIds = TemplateItemDataList.getInstructorsForAnswers(evalAnswers);
+            assistantIds = TemplateItemDataList.getAssistantsForAnswers(evalAnswers);
+        } else {
+            // same instructors/assistants as above without loading the answers
+            instructorIds = deliveryService.getAnswerAssociateIdsForEval(evaluationId, evalGroupIds, EvalConstants.ITEM_CATEGORY_INSTRUCTOR);
+            assistantIds = deliveryService.getAnswerAssociateIdsForEval(evaluationId, evalGroupIds, EvalConstants.ITEM_CATEGORY_ASSISTANT);
+        }
 
         // Get the sorted list of all nodes for this set of template items
         List<EvalHierarchyNode> evalHierarchyNodes = null;
@@ -809,6 +905,9 @@ public class TemplateItemDataList {
          * @return the list of all comments for this item
          */
         public List<String> getComments() {
+            if (answerMatrix != null) {
+                return new ArrayList<>( answerMatrix.getComments(getKey()) );
+            }
             List<String> comments = new ArrayList<>();
             List<EvalAnswer> answers = getAnswers();
             if (answers != null) {
@@ -838,6 +937,63 @@ public class TemplateItemDataList {
             return answers;
         }
 
+        /**
+         * @return the number of answers for this item (uses the pre-aggregated results if they are set
+         * OR the {@link AnswerMatrix} so no answers are loaded)
+         */
+        public int getAnswersCount() {
+            if (itemResults != null) {
+                EvalItemResults results = itemResults.get(getKey());
+                return results == null ? 0 : results.getResponsesCount();
+            }
+            return getAnswerMatrix().countAnswers(getKey());
+        }
+
+        /**
+         * Same as {@link TemplateItemDataList#getAnswerChoicesCounts(String, int, List)} for the answers
+         * to this item but uses the pre-aggregated results if they are set OR the {@link AnswerMatrix} so no answers are loaded
+         * 
+         * @param scaleChoices the number of scale choices (normally this is the size of the {@link EvalScale#getOptions()} array)
+         * @return an integer array which is the same size as the number of choices + 1 (for NA)
+         * @throws IllegalArgumentException if this is not an itemType that has numeric answers (Scaled/MC/MA/...)
+         */
+        public int[] getAnswerChoicesCounts(int scaleChoices) {
+            if (itemResults != null) {
+                // same checks as the matrix
+                AnswerMatrix.checkChoicesItemType(getTemplateItemType());
+                EvalItemResults results = itemResults.get(getKey());
+                return results == null ? new int[scaleChoices+1] : results.getAnswerChoicesCounts(scaleChoices);
+            }
+            return getAnswerMatrix().getAnswerChoicesCounts(getKey(), getTemplateItemType(), scaleChoices);
+        }
+
+        /**
+         * @return the list of all text answers for this item (uses the {@link AnswerMatrix} so no answers are loaded)
+         */
+        public List<String> getTextAnswers() {
+            return getAnswerMatrix().getTextAnswers(getKey());
+        }
+
+        /**
+         * @return the list of all non-blank and non-NA text answers for this item
+         * (uses the {@link AnswerMatrix} so no answers are loaded)
+         */
+        public List<String> getNonBlankTextAnswers() {
+            return getAnswerMatrix().getNonBlankTextAnswers(getKey(), false);
+        }
+
+        /**
+         * @return the number of NA answers for this item (uses the pre-aggregated results if they are set
+         * OR the {@link AnswerMatrix} so no answers are loaded)
+         */
+        public int getNACount() {
+            if (itemResults != null) {
+                EvalItemResults results = itemResults.get(getKey());
+                return results == null ? 0 : results.getNaCount();
+            }
+            return getAnswerMatrix().countNA(getKey());
+        }
+
         /**
          * @param responseId a unique id for an {@link EvalResponse}
          * @return the answer related to this template item and the response or null if not found
@@ -24,3 +24,49 @@ create table EVAL_HIERARCHY_RULE (
     OPT varchar(10) not null,
     primary key (ID)
 ) ENGINE=InnoDB;
+
+alter table EVAL_LOCK add (FENCING_TOKEN bigint);
+update EVAL_LOCK set FENCING_TOKEN = 1 where FENCING_TOKEN is null;
+
+create table EVAL_ITEM_RESULTS (
+    ID bigint not null auto_increment,
+    LAST_MODIFIED datetime not null,
+    EVALUATION_ID bigint not null,
+    GROUP_ID varchar(255) not null,
+    TEMPLATEITEM_ID bigint,
+    ASSOCIATED_TYPE varchar(255),
+    ASSOCIATED_ID varchar(255),
+    RESPONSES_COUNT integer not null,
+    NA_COUNT integer not null,
+    NUMERIC_COUNT integer not null,
+    NUMERIC_SUM bigint not null,
+    NUMERIC_SUM_SQUARES bigint not null,
+    CHOICE_COUNTS varchar(2000),
+    STALE bit not null,
+    primary key (ID)
+) ENGINE=InnoDB;
+
+create index eval_itemresults_evalgroup on EVAL_ITEM_RESULTS (EVALUATION_ID, GROUP_ID);
+
+-- groups which already have completed responses are stale until the RebuildItemResults job is run for the evaluation
+insert into EVAL_ITEM_RESULTS (LAST_MODIFIED, EVALUATION_ID, GROUP_ID, RESPONSES_COUNT, NA_COUNT, NUMERIC_COUNT, NUMERIC_SUM, NUMERIC_SUM_SQUARES, STALE)
+    select distinct now(), EVALUATION_FK, GROUP_ID, 0, 0, 0, 0, 0, 1 from EVAL_RESPONSE where END_TIME is not null;
+
+create table EVAL_RESPONSE_SUBMISSION (
+    ID bigint not null auto_increment,
+    LAST_MODIFIED datetime not null,
+    SUBMISSION_ID varchar(255) not null unique,
+    OWNER varchar(255) not null,
+    EVALUATION_ID bigint not null,
+    GROUP_ID varchar(255) not null,
+    RESPONSE_ID bigint,
+    STATUS varchar(32) not null,
+    PAYLOAD text,
+    primary key (ID)
+) ENGINE=InnoDB;
+
+create index eval_respsubmit_owner on EVAL_RESPONSE_SUBMISSION (OWNER);
+create index eval_respsubmit_status on EVAL_RESPONSE_SUBMISSION (STATUS);
+
+-- the settings version, each server reloads the changed settings when this goes up
+insert into EVAL_CONFIG (LAST_MODIFIED, NAME, VALUE) values (now(), 'SETTINGS_VERSION', '1');
@@ -24,3 +24,50 @@ create table EVAL_HIERARCHY_RULE (
     OPT varchar(10) not null,
     primary key (ID)
 );
+
+alter table EVAL_LOCK add (FENCING_TOKEN number(19,0));
+update EVAL_LOCK set FENCING_TOKEN = 1 where FENCING_TOKEN is null;
+
+create table EVAL_ITEM_RESULTS (
+    ID number(19,0) not null,
+    LAST_MODIFIED timestamp not null,
+    EVALUATION_ID number(19,0) not null,
+    GROUP_ID varchar2(255 char) not null,
+    TEMPLATEITEM_ID number(19,0),
+    ASSOCIATED_TYPE varchar2(255 char),
+    ASSOCIATED_ID varchar2(255 char),
+    RESPONSES_COUNT number(10,0) not null,
+    NA_COUNT number(10,0) not null,
+    NUMERIC_COUNT number(10,0) not null,
+    NUMERIC_SUM number(19,0) not null,
+    NUMERIC_SUM_SQUARES number(19,0) not null,
+    CHOICE_COUNTS varchar2(2000 char),
+    STALE number(1,0) not null,
+    primary key (ID)
+);
+
+create index eval_itemresults_evalgroup on EVAL_ITEM_RESULTS (EVALUATION_ID, GROUP_ID);
+
+-- groups which already have completed responses are stale until the RebuildItemResults job is run for the evaluation
+insert into EVAL_ITEM_RESULTS (ID, LAST_MODIFIED, EVALUATION_ID, GROUP_ID, RESPONSES_COUNT, NA_COUNT, NUMERIC_COUNT, NUMERIC_SUM, NUMERIC_SUM_SQUARES, STALE)
+    select hibernate_sequence.nextval, sysdate, resp.EVALUATION_FK, resp.GROUP_ID, 0, 0, 0, 0, 0, 1
+    from (select distinct EVALUATION_FK, GROUP_ID from EVAL_RESPONSE where END_TIME is not null) resp;
+
+create table EVAL_RESPONSE_SUBMISSION (
+    ID number(19,0) not null,
+    LAST_MODIFIED timestamp not null,
+    SUBMISSION_ID varchar2(255 char) not null unique,
+    OWNER varchar2(255 char) not null,
+    EVALUATION_ID number(19,0) not null,
+    GROUP_ID varchar2(255 char) not null,
+    RESPONSE_ID number(19,0),
+    STATUS varchar2(32 char) not null,
+    PAYLOAD clob,
+    primary key (ID)
+);
+
+create index eval_respsubmit_owner on EVAL_RESPONSE_SUBMISSION (OWNER);
+create index eval_respsubmit_status on EVAL_RESPONSE_SUBMISSION (STATUS);
+
+-- the settings version, each server reloads the changed settings when this goes up
+insert into EVAL_CONFIG (ID, LAST_MODIFIED, NAME, VALUE) values (hibernate_sequence.nextval, sysdate, 'SETTINGS_VERSION', '1');
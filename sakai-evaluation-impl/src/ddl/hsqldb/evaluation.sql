@@ -259,11 +259,30 @@
         primary key (ID)
     );
 
+    create table EVAL_ITEM_RESULTS (
+        ID bigint generated by default as identity (start with 1),
+        LAST_MODIFIED timestamp not null,
+        EVALUATION_ID bigint not null,
+        GROUP_ID varchar(255) not null,
+        TEMPLATEITEM_ID bigint,
+        ASSOCIATED_TYPE varchar(255),
+        ASSOCIATED_ID varchar(255),
+        RESPONSES_COUNT integer not null,
+        NA_COUNT integer not null,
+        NUMERIC_COUNT integer not null,
+        NUMERIC_SUM bigint not null,
+        NUMERIC_SUM_SQUARES bigint not null,
+        CHOICE_COUNTS varchar(2000),
+        STALE bit not null,
+        primary key (ID)
+    );
+
     create table EVAL_LOCK (
         ID bigint generated by default as identity (start with 1),
         LAST_MODIFIED timestamp not null,
         NAME varchar(255) not null,
         HOLDER varchar(255) not null,
+        FENCING_TOKEN bigint,
         primary key (ID),
         unique (NAME)
     );
@@ -282,6 +301,20 @@
         unique (OWNER, GROUP_ID, EVALUATION_FK)
     );
 
+    create table EVAL_RESPONSE_SUBMISSION (
+        ID bigint generated by default as identity (start with 1),
+        LAST_MODIFIED timestamp not null,
+        SUBMISSION_ID varchar(255) not null,
+        OWNER varchar(255) not null,
+        EVALUATION_ID bigint not null,
+        GROUP_ID varchar(255) not null,
+        RESPONSE_ID bigint,
+        STATUS varchar(32) not null,
+        PAYLOAD longvarchar,
+        primary key (ID),
+        unique (SUBMISSION_ID)
+    );
+
     create table EVAL_SCALE (
         ID bigint generated by default as identity (start with 1),
         EID varchar(255),
@@ -539,12 +572,18 @@
         foreign key (GROUP_PARENT_FK) 
         references EVAL_ITEMGROUP;
 
+    create index eval_itemresults_evalgroup on EVAL_ITEM_RESULTS (EVALUATION_ID, GROUP_ID);
+
     create index eval_lock_name on EVAL_LOCK (NAME);
 
     create index eval_response_groupid on EVAL_RESPONSE (GROUP_ID);
 
     create index eval_response_owner on EVAL_RESPONSE (OWNER);
 
+    create index eval_respsubmit_owner on EVAL_RESPONSE_SUBMISSION (OWNER);
+
+    create index eval_respsubmit_status on EVAL_RESPONSE_SUBMISSION (STATUS);
+
     alter table EVAL_RESPONSE 
         add constraint RESPONSE_EVALUATION_FKC 
         foreign key (EVALUATION_FK) 
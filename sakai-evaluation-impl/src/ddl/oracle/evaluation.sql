@@ -256,11 +256,30 @@
         primary key (ID)
     );
 
+    create table EVAL_ITEM_RESULTS (
+        ID number(19,0) not null,
+        LAST_MODIFIED timestamp not null,
+        EVALUATION_ID number(19,0) not null,
+        GROUP_ID varchar2(255 char) not null,
+        TEMPLATEITEM_ID number(19,0),
+        ASSOCIATED_TYPE varchar2(255 char),
+        ASSOCIATED_ID varchar2(255 char),
+        RESPONSES_COUNT number(10,0) not null,
+        NA_COUNT number(10,0) not null,
+        NUMERIC_COUNT number(10,0) not null,
+        NUMERIC_SUM number(19,0) not null,
+        NUMERIC_SUM_SQUARES number(19,0) not null,
+        CHOICE_COUNTS varchar2(2000 char),
+        STALE number(1,0) not null,
+        primary key (ID)
+    );
+
     create table EVAL_LOCK (
         ID number(19,0) not null,
         LAST_MODIFIED timestamp not null,
         NAME varchar2(255 char) not null unique,
         HOLDER varchar2(255 char) not null,
+        FENCING_TOKEN number(19,0),
         primary key (ID)
     );
 
@@ -278,6 +297,19 @@
         unique (OWNER, GROUP_ID, EVALUATION_FK)
     );
 
+    create table EVAL_RESPONSE_SUBMISSION (
+        ID number(19,0) not null,
+        LAST_MODIFIED timestamp not null,
+        SUBMISSION_ID varchar2(255 char) not null unique,
+        OWNER varchar2(255 char) not null,
+        EVALUATION_ID number(19,0) not null,
+        GROUP_ID varchar2(255 char) not null,
+        RESPONSE_ID number(19,0),
+        STATUS varchar2(32 char) not null,
+        PAYLOAD clob,
+        primary key (ID)
+    );
+
     create table EVAL_SCALE (
         ID number(19,0) not null,
         EID varchar2(255 char),
@@ -535,12 +567,18 @@
         foreign key (GROUP_PARENT_FK) 
         references EVAL_ITEMGROUP;
 
+    create index eval_itemresults_evalgroup on EVAL_ITEM_RESULTS (EVALUATION_ID, GROUP_ID);
+
     create index eval_lock_name on EVAL_LOCK (NAME);
 
     create index eval_response_groupid on EVAL_RESPONSE (GROUP_ID);
 
     create index eval_response_owner on EVAL_RESPONSE (OWNER);
 
+    create index eval_respsubmit_owner on EVAL_RESPONSE_SUBMISSION (OWNER);
+
+    create index eval_respsubmit_status on EVAL_RESPONSE_SUBMISSION (STATUS);
+
     alter table EVAL_RESPONSE 
         add constraint RESPONSE_EVALUATION_FKC 
         foreign key (EVALUATION_FK) 
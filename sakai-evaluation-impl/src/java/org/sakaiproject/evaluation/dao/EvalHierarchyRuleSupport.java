@@ -17,9 +17,15 @@ package org.sakaiproject.evaluation.dao;
 import org.sakaiproject.evaluation.logic.externals.ExternalHierarchyRules;
 
 /**
- * Empty interface for Spring API->Impl injection.
+ * Interface for Spring API->Impl injection.
  */
 public interface EvalHierarchyRuleSupport extends ExternalHierarchyRules
 {
-    
+    /**
+     * Get the version of the hierarchy rules, this changes every time a rule is assigned, updated
+     * or removed on this server so it can be used to tell when anything built from the rules is out of date
+     * 
+     * @return the current rules version
+     */
+    public long getRulesVersion();
 }
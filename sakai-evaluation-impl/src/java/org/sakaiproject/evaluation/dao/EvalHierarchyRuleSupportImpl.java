@@ -19,6 +19,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -43,6 +44,17 @@ public class EvalHierarchyRuleSupportImpl implements EvalHierarchyRuleSupport
         this.dao = dao;
     }
 
+    private final AtomicLong rulesVersion = new AtomicLong();
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvalHierarchyRuleSupport#getRulesVersion()
+     */
+    public long getRulesVersion()
+    {
+        return rulesVersion.get();
+    }
+
     /*
      * (non-Javadoc)
      * @see org.sakaiproject.evaluation.logic.external.ExternalHierarchyRules#isRuleAlreadyAssignedToNode(java.lang.String, java.lang.String, java.lang.String, java.lang.Long)
@@ -88,6 +100,7 @@ public class EvalHierarchyRuleSupportImpl implements EvalHierarchyRuleSupport
 
         EvalHierarchyRule rule = new EvalHierarchyRule( nodeID, finalRuleText, option );
         dao.create( rule );
+        rulesVersion.incrementAndGet();
     }
 
     /*
@@ -108,6 +121,7 @@ public class EvalHierarchyRuleSupportImpl implements EvalHierarchyRuleSupport
         }
 
         dao.delete( rule );
+        rulesVersion.incrementAndGet();
     }
 
     /*
@@ -125,6 +139,7 @@ public class EvalHierarchyRuleSupportImpl implements EvalHierarchyRuleSupport
         if( !rules.isEmpty() )
         {
             dao.deleteSet( rules );
+            rulesVersion.incrementAndGet();
         }
     }
 
@@ -155,6 +170,7 @@ public class EvalHierarchyRuleSupportImpl implements EvalHierarchyRuleSupport
             rule.setOpt( option );
             rule.setNodeID( nodeID );
             dao.update( rule );
+            rulesVersion.incrementAndGet();
         }
     }
 
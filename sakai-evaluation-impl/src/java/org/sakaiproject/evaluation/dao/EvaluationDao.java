@@ -14,6 +14,7 @@
  */
 package org.sakaiproject.evaluation.dao;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -26,7 +27,9 @@ import org.sakaiproject.evaluation.model.EvalAssignUser;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 import org.sakaiproject.evaluation.model.EvalItem;
 import org.sakaiproject.evaluation.model.EvalItemGroup;
+import org.sakaiproject.evaluation.model.EvalItemResults;
 import org.sakaiproject.evaluation.model.EvalResponse;
+import org.sakaiproject.evaluation.model.EvalResponseSubmission;
 import org.sakaiproject.evaluation.model.EvalScale;
 import org.sakaiproject.evaluation.model.EvalTemplate;
 import org.sakaiproject.evaluation.model.EvalTemplateItem;
@@ -61,6 +64,15 @@ public interface EvaluationDao extends GeneralGenericDao {
      */
     public List<EvalEvaluation> getEvalsWithoutUserAssignments();
 
+    /**
+     * Get the state and state dates for all evaluations in the given states,
+     * this only loads the columns needed to work out when the evaluation state changes next
+     * 
+     * @param states the evaluation states to include (EvalConstants.EVALUATION_STATE_*)
+     * @return a list of rows of [id (Long), state (String), startDate, dueDate, stopDate, viewDate (Date)]
+     */
+    public List<Object[]> getEvaluationStateDates(String[] states);
+
     /**
      * Get the list of all participants for an evaluation,
      * can limit it to a single group which is assigned to the evaluation and
@@ -98,6 +110,31 @@ public interface EvaluationDao extends GeneralGenericDao {
             String[] evalGroupIds, String assignTypeConstant, String assignStatusConstant, 
             String includeConstant, String evalStateConstant);
 
+    /**
+     * Get the participants for an evaluation grouped by the eval group they are assigned in,
+     * this gets the participants for all the groups at once instead of one query per group <br/>
+     * Unlike {@link #getParticipantsForEval(Long, String, String[], String, String, String, String)}
+     * the includeConstant filter only counts responses made in the same group as the assignment,
+     * this is the same result as calling that method once for each group
+     * <br/> Will not include any assignments with {@link EvalAssignUser#STATUS_REMOVED}
+     *
+     * @param evaluationId the unique id of an {@link EvalEvaluation} object
+     * @param evalGroupIds (OPTIONAL) an array of unique IDs for eval groups,
+     * if this is null or empty then results include participants from the entire evaluation,
+     * NOTE: these ids are not validated
+     * @param assignTypeConstant (OPTIONAL) a constant to indicate which types of assignment participants to include,
+     * use the TYPE_* constants from {@link EvalAssignUser}, default (null) is to include all types of assignments
+     * @param includeConstant (OPTIONAL) a constant to indicate what users should be retrieved,
+     * EVAL_INCLUDE_* from {@link EvalConstants}, default (null) is {@link EvalConstants#EVAL_INCLUDE_ALL},
+     * <b>NOTE</b>: if this is non-null it will filter users to type {@link EvalAssignUser#TYPE_EVALUATOR} automatically
+     * regardless of what the assignTypeConstant is set to
+     * @return a map of evalGroupId -> the list of user assignments in that group (in assignment order),
+     * groups without any matching participants are not included
+     * @throws IllegalArgumentException if the evaluationId is null or the inputs are invalid
+     */
+    public Map<String, List<EvalAssignUser>> getParticipantsForEvalByGroup(Long evaluationId,
+            String[] evalGroupIds, String assignTypeConstant, String includeConstant);
+
     /**
      * Returns all evaluations which the given user can take,
      * can also include anonymous evaluations and filter on active/approved
@@ -219,9 +256,134 @@ public interface EvaluationDao extends GeneralGenericDao {
      */
     public List<EvalAnswer> getAnswers(Long evalId, String[] evalGroupIds, Long[] templateItemIds);
 
+    /**
+     * Streams the same answers as {@link #getAnswers(Long, String[], Long[])} to the handler one response at a time
+     * (in order by response id) using a forward only cursor, the answers are evicted from the session once
+     * the handler is done with them so memory use does not grow with the number of responses
+     * 
+     * @param evalId the id of the evaluation you want answers from
+     * @param evalGroupIds an array of eval group IDs to return answers for,
+     * if null then just return answers for all groups
+     * @param templateItemIds the ids of the template items you want answers for,
+     * if null then return answers for all template items
+     * @param fetchSize the number of rows to fetch from the database at a time
+     * @param handler called once for each response with all the answers for that response
+     * @return the number of responses passed to the handler
+     */
+    public int streamAnswers(Long evalId, String[] evalGroupIds, Long[] templateItemIds, int fetchSize,
+            ResponseAnswersHandler handler);
+
+    /**
+     * Get the distinct associated ids for the answers in an evaluation (only from completed responses)
+     * 
+     * @param evalId the id of the evaluation
+     * @param evalGroupIds an array of eval group IDs to check answers for,
+     * if null then check answers for all groups
+     * @param associatedType the associated type of the answers (e.g. instructor)
+     * @return the list of distinct associated ids (may include null)
+     */
+    public List<String> getAnswerAssociateIds(Long evalId, String[] evalGroupIds, String associatedType);
+
+    /**
+     * Get the stored pre-aggregated results for an evaluation
+     * 
+     * @param evalId the id of the evaluation
+     * @param evalGroupIds an array of eval group IDs to get results for,
+     * if null then get the results for all groups
+     * @return the list of {@link EvalItemResults} (one for each group and template item answer key)
+     */
+    public List<EvalItemResults> getItemResults(Long evalId, String[] evalGroupIds);
+
+    /**
+     * Get the evaluation groups whose pre-aggregated results are stale (do not include all the completed responses),
+     * the results for these groups cannot be used until they are rebuilt with {@link #rebuildItemResults(Long)}
+     * 
+     * @param evalId the id of the evaluation
+     * @param evalGroupIds an array of eval group IDs to check, if null then check all groups
+     * @return the list of eval group ids with stale results (empty if the results are all current)
+     */
+    public List<String> getStaleItemResultsGroups(Long evalId, String[] evalGroupIds);
+
+    /**
+     * Get the contribution that each of these responses makes to the pre-aggregated results,
+     * this is read from the database without flushing the session so it is the stored state of the responses
+     * (i.e. what was added to the results the last time they were saved),
+     * only completed responses are included since incomplete ones are not in the results<br/>
+     * The results for the groups of the responses are locked (see {@link #lockItemResults(Collection)}) before
+     * anything is read so the stored state cannot change until the transaction ends
+     * 
+     * @param responseIds the ids of {@link EvalResponse} objects
+     * @param sign 1 for the changes which add these responses OR -1 for the changes which remove them
+     * @return the map of response id -> changes for the completed responses
+     */
+    public Map<Long, ItemResultsDelta> getResponseItemResults(Long[] responseIds, int sign);
+
+    /**
+     * Lock the pre-aggregated results for the groups of these responses until the end of the transaction,
+     * the groups are always locked in the same order so use this to lock all the groups for a set of responses
+     * before any of them are read or changed
+     * 
+     * @param responses the responses which are about to be saved
+     */
+    public void lockItemResults(Collection<EvalResponse> responses);
+
+    /**
+     * Apply changes to the pre-aggregated results, the evaluation group rows are locked while
+     * the results are updated so concurrent changes for the same group are applied one after the other
+     * 
+     * @param deltas the changes to apply, changes for the same group are combined,
+     * the results for a group are marked as stale if they are started when the group already has completed responses
+     */
+    public void applyItemResults(Collection<ItemResultsDelta> deltas);
+
+    /**
+     * Remove and rebuild all the pre-aggregated results for an evaluation from the stored answers,
+     * responses cannot be added to the results for this evaluation while this is running
+     * 
+     * @param evalId the id of the evaluation
+     * @return the number of completed responses which were added to the results
+     */
+    public int rebuildItemResults(Long evalId);
+
+    /**
+     * Remove all the pre-aggregated results for an evaluation,
+     * use this when the evaluation is removed
+     * 
+     * @param evalId the id of the evaluation
+     * @return the number of results rows removed
+     */
+    public int removeItemResults(Long evalId);
+
+    /**
+     * Change the status of a response submission (see {@link EvalResponseSubmission}) only if it still has
+     * the expected status, this is a single conditional update so only one server can ever move a
+     * submission out of the queued status
+     *
+     * @param submissionId the unique submission id
+     * @param expectedStatus the status the submission must have now (EvalConstants.RESPONSE_SUBMISSION_*)
+     * @param newStatus the status to change it to (EvalConstants.RESPONSE_SUBMISSION_*)
+     * @return true if the status was changed, false if the submission does not exist (or is not committed yet)
+     * or does not have the expected status
+     */
+    public boolean updateResponseSubmissionStatus(String submissionId, String expectedStatus, String newStatus);
+
+    /**
+     * Remove response submissions (see {@link EvalResponseSubmission}) which are finished,
+     * queued submissions are never removed
+     *
+     * @param status the status of the submissions to remove (EvalConstants.RESPONSE_SUBMISSION_SAVED or FAILED)
+     * @param owner if not null, only remove the submissions made by this user (internal user id)
+     * @param evaluationId if not null, only remove the submissions for this evaluation
+     * @param evalGroupId if not null, only remove the submissions for this eval group
+     * @param olderThan if not null, only remove the submissions which were last changed before this date
+     * @return the number of submissions removed
+     */
+    public int removeResponseSubmissions(String status, String owner, Long evaluationId, String evalGroupId, Date olderThan);
+
     /**
      * Removes a group of templateItems and updates all related items 
-     * and templates at the same time (inside one transaction)
+     * and templates at the same time (inside one transaction),
+     * the pre-aggregated results for the templateItems are removed as well
      * 
      * @param templateItems the array of {@link EvalTemplateItem} to remove 
      */
@@ -306,12 +468,24 @@ public interface EvaluationDao extends GeneralGenericDao {
      */
     public List<Long> getResponseIds(Long evalId, String[] evalGroupIds, String[] userIds, Boolean completed);
 
+    /**
+     * Get the number of responses and the most recent response modification for an evaluation,
+     * this changes whenever a response is saved or removed so it can be used to tell if the results changed
+     *
+     * @param evalId the id of the evaluation
+     * @param evalGroupIds an array of eval group IDs to include,
+     * if null or empty then include all evalGroups associated with this eval
+     * @return an array of [count of responses (Long), latest lastModified (Date, null if there are no responses)]
+     */
+    public Object[] getResponsesWatermark(Long evalId, String[] evalGroupIds);
+
     /**
      * Removes an array of responses and all their associated answers at
      * the same time (in a single transaction)<br/>
      * Use {@link #getResponseIds(Long, String[], String[], Boolean)} to get the set of responseIds to remove<br/>
      * <b>WARNING:</b> This does not check permissions for removal of responses so you should
-     * be sure to check that responses can be removed (system setting) and that they can be removed for this evaluation and user
+     * be sure to check that responses can be removed (system setting) and that they can be removed for this evaluation and user<br/>
+     * Completed responses are also removed from the pre-aggregated results
      * 
      * @param responseIds the array of ids for {@link EvalResponse} objects to remove
      */
@@ -435,6 +609,18 @@ public interface EvaluationDao extends GeneralGenericDao {
      */
     public boolean lockEvaluation(EvalEvaluation evaluation, Boolean lockState);
 
+    /**
+     * Lock the evaluation with the given id if it is not already locked, this is the cheap version
+     * of {@link #lockEvaluation(EvalEvaluation, Boolean)} meant to be called on every response submission,
+     * evaluations already known to be locked cost nothing and otherwise a single conditional update
+     * is used so that only the call which actually changes the lock state cascades the lock to the 
+     * associated template (and its items and scales)
+     * 
+     * @param evaluationId the id of an {@link EvalEvaluation}
+     * @return true if this call locked the evaluation, false if it was already locked (or does not exist)
+     */
+    public boolean lockEvaluationIfUnlocked(Long evaluationId);
+
     /**
      * @param scaleId
      * @return true if this scale is used in any items
@@ -453,6 +639,24 @@ public interface EvaluationDao extends GeneralGenericDao {
      */
     public boolean isUsedTemplate(Long templateId);
 
+    /**
+     * Get the version number held in a config row (e.g. the settings version)
+     * 
+     * @param versionName the name of the config row which holds the version
+     * @return the current version OR null if there is no version yet
+     */
+    public Long getConfigVersion(String versionName);
+
+    /**
+     * Moves a version number held in a config row up by one, the row is locked first so
+     * servers which change the version at the same time each get their own number
+     * (the row is created if it does not exist yet)
+     * 
+     * @param versionName the name of the config row which holds the version
+     * @return the new version
+     */
+    public long incrementConfigVersion(String versionName);
+
     /**
      * Allows a lock to be obtained that is system wide,
      * this is primarily for ensuring something runs on a single server only in a cluster<br/>
@@ -469,6 +673,30 @@ public interface EvaluationDao extends GeneralGenericDao {
      */
     public Boolean obtainLock(String lockId, String executerId, long timePeriod);
 
+    /**
+     * Obtains (or renews) a lock using a single conditional update (or an insert if the lock does not exist yet)
+     * so two executers can never both get the same lock, every time the lock changes hands the fencing token
+     * goes up so the token can be used to check the lock is still held before doing any work which must not
+     * be done twice<br/>
+     * <b>NOTE:</b> This intentionally returns a null on failure rather than an exception, see {@link #obtainLock(String, String, long)}
+     * 
+     * @param lockId the name of the lock which we are seeking
+     * @param executerId a unique id for the executer of this lock (normally a server id)
+     * @param timePeriod the length of time (in milliseconds) that the lock should be valid for
+     * @return the fencing token (always greater than 0) if the lock was obtained or renewed,
+     * 0 if another executer holds a valid lock, null if failure
+     */
+    public Long obtainLockToken(String lockId, String executerId, long timePeriod);
+
+    /**
+     * Gets the fencing token for a lock if it is held by the given executer
+     * 
+     * @param lockId the name of the lock
+     * @param executerId a unique id for the executer of this lock (normally a server id)
+     * @return the current fencing token OR null if the lock is not held by this executer
+     */
+    public Long getLockToken(String lockId, String executerId);
+
     /**
      * Releases a lock that was being held,
      * this is useful if you know a server is shutting down and you want to release your locks early<br/>
@@ -482,6 +710,27 @@ public interface EvaluationDao extends GeneralGenericDao {
      */
     public Boolean releaseLock(String lockId, String executerId);
 
+    /**
+     * Removes the locks which were released or have not been obtained or renewed since the given date,
+     * locks are kept after they are released or expire so the fencing token keeps going up when they
+     * change hands, once purged the next holder of the lock starts again with token 1<br/>
+     * NOTE: the date must be older than the time period of any lock which may still be held
+     * 
+     * @param unusedSince locks which were not obtained or renewed since this date are removed
+     * @return the number of locks removed
+     */
+    public int purgeLocks(Date unusedSince);
+
+    /**
+     * Checks who is holding a lock without trying to obtain it
+     * 
+     * @param lockId the name of the lock to check
+     * @param timePeriod the length of time (in milliseconds) that the lock is valid for
+     * (the same time period that is used when obtaining the lock)
+     * @return the executer id of the holder of the lock OR null if the lock is not held or has expired
+     */
+    public String getLockHolder(String lockId, long timePeriod);
+
     /**
      * Access one page of summary info needed to render consolidated email templates. 
      * The summary info consists of a user-id, a user-eid, a template-id (EmailTemplate.ID) and the earliest 
@@ -500,6 +749,19 @@ public interface EvaluationDao extends GeneralGenericDao {
      */
     public List<Map<String,Object>> getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, int page);
 
+    /**
+     * Access the page of consolidated email mappings which comes after the given (emailTemplateId, userId),
+     * this is the same as {@link #getConsolidatedEmailMapping(boolean, int, int)} but the page is found
+     * from the last mapping of the previous page so the earlier pages do not have to be scanned again
+     * @param sendingAvailableEmails Should be true if the results will be used to send notifications that new 
+     * 		evaluations are opening, and false if they are to be used for reminders. 
+     * @param pageSize The maximum number of mappings to return
+     * @param afterEmailTemplateId the email template id of the last mapping in the previous page, null for the first page
+     * @param afterUserId the user id of the last mapping in the previous page, null for the first page
+     * @return the mappings (same as {@link #getConsolidatedEmailMapping(boolean, int, int)})
+     */
+    public List<Map<String,Object>> getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, Long afterEmailTemplateId, String afterUserId);
+
     /**
      * Build the email processing queue by adding one record for each evalAssignUser record 
      * matching the search criteria.  Search criteria are determined based on the values of 
@@ -521,6 +783,34 @@ public interface EvaluationDao extends GeneralGenericDao {
      */
     public int resetConsolidatedEmailRecipients();
 
+    /**
+     * Remove the records for one kind of consolidated email from the email processing queue 
+     * and report the number of items removed.
+     * @param sendingAvailableEmails true for the available email records, false for the reminder records
+     * @return the number of records removed
+     */
+    public int resetConsolidatedEmailRecipients(boolean sendingAvailableEmails);
+
+    /**
+     * Prepare to resume a run of consolidated emails which was interrupted (for example by a server restart),
+     * the records which were already sent (or are for evaluations which are past their due date)
+     * are removed from the email processing queue and the number of records still waiting to be sent is reported
+     * @param sendingAvailableEmails true for the available email records, false for the reminder records
+     * @return the number of records still waiting to be sent, 0 if there is nothing to resume
+     */
+    public int resumeConsolidatedEmailRecipients(boolean sendingAvailableEmails);
+
+    /**
+     * Mark the consolidated emails to these users as sent, this updates the evalAssignUser records
+     * (so the users are not selected again) and the email processing queue records
+     * (so the emails are not sent again if the run is resumed)
+     * @param sendingAvailableEmails true if available emails were sent, false for reminders
+     * @param emailTemplateId the id of the email template which was sent
+     * @param userIds the ids of the users the email was delivered to
+     * @return the number of email processing queue records marked
+     */
+    public int markConsolidatedEmailsSent(boolean sendingAvailableEmails, Long emailTemplateId, List<String> userIds);
+
     /**
      * Returns a list of evaluation responses that have been saved but not 
      * submitted (completed)
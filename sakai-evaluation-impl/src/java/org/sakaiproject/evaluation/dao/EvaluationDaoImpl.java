@@ -16,36 +16,51 @@ package org.sakaiproject.evaluation.dao;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
 import org.hibernate.Query;
 import org.hibernate.SQLQuery;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.Transaction;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Expression;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Property;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.exception.ConstraintViolationException;
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
 import org.sakaiproject.evaluation.model.EvalAdhocGroup;
 import org.sakaiproject.evaluation.model.EvalAnswer;
 import org.sakaiproject.evaluation.model.EvalAssignGroup;
 import org.sakaiproject.evaluation.model.EvalAssignUser;
+import org.sakaiproject.evaluation.model.EvalConfig;
+import org.sakaiproject.evaluation.model.EvalEmailProcessingData;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 import org.sakaiproject.evaluation.model.EvalItem;
 import org.sakaiproject.evaluation.model.EvalItemGroup;
+import org.sakaiproject.evaluation.model.EvalItemResults;
 import org.sakaiproject.evaluation.model.EvalLock;
 import org.sakaiproject.evaluation.model.EvalResponse;
 import org.sakaiproject.evaluation.model.EvalScale;
@@ -58,6 +73,8 @@ import org.sakaiproject.genericdao.api.search.Restriction;
 import org.sakaiproject.genericdao.api.search.Search;
 import org.sakaiproject.genericdao.hibernate.HibernateGeneralGenericDao;
 import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import static org.sakaiproject.event.cover.UsageSessionService.getSession;
 
@@ -83,6 +100,17 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
 
     protected static final int MAX_UPDATE_SIZE = 999;
 
+    /**
+     * How long an evaluation is trusted to still be locked without checking the DB again,
+     * this keeps unlocks made on other servers from being missed forever
+     */
+    protected static final long KNOWN_LOCKED_EVALUATION_TTL = 1000l * 60l * 10l;
+
+    /**
+     * evaluation id -> time when it was last known to be locked (avoids repeated lock attempts on submission)
+     */
+    private final ConcurrentHashMap<Long, Long> knownLockedEvaluations = new ConcurrentHashMap<>();
+
     private static final String SQL_SELECT_SITE_IDS_MATCHING_SECTION_TITLE = "SELECT DISTINCT realm.realm_id "
             + "FROM SAKAI_REALM realm "
             + "JOIN SAKAI_REALM_PROVIDER provider "
@@ -340,6 +368,88 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
         return assignments;
     }
 
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#getParticipantsForEvalByGroup(java.lang.Long, java.lang.String[], java.lang.String, java.lang.String)
+     */
+    public Map<String, List<EvalAssignUser>> getParticipantsForEvalByGroup(Long evaluationId,
+            String[] evalGroupIds, String assignTypeConstant, String includeConstant) {
+        if (evaluationId == null) {
+            throw new IllegalArgumentException("evaluationId must be set");
+        }
+
+        boolean filterResponses = false;
+        boolean includeFilterUsers = false;
+        Boolean completed = null;
+        if (includeConstant != null) {
+            EvalUtils.validateEmailIncludeConstant(includeConstant);
+            // force the results to only include eval takers
+            assignTypeConstant = EvalAssignUser.TYPE_EVALUATOR;
+            if (EvalConstants.EVAL_INCLUDE_NONTAKERS.equals(includeConstant)) {
+                // exclude all users who have responded either way
+                filterResponses = true;
+                includeFilterUsers = false;
+            } else if (EvalConstants.EVAL_INCLUDE_RESPONDENTS.equals(includeConstant)) {
+                filterResponses = true;
+                includeFilterUsers = true;
+                completed = true;
+            } else if (EvalConstants.EVAL_INCLUDE_IN_PROGRESS.equals(includeConstant)) {
+                filterResponses = true;
+                includeFilterUsers = true;
+                completed = false;
+            } else if (EvalConstants.EVAL_INCLUDE_ALL.equals(includeConstant)) {
+                // do nothing
+            } else {
+                throw new IllegalArgumentException("Unknown includeConstant: " + includeConstant);
+            }
+        }
+
+        // the participants for all groups at once
+        List<EvalAssignUser> assignments = getParticipantsForEval(evaluationId, null, evalGroupIds,
+                assignTypeConstant, null, null, null);
+
+        // evalGroupId -> the users who responded in that group
+        Map<String, Set<String>> responseUsers = null;
+        if (filterResponses) {
+            Map<String, Object> params = new HashMap<>();
+            params.put("evaluationId", evaluationId);
+            String groupsHQL = "";
+            if (evalGroupIds != null && evalGroupIds.length > 0) {
+                groupsHQL = " and response.evalGroupId in (:evalGroupIds) ";
+                params.put("evalGroupIds", evalGroupIds);
+            }
+            String completeHQL = "";
+            if (completed != null) {
+                completeHQL = " and response.endTime is "+(completed ? "not" : "")+" null ";
+            }
+            String hql = "SELECT response.evalGroupId, response.owner from EvalResponse as response where response.evaluation.id = :evaluationId "
+                + completeHQL + groupsHQL;
+            List<?> results = executeHqlQuery(hql, params, 0, 0);
+            responseUsers = new HashMap<>();
+            for (Object object : results) {
+                Object[] row = (Object[]) object;
+                responseUsers.computeIfAbsent((String) row[0], k -> new HashSet<>()).add((String) row[1]);
+            }
+        }
+
+        Map<String, List<EvalAssignUser>> participants = new LinkedHashMap<>();
+        for (EvalAssignUser evalAssignUser : assignments) {
+            String evalGroupId = evalAssignUser.getEvalGroupId();
+            if (responseUsers != null) {
+                Set<String> groupResponseUsers = responseUsers.get(evalGroupId);
+                boolean responded = groupResponseUsers != null && groupResponseUsers.contains(evalAssignUser.getUserId());
+                if (responded != includeFilterUsers) {
+                    continue;
+                }
+            }
+            participants.computeIfAbsent(evalGroupId, k -> new ArrayList<>()).add(evalAssignUser);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("ParticipantsForEvalByGroup(eval:"+evaluationId+", groups:"+ArrayUtils.arrayToString(evalGroupIds)
+                +", type:"+assignTypeConstant+", include:"+includeConstant+"): "+assignments.size()+" assignments in "+participants.size()+" groups");
+        }
+        return participants;
+    }
+
     /*  SELECT * FROM eval_evaluation as EVAL
         LEFT join eval_assign_user as AU on EVAL.ID = AU.EVALUATION_FK 
         WHERE AU.ID IS NULL
@@ -351,6 +461,21 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
         return evals;
     }
 
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#getEvaluationStateDates(java.lang.String[])
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object[]> getEvaluationStateDates(String[] states) {
+        if (states == null || states.length == 0) {
+            return new ArrayList<>();
+        }
+        String hql = "select eval.id, eval.state, eval.startDate, eval.dueDate, eval.stopDate, eval.viewDate "
+                + "from EvalEvaluation eval where eval.state in (:states)";
+        Query query = currentSession().createQuery(hql);
+        query.setParameterList("states", states);
+        return (List<Object[]>) query.list();
+    }
+
     /**
      * Construct the HQL to do the sharing query based on sharing constants and userId
      * @return the HQL query string
@@ -874,6 +999,414 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
         return results;
     }
 
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#streamAnswers(java.lang.Long, java.lang.String[], java.lang.Long[], int, org.sakaiproject.evaluation.dao.ResponseAnswersHandler)
+     */
+    public int streamAnswers(Long evalId, String[] evalGroupIds, Long[] templateItemIds, int fetchSize,
+            ResponseAnswersHandler handler) {
+        String hql = "select answer, ansswerresp.id, ansswerresp.evalGroupId from EvalAnswer as answer join answer.response as ansswerresp"
+            + " where ansswerresp.evaluation.id = :evalId and ansswerresp.endTime is not null " 
+            + makeAnswersFilterHQL(evalGroupIds, templateItemIds)
+            + " order by ansswerresp.id, answer.id";
+        Session session = currentSession();
+        Query query = session.createQuery(hql);
+        setAnswersFilterParams(query, evalId, evalGroupIds, templateItemIds);
+        query.setFetchSize(fetchSize);
+        query.setReadOnly(true);
+        query.setCacheMode(CacheMode.IGNORE);
+
+        int responseCount = 0;
+        ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            Long currentResponseId = null;
+            String currentGroupId = null;
+            List<EvalAnswer> responseAnswers = new ArrayList<>();
+            while (results.next()) {
+                Long responseId = (Long) results.get(1);
+                if (currentResponseId != null && ! currentResponseId.equals(responseId)) {
+                    // all answers for the previous response are in so hand them off
+                    handler.handleResponseAnswers(currentResponseId, currentGroupId, responseAnswers);
+                    responseCount++;
+                    evictAll(session, responseAnswers);
+                    responseAnswers = new ArrayList<>();
+                }
+                currentResponseId = responseId;
+                currentGroupId = (String) results.get(2);
+                responseAnswers.add( (EvalAnswer) results.get(0) );
+            }
+            if (currentResponseId != null) {
+                handler.handleResponseAnswers(currentResponseId, currentGroupId, responseAnswers);
+                responseCount++;
+                evictAll(session, responseAnswers);
+            }
+        } finally {
+            results.close();
+        }
+        return responseCount;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#getAnswerAssociateIds(java.lang.Long, java.lang.String[], java.lang.String)
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getAnswerAssociateIds(Long evalId, String[] evalGroupIds, String associatedType) {
+        String hql = "select distinct answer.associatedId from EvalAnswer as answer join answer.response as ansswerresp"
+            + " where ansswerresp.evaluation.id = :evalId and ansswerresp.endTime is not null"
+            + " and answer.associatedType = :associatedType " 
+            + makeAnswersFilterHQL(evalGroupIds, null);
+        Query query = currentSession().createQuery(hql);
+        setAnswersFilterParams(query, evalId, evalGroupIds, null);
+        query.setParameter("associatedType", associatedType);
+        return (List<String>) query.list();
+    }
+
+    private String makeAnswersFilterHQL(String[] evalGroupIds, Long[] templateItemIds) {
+        String filterHQL = "";
+        if (evalGroupIds != null && evalGroupIds.length > 0) {
+            filterHQL += " and ansswerresp.evalGroupId in (:evalGroupIds) ";
+        }
+        if (templateItemIds != null && templateItemIds.length > 0) {
+            filterHQL += " and answer.templateItem.id in (:templateItemIds) ";
+        }
+        return filterHQL;
+    }
+
+    private void setAnswersFilterParams(Query query, Long evalId, String[] evalGroupIds, Long[] templateItemIds) {
+        query.setParameter("evalId", evalId);
+        if (evalGroupIds != null && evalGroupIds.length > 0) {
+            query.setParameterList("evalGroupIds", evalGroupIds);
+        }
+        if (templateItemIds != null && templateItemIds.length > 0) {
+            query.setParameterList("templateItemIds", templateItemIds);
+        }
+    }
+
+    private void evictAll(Session session, List<?> entities) {
+        for (Object entity : entities) {
+            session.evict(entity);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#getItemResults(java.lang.Long, java.lang.String[])
+     */
+    public List<EvalItemResults> getItemResults(Long evalId, String[] evalGroupIds) {
+        Search search = new Search("evaluationId", evalId);
+        if (evalGroupIds != null && evalGroupIds.length > 0) {
+            search.addRestriction( new Restriction("evalGroupId", evalGroupIds) );
+        }
+        return findBySearch(EvalItemResults.class, search);
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#getResponseItemResults(java.lang.Long[], int)
+     */
+    public Map<Long, ItemResultsDelta> getResponseItemResults(Long[] responseIds, int sign) {
+        Map<Long, ItemResultsDelta> deltas = new HashMap<>();
+        if (responseIds == null || responseIds.length == 0) {
+            return deltas;
+        }
+        // do not flush, the stored values are needed and not the ones which are about to be saved
+        Session session = currentSession();
+        // lock first so the stored values cannot change before they are taken out of the results
+        Query query = session.createQuery("select distinct response.evaluation.id, response.evalGroupId from EvalResponse as response"
+                + " where response.id in (:responseIds)");
+        query.setParameterList("responseIds", responseIds);
+        query.setFlushMode(FlushMode.MANUAL);
+        Map<String, Object[]> groups = new TreeMap<>();
+        for (Object result : query.list()) {
+            Object[] row = (Object[]) result;
+            groups.put(row[0] + "/" + row[1], row);
+        }
+        for (Object[] group : groups.values()) {
+            lockItemResults(session, (Long) group[0], (String) group[1]);
+        }
+
+        query = session.createQuery("select response.id, response.evaluation.id, response.evalGroupId from EvalResponse as response"
+                + " where response.id in (:responseIds) and response.endTime is not null");
+        query.setParameterList("responseIds", responseIds);
+        query.setFlushMode(FlushMode.MANUAL);
+        for (Object result : query.list()) {
+            Object[] row = (Object[]) result;
+            ItemResultsDelta delta = new ItemResultsDelta((Long) row[1], (String) row[2]);
+            delta.addResponses(sign);
+            deltas.put((Long) row[0], delta);
+        }
+        if (! deltas.isEmpty()) {
+            query = session.createQuery("select ansswerresp.id, answer.templateItem.id, answer.associatedType, answer.associatedId,"
+                    + " answer.numeric, answer.multiAnswerCode from EvalAnswer as answer join answer.response as ansswerresp"
+                    + " where ansswerresp.id in (:responseIds) and ansswerresp.endTime is not null");
+            query.setParameterList("responseIds", responseIds);
+            query.setFlushMode(FlushMode.MANUAL);
+            for (Object result : query.list()) {
+                Object[] row = (Object[]) result;
+                deltas.get((Long) row[0]).addAnswer((Long) row[1], (String) row[2], (String) row[3], 
+                        (Integer) row[4], (String) row[5], sign);
+            }
+        }
+        return deltas;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#lockItemResults(java.util.Collection)
+     */
+    public void lockItemResults(Collection<EvalResponse> responses) {
+        // sorted the same way as the changes are applied so the groups are always locked in the same order
+        Map<String, EvalResponse> groups = new TreeMap<>();
+        for (EvalResponse response : responses) {
+            groups.put(response.getEvaluation().getId() + "/" + response.getEvalGroupId(), response);
+        }
+        Session session = currentSession();
+        for (EvalResponse response : groups.values()) {
+            lockItemResults(session, response.getEvaluation().getId(), response.getEvalGroupId());
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#applyItemResults(java.util.Collection)
+     */
+    public void applyItemResults(Collection<ItemResultsDelta> deltas) {
+        if (deltas == null || deltas.isEmpty()) {
+            return;
+        }
+        // combine the changes for each group, sorted so the groups are always locked in the same order
+        Map<String, ItemResultsDelta> groupDeltas = new TreeMap<>();
+        for (ItemResultsDelta delta : deltas) {
+            String key = delta.getEvaluationId() + "/" + delta.getEvalGroupId();
+            ItemResultsDelta groupDelta = groupDeltas.get(key);
+            if (groupDelta == null) {
+                groupDelta = new ItemResultsDelta(delta.getEvaluationId(), delta.getEvalGroupId());
+                groupDeltas.put(key, groupDelta);
+            }
+            groupDelta.add(delta);
+        }
+
+        Session session = currentSession();
+        Date now = new Date();
+        for (ItemResultsDelta delta : groupDeltas.values()) {
+            if (delta.isEmpty()) {
+                continue;
+            }
+            lockItemResults(session, delta.getEvaluationId(), delta.getEvalGroupId());
+            Map<String, EvalItemResults> stored = new HashMap<>();
+            for (EvalItemResults results : getItemResults(delta.getEvaluationId(), new String[] {delta.getEvalGroupId()})) {
+                stored.put(results.getKey(), results);
+            }
+            if (! stored.containsKey(EvalItemResults.RESPONSES_KEY)) {
+                // first results for this group, they only include everything if there were no completed responses before
+                EvalItemResults responsesResults = new EvalItemResults(delta.getEvaluationId(), delta.getEvalGroupId(), null, null, null);
+                int previousCount = countCompletedResponses(session, delta.getEvaluationId(), delta.getEvalGroupId()) 
+                        - delta.getResponsesChange();
+                if (previousCount > 0) {
+                    LOG.warn("Item results for evaluation (" + delta.getEvaluationId() + ") in group (" + delta.getEvalGroupId()
+                            + ") were started after " + previousCount + " responses were completed, the item results need to be rebuilt");
+                    responsesResults.setStale(true);
+                }
+                responsesResults.setLastModified(now);
+                getHibernateTemplate().save(responsesResults);
+                stored.put(EvalItemResults.RESPONSES_KEY, responsesResults);
+            }
+            for (EvalItemResults change : delta.getChanges()) {
+                if (change.isEmpty()) {
+                    continue;
+                }
+                EvalItemResults results = stored.get(change.getKey());
+                if (results == null) {
+                    // the changes are the first results for this item
+                    results = change;
+                } else {
+                    results.add(change);
+                }
+                results.setLastModified(now);
+                getHibernateTemplate().saveOrUpdate(results);
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#rebuildItemResults(java.lang.Long)
+     */
+    public int rebuildItemResults(Long evalId) {
+        if (evalId == null) {
+            throw new IllegalArgumentException("evalId must be set");
+        }
+        Session session = currentSession();
+        lockItemResults(session, evalId, null);
+        int removed = session.createQuery("delete EvalItemResults results where results.evaluationId = :evalId")
+                .setParameter("evalId", evalId)
+                .executeUpdate();
+
+        Map<String, ItemResultsDelta> groupDeltas = new HashMap<>();
+        int responsesCount = 0;
+        Query query = session.createQuery("select response.evalGroupId, count(response.id) from EvalResponse as response"
+                + " where response.evaluation.id = :evalId and response.endTime is not null group by response.evalGroupId");
+        query.setParameter("evalId", evalId);
+        for (Object result : query.list()) {
+            Object[] row = (Object[]) result;
+            int count = ((Number) row[1]).intValue();
+            getGroupDelta(groupDeltas, evalId, (String) row[0]).addResponses(count);
+            responsesCount += count;
+        }
+
+        query = session.createQuery("select ansswerresp.evalGroupId, answer.templateItem.id, answer.associatedType, answer.associatedId,"
+                + " answer.numeric, answer.multiAnswerCode from EvalAnswer as answer join answer.response as ansswerresp"
+                + " where ansswerresp.evaluation.id = :evalId and ansswerresp.endTime is not null");
+        query.setParameter("evalId", evalId);
+        query.setFetchSize(500);
+        query.setReadOnly(true);
+        ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (results.next()) {
+                getGroupDelta(groupDeltas, evalId, (String) results.get(0)).addAnswer((Long) results.get(1), 
+                        (String) results.get(2), (String) results.get(3), (Integer) results.get(4), (String) results.get(5), 1);
+            }
+        } finally {
+            results.close();
+        }
+
+        Date now = new Date();
+        for (ItemResultsDelta delta : groupDeltas.values()) {
+            for (EvalItemResults change : delta.getChanges()) {
+                if (! change.isEmpty()) {
+                    change.setLastModified(now);
+                    getHibernateTemplate().save(change);
+                }
+            }
+        }
+        LOG.info("Rebuilt the item results for evaluation (" + evalId + ") from " + responsesCount + " responses in "
+                + groupDeltas.size() + " groups (removed " + removed + " old results)");
+        return responsesCount;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#removeItemResults(java.lang.Long)
+     */
+    public int removeItemResults(Long evalId) {
+        if (evalId == null) {
+            throw new IllegalArgumentException("evalId must be set");
+        }
+        int removed = currentSession().createQuery("delete EvalItemResults results where results.evaluationId = :evalId")
+                .setParameter("evalId", evalId)
+                .executeUpdate();
+        LOG.info("Removed " + removed + " item results rows for evaluation: " + evalId);
+        return removed;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#getStaleItemResultsGroups(java.lang.Long, java.lang.String[])
+     */
+    public List<String> getStaleItemResultsGroups(Long evalId, String[] evalGroupIds) {
+        Search search = new Search(new Restriction[] {
+                new Restriction("evaluationId", evalId),
+                new Restriction("templateItemId", "", Restriction.NULL),
+                new Restriction("stale", true) });
+        if (evalGroupIds != null && evalGroupIds.length > 0) {
+            search.addRestriction( new Restriction("evalGroupId", evalGroupIds) );
+        }
+        List<String> staleGroups = new ArrayList<>();
+        for (EvalItemResults results : findBySearch(EvalItemResults.class, search)) {
+            staleGroups.add(results.getEvalGroupId());
+        }
+        return staleGroups;
+    }
+
+    private int countCompletedResponses(Session session, Long evalId, String evalGroupId) {
+        Query query = session.createQuery("select count(response.id) from EvalResponse as response"
+                + " where response.evaluation.id = :evalId and response.evalGroupId = :evalGroupId and response.endTime is not null");
+        query.setParameter("evalId", evalId);
+        query.setParameter("evalGroupId", evalGroupId);
+        return ((Number) query.uniqueResult()).intValue();
+    }
+
+    private ItemResultsDelta getGroupDelta(Map<String, ItemResultsDelta> groupDeltas, Long evalId, String evalGroupId) {
+        ItemResultsDelta delta = groupDeltas.get(evalGroupId);
+        if (delta == null) {
+            delta = new ItemResultsDelta(evalId, evalGroupId);
+            groupDeltas.put(evalGroupId, delta);
+        }
+        return delta;
+    }
+
+    /**
+     * Locks the assigned group rows (or the evaluation when the group is not assigned) until the end of
+     * the transaction so only one transaction at a time can change the item results for a group
+     * 
+     * @param session the current session
+     * @param evalId the evaluation id
+     * @param evalGroupId the eval group id OR null to lock all the groups for the evaluation
+     */
+    private void lockItemResults(Session session, Long evalId, String evalGroupId) {
+        LockOptions lockOptions = new LockOptions(LockMode.PESSIMISTIC_WRITE);
+        Query query = session.createQuery("from EvalAssignGroup as assign where assign.evaluation.id = :evalId" 
+                + (evalGroupId == null ? "" : " and assign.evalGroupId = :evalGroupId"));
+        query.setParameter("evalId", evalId);
+        if (evalGroupId != null) {
+            query.setParameter("evalGroupId", evalGroupId);
+        }
+        // locking must never flush, the stored answers may still have to be read after this
+        query.setFlushMode(FlushMode.MANUAL);
+        query.setLockOptions(lockOptions);
+        if (query.list().isEmpty() || evalGroupId == null) {
+            session.get(EvalEvaluation.class, evalId, lockOptions);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#updateResponseSubmissionStatus(java.lang.String, java.lang.String, java.lang.String)
+     */
+    public boolean updateResponseSubmissionStatus(String submissionId, String expectedStatus, String newStatus) {
+        if (submissionId == null || expectedStatus == null || newStatus == null) {
+            throw new IllegalArgumentException("submissionId, expectedStatus and newStatus must all be set");
+        }
+        // the payload is only needed until the response is saved
+        int updated = currentSession().createQuery("update EvalResponseSubmission submission set submission.status = :newStatus, "
+                + "submission.lastModified = :now" + (EvalConstants.RESPONSE_SUBMISSION_QUEUED.equals(newStatus) ? "" : ", submission.payload = null")
+                + " where submission.submissionId = :submissionId and submission.status = :expectedStatus")
+                .setParameter("newStatus", newStatus)
+                .setParameter("now", new Date())
+                .setParameter("submissionId", submissionId)
+                .setParameter("expectedStatus", expectedStatus)
+                .executeUpdate();
+        return updated > 0;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#removeResponseSubmissions(java.lang.String, java.lang.String, java.lang.Long, java.lang.String, java.util.Date)
+     */
+    public int removeResponseSubmissions(String status, String owner, Long evaluationId, String evalGroupId, Date olderThan) {
+        if (status == null || EvalConstants.RESPONSE_SUBMISSION_QUEUED.equals(status)) {
+            throw new IllegalArgumentException("status must be set and queued submissions cannot be removed: " + status);
+        }
+        StringBuilder hql = new StringBuilder("delete EvalResponseSubmission submission where submission.status = :status");
+        if (owner != null) {
+            hql.append(" and submission.owner = :owner");
+        }
+        if (evaluationId != null) {
+            hql.append(" and submission.evaluationId = :evaluationId");
+        }
+        if (evalGroupId != null) {
+            hql.append(" and submission.evalGroupId = :evalGroupId");
+        }
+        if (olderThan != null) {
+            hql.append(" and submission.lastModified < :olderThan");
+        }
+        Query query = currentSession().createQuery(hql.toString());
+        query.setParameter("status", status);
+        if (owner != null) {
+            query.setParameter("owner", owner);
+        }
+        if (evaluationId != null) {
+            query.setParameter("evaluationId", evaluationId);
+        }
+        if (evalGroupId != null) {
+            query.setParameter("evalGroupId", evalGroupId);
+        }
+        if (olderThan != null) {
+            query.setParameter("olderThan", olderThan);
+        }
+        return query.executeUpdate();
+    }
+
     /**
      * Removes a group of templateItems and updates all related items 
      * and templates at the same time (inside one transaction)
@@ -893,6 +1426,20 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
             getHibernateTemplate().update(eti);
         }
 
+        // purge out the results for the template items
+        List<Long> templateItemIds = new ArrayList<>();
+        for (EvalTemplateItem eti : deleteTemplateItems) {
+            if (eti.getId() != null) {
+                templateItemIds.add(eti.getId());
+            }
+        }
+        if (! templateItemIds.isEmpty()) {
+            int results = currentSession().createQuery("delete EvalItemResults results where results.templateItemId in (:templateItemIds)")
+                    .setParameterList("templateItemIds", templateItemIds)
+                    .executeUpdate();
+            LOG.debug("Removed " + results + " item results rows for the template items: " + templateItemIds);
+        }
+
         // do the actual deletes
         getHibernateTemplate().deleteAll(deleteTemplateItems);
         LOG.info("Removed " + deleteTemplateItems.size() + " template items");
@@ -1132,6 +1679,24 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
         return responseIds;
     }
 
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#getResponsesWatermark(java.lang.Long, java.lang.String[])
+     */
+    public Object[] getResponsesWatermark(Long evalId, String[] evalGroupIds) {
+        Map<String, Object> params = new HashMap<>();
+        String groupsHQL = "";
+        if (evalGroupIds != null && evalGroupIds.length > 0) {
+            groupsHQL = " and response.evalGroupId in (:evalGroupIds) ";
+            params.put("evalGroupIds", evalGroupIds);
+        }
+        params.put("evalId", evalId);
+        String hql = "SELECT count(response.id), max(response.lastModified) from EvalResponse as response "
+            + "where response.evaluation.id = :evalId " + groupsHQL;
+        List<?> results = executeHqlQuery(hql, params, 0, 0);
+        Object[] row = (Object[]) results.get(0);
+        return new Object[] { ((Number) row[0]).longValue(), row[1] };
+    }
+
 
     /**
      * Removes an array of responses and all their associated answers at
@@ -1144,6 +1709,9 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
      */
     public void removeResponses(Long[] responseIds) {
         if (responseIds != null && responseIds.length > 0) {
+            // get what the completed responses added to the item results before they are gone
+            Map<Long, ItemResultsDelta> removedResults = getResponseItemResults(responseIds, -1);
+
             String rids = "(" + ArrayUtils.arrayToString(responseIds) + ")";
             // purge out the answers first
             String hql = "delete EvalAnswer answer where answer.response.id in " + rids;
@@ -1156,6 +1724,8 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
             LOG.debug("delete EvalResponse HQL:" + hql);
             results = getHibernateTemplate().bulkUpdate(hql);
             LOG.info("Remove " + results + " responses with the following ids: " + rids);
+
+            applyItemResults(removedResults.values());
         }
     }
 
@@ -1609,10 +2179,12 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
                 evaluation.setLocked(Boolean.TRUE);
                 currentSession().merge(evaluation);
                 currentSession().evict(evaluation);
+                rememberLockedEvaluation(evaluation.getId());
                 return true;
             }
         } else {
             // unlocking this template
+            knownLockedEvaluations.remove(evaluation.getId());
             if (! evaluation.getLocked()) {
                 // already unlocked, no change
                 return false;
@@ -1633,6 +2205,70 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#lockEvaluationIfUnlocked(java.lang.Long)
+     */
+    public boolean lockEvaluationIfUnlocked(Long evaluationId) {
+        if (evaluationId == null) {
+            throw new IllegalArgumentException("evaluationId must be set");
+        }
+        long now = System.currentTimeMillis();
+        Long knownLocked = knownLockedEvaluations.get(evaluationId);
+        if (knownLocked != null && (now - knownLocked) < KNOWN_LOCKED_EVALUATION_TTL) {
+            // already locked, no change
+            return false;
+        }
+
+        // only one caller can flip the lock so only that one has to cascade it
+        Query query = currentSession().createQuery("update EvalEvaluation eval set eval.locked = :locked where eval.id = :id and eval.locked = :unlocked");
+        query.setParameter("locked", Boolean.TRUE);
+        query.setParameter("unlocked", Boolean.FALSE);
+        query.setParameter("id", evaluationId);
+        int updated = query.executeUpdate();
+        if (updated > 0) {
+            LOG.info("Locking evaluation (" + evaluationId + ") and associated entities");
+            EvalEvaluation evaluation = (EvalEvaluation) findById(EvalEvaluation.class, evaluationId);
+            if (evaluation != null) {
+                // the bulk update bypasses the session so make sure the loaded copy matches the DB
+                currentSession().refresh(evaluation);
+                EvalTemplate template = evaluation.getTemplate();
+                if (template != null && ! template.getLocked()) {
+                    lockTemplate(template, Boolean.TRUE);
+                }
+            }
+            rememberLockedEvaluation(evaluationId);
+        } else {
+            // nothing updated so the evaluation is either locked already or does not exist
+            Query lockedQuery = currentSession().createQuery("select eval.locked from EvalEvaluation eval where eval.id = :id");
+            lockedQuery.setParameter("id", evaluationId);
+            if (Boolean.TRUE.equals(lockedQuery.uniqueResult())) {
+                rememberLockedEvaluation(evaluationId);
+            }
+        }
+        return updated > 0;
+    }
+
+    /**
+     * Remember the evaluation as locked once the current transaction commits,
+     * a lock which is rolled back must not stop the next caller from locking the evaluation
+     * 
+     * @param evaluationId the unique id of an evaluation which is locked in this transaction
+     */
+    private void rememberLockedEvaluation(final Long evaluationId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        knownLockedEvaluations.put(evaluationId, System.currentTimeMillis());
+                    }
+                }
+            });
+        } else {
+            knownLockedEvaluations.put(evaluationId, System.currentTimeMillis());
+        }
+    }
+
     // IN_USE checks
 
     /**
@@ -1697,6 +2333,71 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
     }
 
 
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#getConfigVersion(java.lang.String)
+     */
+    public Long getConfigVersion(String versionName) {
+        String value = getConfigValue(versionName);
+        return value == null ? null : parseConfigVersion(value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#incrementConfigVersion(java.lang.String)
+     */
+    public long incrementConfigVersion(String versionName) {
+        if (versionName == null || "".equals(versionName)) {
+            throw new IllegalArgumentException("The version name must be set");
+        }
+        Session session = currentSession();
+        Date now = new Date();
+        // lock the version row (the update waits for any other change to commit) before reading it
+        int updated = session.createQuery("update EvalConfig config set config.lastModified = :now where config.name = :name")
+                .setParameter("now", now)
+                .setParameter("name", versionName)
+                .executeUpdate();
+        if (updated == 0) {
+            // the first version, the unique name means only one server can create it
+            getHibernateTemplate().save(new EvalConfig(versionName, "1"));
+            getHibernateTemplate().flush();
+            return 1l;
+        }
+        for (int attempt = 0; attempt < 5; attempt++) {
+            String current = getConfigValue(versionName);
+            long next = parseConfigVersion(current) + 1;
+            updated = session.createQuery("update EvalConfig config set config.value = :next, config.lastModified = :now "
+                    + "where config.name = :name and config.value = :current")
+                    .setParameter("next", Long.toString(next))
+                    .setParameter("now", now)
+                    .setParameter("name", versionName)
+                    .setParameter("current", current)
+                    .executeUpdate();
+            if (updated > 0) {
+                return next;
+            }
+        }
+        throw new IllegalStateException("Could not increment the config version ("+versionName+"), it keeps changing");
+    }
+
+    private String getConfigValue(String name) {
+        List<?> results = currentSession().createQuery("select config.value from EvalConfig config where config.name = :name")
+                .setParameter("name", name)
+                .list();
+        return results.isEmpty() ? null : (String) results.get(0);
+    }
+
+    /**
+     * @return the version number OR 0 if the value is not a number (versions used to be unique strings)
+     */
+    private long parseConfigVersion(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0l;
+        }
+    }
+
     /**
      * Allows a lock to be obtained that is system wide,
      * this is primarily for ensuring something runs on a single server only in a cluster<br/>
@@ -1712,6 +2413,20 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
      * @return true if a lock was obtained, false if not, null if failure
      */
     public Boolean obtainLock(String lockId, String executerId, long timePeriod) {
+        Long token = obtainLockToken(lockId, executerId, timePeriod);
+        return token == null ? null : token > 0;
+    }
+
+    /**
+     * Released locks are set to this date so they are always expired and are removed by the next purge
+     */
+    private static final Date RELEASED_LOCK_DATE = new Date(0);
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#obtainLockToken(java.lang.String, java.lang.String, long)
+     */
+    public Long obtainLockToken(String lockId, String executerId, long timePeriod) {
         if (executerId == null || 
                 "".equals(executerId)) {
             throw new IllegalArgumentException("The executer Id must be set");
@@ -1721,49 +2436,117 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
             throw new IllegalArgumentException("The lock Id must be set");
         }
 
-        // basically we are opening a transaction to get the current lock and set it if it is not there
-        Boolean obtainedLock;
+        // each step is a single conditional statement so the database decides who gets the lock
+        Long token = null;
         try {
-            // check the lock
-            List<EvalLock> locks = findBySearch(EvalLock.class, new Search("name", lockId) );
-            if (locks.size() > 0) {
-                // check if this is my lock, if not, then exit, if so then go ahead
-                EvalLock lock = locks.get(0);
-                if (lock.getHolder().equals(executerId)) {
-                    obtainedLock = true;
-                    // if this is my lock then update it immediately
-                    lock.setLastModified(new Date());
-                    getHibernateTemplate().save(lock);
-                    getHibernateTemplate().flush(); // this should commit the data immediately
-                } else {
-                    // not the lock owner but we can still get the lock
-                    long validTime = lock.getLastModified().getTime() + timePeriod + 100;
-                    if (System.currentTimeMillis() > validTime) {
-                        // the old lock is no longer valid so we are taking it
-                        obtainedLock = true;
-                        lock.setLastModified(new Date());
-                        lock.setHolder(executerId);
-                        getHibernateTemplate().save(lock);
-                        getHibernateTemplate().flush(); // this should commit the data immediately
-                    } else {
-                        // someone else is holding a valid lock still
-                        obtainedLock = false;
-                    }
-                }
-            } else {
-                // obtain the lock
-                EvalLock lock = new EvalLock(lockId, executerId);
-                getHibernateTemplate().save(lock);
-                getHibernateTemplate().flush(); // this should commit the data immediately
-                obtainedLock = true;
+            if (countBySearch(EvalLock.class, new Search("name", lockId)) == 0) {
+                // obtain the lock, the unique name means only one insert can win
+                token = insertLock(new EvalLock(lockId, executerId));
+            }
+            if (token == null) {
+                token = updateLock(lockId, executerId, timePeriod);
             }
         } catch (RuntimeException e) {
-            obtainedLock = null; // null indicates the failure
+            token = null; // null indicates the failure
             cleanupLockAfterFailure(lockId);
             LOG.fatal("Lock obtaining failure for lock ("+lockId+"): " + e.getMessage(), e);
         }
 
-        return obtainedLock;
+        return token;
+    }
+
+    /**
+     * Renews the lock if it is held by this executer or takes it over if it is no longer valid
+     * 
+     * @param lockId the name of the lock
+     * @param executerId the executer trying to obtain the lock
+     * @param timePeriod the length of time (in milliseconds) that the lock is valid for
+     * @return the token of the lock OR 0 if another executer holds a valid lock
+     */
+    private Long updateLock(String lockId, String executerId, long timePeriod) {
+        Date now = new Date();
+        Session session = currentSession();
+        // renew the lock if it is mine, the token stays the same since it never changed hands
+        int updated = session.createQuery("update EvalLock evalLock set evalLock.lastModified = :now "
+                + "where evalLock.name = :name and evalLock.holder = :holder and evalLock.lastModified > :released")
+                .setParameter("now", now)
+                .setParameter("name", lockId)
+                .setParameter("holder", executerId)
+                .setParameter("released", RELEASED_LOCK_DATE)
+                .executeUpdate();
+        if (updated == 0) {
+            // take over the lock if the old one is no longer valid, this is a new holder so the token goes up
+            Date expired = new Date(now.getTime() - timePeriod - 100);
+            updated = session.createQuery("update EvalLock evalLock set evalLock.holder = :holder, evalLock.lastModified = :now, "
+                    + "evalLock.token = coalesce(evalLock.token, 0) + 1 "
+                    + "where evalLock.name = :name and evalLock.lastModified < :expired")
+                    .setParameter("holder", executerId)
+                    .setParameter("now", now)
+                    .setParameter("name", lockId)
+                    .setParameter("expired", expired)
+                    .executeUpdate();
+        }
+        Long token = 0l; // someone else is holding a valid lock still
+        if (updated > 0) {
+            token = getLockToken(lockId, executerId);
+            if (token == null) {
+                // the lock changed hands between the update and the read
+                token = 0l;
+            }
+        }
+        return token;
+    }
+
+    /**
+     * Inserts a new lock in its own session and transaction so losing the race for it (the unique name is violated)
+     * never touches the session or transaction of the caller
+     * 
+     * @param lock the new lock
+     * @return the token of the inserted lock OR null if another executer inserted the lock first
+     */
+    private Long insertLock(EvalLock lock) {
+        Long token = null;
+        Session session = getSessionFactory().openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            session.save(lock);
+            tx.commit();
+            token = lock.getToken();
+        } catch (ConstraintViolationException e) {
+            // another executer inserted the lock at the same time as us
+            if (tx != null && tx.isActive()) {
+                tx.rollback();
+            }
+        } finally {
+            session.close();
+        }
+        return token;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#getLockToken(java.lang.String, java.lang.String)
+     */
+    public Long getLockToken(String lockId, String executerId) {
+        if (lockId == null || executerId == null) {
+            throw new IllegalArgumentException("The lock Id and executer Id must be set");
+        }
+        List<?> results = currentSession().createQuery("select evalLock.token from EvalLock evalLock "
+                + "where evalLock.name = :name and evalLock.holder = :holder and evalLock.lastModified > :released")
+                .setParameter("name", lockId)
+                .setParameter("holder", executerId)
+                .setParameter("released", RELEASED_LOCK_DATE)
+                .list();
+        Long token = null;
+        if (! results.isEmpty()) {
+            token = (Long) results.get(0);
+            if (token == null) {
+                // lock from before fencing tokens were added
+                token = 1l;
+            }
+        }
+        return token;
     }
 
     /**
@@ -1787,23 +2570,17 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
             throw new IllegalArgumentException("The lock Id must be set");
         }
 
-        // basically we are opening a transaction to get the current lock and set it if it is not there
-        Boolean releasedLock = false;
+        // only release the lock if it is mine, the lock is kept (as expired) so the fencing token keeps going up
+        // until the lock is purged by purgeLocks
+        Boolean releasedLock;
         try {
-            // check the lock
-            List<EvalLock> locks = findBySearch(EvalLock.class, new Search("name", lockId) );
-            if (locks.size() > 0) {
-                // check if this is my lock, if not, then exit, if so then go ahead
-                EvalLock lock = locks.get(0);
-                if (lock.getHolder().equals(executerId)) {
-                    releasedLock = true;
-                    // if this is my lock then remove it immediately
-                    getHibernateTemplate().delete(lock);
-                    getHibernateTemplate().flush(); // this should commit the data immediately
-                } else {
-                    releasedLock = false;
-                }
-            }
+            int released = currentSession().createQuery("update EvalLock evalLock set evalLock.lastModified = :released "
+                    + "where evalLock.name = :name and evalLock.holder = :holder and evalLock.lastModified > :released")
+                    .setParameter("released", RELEASED_LOCK_DATE)
+                    .setParameter("name", lockId)
+                    .setParameter("holder", executerId)
+                    .executeUpdate();
+            releasedLock = released > 0;
         } catch (RuntimeException e) {
             releasedLock = null; // null indicates the failure
             cleanupLockAfterFailure(lockId);
@@ -1813,6 +2590,41 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
         return releasedLock;
     }
 
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#purgeLocks(java.util.Date)
+     */
+    public int purgeLocks(Date unusedSince) {
+        if (unusedSince == null) {
+            throw new IllegalArgumentException("The unused since date must be set");
+        }
+        // released locks are set to the epoch so they are always older than the date
+        return currentSession().createQuery("delete from EvalLock evalLock where evalLock.lastModified < :unusedSince")
+                .setParameter("unusedSince", unusedSince)
+                .executeUpdate();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#getLockHolder(java.lang.String, long)
+     */
+    public String getLockHolder(String lockId, long timePeriod) {
+        if (lockId == null || 
+                "".equals(lockId)) {
+            throw new IllegalArgumentException("The lock Id must be set");
+        }
+        String holder = null;
+        List<EvalLock> locks = findBySearch(EvalLock.class, new Search("name", lockId) );
+        if (locks.size() > 0) {
+            EvalLock lock = locks.get(0);
+            long validTime = lock.getLastModified().getTime() + timePeriod + 100;
+            if (System.currentTimeMillis() <= validTime) {
+                holder = lock.getHolder();
+            }
+        }
+        return holder;
+    }
+
     /*
      * (non-Javadoc)
      * @see org.sakaiproject.evaluation.dao.EvaluationDao#countDistinctGroupsInConsolidatedEmailMapping()
@@ -1834,37 +2646,76 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
         return count;
     }
 
+    /**
+     * Restricts the email processing queue to the records for one kind of consolidated email
+     * (available or reminder) so an interrupted run of one kind does not get mixed into the other
+     */
+    private static final String CONSOLIDATED_EMAIL_TYPE_RESTRICTION = 
+            "emailTemplateId in (select template.id from EvalEmailTemplate template where template.type = :emailTemplateType)";
+
+    private String getConsolidatedEmailTemplateType(boolean sendingAvailableEmails) {
+        return sendingAvailableEmails ? EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_AVAILABLE : EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_REMINDER;
+    }
+
     /**
      * Access one page of summary info needed to render consolidated email templates. 
      * The summary info consists of a user-id, a user-eid, a template-id (EmailTemplate.ID) 
      * and the earliest due date of Active evals which use the email template and which the 
-     * referenced user can take.
+     * referenced user can take.<br/>
+     * NOTE: the records are not marked as sent until {@link #markConsolidatedEmailsSent(boolean, Long, List)}
+     * is called after the emails are delivered
      * @param pageSize The maximum number of mappings to return. A mapping consists of a user-id, an email template
      * 		id and a date.
      * @param page The zero-based starting page. In other words, return a page of items beginning at index 
      * 		(pageSize * page).
      * @return map of email mappings
      */
-    @SuppressWarnings("rawtypes")
 	public List<Map<String,Object>>  getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, int page) {
-    	String query1 = "select userId,emailTemplateId,min(evalDueDate) from EvalEmailProcessingData group by emailTemplateId,userId order by emailTemplateId,userId";
-    	
     	if(LOG.isDebugEnabled()) {
     		LOG.debug("getConsolidatedEmailMapping(" + sendingAvailableEmails + ", " + pageSize + ", " + page + ")");
     	}
+    	return findConsolidatedEmailMapping(sendingAvailableEmails, pageSize, page, null, null);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#getConsolidatedEmailMapping(boolean, int, java.lang.Long, java.lang.String)
+     */
+	public List<Map<String,Object>>  getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, Long afterEmailTemplateId, String afterUserId) {
+    	if(LOG.isDebugEnabled()) {
+    		LOG.debug("getConsolidatedEmailMapping(" + sendingAvailableEmails + ", " + pageSize + ", " + afterEmailTemplateId + ", " + afterUserId + ")");
+    	}
+    	return findConsolidatedEmailMapping(sendingAvailableEmails, pageSize, 0, afterEmailTemplateId, afterUserId);
+    }
+
+    /**
+     * Get a page of the consolidated email mapping either by offset (page) 
+     * or after a (emailTemplateId, userId) key so the database can seek to the start of the page using the index
+     * instead of grouping and skipping all the earlier pages again
+     */
+    @SuppressWarnings("rawtypes")
+    private List<Map<String,Object>> findConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, int page, 
+            Long afterEmailTemplateId, String afterUserId) {
+    	boolean keyset = afterEmailTemplateId != null && afterUserId != null;
+    	StringBuilder hql = new StringBuilder("select userId,emailTemplateId,min(evalDueDate) from EvalEmailProcessingData where ");
+    	hql.append(CONSOLIDATED_EMAIL_TYPE_RESTRICTION);
+    	if (keyset) {
+    		hql.append(" and (emailTemplateId > :afterEmailTemplateId or (emailTemplateId = :afterEmailTemplateId and userId > :afterUserId))");
+    	}
+    	hql.append(" group by emailTemplateId,userId order by emailTemplateId,userId");
     	
     	List<Map<String,Object>> rv = new ArrayList<>();
     	
-    	Session session = currentSession();
-    	
-        Query query = session.createQuery(query1);
-        query.setFirstResult(pageSize * page);
+        Query query = currentSession().createQuery(hql.toString());
+        query.setString("emailTemplateType", getConsolidatedEmailTemplateType(sendingAvailableEmails));
+        if (keyset) {
+            query.setLong("afterEmailTemplateId", afterEmailTemplateId);
+            query.setString("afterUserId", afterUserId);
+        } else {
+            query.setFirstResult(pageSize * page);
+        }
         query.setMaxResults(pageSize);
         
-    	List<String> userIdList = new ArrayList<>();
-    	Long previousTemplateId = null;
-    	Long templateId = null;
-    	
         List results = query.list();
 
         if(results != null) {
@@ -1873,14 +2724,11 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
             for(int i = 0; i < results.size(); i++) {
                 Object[] row = (Object[]) results.get(i);
                 String userId = (String) row[0];
-                templateId = (Long) row[1];
+                Long templateId = (Long) row[1];
                 Date earliestDueDate = (Date)row[2];
                 if(userId == null || templateId == null) {
                     continue;
                 }
-                if(previousTemplateId == null ) {
-                    previousTemplateId = templateId;
-                }
 
                 Map<String,Object> map = new HashMap<>();
 
@@ -1888,41 +2736,58 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
                 map.put(EvalConstants.KEY_EMAIL_TEMPLATE_ID,templateId);
                 map.put(EvalConstants.KEY_EARLIEST_DUE_DATE,earliestDueDate);
                 rv.add(map);
-                LOG.info("added email-processing entry for user: " + userId + " templateId: " + templateId);
-                if(templateId.longValue() != previousTemplateId.longValue() || userIdList.size() > MAX_UPDATE_SIZE) {
-                    // mark eval_assign_user records as sent 
-                    markRecordsAsSent(session, sendingAvailableEmails, templateId,
-                            userIdList);
+                if(LOG.isDebugEnabled()) {
+                    LOG.debug("added email-processing entry for user: " + userId + " templateId: " + templateId);
                 }
-                userIdList.add(userId);
-                //updates.add((Long) row[0]);
             }
         }
-
-		if(templateId == null || userIdList.isEmpty() ) {
-			LOG.info("Can't mark EvalAssignUser records due to null values: userId == " + userIdList + "   templateId == " + templateId);
-    	} else {
-			// mark eval_assign_user records as sent 
-	    	markRecordsAsSent(session, sendingAvailableEmails, templateId,
-					userIdList);
-
-    	}
         
     	return rv;
     }
 
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#markConsolidatedEmailsSent(boolean, java.lang.Long, java.util.List)
+     */
+    public int markConsolidatedEmailsSent(boolean sendingAvailableEmails, Long emailTemplateId, List<String> userIds) {
+        if (emailTemplateId == null || userIds == null || userIds.isEmpty()) {
+            return 0;
+        }
+        Session session = currentSession();
+        int count = 0;
+        for (int i = 0; i < userIds.size(); i += MAX_UPDATE_SIZE) {
+            List<String> userIdList = new ArrayList<>(userIds.subList(i, Math.min(i + MAX_UPDATE_SIZE, userIds.size())));
+            count += markRecordsAsSent(session, sendingAvailableEmails, emailTemplateId, userIdList);
+        }
+        return count;
+    }
+
 	/**
+	 * Mark the queue records for these users and the eval_assign_user records they came from as sent,
+	 * this uses a few set based updates (no matter how many users there are): the queue records are
+	 * flagged with {@link EvalEmailProcessingData#STATUS_MARKING} first so the eval_assign_user update can
+	 * join against them, then they are changed to {@link EvalEmailProcessingData#STATUS_SENT}
 	 * 
 	 * @param session
 	 * @param sendingAvailableEmails
 	 * @param templateId
-	 * @param userIdList
+	 * @param userIdList at most {@link #MAX_UPDATE_SIZE} user ids
+	 * @return the number of queue records marked as sent
 	 */
-	protected void markRecordsAsSent(Session session,
+	protected int markRecordsAsSent(Session session,
 			boolean sendingAvailableEmails, Long templateId,
 			List<String> userIdList) {
 		
-		
+		int marked = session.createQuery("update EvalEmailProcessingData set processingStatus = :marking "
+				+ "where emailTemplateId = :emailTemplateId and userId in (:userIds)")
+				.setParameter("marking", EvalEmailProcessingData.STATUS_MARKING)
+				.setLong("emailTemplateId", templateId)
+				.setParameterList("userIds", userIdList)
+				.executeUpdate();
+		if (marked == 0) {
+			return 0;
+		}
+
 		StringBuilder hqlBuffer = new StringBuilder();
 		
 		hqlBuffer.append("update EvalAssignUser ");
@@ -1931,28 +2796,25 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
 		} else {
 			hqlBuffer.append("set reminderEmailSent = :dateSent ");
 		}
-		hqlBuffer.append("where id in (select eauId from EvalEmailProcessingData where emailTemplateId = :emailTemplateId and userId = :userId)");
+		hqlBuffer.append("where id in (select eauId from EvalEmailProcessingData where emailTemplateId = :emailTemplateId and processingStatus = :marking)");
 		
-		Query updateQuery = session.createQuery(hqlBuffer.toString());
-		
-		updateQuery.setDate("dateSent", new Date());
-		updateQuery.setLong("emailTemplateId", templateId);
-		
-		for(String userId : userIdList) {
-			try {
-				
-				updateQuery.setString("userId", userId);
-				updateQuery.executeUpdate();
-				
-			} catch (HibernateException e) {
-				LOG.warn("Error trying to update evalAssignUser. " + userId, e);
-			}
-		}
+		// let any failure roll back the whole transaction so the queue records and the assign users stay in step
+		session.createQuery(hqlBuffer.toString())
+				.setDate("dateSent", new Date())
+				.setLong("emailTemplateId", templateId)
+				.setParameter("marking", EvalEmailProcessingData.STATUS_MARKING)
+				.executeUpdate();
+
+		session.createQuery("update EvalEmailProcessingData set processingStatus = :sent "
+				+ "where emailTemplateId = :emailTemplateId and processingStatus = :marking")
+				.setParameter("sent", EvalEmailProcessingData.STATUS_SENT)
+				.setLong("emailTemplateId", templateId)
+				.setParameter("marking", EvalEmailProcessingData.STATUS_MARKING)
+				.executeUpdate();
 		if(LOG.isDebugEnabled()) {
 			LOG.debug("         --> marked entries for users: " + userIdList);
 		}
-		session.flush();
-		userIdList.clear();
+		return marked;
 	}
 
     /*
@@ -1964,6 +2826,51 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
 		Query query = currentSession().createQuery(deleteHql);
 		return query.executeUpdate();
 	}
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#resetConsolidatedEmailRecipients(boolean)
+     */
+	public int resetConsolidatedEmailRecipients(boolean sendingAvailableEmails) {
+		String deleteHql = "delete from EvalEmailProcessingData where " + CONSOLIDATED_EMAIL_TYPE_RESTRICTION;
+		Query query = currentSession().createQuery(deleteHql);
+		query.setString("emailTemplateType", getConsolidatedEmailTemplateType(sendingAvailableEmails));
+		return query.executeUpdate();
+	}
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationDao#resumeConsolidatedEmailRecipients(boolean)
+     */
+	@SuppressWarnings("rawtypes")
+	public int resumeConsolidatedEmailRecipients(boolean sendingAvailableEmails) {
+		String emailTemplateType = getConsolidatedEmailTemplateType(sendingAvailableEmails);
+		Session session = currentSession();
+		// the emails which were delivered before the run stopped are done
+		int sent = session.createQuery("delete from EvalEmailProcessingData where processingStatus = :sent and " 
+				+ CONSOLIDATED_EMAIL_TYPE_RESTRICTION)
+				.setParameter("sent", EvalEmailProcessingData.STATUS_SENT)
+				.setString("emailTemplateType", emailTemplateType)
+				.executeUpdate();
+		// evaluations which closed while the run was stopped should not get these emails anymore
+		int closed = session.createQuery("delete from EvalEmailProcessingData where evalDueDate < :now and " 
+				+ CONSOLIDATED_EMAIL_TYPE_RESTRICTION)
+				.setParameter("now", new Date())
+				.setString("emailTemplateType", emailTemplateType)
+				.executeUpdate();
+		List results = session.createQuery("select count(*) from EvalEmailProcessingData where " + CONSOLIDATED_EMAIL_TYPE_RESTRICTION)
+				.setString("emailTemplateType", emailTemplateType)
+				.list();
+		int count = 0;
+		if (results != null && ! results.isEmpty()) {
+			count = ((Number) results.get(0)).intValue();
+		}
+		if (count > 0) {
+			LOG.info("Resuming " + count + " " + emailTemplateType + " records from the email processing queue (" + sent 
+					+ " were already sent and " + closed + " were for closed evaluations)");
+		}
+		return count;
+	}
 	
     /*
      * (non-Javadoc)
@@ -2064,20 +2971,14 @@ public class EvaluationDaoImpl extends HibernateGeneralGenericDao implements Eva
     }
 
     /**
-     * Cleans up lock if there was a failure
+     * Cleans up after a lock failure, the lock itself is left alone since it may be validly held
+     * by another server (deleting it would also reset the fencing token), if it was ours it will expire
      * 
      * @param lockId
      */
     private void cleanupLockAfterFailure(String lockId) {
         getHibernateTemplate().clear(); // cancel any pending operations
-        // try to clear the lock if things died
-        try {
-            List<EvalLock> locks = findBySearch(EvalLock.class, new Search("name", lockId) );
-            getHibernateTemplate().deleteAll(locks);
-            getHibernateTemplate().flush();
-        } catch (Exception ex) {
-            LOG.error("Could not cleanup the lock ("+lockId+") after failure: " + ex.getMessage(), ex);
-        }
+        LOG.debug("Cleared pending operations after failure on lock ("+lockId+")");
     }
 
 }
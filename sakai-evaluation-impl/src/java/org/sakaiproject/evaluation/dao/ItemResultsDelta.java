@@ -0,0 +1,152 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.dao;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalItemResults;
+
+/**
+ * Holds the changes to the pre-aggregated {@link EvalItemResults} for a single evaluation group,
+ * this is built up as responses are added or removed and then applied to the stored results
+ * with {@link EvaluationDao#applyItemResults(Collection)}
+ */
+public class ItemResultsDelta {
+
+    private final Long evaluationId;
+    private final String evalGroupId;
+    private final Map<String, EvalItemResults> changes = new LinkedHashMap<>();
+
+    /**
+     * @param evaluationId the evaluation the changes are for
+     * @param evalGroupId the eval group the changes are for
+     */
+    public ItemResultsDelta(Long evaluationId, String evalGroupId) {
+        if (evaluationId == null || evalGroupId == null) {
+            throw new IllegalArgumentException("evaluationId and evalGroupId must be set");
+        }
+        this.evaluationId = evaluationId;
+        this.evalGroupId = evalGroupId;
+    }
+
+    /**
+     * Add (or remove) a completed response and all its answers
+     *
+     * @param answers the answers in the response
+     * @param sign 1 to add the response OR -1 to remove a response which was added before
+     */
+    public void addResponse(Collection<EvalAnswer> answers, int sign) {
+        addResponses(sign);
+        if (answers != null) {
+            for (EvalAnswer answer : answers) {
+                addAnswer(answer.getTemplateItem().getId(), answer.getAssociatedType(), answer.getAssociatedId(),
+                        answer.getNumeric(), answer.getMultiAnswerCode(), sign);
+            }
+        }
+    }
+
+    /**
+     * Change the number of completed responses without changing any answers
+     *
+     * @param count the number of responses to add (negative to remove)
+     */
+    public void addResponses(int count) {
+        // the responses results only count the responses
+        getChanges(null, null, null).addAnswer(null, null, count);
+    }
+
+    /**
+     * Add (or remove) the values from a single answer
+     *
+     * @param templateItemId the template item the answer is for
+     * @param associatedType the associated type of the answer
+     * @param associatedId the associated id of the answer
+     * @param numeric the stored numeric value of the answer
+     * @param multiAnswerCode the stored multiple answer code of the answer
+     * @param sign 1 to add the answer OR -1 to remove an answer which was added before
+     */
+    public void addAnswer(Long templateItemId, String associatedType, String associatedId,
+            Integer numeric, String multiAnswerCode, int sign) {
+        getChanges(templateItemId, associatedType, associatedId).addAnswer(numeric, multiAnswerCode, sign);
+    }
+
+    /**
+     * Add all the changes from another delta for the same evaluation group
+     *
+     * @param other the changes to add
+     */
+    public void add(ItemResultsDelta other) {
+        if (! evaluationId.equals(other.evaluationId) || ! evalGroupId.equals(other.evalGroupId)) {
+            throw new IllegalArgumentException("Cannot add changes for a different evaluation group: " + other);
+        }
+        for (EvalItemResults change : other.changes.values()) {
+            getChanges(change.getTemplateItemId(), change.getAssociatedType(), change.getAssociatedId()).add(change);
+        }
+    }
+
+    private EvalItemResults getChanges(Long templateItemId, String associatedType, String associatedId) {
+        EvalItemResults change = new EvalItemResults(evaluationId, evalGroupId, templateItemId, associatedType, associatedId);
+        EvalItemResults current = changes.get(change.getKey());
+        if (current == null) {
+            changes.put(change.getKey(), change);
+            current = change;
+        }
+        return current;
+    }
+
+    /**
+     * @return true if there are no changes to apply
+     */
+    public boolean isEmpty() {
+        for (EvalItemResults change : changes.values()) {
+            if (! change.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the change in the number of completed responses (negative if responses were removed)
+     */
+    public int getResponsesChange() {
+        EvalItemResults change = changes.get(EvalItemResults.RESPONSES_KEY);
+        return change == null ? 0 : change.getResponsesCount();
+    }
+
+    /**
+     * @return the changes for each template item answer key (as non-persistent results)
+     */
+    public Collection<EvalItemResults> getChanges() {
+        return changes.values();
+    }
+
+    public Long getEvaluationId() {
+        return evaluationId;
+    }
+
+    public String getEvalGroupId() {
+        return evalGroupId;
+    }
+
+    @Override
+    public String toString() {
+        return "ItemResultsDelta[" + evaluationId + ":" + evalGroupId + "]";
+    }
+
+}
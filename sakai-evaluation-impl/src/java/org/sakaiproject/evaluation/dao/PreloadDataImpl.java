@@ -27,6 +27,7 @@ import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.constant.EvalEmailConstants;
 import org.sakaiproject.evaluation.logic.EvalSettings;
+import org.sakaiproject.evaluation.logic.EvalSettingsImpl;
 import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
 import org.sakaiproject.evaluation.model.EvalConfig;
 import org.sakaiproject.evaluation.model.EvalEmailTemplate;
@@ -159,6 +160,8 @@ public class PreloadDataImpl {
 
         if( countNewConfigs > 0){
         	LOG.info("Preloaded " + countNewConfigs + " evaluation system EvalConfig items");
+        	// change the settings version so any settings which are already loaded get reloaded
+        	dao.incrementConfigVersion(EvalSettingsImpl.SETTINGS_VERSION_NAME);
         }
     }
 
@@ -536,6 +539,10 @@ public class PreloadDataImpl {
         evalConfigMap.put(EvalSettings.SYNC_USER_ASSIGNMENTS_ON_GROUP_UPDATE, false);
         evalConfigMap.put(EvalSettings.SYNC_USER_ASSIGNMENTS_ON_STATE_CHANGE, false);
         evalConfigMap.put(EvalSettings.SYNC_UNASSIGNED_GROUPS_ON_STARTUP, false);
+        evalConfigMap.put(EvalSettings.SYNC_SHARDED, false);
+
+        // Default settings for response submission
+        evalConfigMap.put(EvalSettings.ENABLE_QUEUED_RESPONSE_SUBMISSION, false);
 	
     }
     
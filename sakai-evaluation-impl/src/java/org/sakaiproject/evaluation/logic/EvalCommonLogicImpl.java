@@ -23,6 +23,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -64,6 +65,11 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
 
     private static final Log LOG = LogFactory.getLog(EvalCommonLogicImpl.class);
 
+    // settings which are read on most requests
+    private static final EvalSettings.BooleanKey ENABLE_SAKAI_ADMIN_ACCESS = new EvalSettings.BooleanKey(EvalSettings.ENABLE_SAKAI_ADMIN_ACCESS);
+    private static final EvalSettings.BooleanKey VIEW_SURVEY_RESULTS_IGNORE_DATES = new EvalSettings.BooleanKey(EvalSettings.VIEW_SURVEY_RESULTS_IGNORE_DATES);
+    private static final EvalSettings.BooleanKey ENABLE_SITE_GROUP_PUBLISH_CHECK = new EvalSettings.BooleanKey(EvalSettings.ENABLE_SITE_GROUP_PUBLISH_CHECK);
+
     /**
      * default admin user id
      */
@@ -95,6 +101,22 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
     	this.evalAdminSupportLogic = evalAdminSupportLogic;
     }
     
+    // USER CACHE
+
+    private final EvalUserCache userCache = new EvalUserCache(2000, 10 * 60 * 1000);
+    /**
+     * @param userCacheSize the maximum number of users to hold in the shared user cache (0 disables it), default 2000
+     */
+    public void setUserCacheSize(int userCacheSize) {
+        userCache.setMaxSize(userCacheSize);
+    }
+    /**
+     * @param userCacheTime the time (in ms) to hold a user in the shared user cache, default 10 minutes
+     */
+    public void setUserCacheTime(long userCacheTime) {
+        userCache.setTimeToLive(userCacheTime);
+    }
+
     // PROVIDERS
 
     private EvalGroupsProvider evalGroupsProvider;
@@ -215,7 +237,10 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
 
 
     public EvalUser getEvalUserById(String userId) {
-        EvalUser user = null;
+        EvalUser user = userCache.get(userId);
+        if (user != null) {
+            return user;
+        }
         if (userId != null) {
             EvalUser eu = getEvalUserOrNull(userId);
             if (eu != null) {
@@ -225,6 +250,7 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
         if (user == null) {
             user = makeInvalidUser(userId, null);
         }
+        userCache.put(user);
         return user;
     }
 
@@ -253,11 +279,30 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
             foundAll = true;
         }
 
+        // only look up the users which are not cached
+        Map<String, EvalUser> cachedUsers = new HashMap<>();
+        String[] lookupIds = userIds;
+        if (! foundAll) {
+            Set<String> missingIds = new LinkedHashSet<>();
+            for (String userId : userIds) {
+                EvalUser user = userCache.get(userId);
+                if (user != null) {
+                    cachedUsers.put(userId, user);
+                } else if (userId != null) {
+                    missingIds.add(userId);
+                }
+            }
+            lookupIds = missingIds.toArray(new String[missingIds.size()]);
+            if (lookupIds.length == 0) {
+                foundAll = true;
+            }
+        }
+
         Map<String, EvalUser> externalUsers = new HashMap<>();
         if (! foundAll) {
             // get users from external
-            externalUsers = externalLogic.getEvalUsersByIds(userIds);
-            if (externalUsers.size() == userIds.length) {
+            externalUsers = externalLogic.getEvalUsersByIds(lookupIds);
+            if (externalUsers.size() == lookupIds.length) {
                 foundAll = true;
             }
         }
@@ -265,7 +310,7 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
         Map<String, EvalAdhocUser> adhocUsers = new HashMap<>();
         if (! foundAll) {
             // get as many internal users as possible
-            adhocUsers = adhocSupportLogic.getAdhocUsersByUserIds(userIds);
+            adhocUsers = adhocSupportLogic.getAdhocUsersByUserIds(lookupIds);
         }
 
         /* now put the users into the list in the original order of the array 
@@ -274,7 +319,10 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
         if (userIds != null && userIds.length > 0) {
             for( String userId : userIds ) {
                 EvalUser user;
-                if (adhocUsers.containsKey(userId)) {
+                if (cachedUsers.containsKey(userId)) {
+                    users.add(cachedUsers.get(userId));
+                    continue;
+                } else if (adhocUsers.containsKey(userId)) {
                     EvalAdhocUser adhocUser = adhocUsers.get(userId);
                     user = new EvalUser(adhocUser.getUserId(), EvalConstants.USER_TYPE_INTERNAL,
                             adhocUser.getEmail(), adhocUser.getUsername(), 
@@ -284,6 +332,8 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
                 } else {
                     user = makeInvalidUser(userId, null);
                 }
+                userCache.put(user);
+                cachedUsers.put(userId, user);
                 users.add(user);
             }
         }
@@ -294,13 +344,25 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
         //    }
         return users;
     }
+
+    public void startUserRequestCache() {
+        userCache.startRequest();
+    }
+
+    public void endUserRequestCache() {
+        userCache.endRequest();
+    }
+
+    public Map<String, Long> getUserCacheStats() {
+        return userCache.getStats();
+    }
     
     // sakai and eval admin logic
     
     public boolean isUserAdmin(String userId) {
     	
     	// check if user is a sakai admin and that sakai admins are granted admin rights in the evaluation system
-    	if (((Boolean) evalSettings.get(EvalSettings.ENABLE_SAKAI_ADMIN_ACCESS)) && (this.isUserSakaiAdmin(userId)))
+    	if (evalSettings.getBoolean(ENABLE_SAKAI_ADMIN_ACCESS, false) && (this.isUserSakaiAdmin(userId)))
     		return true;
         // check if user is an eval admin
         // otherwise, user does not have admin rights
@@ -339,6 +401,10 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
         return externalLogic.getUserLocale(userId);
     }
 
+    public Map<String, Locale> getUserLocales(String[] userIds) {
+        return externalLogic.getUserLocales(userIds);
+    }
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.sakaiproject.evaluation.logic.externals.ExternalUsers#getMyWorkspaceDashboard(java.lang.String)
@@ -347,6 +413,14 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
 		return this.externalLogic.getMyWorkspaceDashboard(userId);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see org.sakaiproject.evaluation.logic.externals.ExternalUsers#getMyWorkspaceDashboards(java.lang.String[])
+	 */
+	public Map<String, String> getMyWorkspaceDashboards(String[] userIds) {
+		return this.externalLogic.getMyWorkspaceDashboards(userIds);
+	}
+
     /*
     * (non-Javadoc)
     * @see org.sakaiproject.evaluation.logic.externals.ExternalEvalGroups#makeEvalGroupObjectsForSectionAwareness(java.lang.String)
@@ -537,51 +611,138 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
             // Check external
             userIDs.addAll( externalLogic.getUserIdsForEvalGroup( evalGroupID, permission, sectionAware ) );
 
-            // Only go on to check the internal adhocs if nothing was found
+            // Only go on to check the internal adhocs and the provider if nothing was found
             if( userIDs.isEmpty() )
             {
-                // Check internal adhoc groups
-                if (EvalConstants.PERM_BE_EVALUATED.equals(permission) ||
-                    EvalConstants.PERM_TAKE_EVALUATION.equals( permission ) )
+                userIDs.addAll( getUserIdsFromAdhocOrProvider( evalGroupID, permission ) );
+            }
+        }
+
+        return userIDs;
+    }
+
+    /* (non-Javadoc)
+     * 
+     * @see org.sakaiproject.evaluation.logic.externals.ExternalEvalGroups#getUserIdsForEvalGroups(java.lang.String[], java.lang.String[], java.lang.Boolean)
+     */
+    public Map<String, Map<String, Set<String>>> getUserIdsForEvalGroups( String[] evalGroupIDs, String[] permissions, Boolean sectionAware )
+    {
+        if( evalGroupIDs == null || permissions == null )
+        {
+            throw new IllegalArgumentException( "evalGroupIDs and permissions must be set" );
+        }
+        if( ! BooleanUtils.isFalse(sectionAware) )
+        {
+            // section lookups cannot be done in bulk so just use the normal lookup for each group
+            Map<String, Map<String, Set<String>>> results = new HashMap<>( permissions.length );
+            for( String permission : permissions )
+            {
+                Map<String, Set<String>> groupUserIDs = new HashMap<>( evalGroupIDs.length );
+                for( String evalGroupID : evalGroupIDs )
+                {
+                    groupUserIDs.put( evalGroupID, getUserIdsForEvalGroup( evalGroupID, permission, sectionAware ) );
+                }
+                results.put( permission, groupUserIDs );
+            }
+            return results;
+        }
+
+        // Strip out the '/section/<section_id>' part of the evalGroupIDs (same as the single group lookup)
+        Map<String, String> strippedGroupIDs = new HashMap<>( evalGroupIDs.length );
+        for( String evalGroupID : evalGroupIDs )
+        {
+            String stripped = evalGroupID;
+            if( stripped.contains( EvalConstants.GROUP_ID_SECTION_PREFIX ) )
+            {
+                stripped = stripped.substring( 0, stripped.indexOf( EvalConstants.GROUP_ID_SECTION_PREFIX ) );
+            }
+            strippedGroupIDs.put( evalGroupID, stripped );
+        }
+        Set<String> lookupIDs = new HashSet<>( strippedGroupIDs.values() );
+
+        // Check external for all groups and permissions at once
+        Map<String, Map<String, Set<String>>> external = externalLogic.getUserIdsForEvalGroups( 
+                lookupIDs.toArray( new String[lookupIDs.size()] ), permissions, sectionAware );
+
+        Map<String, Map<String, Set<String>>> results = new HashMap<>( permissions.length );
+        for( String permission : permissions )
+        {
+            Map<String, Set<String>> externalUserIDs = external.get( permission );
+            // only the groups which were empty externally are checked in the adhocs and provider
+            Map<String, Set<String>> fallbackUserIDs = new HashMap<>();
+            Map<String, Set<String>> groupUserIDs = new HashMap<>( evalGroupIDs.length );
+            for( String evalGroupID : evalGroupIDs )
+            {
+                String lookupID = strippedGroupIDs.get( evalGroupID );
+                Set<String> userIDs = externalUserIDs == null ? null : externalUserIDs.get( lookupID );
+                if( userIDs == null || userIDs.isEmpty() )
                 {
-                    Long id = EvalAdhocGroup.getIdFromAdhocEvalGroupId( evalGroupID );
-                    if( id != null )
+                    userIDs = fallbackUserIDs.get( lookupID );
+                    if( userIDs == null )
                     {
-                        EvalAdhocGroup adhocGroup = adhocSupportLogic.getAdhocGroupById(id);
-                        if( adhocGroup != null )
-                        {
-                            String[] ids = null;
-                            if( EvalConstants.PERM_BE_EVALUATED.equals( permission ) )
-                            {
-                                ids = adhocGroup.getEvaluateeIds();
-                            }
-                            else if( EvalConstants.PERM_TAKE_EVALUATION.equals( permission ) )
-                            {
-                                ids = adhocGroup.getParticipantIds();
-                            }
-                            if( ids != null )
-                            {
-                                userIDs.addAll( Arrays.asList( ids ) );
-                            }
-                        }
+                        userIDs = getUserIdsFromAdhocOrProvider( lookupID, permission );
+                        fallbackUserIDs.put( lookupID, userIDs );
                     }
                 }
+                groupUserIDs.put( evalGroupID, new HashSet<>( userIDs ) );
             }
+            results.put( permission, groupUserIDs );
+        }
+        return results;
+    }
 
-            // Check the provider if we still found nothing
-            if( userIDs.isEmpty() )
+    /**
+     * Gets the user ids for a group from the internal adhoc groups or the eval groups provider
+     * (the provider is only checked if the adhoc group lookup finds nothing)
+     * 
+     * @param evalGroupID the internal unique ID for an evalGroup (without any section part)
+     * @param permission a permission string constant
+     * @return the Set of user ids (empty if none found)
+     */
+    private Set<String> getUserIdsFromAdhocOrProvider( String evalGroupID, String permission )
+    {
+        Set<String> userIDs = new HashSet<>();
+
+        // Check internal adhoc groups
+        if (EvalConstants.PERM_BE_EVALUATED.equals(permission) ||
+            EvalConstants.PERM_TAKE_EVALUATION.equals( permission ) )
+        {
+            Long id = EvalAdhocGroup.getIdFromAdhocEvalGroupId( evalGroupID );
+            if( id != null )
             {
-                // Also check provider
-                if( evalGroupsProvider != null )
+                EvalAdhocGroup adhocGroup = adhocSupportLogic.getAdhocGroupById(id);
+                if( adhocGroup != null )
                 {
-                    if (EvalConstants.PERM_BE_EVALUATED.equals(permission) 
-                        || EvalConstants.PERM_TAKE_EVALUATION.equals(permission)
-                        || EvalConstants.PERM_ASSISTANT_ROLE.equals( permission ) )
+                    String[] ids = null;
+                    if( EvalConstants.PERM_BE_EVALUATED.equals( permission ) )
                     {
-                        LOG.debug( "Using eval groups provider: evalGroupId: " + evalGroupID + ", permission: " + permission );
-                        userIDs.addAll( evalGroupsProvider.getUserIdsForEvalGroups( new String[] { evalGroupID }, 
-                            EvalExternalLogicImpl.translatePermission(permission)) );
+                        ids = adhocGroup.getEvaluateeIds();
                     }
+                    else if( EvalConstants.PERM_TAKE_EVALUATION.equals( permission ) )
+                    {
+                        ids = adhocGroup.getParticipantIds();
+                    }
+                    if( ids != null )
+                    {
+                        userIDs.addAll( Arrays.asList( ids ) );
+                    }
+                }
+            }
+        }
+
+        // Check the provider if we still found nothing
+        if( userIDs.isEmpty() )
+        {
+            // Also check provider
+            if( evalGroupsProvider != null )
+            {
+                if (EvalConstants.PERM_BE_EVALUATED.equals(permission) 
+                    || EvalConstants.PERM_TAKE_EVALUATION.equals(permission)
+                    || EvalConstants.PERM_ASSISTANT_ROLE.equals( permission ) )
+                {
+                    LOG.debug( "Using eval groups provider: evalGroupId: " + evalGroupID + ", permission: " + permission );
+                    userIDs.addAll( evalGroupsProvider.getUserIdsForEvalGroups( new String[] { evalGroupID }, 
+                        EvalExternalLogicImpl.translatePermission(permission)) );
                 }
             }
         }
@@ -590,9 +751,9 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
     }
 
 	public String calculateViewability(String state) {
-		Boolean viewResultsIgnoreDate = (Boolean) evalSettings.get(EvalSettings.VIEW_SURVEY_RESULTS_IGNORE_DATES);
+		boolean viewResultsIgnoreDate = evalSettings.getBoolean(VIEW_SURVEY_RESULTS_IGNORE_DATES, false);
 		
-		if(viewResultsIgnoreDate != null && viewResultsIgnoreDate) {
+		if(viewResultsIgnoreDate) {
 			if(EvalConstants.EVALUATION_STATE_ACTIVE.equals(state) ||
 				EvalConstants.EVALUATION_STATE_GRACEPERIOD.equals(state) ||
 				EvalConstants.EVALUATION_STATE_CLOSED.equals(state)) {
@@ -665,7 +826,7 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
 
     // FIXME: this is not implemented correctly, needs to be fixed so it works with adhoc and provided groups, forcing this to true for now so it does not break things -AZ
     public boolean isEvalGroupPublished(String evalGroupId) {
-        if ((Boolean) evalSettings.get(EvalSettings.ENABLE_SITE_GROUP_PUBLISH_CHECK)) {
+        if (evalSettings.getBoolean(ENABLE_SITE_GROUP_PUBLISH_CHECK, false)) {
             // FIXME this is NOT implemented correctly and will return false for all non-sakai Site type groups
             return externalLogic.isEvalGroupPublished(evalGroupId);
         }
@@ -839,6 +1000,7 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
             }
         }
         adhocSupportLogic.saveAdhocUser(user);
+        userCache.remove(user.getUserId());
     }
 
     public void deleteAdhocGroup(Long adhocGroupId) {
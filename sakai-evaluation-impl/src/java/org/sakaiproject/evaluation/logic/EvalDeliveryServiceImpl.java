@@ -14,7 +14,16 @@
  */
 package org.sakaiproject.evaluation.logic;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -28,12 +37,17 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.dao.EvaluationDao;
+import org.sakaiproject.evaluation.dao.ItemResultsDelta;
+import org.sakaiproject.evaluation.dao.ResponseAnswersHandler;
 import org.sakaiproject.evaluation.logic.exceptions.ResponseSaveException;
 import org.sakaiproject.evaluation.logic.externals.ExternalHierarchyLogic;
 import org.sakaiproject.evaluation.model.EvalAnswer;
 import org.sakaiproject.evaluation.model.EvalAssignGroup;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.evaluation.model.EvalItem;
+import org.sakaiproject.evaluation.model.EvalItemResults;
 import org.sakaiproject.evaluation.model.EvalResponse;
+import org.sakaiproject.evaluation.model.EvalResponseSubmission;
 import org.sakaiproject.evaluation.model.EvalTemplateItem;
 import org.sakaiproject.evaluation.utils.ArrayUtils;
 import org.sakaiproject.evaluation.utils.EvalUtils;
@@ -43,16 +57,23 @@ import org.sakaiproject.evaluation.utils.TemplateItemDataList.DataTemplateItem;
 import org.sakaiproject.genericdao.api.search.Order;
 import org.sakaiproject.genericdao.api.search.Restriction;
 import org.sakaiproject.genericdao.api.search.Search;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * Implementation for EvalDeliveryService
  * 
  * @author Aaron Zeckoski (aaronz@vt.edu)
  */
-public class EvalDeliveryServiceImpl implements EvalDeliveryService {
+public class EvalDeliveryServiceImpl implements EvalDeliveryService, EvalResponseSubmissionQueue.ResponseBatchHandler {
 
     private static final Log LOG = LogFactory.getLog(EvalDeliveryServiceImpl.class);
 
+    // settings which are read for every response
+    private static final EvalSettings.BooleanKey ENABLE_QUEUED_RESPONSE_SUBMISSION = new EvalSettings.BooleanKey(EvalSettings.ENABLE_QUEUED_RESPONSE_SUBMISSION);
+    private static final EvalSettings.BooleanKey ENABLE_SUBMISSION_CONFIRMATION_EMAIL = new EvalSettings.BooleanKey(EvalSettings.ENABLE_SUBMISSION_CONFIRMATION_EMAIL);
+    private static final EvalSettings.BooleanKey ENABLE_INSTRUCTOR_ASSISTANT_SELECTION = new EvalSettings.BooleanKey(EvalSettings.ENABLE_INSTRUCTOR_ASSISTANT_SELECTION);
+
     // Event names cannot be over 32 chars long              // max-32:12345678901234567890123456789012
     protected final String EVENT_RESPONSE_CREATED =                   "eval.response.created";
     protected final String EVENT_RESPONSE_UPDATED =                   "eval.response.updated";
@@ -92,15 +113,525 @@ public class EvalDeliveryServiceImpl implements EvalDeliveryService {
        this.emailsLogic = emailsLogic;
     }
 
+    private EvalReportCache reportCache;
+    public void setReportCache(EvalReportCache reportCache) {
+        this.reportCache = reportCache;
+    }
+
+    /**
+     * The number of lanes (background workers) used for queued response submission
+     */
+    private int submissionLanes = 4;
+    public void setSubmissionLanes(int submissionLanes) {
+        this.submissionLanes = submissionLanes;
+    }
+
+    /**
+     * The maximum number of responses waiting to be saved when using queued response submission
+     */
+    private int submissionQueueCapacity = 2000;
+    public void setSubmissionQueueCapacity(int submissionQueueCapacity) {
+        this.submissionQueueCapacity = submissionQueueCapacity;
+    }
+
+    /**
+     * The maximum number of responses which are saved together in a single batch
+     */
+    private int submissionBatchSize = 25;
+    public void setSubmissionBatchSize(int submissionBatchSize) {
+        this.submissionBatchSize = submissionBatchSize;
+    }
+
+    /**
+     * How long (in milliseconds) a submitting user will wait for space in a full submission queue
+     */
+    private long submissionOfferTimeout = 10000l;
+    public void setSubmissionOfferTimeout(long submissionOfferTimeout) {
+        this.submissionOfferTimeout = submissionOfferTimeout;
+    }
+
+    /**
+     * The number of answer rows fetched from the database at a time when streaming answers
+     */
+    private int answerStreamFetchSize = 500;
+    public void setAnswerStreamFetchSize(int answerStreamFetchSize) {
+        this.answerStreamFetchSize = answerStreamFetchSize;
+    }
+
+    /**
+     * How long (in milliseconds) a stored submission can wait before another server tries to save it,
+     * this is also how often each server checks for these submissions
+     */
+    private long submissionRecoveryAge = 1000l * 60l * 2l;
+    public void setSubmissionRecoveryAge(long submissionRecoveryAge) {
+        this.submissionRecoveryAge = submissionRecoveryAge;
+    }
+
+    /**
+     * The transactional version of this service, the queued responses are saved from background threads
+     * so they have to go through this to get a transaction, defaults to this service (no transactions)
+     */
+    private EvalResponseSubmissionQueue.ResponseBatchHandler responseBatchHandler;
+    public void setResponseBatchHandler(EvalResponseSubmissionQueue.ResponseBatchHandler responseBatchHandler) {
+        this.responseBatchHandler = responseBatchHandler;
+    }
+
+    /**
+     * How long (in milliseconds) to keep the status of a saved submission
+     */
+    protected static final long SAVED_SUBMISSION_RETENTION = 1000l * 60l * 60l;
+    /**
+     * How long (in milliseconds) to keep a failed submission so the user can be told about it
+     */
+    protected static final long FAILED_SUBMISSION_RETENTION = 1000l * 60l * 60l * 24l * 7l;
+
+    private EvalResponseSubmissionQueue submissionQueue;
+
     // INIT method
     public void init() {
         LOG.debug("Init");
+        submissionQueue = new EvalResponseSubmissionQueue(responseBatchHandler == null ? this : responseBatchHandler, 
+                submissionLanes, submissionQueueCapacity, submissionBatchSize, 
+                submissionOfferTimeout, submissionRecoveryAge);
+        submissionQueue.start();
+    }
+
+    // DESTROY method
+    public void destroy() {
+        if (submissionQueue != null) {
+            submissionQueue.shutdown();
+        }
     }
 
     /* (non-Javadoc)
      * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#saveResponse(org.sakaiproject.evaluation.model.EvalResponse, java.lang.String)
      */
     public void saveResponse(EvalResponse response, String userId) {
+        boolean newResponse = prepareResponseForSave(response, userId);
+        Long evaluationId = response.getEvaluation().getId();
+        String evalGroupId = response.getEvalGroupId();
+
+        // a resubmitted response has to take out what it added to the item results the last time
+        Map<Long, ItemResultsDelta> previousResults = newResponse ? Collections.<Long, ItemResultsDelta>emptyMap()
+                : dao.getResponseItemResults(new Long[] {response.getId()}, -1);
+
+        // save everything in one transaction
+
+        // response has to be saved first
+        Set<EvalResponse> responseSet = new HashSet<>();
+        responseSet.add(response);
+
+        Set<EvalAnswer> answersSet = response.getAnswers();
+
+        try {
+            dao.saveMixedSet(new Set[] {responseSet, answersSet});
+        } catch (Exception e) {
+            // failed to save so we should assume for now this is caused by the darn unique constraint
+            LOG.warn("Unable to save response ("+response.getId()+") and answers for this evaluation (" 
+                    + evaluationId + ") in this evalGroupId (" + evalGroupId + "): " + e.getMessage());
+            // this will produce a nicer message
+            throw new ResponseSaveException("User (" + userId + ") cannot save response for this evaluation (" + evaluationId
+                    + ") in this evalGroupId (" + evalGroupId + ") right now", ResponseSaveException.TYPE_CANNOT_SAVE);
+        }
+
+        if (response.getEndTime() != null) {
+            /* the response is complete (submission of an evaluation) 
+             * and not just creating the empty response so lock related evaluation
+             */
+            lockEvaluationForResponse(response);
+        }
+
+        // the item results are updated in the same transaction as the response
+        ItemResultsDelta resultsDelta = makeItemResultsDelta(response, previousResults.get(response.getId()));
+        dao.applyItemResults(Collections.singletonList(resultsDelta));
+        if (reportCache != null) {
+            reportCache.invalidate(evaluationId);
+        }
+
+        finishResponseSave(response, userId, newResponse);
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#submitResponse(org.sakaiproject.evaluation.model.EvalResponse, java.lang.String)
+     */
+    public String submitResponse(final EvalResponse response, final String userId) {
+        boolean queueEnabled = settings.getBoolean(ENABLE_QUEUED_RESPONSE_SUBMISSION, false);
+        if (! queueEnabled || response.getEndTime() == null
+                || submissionQueue == null || ! submissionQueue.isRunning()) {
+            // incomplete responses are always saved right away since the user will come back to them
+            saveResponse(response, userId);
+            // the user does not need to hear about an earlier failed submission now
+            dao.removeResponseSubmissions(EvalConstants.RESPONSE_SUBMISSION_FAILED, userId, 
+                    response.getEvaluation().getId(), response.getEvalGroupId(), null);
+            return null;
+        }
+
+        final boolean newResponse = prepareResponseForSave(response, userId);
+        Long evaluationId = response.getEvaluation().getId();
+        String evalGroupId = response.getEvalGroupId();
+        final String submissionId = submissionQueue.reserve(userId);
+        if (submissionId == null) {
+            LOG.warn("Response submission queue is full (" + submissionQueue.size() + " waiting), could not accept response from user ("
+                    + userId + ") for evaluation (" + evaluationId + ") in evalGroupId (" + evalGroupId + ")");
+            throw new ResponseSaveException("User (" + userId + ") cannot save response for this evaluation (" + evaluationId
+                    + ") in this evalGroupId (" + evalGroupId + ") right now, too many responses waiting to be saved", 
+                    ResponseSaveException.TYPE_CANNOT_SAVE);
+        }
+        // stored in this transaction so the response is never acknowledged until it cannot be lost
+        boolean stored = false;
+        try {
+            dao.removeResponseSubmissions(EvalConstants.RESPONSE_SUBMISSION_FAILED, userId, evaluationId, evalGroupId, null);
+            dao.save( new EvalResponseSubmission(submissionId, userId, evaluationId, evalGroupId, 
+                    response.getId(), encodeSubmittedResponse(response)) );
+            stored = true;
+        } finally {
+            if (! stored) {
+                submissionQueue.cancel(userId);
+            }
+        }
+        // the queue worker can only claim the submission once it is committed so it is only queued after the commit
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        submissionQueue.offer(submissionId, response, userId, newResponse);
+                    } else {
+                        submissionQueue.cancel(userId);
+                    }
+                }
+            });
+        } else {
+            submissionQueue.offer(submissionId, response, userId, newResponse);
+        }
+        LOG.debug("Queued response from user (" + userId + ") as submission: " + submissionId);
+        return submissionId;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#getResponseSubmissionStatus(java.lang.String)
+     */
+    public String getResponseSubmissionStatus(String submissionId) {
+        if (submissionId == null) {
+            return EvalConstants.RESPONSE_SUBMISSION_UNKNOWN;
+        }
+        EvalResponseSubmission submission = dao.findOneBySearch(EvalResponseSubmission.class, 
+                new Search("submissionId", submissionId));
+        if (submission == null) {
+            return EvalConstants.RESPONSE_SUBMISSION_UNKNOWN;
+        }
+        return submission.getStatus();
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#getResponseSubmissionsForUser(java.lang.String, java.lang.String)
+     */
+    public List<EvalResponseSubmission> getResponseSubmissionsForUser(String userId, String status) {
+        if (userId == null) {
+            throw new IllegalArgumentException("userId must be set");
+        }
+        Search search = new Search("owner", userId);
+        if (status != null) {
+            search.addRestriction( new Restriction("status", status) );
+        }
+        search.addOrder( new Order("id") );
+        return dao.findBySearch(EvalResponseSubmission.class, search);
+    }
+
+    /**
+     * Claims and saves a batch of queued responses, all responses and answers in the batch are saved 
+     * (and the submissions claimed) in the transaction this is called in so nothing is saved if anything fails
+     * 
+     * @param batch the queued responses
+     * @return the submission ids of the responses which were claimed and saved
+     */
+    public Set<String> saveResponseBatch(List<EvalResponseSubmissionQueue.QueuedResponse> batch) {
+        Set<String> savedIds = new HashSet<>();
+        List<EvalResponseSubmissionQueue.QueuedResponse> saved = new ArrayList<>(batch.size());
+        Set<EvalResponse> responseSet = new HashSet<>();
+        Set<EvalAnswer> answersSet = new HashSet<>();
+        List<Long> resubmittedIds = new ArrayList<>();
+        for (EvalResponseSubmissionQueue.QueuedResponse queued : batch) {
+            // claiming first means a submission can never be saved twice (even by different servers)
+            if (! dao.updateResponseSubmissionStatus(queued.submissionId, 
+                    EvalConstants.RESPONSE_SUBMISSION_QUEUED, EvalConstants.RESPONSE_SUBMISSION_SAVED)) {
+                continue;
+            }
+            if (queued.response == null) {
+                queued.response = loadSubmittedResponse(queued.submissionId);
+            }
+            savedIds.add(queued.submissionId);
+            saved.add(queued);
+            responseSet.add(queued.response);
+            answersSet.addAll(queued.response.getAnswers());
+            if (! queued.newResponse) {
+                resubmittedIds.add(queued.response.getId());
+            }
+        }
+        if (saved.isEmpty()) {
+            return savedIds;
+        }
+        // lock all the groups in the batch up front so the previous results cannot change before they are taken out
+        dao.lockItemResults(responseSet);
+        Map<Long, ItemResultsDelta> previousResults = dao.getResponseItemResults(resubmittedIds.toArray(new Long[resubmittedIds.size()]), -1);
+
+        dao.saveMixedSet(new Set[] {responseSet, answersSet});
+
+        // update the item results for all the saved responses at once
+        List<ItemResultsDelta> resultsDeltas = new ArrayList<>(saved.size());
+        for (EvalResponseSubmissionQueue.QueuedResponse queued : saved) {
+            resultsDeltas.add( makeItemResultsDelta(queued.response, previousResults.get(queued.response.getId())) );
+        }
+        // the item results are updated in the same transaction so the whole batch fails if this fails
+        dao.applyItemResults(resultsDeltas);
+
+        // lock each evaluation only once for the whole batch
+        Set<Long> changedEvalIds = new HashSet<>();
+        for (EvalResponseSubmissionQueue.QueuedResponse queued : saved) {
+            if (changedEvalIds.add(queued.response.getEvaluation().getId()) && queued.response.getEndTime() != null) {
+                lockEvaluationForResponse(queued.response);
+            }
+        }
+        if (reportCache != null) {
+            for (Long evaluationId : changedEvalIds) {
+                reportCache.invalidate(evaluationId);
+            }
+        }
+        return savedIds;
+    }
+
+    /**
+     * Handles the events and emails for a batch of queued responses which were saved
+     * 
+     * @param saved the queued responses which were saved
+     */
+    public void completeResponseBatch(List<EvalResponseSubmissionQueue.QueuedResponse> saved) {
+        for (EvalResponseSubmissionQueue.QueuedResponse queued : saved) {
+            try {
+                finishResponseSave(queued.response, queued.userId, queued.newResponse);
+            } catch (Exception e) {
+                LOG.warn("Failure completing the save of queued response (" + queued.response.getId() + ")", e);
+            }
+        }
+    }
+
+    /**
+     * Marks a queued response which could not be saved as failed so the user can be told about it
+     * 
+     * @param queued the queued response
+     */
+    public void failResponseSubmission(EvalResponseSubmissionQueue.QueuedResponse queued) {
+        if (dao.updateResponseSubmissionStatus(queued.submissionId, 
+                EvalConstants.RESPONSE_SUBMISSION_QUEUED, EvalConstants.RESPONSE_SUBMISSION_FAILED)) {
+            LOG.warn("Queued response submission (" + queued.submissionId + ") from user (" + queued.userId + ") could not be saved");
+        }
+    }
+
+    /**
+     * @param olderThan only get submissions which have been waiting since before this date
+     * @param max the maximum number of submissions to get
+     * @return the stored submissions which are still waiting to be saved (without the responses)
+     */
+    public List<EvalResponseSubmissionQueue.QueuedResponse> getStaleResponseSubmissions(Date olderThan, int max) {
+        Search search = new Search( new Restriction[] {
+                new Restriction("status", EvalConstants.RESPONSE_SUBMISSION_QUEUED),
+                new Restriction("lastModified", olderThan, Restriction.LESS)
+        }, new Order("id") );
+        search.setLimit(max);
+        List<EvalResponseSubmission> submissions = dao.findBySearch(EvalResponseSubmission.class, search);
+        List<EvalResponseSubmissionQueue.QueuedResponse> stale = new ArrayList<>(submissions.size());
+        for (EvalResponseSubmission submission : submissions) {
+            stale.add( new EvalResponseSubmissionQueue.QueuedResponse(submission.getSubmissionId(), null, 
+                    submission.getOwner(), submission.getResponseId() == null) );
+        }
+        return stale;
+    }
+
+    /**
+     * Removes the saved and failed submissions once their status is no longer needed
+     */
+    public void purgeResponseSubmissions() {
+        long now = System.currentTimeMillis();
+        int removed = dao.removeResponseSubmissions(EvalConstants.RESPONSE_SUBMISSION_SAVED, null, null, null, 
+                new Date(now - SAVED_SUBMISSION_RETENTION));
+        removed += dao.removeResponseSubmissions(EvalConstants.RESPONSE_SUBMISSION_FAILED, null, null, null, 
+                new Date(now - FAILED_SUBMISSION_RETENTION));
+        if (removed > 0) {
+            LOG.debug("Removed " + removed + " finished response submissions");
+        }
+    }
+
+    /**
+     * Encodes a validated response and its answers so it can be stored with the submission,
+     * only the ids of the related entities are stored
+     * 
+     * @param response a validated response
+     * @return the encoded response
+     */
+    protected String encodeSubmittedResponse(EvalResponse response) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject( new SubmittedResponse(response) );
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode response (" + response.getId() + ") from user (" 
+                    + response.getOwner() + "): " + e.getMessage(), e);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Rebuilds the response from a stored submission (see {@link #encodeSubmittedResponse(EvalResponse)}),
+     * this is used when the server which accepted the submission did not save it
+     * 
+     * @param submissionId the unique id of the stored submission
+     * @return the response with answers, ready to save
+     */
+    protected EvalResponse loadSubmittedResponse(String submissionId) {
+        EvalResponseSubmission submission = dao.findOneBySearch(EvalResponseSubmission.class, 
+                new Search("submissionId", submissionId));
+        if (submission == null || submission.getPayload() == null) {
+            throw new IllegalStateException("Cannot load the response for submission (" + submissionId + "), it has no stored response");
+        }
+        SubmittedResponse submitted;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(submission.getPayload())))) {
+            submitted = (SubmittedResponse) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Unable to decode the response for submission (" + submissionId + "): " + e.getMessage(), e);
+        }
+
+        EvalResponse response;
+        if (submission.getResponseId() == null) {
+            EvalEvaluation evaluation = (EvalEvaluation) dao.findById(EvalEvaluation.class, submission.getEvaluationId());
+            response = new EvalResponse(submission.getOwner(), submission.getEvalGroupId(), evaluation, submitted.startTime);
+        } else {
+            response = (EvalResponse) dao.findById(EvalResponse.class, submission.getResponseId());
+            if (response == null) {
+                throw new IllegalStateException("Cannot load the response (" + submission.getResponseId() + ") for submission (" + submissionId + ")");
+            }
+        }
+        response.setLastModified(new Date());
+        response.setStartTime(submitted.startTime);
+        response.setEndTime(submitted.endTime);
+        response.setComment(submitted.comment);
+        response.setSelectionsCode(submitted.selectionsCode);
+        Map<Long, EvalAnswer> existing = new HashMap<>();
+        for (EvalAnswer answer : response.getAnswers()) {
+            existing.put(answer.getId(), answer);
+        }
+        for (SubmittedAnswer submittedAnswer : submitted.answers) {
+            EvalAnswer answer = submittedAnswer.answerId == null ? null : existing.get(submittedAnswer.answerId);
+            if (answer == null) {
+                answer = new EvalAnswer(response, 
+                        (EvalTemplateItem) dao.findById(EvalTemplateItem.class, submittedAnswer.templateItemId),
+                        submittedAnswer.itemId == null ? null : (EvalItem) dao.findById(EvalItem.class, submittedAnswer.itemId));
+                response.getAnswers().add(answer);
+            }
+            answer.setLastModified(response.getLastModified());
+            answer.setNumeric(submittedAnswer.numeric);
+            answer.setText(submittedAnswer.text);
+            answer.setMultiAnswerCode(submittedAnswer.multiAnswerCode);
+            answer.setAssociatedType(submittedAnswer.associatedType);
+            answer.setAssociatedId(submittedAnswer.associatedId);
+            answer.setComment(submittedAnswer.comment);
+        }
+        return response;
+    }
+
+    /**
+     * The stored form of a submitted response (see {@link #encodeSubmittedResponse(EvalResponse)})
+     */
+    private static class SubmittedResponse implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final Date startTime;
+        final Date endTime;
+        final String comment;
+        final String selectionsCode;
+        final List<SubmittedAnswer> answers;
+
+        SubmittedResponse(EvalResponse response) {
+            this.startTime = response.getStartTime();
+            this.endTime = response.getEndTime();
+            this.comment = response.getComment();
+            this.selectionsCode = response.getSelectionsCode();
+            this.answers = new ArrayList<>(response.getAnswers().size());
+            for (EvalAnswer answer : response.getAnswers()) {
+                answers.add( new SubmittedAnswer(answer) );
+            }
+        }
+    }
+
+    /**
+     * The stored form of a submitted answer
+     */
+    private static class SubmittedAnswer implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final Long answerId;
+        final Long templateItemId;
+        final Long itemId;
+        final Integer numeric;
+        final String text;
+        final String multiAnswerCode;
+        final String associatedType;
+        final String associatedId;
+        final String comment;
+
+        SubmittedAnswer(EvalAnswer answer) {
+            this.answerId = answer.getId();
+            this.templateItemId = answer.getTemplateItem().getId();
+            this.itemId = answer.getItem() == null ? null : answer.getItem().getId();
+            this.numeric = answer.getNumeric();
+            this.text = answer.getText();
+            this.multiAnswerCode = answer.getMultiAnswerCode();
+            this.associatedType = answer.getAssociatedType();
+            this.associatedId = answer.getAssociatedId();
+            this.comment = answer.getComment();
+        }
+    }
+
+    /**
+     * Makes the changes to the item results for a saved response
+     * 
+     * @param response the saved response
+     * @param previous the changes which remove what this response added to the item results 
+     * the last time it was saved (null if it was not complete before)
+     * @return the changes for this response (may be empty)
+     */
+    protected ItemResultsDelta makeItemResultsDelta(EvalResponse response, ItemResultsDelta previous) {
+        ItemResultsDelta delta = previous;
+        if (delta == null) {
+            delta = new ItemResultsDelta(response.getEvaluation().getId(), response.getEvalGroupId());
+        }
+        if (response.getEndTime() != null) {
+            // only completed responses are in the results
+            delta.addResponse(response.getAnswers(), 1);
+        }
+        return delta;
+    }
+
+    /**
+     * Locks the evaluation (and associated entities) for a completed response,
+     * only the first completed response for an evaluation actually has to do anything
+     * 
+     * @param response a completed response
+     */
+    protected void lockEvaluationForResponse(EvalResponse response) {
+        EvalEvaluation evaluation = response.getEvaluation();
+        if (evaluation.getLocked() != null && evaluation.getLocked()) {
+            // already locked when it was loaded for this response
+            return;
+        }
+        dao.lockEvaluationIfUnlocked(evaluation.getId());
+    }
+
+    /**
+     * Does all the checks and cleanup needed before a response can be saved
+     * 
+     * @param response the response to save
+     * @param userId the internal user id (not username)
+     * @return true if this is a new response, false if it was saved before
+     * @throws ResponseSaveException if the response cannot be saved
+     */
+    protected boolean prepareResponseForSave(EvalResponse response, String userId) {
         LOG.debug("userId: " + userId + ", response: " + response.getId() + ", evalGroupId: " + response.getEvalGroupId());
 
         // set the date modified
@@ -118,114 +649,94 @@ public class EvalDeliveryServiceImpl implements EvalDeliveryService {
         // fill in any default values and nulls here
 
         // check perms and evaluation state
-        if (checkUserModifyResponse(userId, response)) {
-            // make sure the user can take this evalaution
-            Long evaluationId = response.getEvaluation().getId();
-            String evalGroupId = response.getEvalGroupId();
-            if (! evaluationService.canTakeEvaluation(userId, evaluationId, evalGroupId)) {
-                throw new ResponseSaveException("User (" + userId + ") cannot take this evaluation (" + evaluationId
-                        + ") in this evalGroupId (" + evalGroupId + ") right now", ResponseSaveException.TYPE_CANNOT_TAKE_EVAL);
-            }
+        if (! checkUserModifyResponse(userId, response)) {
+            // should not get here so die if we do
+            throw new RuntimeException("User (" + userId + ") could NOT save response (" + response.getId()
+                    + "), evalGroupId: " + response.getEvalGroupId());
+        }
 
-            // check to make sure answers are valid for this evaluation
-            if (response.getAnswers() == null) {
-                response.setAnswers( new HashSet<>(0) );
-            } else {
-                // cleanup the answers before saving them, this removes empty answers and may end up removing all answers
-                // strip out answers with no value set
-                Set<EvalAnswer> answers = response.getAnswers();
-                for (Iterator<EvalAnswer> it = answers.iterator(); it.hasNext();) {
-                    EvalAnswer answer = it.next();
-
-                    // we need to encode the data in the MA array so it can be stored
-                    answer.setMultiAnswerCode(EvalUtils.encodeMultipleAnswers(answer.multipleAnswers));
-
-                    // need to encode the NA value
-                    EvalUtils.encodeAnswerNA(answer);
-
-                    // answers cleanup
-                    if (answer.getNumeric() == null &&
-                            EvalUtils.isBlank(answer.getText()) &&
-                            answer.getMultiAnswerCode() == null) {
-                        // all parts are null so ignore this answer
-                        it.remove();
-                    } else {
-                        // some parts are not null so do the fixup and store the answer before saving
-                        /*
-                         * If the numeric and text fields are left null, batch update will fail when several answers of different types are modified
-                         * This is the error that is triggered within the sakai generic dao: java.sql.BatchUpdateException: Driver can not
-                         * re-execute prepared statement when a parameter has been changed from a streaming type to an intrinsic data type without
-                         * calling clearParameters() first.
-                         */
-                        if (answer.getNumeric() == null) {
-                            answer.setNumeric(EvalConstants.NO_NUMERIC_ANSWER);
-                        }
-                        if (EvalUtils.isBlank(answer.getText())) {
-                            answer.setText(EvalConstants.NO_TEXT_ANSWER);
-                        }
-                        if (answer.getMultiAnswerCode() == null) {
-                            answer.setMultiAnswerCode(EvalConstants.NO_MULTIPLE_ANSWER);
-                        }
+        // make sure the user can take this evalaution
+        Long evaluationId = response.getEvaluation().getId();
+        String evalGroupId = response.getEvalGroupId();
+        if (! evaluationService.canTakeEvaluation(userId, evaluationId, evalGroupId)) {
+            throw new ResponseSaveException("User (" + userId + ") cannot take this evaluation (" + evaluationId
+                    + ") in this evalGroupId (" + evalGroupId + ") right now", ResponseSaveException.TYPE_CANNOT_TAKE_EVAL);
+        }
+
+        // check to make sure answers are valid for this evaluation
+        if (response.getAnswers() == null) {
+            response.setAnswers( new HashSet<>(0) );
+        } else {
+            // cleanup the answers before saving them, this removes empty answers and may end up removing all answers
+            // strip out answers with no value set
+            Set<EvalAnswer> answers = response.getAnswers();
+            for (Iterator<EvalAnswer> it = answers.iterator(); it.hasNext();) {
+                EvalAnswer answer = it.next();
+
+                // we need to encode the data in the MA array so it can be stored
+                answer.setMultiAnswerCode(EvalUtils.encodeMultipleAnswers(answer.multipleAnswers));
+
+                // need to encode the NA value
+                EvalUtils.encodeAnswerNA(answer);
+
+                // answers cleanup
+                if (answer.getNumeric() == null &&
+                        EvalUtils.isBlank(answer.getText()) &&
+                        answer.getMultiAnswerCode() == null) {
+                    // all parts are null so ignore this answer
+                    it.remove();
+                } else {
+                    // some parts are not null so do the fixup and store the answer before saving
+                    /*
+                     * If the numeric and text fields are left null, batch update will fail when several answers of different types are modified
+                     * This is the error that is triggered within the sakai generic dao: java.sql.BatchUpdateException: Driver can not
+                     * re-execute prepared statement when a parameter has been changed from a streaming type to an intrinsic data type without
+                     * calling clearParameters() first.
+                     */
+                    if (answer.getNumeric() == null) {
+                        answer.setNumeric(EvalConstants.NO_NUMERIC_ANSWER);
+                    }
+                    if (EvalUtils.isBlank(answer.getText())) {
+                        answer.setText(EvalConstants.NO_TEXT_ANSWER);
+                    }
+                    if (answer.getMultiAnswerCode() == null) {
+                        answer.setMultiAnswerCode(EvalConstants.NO_MULTIPLE_ANSWER);
                     }
                 }
             }
-            checkAnswersValidForEval(response, responseComplete);
-
-            // save everything in one transaction
-
-            // response has to be saved first
-            Set<EvalResponse> responseSet = new HashSet<>();
-            responseSet.add(response);
-
-            Set<EvalAnswer> answersSet = response.getAnswers();
-
-            try {
-                dao.saveMixedSet(new Set[] {responseSet, answersSet});
-            } catch (Exception e) {
-                // failed to save so we should assume for now this is caused by the darn unique constraint
-                LOG.warn("Unable to save response ("+response.getId()+") and answers for this evaluation (" 
-                        + evaluationId + ") in this evalGroupId (" + evalGroupId + "): " + e.getMessage());
-                // this will produce a nicer message
-                throw new ResponseSaveException("User (" + userId + ") cannot save response for this evaluation (" + evaluationId
-                        + ") in this evalGroupId (" + evalGroupId + ") right now", ResponseSaveException.TYPE_CANNOT_SAVE);
-            }
+        }
+        checkAnswersValidForEval(response, responseComplete);
+        return newResponse;
+    }
 
-            String completeMessage = ", response is incomplete";
-            if (responseComplete) {
-                /* the response is complete (submission of an evaluation) 
-                 * and not just creating the empty response so lock related evaluation
-                 */
-                LOG.info("Locking evaluation (" + response.getEvaluation().getId() + ") and associated entities");
-                EvalEvaluation evaluation = (EvalEvaluation) dao.findById(EvalEvaluation.class, response.getEvaluation().getId());
-                dao.lockEvaluation(evaluation, true);
-                completeMessage = ", response is complete";
-            }
+    /**
+     * Handles the events and emails which happen after a response was saved
+     * 
+     * @param response the saved response
+     * @param userId the internal user id (not username)
+     * @param newResponse true if this response was created by the save
+     */
+    protected void finishResponseSave(EvalResponse response, String userId, boolean newResponse) {
+        if (newResponse) {
+            commonLogic.registerEntityEvent(EVENT_RESPONSE_CREATED, response);
+        } else {
+            commonLogic.registerEntityEvent(EVENT_RESPONSE_UPDATED, response);            
+        }
 
-            if (newResponse) {
-                commonLogic.registerEntityEvent(EVENT_RESPONSE_CREATED, response);
-            } else {
-                commonLogic.registerEntityEvent(EVENT_RESPONSE_UPDATED, response);            
-            }
-            
-            //send an confirmation email to the responder 
-            try {
-            	if(((Boolean) settings.get(EvalSettings.ENABLE_SUBMISSION_CONFIRMATION_EMAIL))) {
-                	  emailsLogic.sendEvalSubmissionConfirmationEmail(userId, response.getEvaluation().getId());
-                  }
-            }catch(Exception e){
-            	LOG.warn("Unable to send the confirmation email to user: " + userId, e);
-            }
-            
-            int answerCount = response.getAnswers() == null ? 0 : response.getAnswers().size();
-            LOG.info("User (" + userId + ") saved response (" + response.getId() + ") to" +
-                    "evaluation ("+evaluationId+") for groupId (" + response.getEvalGroupId() + ") " +
-                    " with " + answerCount + " answers" + completeMessage);
-            return;
+        //send an confirmation email to the responder 
+        try {
+        	if(settings.getBoolean(ENABLE_SUBMISSION_CONFIRMATION_EMAIL, false)) {
+            	  emailsLogic.sendEvalSubmissionConfirmationEmail(userId, response.getEvaluation().getId());
+              }
+        }catch(Exception e){
+        	LOG.warn("Unable to send the confirmation email to user: " + userId, e);
         }
 
-        // should not get here so die if we do
-        throw new RuntimeException("User (" + userId + ") could NOT save response (" + response.getId()
-                + "), evalGroupId: " + response.getEvalGroupId());
+        String completeMessage = response.getEndTime() != null ? ", response is complete" : ", response is incomplete";
+        int answerCount = response.getAnswers() == null ? 0 : response.getAnswers().size();
+        LOG.info("User (" + userId + ") saved response (" + response.getId() + ") to" +
+                "evaluation ("+response.getEvaluation().getId()+") for groupId (" + response.getEvalGroupId() + ") " +
+                " with " + answerCount + " answers" + completeMessage);
     }
 
     /* (non-Javadoc)
@@ -390,6 +901,86 @@ public class EvalDeliveryServiceImpl implements EvalDeliveryService {
         return answers;
     }
 
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#streamAnswersForEval(java.lang.Long, java.lang.String[], java.lang.Long[], org.sakaiproject.evaluation.dao.ResponseAnswersHandler)
+     */
+    public int streamAnswersForEval(Long evaluationId, String[] evalGroupIds, Long[] templateItemIds, 
+            final ResponseAnswersHandler handler) {
+        LOG.debug("evaluationId: " + evaluationId);
+        if (handler == null) {
+            throw new IllegalArgumentException("handler must be set");
+        }
+
+        if (dao.countBySearch(EvalEvaluation.class, new Search("id", evaluationId)) <= 0l) {
+            throw new IllegalArgumentException("Could not find evaluation with id: " + evaluationId);
+        }
+
+        return dao.streamAnswers(evaluationId, evalGroupIds, templateItemIds, answerStreamFetchSize, 
+                (responseId, evalGroupId, answers) -> {
+                    for (EvalAnswer answer : answers) {
+                        // decode the stored answers into the int array
+                        answer.multipleAnswers = EvalUtils.decodeMultipleAnswers(answer.getMultiAnswerCode());
+                        // decode NA value
+                        EvalUtils.decodeAnswerNA(answer);
+                    }
+                    handler.handleResponseAnswers(responseId, evalGroupId, answers);
+                });
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#getAnswerAssociateIdsForEval(java.lang.Long, java.lang.String[], java.lang.String)
+     */
+    public Set<String> getAnswerAssociateIdsForEval(Long evaluationId, String[] evalGroupIds, String associateType) {
+        if (evaluationId == null || associateType == null) {
+            throw new IllegalArgumentException("evaluationId and associateType must be set");
+        }
+        Set<String> associateIds = new HashSet<>();
+        for (String associateId : dao.getAnswerAssociateIds(evaluationId, evalGroupIds, associateType)) {
+            if (! EvalUtils.isBlank(associateId)) {
+                associateIds.add(associateId);
+            }
+        }
+        return associateIds;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#getItemResultsForEval(java.lang.Long, java.lang.String[])
+     */
+    public Map<String, EvalItemResults> getItemResultsForEval(Long evaluationId, String[] evalGroupIds) {
+        if (evaluationId == null) {
+            throw new IllegalArgumentException("evaluationId must be set");
+        }
+        Map<String, EvalItemResults> itemResults = new HashMap<>();
+        for (EvalItemResults results : dao.getItemResults(evaluationId, evalGroupIds)) {
+            EvalItemResults combined = itemResults.get(results.getKey());
+            if (combined == null) {
+                combined = new EvalItemResults(evaluationId, null, results.getTemplateItemId(), 
+                        results.getAssociatedType(), results.getAssociatedId());
+                itemResults.put(results.getKey(), combined);
+            }
+            combined.add(results);
+        }
+
+        // the results are only usable if every completed response is in them
+        List<String> staleGroups = dao.getStaleItemResultsGroups(evaluationId, evalGroupIds);
+        if (! staleGroups.isEmpty()) {
+            LOG.warn("Item results for evaluation (" + evaluationId + ") are stale for " + staleGroups.size() 
+                    + " groups (" + staleGroups + "), the item results need to be rebuilt");
+            return null;
+        }
+        return itemResults;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#rebuildItemResults(java.lang.Long)
+     */
+    public int rebuildItemResults(Long evaluationId) {
+        if (evaluationId == null) {
+            throw new IllegalArgumentException("evaluationId must be set");
+        }
+        return dao.rebuildItemResults(evaluationId);
+    }
+
 
 
     // PERMISSIONS
@@ -462,7 +1053,7 @@ public class EvalDeliveryServiceImpl implements EvalDeliveryService {
         String evalGroupId = response.getEvalGroupId();
 
         // EVALSYS-618 - handle the special case of instructor/assistant selections
-        boolean selectionsEnabled = (Boolean) settings.get(EvalSettings.ENABLE_INSTRUCTOR_ASSISTANT_SELECTION);
+        boolean selectionsEnabled = settings.getBoolean(ENABLE_INSTRUCTOR_ASSISTANT_SELECTION, false);
         HashMap<String, Set<String>> typeToIdsFilter = new HashMap<>();
         if (selectionsEnabled) {
         	// check the selections are valid for the response and handle required items in a special way
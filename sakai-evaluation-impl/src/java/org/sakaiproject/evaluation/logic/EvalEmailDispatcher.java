@@ -0,0 +1,297 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.evaluation.constant.EvalConstants;
+
+/**
+ * Sends the emails for one run of an email job on a pool of threads<br/>
+ * The sending is limited to a number of messages per second (token bucket) and failed sends
+ * are retried with a growing delay. The delivered and failed emails are collected so the job
+ * can mark them (in its own thread) with {@link #drainSent()} and {@link #drainFailed()}
+ */
+public class EvalEmailDispatcher {
+
+    private static final Log LOG = LogFactory.getLog(EvalEmailDispatcher.class);
+
+    /**
+     * The maximum number of emails waiting for a worker,
+     * the job thread sends the email itself when the queue is full so it cannot run ahead too far
+     */
+    protected static final int MAX_QUEUED_EMAILS = 500;
+
+    private final EvalCommonLogic commonLogic;
+    private final RateLimiter rateLimiter;
+    private final int maxRetries;
+    private final long retryDelay;
+    private final ThreadPoolExecutor pool;
+
+    private final ConcurrentLinkedQueue<Email> sent = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Email> failed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger sentCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private final AtomicInteger retryCount = new AtomicInteger();
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * @param commonLogic used to send the emails
+     * @param threads the number of emails to send at the same time
+     * @param messagesPerSecond the maximum number of emails to send each second, 0 or less for no limit
+     * @param maxRetries the number of times to retry sending an email which failed
+     * @param retryDelay milliseconds to wait before the first retry, this doubles for each retry after that
+     */
+    public EvalEmailDispatcher(EvalCommonLogic commonLogic, int threads, double messagesPerSecond, int maxRetries, long retryDelay) {
+        this.commonLogic = commonLogic;
+        this.rateLimiter = messagesPerSecond > 0 ? new RateLimiter(messagesPerSecond) : null;
+        this.maxRetries = maxRetries < 0 ? 0 : maxRetries;
+        this.retryDelay = retryDelay < 0 ? 0 : retryDelay;
+        int poolSize = threads < 1 ? 1 : threads;
+        final AtomicInteger threadCount = new AtomicInteger();
+        pool = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_EMAILS), r -> {
+                    Thread t = new Thread(r, "EvalEmailDispatch-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Queue an email to be sent
+     * @param email the email to send
+     */
+    public void send(final Email email) {
+        pool.execute(() -> deliver(email));
+    }
+
+    /**
+     * Wait for all the queued emails to be sent, the dispatcher cannot be used after this
+     */
+    public void finish() {
+        pool.shutdown();
+        try {
+            while (! pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Waiting for " + pool.getQueue().size() + " queued emails to be sent");
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting for the queued emails to be sent, " + pool.getQueue().size() + " emails were not sent");
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the emails which were delivered since the last call
+     */
+    public List<Email> drainSent() {
+        return drain(sent);
+    }
+
+    /**
+     * @return the emails which could not be delivered (after retrying) since the last call
+     */
+    public List<Email> drainFailed() {
+        return drain(failed);
+    }
+
+    private List<Email> drain(ConcurrentLinkedQueue<Email> queue) {
+        List<Email> emails = new ArrayList<>();
+        Email email;
+        while ((email = queue.poll()) != null) {
+            emails.add(email);
+        }
+        return emails;
+    }
+
+    public int getSentCount() {
+        return sentCount.get();
+    }
+
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    public int getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * @return the number of emails delivered per second since this dispatcher was created
+     */
+    public double getThroughput() {
+        long elapsed = System.currentTimeMillis() - startTime;
+        return elapsed > 0 ? sentCount.get() * 1000.0 / elapsed : sentCount.get();
+    }
+
+    /**
+     * Send one email, retrying with a growing delay if it fails
+     */
+    protected void deliver(Email email) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (rateLimiter != null) {
+                    rateLimiter.acquire();
+                }
+                sendEmail(email);
+                sentCount.incrementAndGet();
+                sent.add(email);
+                return;
+            } catch (InterruptedException e) {
+                email.error = e;
+                LOG.warn("Interrupted before the email could be sent to (" + email.displayId + ")");
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IllegalArgumentException e) {
+                // a bad email or address will not work next time either
+                email.error = e;
+                break;
+            } catch (RuntimeException e) {
+                email.error = e;
+                if (attempt >= maxRetries) {
+                    break;
+                }
+                retryCount.incrementAndGet();
+                long delay = retryDelay << Math.min(attempt, 16);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Failed to send email to (" + email.displayId + "), retrying in " + delay + " ms: " + e);
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        LOG.warn("Error trying to send email to " + email.displayId, email.error);
+        failedCount.incrementAndGet();
+        failed.add(email);
+    }
+
+    /**
+     * Actually send the email (once)
+     * @throws RuntimeException if the email cannot be sent
+     */
+    protected void sendEmail(Email email) {
+        if (email.deliveryOption == null) {
+            email.emailAddresses = commonLogic.sendEmailsToUsers(email.from, email.toUserIds, email.subject, email.message,
+                    false, EvalConstants.EMAIL_DELIVERY_DEFAULT);
+        } else {
+            // group emails go to many users so a bad address is logged instead of failing (and resending) the lot
+            email.emailAddresses = commonLogic.sendEmailsToUsers(email.from, email.toUserIds, email.subject, email.message,
+                    true, email.deliveryOption);
+        }
+    }
+
+    /**
+     * An email to one user (consolidated emails) or to all the users in a group
+     */
+    public static class Email {
+        public final String from;
+        /**
+         * the user this email is for, null for a group email
+         */
+        public final String userId;
+        public final String displayId;
+        public final Long emailTemplateId;
+        public final String subject;
+        public final String message;
+        public final String[] toUserIds;
+        /**
+         * the delivery option for a group email, null for an email to one user
+         */
+        public final String deliveryOption;
+        /**
+         * the email addresses this was sent to (once it is sent)
+         */
+        public volatile String[] emailAddresses;
+        /**
+         * the last failure when sending this email (if there was one)
+         */
+        public volatile Exception error;
+
+        public Email(String from, String userId, String displayId, Long emailTemplateId, String subject, String message) {
+            this.from = from;
+            this.userId = userId;
+            this.displayId = displayId;
+            this.emailTemplateId = emailTemplateId;
+            this.subject = subject;
+            this.message = message;
+            this.toUserIds = new String[] {userId};
+            this.deliveryOption = null;
+        }
+
+        /**
+         * An email with the same message for all the users in a group
+         * @param displayId used to identify this email in the logs (e.g. the evalGroupId)
+         * @param deliveryOption EMAIL_DELIVERY_* from {@link EvalConstants}
+         */
+        public Email(String from, String[] toUserIds, String displayId, String subject, String message, String deliveryOption) {
+            this.from = from;
+            this.userId = null;
+            this.displayId = displayId;
+            this.emailTemplateId = null;
+            this.subject = subject;
+            this.message = message;
+            this.toUserIds = toUserIds;
+            this.deliveryOption = deliveryOption == null ? EvalConstants.EMAIL_DELIVERY_DEFAULT : deliveryOption;
+        }
+    }
+
+    /**
+     * Token bucket which allows a number of permits per second (with bursts up to one second worth),
+     * a thread which takes a permit that is not there yet waits until it would have been added
+     */
+    protected static class RateLimiter {
+        private final double permitsPerMilli;
+        private final double maxPermits;
+        private double permits;
+        private long lastRefill;
+
+        public RateLimiter(double permitsPerSecond) {
+            this.permitsPerMilli = permitsPerSecond / 1000.0;
+            this.maxPermits = Math.max(1.0, permitsPerSecond);
+            this.permits = maxPermits;
+            this.lastRefill = System.currentTimeMillis();
+        }
+
+        public void acquire() throws InterruptedException {
+            long wait;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                permits = Math.min(maxPermits, permits + (now - lastRefill) * permitsPerMilli);
+                lastRefill = now;
+                // take the permit now (possibly going below zero) so later threads wait behind this one
+                permits -= 1;
+                wait = permits >= 0 ? 0 : (long) Math.ceil(-permits / permitsPerMilli);
+            }
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+        }
+    }
+
+}
@@ -15,15 +15,25 @@
 package org.sakaiproject.evaluation.logic;
 
 import java.text.DateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -63,9 +73,26 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
     protected final String EVENT_EMAIL_RESULTS =                      "eval.email.eval.results";
     protected final String EVENT_EMAIL_SUBMISSION =                   "eval.email.eval.submission";
 
+    // settings which are read for every email
+    private static final EvalSettings.BooleanKey USE_DATE_TIME = new EvalSettings.BooleanKey(EvalSettings.EVAL_USE_DATE_TIME);
+    private static final EvalSettings.StringKey FROM_EMAIL_ADDRESS = new EvalSettings.StringKey(EvalSettings.FROM_EMAIL_ADDRESS);
+    private static final EvalSettings.IntKey LOG_PROGRESS_EVERY = new EvalSettings.IntKey(EvalSettings.LOG_PROGRESS_EVERY);
+    private static final EvalSettings.BooleanKey ENABLE_JOB_COMPLETION_EMAIL = new EvalSettings.BooleanKey(EvalSettings.ENABLE_JOB_COMPLETION_EMAIL);
+    private static final EvalSettings.IntKey INSTRUCTOR_ADD_ITEMS_NUMBER = new EvalSettings.IntKey(EvalSettings.INSTRUCTOR_ADD_ITEMS_NUMBER);
+
     protected static final int MIN_BATCH_SIZE = 10;
+    /**
+     * The number of groups to prepare available and reminder emails for ahead of the sending,
+     * this limits how many prepared emails are held in memory
+     */
+    protected static final int GROUP_EMAIL_BATCH_SIZE = 100;
 	protected static final long MILLISECONDS_PER_DAY = 24L * 60L * 60L * 1000L;
 
+    /**
+     * DateFormats are expensive to make and not thread safe so each thread keeps one per locale (and style)
+     */
+    private static final ThreadLocal<Map<String, DateFormat>> DATE_FORMATS = ThreadLocal.withInitial(HashMap::new);
+
     private EvalCommonLogic commonLogic;
     public void setCommonLogic(EvalCommonLogic commonLogic) {
         this.commonLogic = commonLogic;
@@ -81,6 +108,40 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
         this.evaluationService = evaluationService;
     }
 
+    /**
+     * The number of consolidated emails to send at the same time,
+     * also the number of groups to prepare (and send) available and reminder emails for at the same time
+     */
+    private int emailDispatchThreads = 4;
+    public void setEmailDispatchThreads(int emailDispatchThreads) {
+        this.emailDispatchThreads = emailDispatchThreads;
+    }
+
+    /**
+     * The maximum number of consolidated emails to send each second (0 for no limit),
+     * the EMAIL_BATCH_SIZE per EMAIL_WAIT_INTERVAL setting also limits the rate if it is lower
+     */
+    private double maxEmailsPerSecond = 0;
+    public void setMaxEmailsPerSecond(double maxEmailsPerSecond) {
+        this.maxEmailsPerSecond = maxEmailsPerSecond;
+    }
+
+    /**
+     * The number of times to retry sending a consolidated email which failed
+     */
+    private int emailSendRetries = 3;
+    public void setEmailSendRetries(int emailSendRetries) {
+        this.emailSendRetries = emailSendRetries;
+    }
+
+    /**
+     * Milliseconds to wait before retrying a failed email, doubled for each retry after the first
+     */
+    private long emailRetryDelay = 2000L;
+    public void setEmailRetryDelay(long emailRetryDelay) {
+        this.emailRetryDelay = emailRetryDelay;
+    }
+
     // INIT method
     public void init() {
         LOG.debug("Init");
@@ -174,75 +235,74 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
     public String[] sendEvalAvailableNotifications(Long evaluationId, boolean includeEvaluatees) {
         LOG.debug("evaluationId: " + evaluationId + ", includeEvaluatees: " + includeEvaluatees);
 
-        Set<String> userIdsSet;
-        boolean studentNotification = true;
         boolean evaluateeNotification = (Boolean) settings.get(EvalSettings.ENABLE_SUBMISSION_EVALUATEE_EMAIL);
 
-        EvalEvaluation eval = getEvaluationOrFail(evaluationId);
-        String from = getFromEmailOrFail(eval);
-        EvalEmailTemplate emailTemplate = getEmailTemplateOrFail(EvalConstants.EMAIL_TEMPLATE_AVAILABLE, evaluationId);
-        EvalEmailTemplate emailTemplateEvaluatee = getEmailTemplateOrFail(EvalConstants.EMAIL_TEMPLATE_AVAILABLE_EVALUATEE, evaluationId);
+        final EvalEvaluation eval = getEvaluationOrFail(evaluationId);
+        final String from = getFromEmailOrFail(eval);
+        final EvalEmailTemplate emailTemplate = getEmailTemplateOrFail(EvalConstants.EMAIL_TEMPLATE_AVAILABLE, evaluationId);
+        final EvalEmailTemplate emailTemplateEvaluatee = getEmailTemplateOrFail(EvalConstants.EMAIL_TEMPLATE_AVAILABLE_EVALUATEE, evaluationId);
 
         // get the instructor opt-in email template
-        EvalEmailTemplate emailOptInTemplate = getEmailTemplateOrFail(EvalConstants.EMAIL_TEMPLATE_AVAILABLE_OPT_IN, null);
+        final EvalEmailTemplate emailOptInTemplate = getEmailTemplateOrFail(EvalConstants.EMAIL_TEMPLATE_AVAILABLE_OPT_IN, null);
 
         // get the associated assign groups for this evaluation
         Map<Long, List<EvalAssignGroup>> evalAssignGroups = 
             evaluationService.getAssignGroupsForEvals(new Long[] { evaluationId }, true, null);
         List<EvalAssignGroup> assignGroups = evalAssignGroups.get(evaluationId);
 
-        String sampleEmail = null;
-        List<String> sentEmails = new ArrayList<>();
-        // loop through groups and send emails to correct users group
-        for (int i = 0; i < assignGroups.size(); i++) {
-            EvalAssignGroup assignGroup = assignGroups.get(i);
-            
-            if(! commonLogic.isEvalGroupPublished(assignGroup.getEvalGroupId())) {
-                LOG.info("Skipping available email for evaluationId ("+evaluationId+") and group ("+assignGroup.getEvalGroupId()+") because the group is not published");
-                continue;
+        // get the participants for all the groups up front instead of once (or twice) per group
+        final Map<String, List<EvalAssignUser>> evaluators = 
+            evaluationService.getParticipantsForEvalByGroup(evaluationId, null, EvalAssignUser.TYPE_EVALUATOR, null);
+        final Map<String, List<EvalAssignUser>> evaluatees;
+        if (evaluateeNotification 
+                || (eval.getInstructorOpt().equals(EvalConstants.INSTRUCTOR_OPT_IN) && includeEvaluatees)) {
+            evaluatees = evaluationService.getParticipantsForEvalByGroup(evaluationId, null, EvalAssignUser.TYPE_EVALUATEE, null);
+        } else {
+            evaluatees = new HashMap<>();
+        }
+
+        // the messages are made in other threads so get everything about the current user now
+        final String currentUserId = commonLogic.getCurrentUserId();
+        final Locale locale = commonLogic.getUserLocale(currentUserId);
+        final String userName = getUserDisplayName(currentUserId);
+        final String deliveryOption = (String) settings.get(EvalSettings.EMAIL_DELIVERY_OPTION);
+
+        final List<String> sentEmails = new ArrayList<>();
+        final String[] sampleEmail = new String[1];
+        // prepare the emails for each group (in parallel) and send them to the correct users in each group
+        sendGroupEmails(assignGroups, (assignGroup, index) -> {
+            String evalGroupId = assignGroup.getEvalGroupId();
+            GroupEmails groupEmails = new GroupEmails(evalGroupId, index);
+
+            if(! commonLogic.isEvalGroupPublished(evalGroupId)) {
+                LOG.info("Skipping available email for evaluationId ("+evaluationId+") and group ("+evalGroupId+") because the group is not published");
+                return groupEmails;
             }
-            
-            EvalGroup group = commonLogic.makeEvalGroupObject(assignGroup.getEvalGroupId());
-            if (eval.getInstructorOpt().equals(EvalConstants.INSTRUCTOR_REQUIRED)) {
-                // notify eval takers
-                List<EvalAssignUser> userAssignments = evaluationService.getParticipantsForEval(evaluationId, null, 
-                        new String[] {group.evalGroupId}, EvalAssignUser.TYPE_EVALUATOR, null, null, null);
-                userIdsSet = EvalUtils.getUserIdsFromUserAssignments(userAssignments);
-                studentNotification = true;
-            } else {
-                //instructor may opt-in or opt-out
-                if (assignGroup.getInstructorApproval()) {
-                    // instructor has opted-in, notify students
-                    List<EvalAssignUser> userAssignments = evaluationService.getParticipantsForEval(evaluationId, null, 
-                            new String[] {group.evalGroupId}, EvalAssignUser.TYPE_EVALUATOR, null, null, null);
-                    userIdsSet = EvalUtils.getUserIdsFromUserAssignments(userAssignments);
-                    studentNotification = true;
-                } else {
-                    if (eval.getInstructorOpt().equals(EvalConstants.INSTRUCTOR_OPT_IN) && includeEvaluatees) {
-                        // instructor has not opted-in, notify instructors
-                        List<EvalAssignUser> userAssignments = evaluationService.getParticipantsForEval(evaluationId, null, 
-                                new String[] {group.evalGroupId}, EvalAssignUser.TYPE_EVALUATEE, null, null, null);
-                        userIdsSet = EvalUtils.getUserIdsFromUserAssignments(userAssignments);
-                        studentNotification = false;
-                    } else {
-                        userIdsSet = new HashSet<>();
-                    }
-                }
+
+            EvalGroup group = commonLogic.makeEvalGroupObject(evalGroupId);
+            List<EvalAssignUser> userAssignments = null;
+            boolean studentNotification = true;
+            if (eval.getInstructorOpt().equals(EvalConstants.INSTRUCTOR_REQUIRED)
+                    || assignGroup.getInstructorApproval()) {
+                // notify eval takers (instructor may have opted-in)
+                userAssignments = evaluators.get(evalGroupId);
+            } else if (eval.getInstructorOpt().equals(EvalConstants.INSTRUCTOR_OPT_IN) && includeEvaluatees) {
+                // instructor has not opted-in, notify instructors
+                userAssignments = evaluatees.get(evalGroupId);
+                studentNotification = false;
             }
+            String[] toUserIds = getUserIds(userAssignments);
 
             // skip ahead if there is no one to send to
-            if (userIdsSet.isEmpty()) {
-                LOG.info("Skipping available email for evaluationId ("+evaluationId+") and group ("+assignGroup.getEvalGroupId()+") because there is no one (instructors or participants) to send the email to");
-                continue;
+            if (toUserIds.length == 0) {
+                LOG.info("Skipping available email for evaluationId ("+evaluationId+") and group ("+evalGroupId+") because there is no one (instructors or participants) to send the email to");
+                return groupEmails;
             }
 
-            // turn the set into an array
-            String[] toUserIds = (String[]) userIdsSet.toArray(new String[] {});
-
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Found " + toUserIds.length + " users (" + ArrayUtils.arrayToString(toUserIds) + ") to send "
                         + EvalConstants.EMAIL_TEMPLATE_CREATED + " notification to for available evaluation ("
-                        + evaluationId + ") and group (" + group.evalGroupId + ")");
+                        + evaluationId + ") and group (" + evalGroupId + ")");
             }
 
             // choose from 2 templates
@@ -250,42 +310,47 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
             if (! studentNotification) {
                 currentTemplate = emailOptInTemplate;
             }
-            EvalEmailMessage em = makeEmailMessage(currentTemplate.getMessage(), currentTemplate.getSubject(), eval, group);
-            if (sampleEmail == null && em.message != null) {
-                sampleEmail = em.message;
-            }
-
-            // send the actual emails for this evalGroupId
-            String[] emailAddresses = sendUsersEmails(from, toUserIds, em.subject, em.message);
-            LOG.info("Sent evaluation available message to " + emailAddresses.length + " users (attempted to send to "+toUserIds.length+")");
-            // store sent emails to return
-            sentEmails.addAll( Arrays.asList( emailAddresses ) );
+            EvalEmailMessage em = makeEmailMessage(currentTemplate.getMessage(), currentTemplate.getSubject(), eval, group, 
+                    null, assignGroup, locale, userName);
+            groupEmails.sampleEmail = em.message;
+            groupEmails.emails.add( new EvalEmailDispatcher.Email(from, toUserIds, evalGroupId, em.subject, em.message, deliveryOption) );
 
             if (evaluateeNotification) {
-            	em = makeEmailMessage(emailTemplateEvaluatee.getMessage(), emailTemplateEvaluatee.getSubject(), eval, group);
-            	List<EvalAssignUser> userAssignments = evaluationService.getParticipantsForEval(evaluationId, null, 
-            			new String[] {group.evalGroupId}, EvalAssignUser.TYPE_EVALUATEE, null, null, null);
-            	userIdsSet = EvalUtils.getUserIdsFromUserAssignments(userAssignments);
-                // turn the set into an array
-                toUserIds = (String[]) userIdsSet.toArray(new String[] {});
+                toUserIds = getUserIds(evaluatees.get(evalGroupId));
                 if (LOG.isDebugEnabled()) {
-                	LOG.debug("Found " + toUserIds.length + " users (" + ArrayUtils.arrayToString(toUserIds) + ") to send "
-                			+ EvalConstants.EMAIL_TEMPLATE_CREATED + " notification to for available evaluation ("
-                			+ evaluationId + ") and group (" + group.evalGroupId + ")");
+                    LOG.debug("Found " + toUserIds.length + " users (" + ArrayUtils.arrayToString(toUserIds) + ") to send "
+                            + EvalConstants.EMAIL_TEMPLATE_CREATED + " notification to for available evaluation ("
+                            + evaluationId + ") and group (" + evalGroupId + ")");
+                }
+                if (toUserIds.length > 0) {
+                    em = makeEmailMessage(emailTemplateEvaluatee.getMessage(), emailTemplateEvaluatee.getSubject(), eval, group, 
+                            null, assignGroup, locale, userName);
+                    groupEmails.emails.add( new EvalEmailDispatcher.Email(from, toUserIds, evalGroupId, em.subject, em.message, deliveryOption) );
                 }
-            	emailAddresses = sendUsersEmails(from, toUserIds, em.subject, em.message);
-                sentEmails.addAll( Arrays.asList( emailAddresses ) );
-            	LOG.info("Sent evaluation available evaluatee message to " + emailAddresses.length + " users (attempted to send to "+toUserIds.length+")");
             }
-
+            return groupEmails;
+        }, groupEmails -> {
+            if (groupEmails.emails.isEmpty()) {
+                return;
+            }
+            for (EvalEmailDispatcher.Email email : groupEmails.emails) {
+                if (email.emailAddresses != null) {
+                    LOG.info("Sent evaluation available message for group ("+groupEmails.evalGroupId+") to " + email.emailAddresses.length + " users (attempted to send to "+email.toUserIds.length+")");
+                    // store sent emails to return
+                    sentEmails.addAll( Arrays.asList( email.emailAddresses ) );
+                }
+            }
+            if (sampleEmail[0] == null) {
+                sampleEmail[0] = groupEmails.sampleEmail;
+            }
             commonLogic.registerEntityEvent(EVENT_EMAIL_AVAILABLE, eval);
-        }
+        });
 
-        if (sampleEmail == null && emailTemplate != null) {
-            sampleEmail = emailTemplate.getMessage();
+        if (sampleEmail[0] == null && emailTemplate != null) {
+            sampleEmail[0] = emailTemplate.getMessage();
         }
         String[] emailsSent = sentEmails.toArray(new String[sentEmails.size()]);
-        handleJobCompletion(eval, emailsSent, EvalConstants.JOB_TYPE_ACTIVE, from, sampleEmail);
+        handleJobCompletion(eval, emailsSent, EvalConstants.JOB_TYPE_ACTIVE, from, sampleEmail[0]);
 
         return emailsSent;
     }
@@ -376,9 +441,9 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
             LOG.debug("Found " + groups.size() + " groups for available evaluation: " + evaluationId);
         }
 
-        String sampleEmail = null;
-        List<String> sentEmails = new ArrayList<>();
-        // loop through groups and send emails to correct users in each
+        // skip the invalid groups and the groups which were done before the sending was interrupted
+        List<EvalGroup> sendGroups = new ArrayList<>();
+        final List<Integer> groupPositions = new ArrayList<>();
         for (int i = 0; i < groups.size(); i++) {
             EvalGroup group = (EvalGroup) groups.get(i);
             if (EvalConstants.GROUP_TYPE_INVALID.equals(group.type)) {
@@ -401,62 +466,98 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
             		continue;
             	}
             }
+            sendGroups.add(group);
+            groupPositions.add(i);
+        }
 
-            if (! commonLogic.isEvalGroupPublished(evalGroupId)) {
-                continue; // skip processing for groups that are not published?
-            }
+        // get the participants for all the groups up front instead of once per group
+        final Map<String, List<EvalAssignUser>> participants = 
+            evaluationService.getParticipantsForEvalByGroup(evaluationId, null, null, includeConstant);
+        final Map<String, EvalAssignGroup> assignGroups = new HashMap<>();
+        for (EvalAssignGroup assignGroup : evaluationService.getAssignGroupsForEvals(new Long[] { evaluationId }, true, null).get(evaluationId)) {
+            assignGroups.putIfAbsent(assignGroup.getEvalGroupId(), assignGroup);
+        }
 
-            String[] limitGroupIds = null;
-            if (evalGroupId != null) {
-                limitGroupIds = new String[] {evalGroupId};
-            }
+        // the messages are made in other threads so get everything about the current user now
+        final String currentUserId = commonLogic.getCurrentUserId();
+        final Locale locale = commonLogic.getUserLocale(currentUserId);
+        final String userName = getUserDisplayName(currentUserId);
+        final String deliveryOption = (String) settings.get(EvalSettings.EMAIL_DELIVERY_OPTION);
+
+        final List<String> sentEmails = new ArrayList<>();
+        final String[] sampleEmail = new String[1];
+        final String[] failedGroupId = new String[1];
+        // prepare the emails for each group (in parallel) and send them to the correct users in each group
+        sendGroupEmails(sendGroups, (group, index) -> {
+            String evalGroupId = group.evalGroupId;
+            GroupEmails groupEmails = new GroupEmails(evalGroupId, groupPositions.get(index));
 
-            List<EvalAssignUser> participants = evaluationService.getParticipantsForEval(evaluationId, null, limitGroupIds, null, null, includeConstant, null);
-            Set<String> userIdsSet = EvalUtils.getUserIdsFromUserAssignments(participants);
+            if (! commonLogic.isEvalGroupPublished(evalGroupId)) {
+                groupEmails.skipped = true;
+                return groupEmails; // skip processing for groups that are not published?
+            }
 
-            if (userIdsSet.size() > 0) {
-                // turn the set into an array
-                String[] toUserIds = (String[]) userIdsSet.toArray(new String[] {});
+            String[] toUserIds = getUserIds(participants.get(evalGroupId));
+            if (toUserIds.length > 0) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Found " + toUserIds.length + " users (" + ArrayUtils.arrayToString(toUserIds) + ") of type "
                             + includeConstant+" to send " + EvalConstants.EMAIL_TEMPLATE_REMINDER 
-                            + " notification to for available evaluation ("+ evaluationId + ") and group (" + group.evalGroupId + ")");
+                            + " notification to for available evaluation ("+ evaluationId + ") and group (" + evalGroupId + ")");
                 }
 
-                EvalEmailMessage em = makeEmailMessage(emailTemplate.getMessage(), emailTemplate.getSubject(), eval, group, includeConstant);
-                if (sampleEmail == null && em.message != null) {
-                    sampleEmail = em.message;
+                EvalEmailMessage em = makeEmailMessage(emailTemplate.getMessage(), emailTemplate.getSubject(), eval, group, 
+                        includeConstant, assignGroups.get(evalGroupId), locale, userName);
+                groupEmails.sampleEmail = em.message;
+                groupEmails.emails.add( new EvalEmailDispatcher.Email(from, toUserIds, evalGroupId, em.subject, em.message, deliveryOption) );
+            }
+            return groupEmails;
+        }, groupEmails -> {
+            if (groupEmails.skipped) {
+                return;
+            }
+            for (EvalEmailDispatcher.Email email : groupEmails.emails) {
+                if (email.emailAddresses != null) {
+                    LOG.info("Sent evaluation reminder message for eval ("+evaluationId+") and group ("+groupEmails.evalGroupId+") to " + email.emailAddresses.length + " users (attempted to send to "+email.toUserIds.length+")");
+                    // store sent emails to return
+                    sentEmails.addAll( Arrays.asList( email.emailAddresses ) );
                 }
-
-                // send the actual emails for this evalGroupId
-                String[] emailAddresses = sendUsersEmails(from, toUserIds, em.subject, em.message);
-                LOG.info("Sent evaluation reminder message for eval ("+evaluationId+") and group ("+group.evalGroupId+") to " + emailAddresses.length + " users (attempted to send to "+toUserIds.length+")");
-                // store sent emails to return
-                sentEmails.addAll( Arrays.asList( emailAddresses ) );
             }
-            // update the reminder status
-            if (updateReminderStatus) {
+            if (sampleEmail[0] == null) {
+                sampleEmail[0] = groupEmails.sampleEmail;
+            }
+            if (groupEmails.failed && failedGroupId[0] == null) {
+                failedGroupId[0] = groupEmails.evalGroupId;
+            }
+            // update the reminder status, it never moves past a group which was not completely sent
+            if (updateReminderStatus && failedGroupId[0] == null) {
+                int position = groupEmails.position + 1;
                 if (LOG.isDebugEnabled()) {
-                    LOG.debug("Reminder recovery processing for eval ("+evaluationId+"), update to group ("+evalGroupId+"), at "+(i+1)+" / "+groups.size());
+                    LOG.debug("Reminder recovery processing for eval ("+evaluationId+"), update to group ("+groupEmails.evalGroupId+"), at "+position+" / "+groups.size());
                 }
-            	evaluationService.updateEvaluationReminderStatus(evaluationId, new EvalReminderStatus(groups.size(), i+1, evalGroupId));
+            	evaluationService.updateEvaluationReminderStatus(evaluationId, new EvalReminderStatus(groups.size(), position, groupEmails.evalGroupId));
             }
-        }
+        });
         // set reminder status back to idle
         if (updateReminderStatus) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Reminder recovery processing for eval ("+evaluationId+"), cleared status");
+            if (failedGroupId[0] != null) {
+                // the next reminder starts again from the failed group
+                LOG.warn("Reminder recovery processing for eval ("+evaluationId+"), failed to send reminders to group ("
+                        +failedGroupId[0]+"), kept status at the last group before it");
+            } else {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Reminder recovery processing for eval ("+evaluationId+"), cleared status");
+                }
+                evaluationService.updateEvaluationReminderStatus(evaluationId, null);
             }
-        	evaluationService.updateEvaluationReminderStatus(evaluationId, null);
         }
         commonLogic.registerEntityEvent(EVENT_EMAIL_REMINDER, eval);
 
-        if (sampleEmail == null && emailTemplate != null) {
-            sampleEmail = emailTemplate.getMessage();
+        if (sampleEmail[0] == null && emailTemplate != null) {
+            sampleEmail[0] = emailTemplate.getMessage();
         }
         String[] emailsSent = sentEmails.toArray(new String[sentEmails.size()]);
         // send email to helpdeskEmail that reminders are finished.
-        handleJobCompletion(eval, emailsSent, EvalConstants.JOB_TYPE_REMINDER, from, sampleEmail);
+        handleJobCompletion(eval, emailsSent, EvalConstants.JOB_TYPE_REMINDER, from, sampleEmail[0]);
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Reminder processing complete for eval ("+evaluationId+"), sent emails to: "+sentEmails);
@@ -588,6 +689,168 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
     }
 
 
+    /**
+     * The emails for one group of an available or reminder notification
+     */
+    protected static class GroupEmails {
+        public final String evalGroupId;
+        /**
+         * the position of the group in the list of groups for the eval
+         */
+        public final int position;
+        public final List<EvalEmailDispatcher.Email> emails = new ArrayList<>();
+        /**
+         * the first message made for this group (if any)
+         */
+        public String sampleEmail;
+        /**
+         * true if the group was not processed at all
+         */
+        public boolean skipped = false;
+        /**
+         * true if any of the emails for the group could not be sent
+         */
+        public boolean failed = false;
+        /**
+         * the number of emails for the group which are still being sent
+         */
+        int undelivered = 0;
+
+        public GroupEmails(String evalGroupId, int position) {
+            this.evalGroupId = evalGroupId;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Makes the emails for one group, this is called from the threads which prepare the emails
+     * so it must not depend on the current user (session)
+     */
+    protected interface GroupEmailsPreparer<T> {
+        /**
+         * @param group the group to make the emails for
+         * @param index the index of the group in the list of groups being sent to
+         * @return the emails to send to the group (can be empty)
+         */
+        GroupEmails prepare(T group, int index);
+    }
+
+    /**
+     * Prepares the emails for each group using a pool of threads and sends them with an {@link EvalEmailDispatcher},
+     * up to {@link #GROUP_EMAIL_BATCH_SIZE} groups are prepared ahead of the sending and the sent handler is called
+     * (in this thread) for each group in the original order as soon as it and the groups before it have been sent
+     * 
+     * @param groups the groups to send emails to
+     * @param preparer makes the emails for a group
+     * @param sentHandler called for each group after its emails have been sent,
+     * emails which could not be sent have no emailAddresses and the group is marked as failed
+     * @throws RuntimeException if preparing the emails for a group fails, 
+     * the emails for the groups before it are still sent (and passed to the sent handler)
+     */
+    protected <T> void sendGroupEmails(List<T> groups, GroupEmailsPreparer<T> preparer, Consumer<GroupEmails> sentHandler) {
+        if (groups == null || groups.isEmpty()) {
+            return;
+        }
+        int threads = emailDispatchThreads < 1 ? 1 : emailDispatchThreads;
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService preparePool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "EvalEmailPrepare-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        EvalEmailDispatcher dispatcher = new EvalEmailDispatcher(commonLogic, threads, maxEmailsPerSecond, 
+                emailSendRetries, emailRetryDelay);
+        Deque<Future<GroupEmails>> prepared = new ArrayDeque<>();
+        // the groups which have been sent but not handled yet (in order) and the group for each email being sent
+        Deque<GroupEmails> sending = new ArrayDeque<>();
+        Map<EvalEmailDispatcher.Email, GroupEmails> emailGroups = new IdentityHashMap<>();
+        RuntimeException failure = null;
+        try {
+            int next = 0;
+            while (next < groups.size() || ! prepared.isEmpty()) {
+                while (next < groups.size() && prepared.size() < GROUP_EMAIL_BATCH_SIZE) {
+                    final T group = groups.get(next);
+                    final int index = next++;
+                    prepared.add( preparePool.submit(() -> preparer.prepare(group, index)) );
+                }
+
+                // send each group as soon as it is ready while the later groups are still being prepared
+                GroupEmails groupEmails = getPreparedEmails(prepared.poll());
+                groupEmails.undelivered = groupEmails.emails.size();
+                for (EvalEmailDispatcher.Email email : groupEmails.emails) {
+                    emailGroups.put(email, groupEmails);
+                }
+                sending.add(groupEmails);
+                for (EvalEmailDispatcher.Email email : groupEmails.emails) {
+                    dispatcher.send(email);
+                }
+                handleSentGroups(dispatcher, sending, emailGroups, sentHandler);
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            for (Future<GroupEmails> future : prepared) {
+                future.cancel(true);
+            }
+            preparePool.shutdownNow();
+            dispatcher.finish();
+        }
+        // the groups sent before a failure were delivered so they still have to be handled
+        handleSentGroups(dispatcher, sending, emailGroups, sentHandler);
+        if (dispatcher.getFailedCount() > 0) {
+            LOG.warn("Failed to send " + dispatcher.getFailedCount() + " group emails (of " 
+                    + (dispatcher.getFailedCount() + dispatcher.getSentCount()) + ")");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Passes the groups which are completely sent to the sent handler, in the order they were sent
+     * so a group is never handled before the groups ahead of it
+     */
+    private void handleSentGroups(EvalEmailDispatcher dispatcher, Deque<GroupEmails> sending, 
+            Map<EvalEmailDispatcher.Email, GroupEmails> emailGroups, Consumer<GroupEmails> sentHandler) {
+        for (EvalEmailDispatcher.Email email : dispatcher.drainSent()) {
+            emailGroups.remove(email).undelivered--;
+        }
+        for (EvalEmailDispatcher.Email email : dispatcher.drainFailed()) {
+            GroupEmails groupEmails = emailGroups.remove(email);
+            groupEmails.undelivered--;
+            groupEmails.failed = true;
+        }
+        while (! sending.isEmpty() && sending.peek().undelivered <= 0) {
+            sentHandler.accept(sending.poll());
+        }
+    }
+
+    private GroupEmails getPreparedEmails(Future<GroupEmails> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while preparing the group emails", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to prepare the group emails: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * @param userAssignments [OPTIONAL] user assignments
+     * @return the unique user ids from the assignments (in order)
+     */
+    private String[] getUserIds(List<EvalAssignUser> userAssignments) {
+        if (userAssignments == null) {
+            return new String[] {};
+        }
+        Set<String> userIdsSet = EvalUtils.getUserIdsFromUserAssignments(userAssignments);
+        return userIdsSet.toArray(new String[userIdsSet.size()]);
+    }
+
     /**
      * Special method to handle the job completion notifications
      * EVALSYS-916 Send email to the helpdesk user notifying that the job is completed
@@ -758,21 +1021,39 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
     
     public EvalEmailMessage makeEmailMessage(String messageTemplate, String subjectTemplate, EvalEvaluation eval,
     		EvalGroup group, String includeConstant) {
+        EvalAssignGroup assignGroup = null;
+        if (group != null && group.evalGroupId != null) {
+            // get the URL directly to the evaluation with group context included
+            assignGroup = evaluationService.getAssignGroupByEvalAndGroupId(eval.getId(), group.evalGroupId);
+        }
+        String currentUserId = commonLogic.getCurrentUserId();
+        return makeEmailMessage(messageTemplate, subjectTemplate, eval, group, includeConstant, assignGroup, 
+                commonLogic.getUserLocale(currentUserId), getUserDisplayName(currentUserId));
+    }
+
+    /**
+     * Builds the email message without looking up anything about the current user,
+     * this can be used from threads which do not have the current user (session) of the job
+     * 
+     * @param messageTemplate
+     * @param subjectTemplate
+     * @param eval
+     * @param group
+     * @param includeConstant
+     * @param assignGroup [OPTIONAL] the assignment of the group to the eval, used for the URLs in the message
+     * @param locale the locale for the dates in the message
+     * @param userName the value for the UserName variable
+     * @return the processed message template with replacements and logic handled
+     */
+    protected EvalEmailMessage makeEmailMessage(String messageTemplate, String subjectTemplate, EvalEvaluation eval,
+            EvalGroup group, String includeConstant, EvalAssignGroup assignGroup, Locale locale, String userName) {
         // replace the text of the template with real values
     	Map<String, String> replacementValues = new HashMap<>();
         replacementValues.put("EvalTitle", eval.getTitle());
 
         // use a date which is related to the current users locale
-        DateFormat df;
-        boolean useDateTime = (Boolean) settings.get(EvalSettings.EVAL_USE_DATE_TIME);
-        if (useDateTime) {
-            // show date and time if date/time enabled
-            df = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM, 
-                    commonLogic.getUserLocale(commonLogic.getCurrentUserId()));
-        } else {
-            df = DateFormat.getDateInstance(DateFormat.MEDIUM, 
-                    commonLogic.getUserLocale(commonLogic.getCurrentUserId()));
-        }
+        boolean useDateTime = settings.getBoolean(USE_DATE_TIME, false);
+        DateFormat df = getDateFormat(locale, useDateTime);
 
         replacementValues.put("EvalStartDate", df.format(eval.getStartDate()));
         String dueDate = "--------";
@@ -801,7 +1082,7 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
         replacementValues.put("HelpdeskEmail", getFromEmailOrFail(eval));
 
         // setup the opt-in, opt-out, and add questions variables
-        int addItems = ((Integer) settings.get(EvalSettings.INSTRUCTOR_ADD_ITEMS_NUMBER));
+        int addItems = settings.getInt(INSTRUCTOR_ADD_ITEMS_NUMBER, 0);
         if (! eval.getInstructorOpt().equals(EvalConstants.INSTRUCTOR_REQUIRED) || (addItems > 0)) {
             if (eval.getInstructorOpt().equals(EvalConstants.INSTRUCTOR_OPT_IN)) {
                 // if eval is opt-in notify instructors that they may opt in
@@ -850,12 +1131,8 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
         // generate URLs to the evaluation
         // generate URLs to the evaluation
         String evalEntityURL = null;
-        if (group != null && group.evalGroupId != null) {
-            // get the URL directly to the evaluation with group context included
-            EvalAssignGroup assignGroup = evaluationService.getAssignGroupByEvalAndGroupId(eval.getId(), group.evalGroupId);
-            if (assignGroup != null) {
-                evalEntityURL = commonLogic.getEntityURL(assignGroup);
-            }
+        if (assignGroup != null) {
+            evalEntityURL = commonLogic.getEntityURL(assignGroup);
         }
 
         if (evalEntityURL == null) {
@@ -882,16 +1159,7 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
 		String timeStamp =  df.format(new Date());
 		replacementValues.put("TimeStamp", timeStamp);
 		
-		//handle the username variable if we can get the user
-		String name = "";
-		try{
-			String currentUserId = commonLogic.getCurrentUserId();
-	        EvalUser user = commonLogic.getEvalUserById(currentUserId);
-	        name = user.displayName;
-		}catch (Exception e) {
-			//not populating the username variable with anything proper. We could not get a valid user.
-		}
-		replacementValues.put("UserName", name);
+		replacementValues.put("UserName", userName == null ? "" : userName);
 		
         String message = TextTemplateLogicUtils.processTextTemplate(messageTemplate, replacementValues);
         String subject = null;
@@ -901,6 +1169,22 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
         return new EvalEmailMessage(subjectTemplate, messageTemplate, subject, message);
     }
 
+    /**
+     * @param userId an internal user id
+     * @return the display name for the user or "" if the user cannot be found
+     */
+    protected String getUserDisplayName(String userId) {
+		//handle the username variable if we can get the user
+		String name = "";
+		try{
+	        EvalUser user = commonLogic.getEvalUserById(userId);
+	        name = user.displayName;
+		}catch (Exception e) {
+			//not populating the username variable with anything proper. We could not get a valid user.
+		}
+		return name;
+    }
+
     /*
      * (non-Javadoc)
      * @see org.sakaiproject.evaluation.logic.EvalEmailsLogic#sendConsolidatedAvailableNotifications()
@@ -923,7 +1207,11 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
 		
 		Date startTime = new Date();
 
-		int count = this.evaluationService.selectConsoliatedEmailRecipients(true, null, true, null, EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_AVAILABLE);
+		// anything left in the queue was not sent by the last run (the server stopped) so finish that first
+		int count = this.evaluationService.resumeConsolidatedEmailRecipients(true);
+		if(count <= 0) {
+			count = this.evaluationService.selectConsoliatedEmailRecipients(true, null, true, null, EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_AVAILABLE);
+		}
 		if(LOG.isDebugEnabled()) {
 			LOG.debug("Number of evalAssignUser entities selected for available emails: " + count);
 		}
@@ -935,18 +1223,12 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
         		jobStatusReporter.reportProgress(jobId, "announcementGroups", Integer.toString(this.evaluationService.countDistinctGroupsInConsolidatedEmailMapping()));
         	}
 
-	    	int page = 0;
-	    	List<String> userIds;
-	    	do {
-		    	List<Map<String,Object>> userMap = this.evaluationService.getConsolidatedEmailMapping(true, batchSize, page++);
-		    	userIds = processConsolidatedEmails(jobId, userMap, jobStatusReporter);
-		    	if(userIds != null) {
-		    		recipients.addAll(userIds);
-		    	}
-	    		takeShortBreak(waitInterval);
-	    	} while(userIds != null && !userIds.isEmpty());
-	    	
-	    	this.evaluationService.resetConsolidatedEmailRecipients();
+	    	try {
+	    		recipients = dispatchConsolidatedEmails(true, batchSize, waitInterval, jobId, jobStatusReporter);
+	    	} finally {
+	    		// only a run which never got here (the server stopped) is resumed, a failed run selects again next time
+	    		this.evaluationService.resetConsolidatedEmailRecipients(true);
+	    	}
 		}
     	
 		if(jobId != null && jobStatusReporter != null) {
@@ -1008,24 +1290,26 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
     	}
 		Date reminderEmailSent = new Date();
 		
-		int count = this.evaluationService.selectConsoliatedEmailRecipients(availableEmailEnabled, availableEmailSent , true, reminderEmailSent , EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_REMINDER);
+		// anything left in the queue was not sent by the last run (the server stopped) so finish that first
+		int count = this.evaluationService.resumeConsolidatedEmailRecipients(false);
+		if(count <= 0) {
+			count = this.evaluationService.selectConsoliatedEmailRecipients(availableEmailEnabled, availableEmailSent , true, reminderEmailSent , EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_REMINDER);
+		}
     	LOG.debug("Number of evalAssignUser entities selected for reminder emails: " + count);
     	if(count > 0) {
         	if(jobStatusReporter != null) {
         		jobStatusReporter.reportProgress(jobId, "sendingReminders", Integer.toString(count));
         		jobStatusReporter.reportProgress(jobId, "reminderGroups", Integer.toString(this.evaluationService.countDistinctGroupsInConsolidatedEmailMapping()));
         	}
-        	int page = 0;
-        	List<String> userIds;
-	    	do {
-	    		List<Map<String,Object>> userMap = this.evaluationService.getConsolidatedEmailMapping(false, batchSize, page++);
-	    		userIds = processConsolidatedEmails(jobId, userMap, jobStatusReporter);
-	    		if(userIds != null)
-	    		recipients.addAll(userIds);
-	    		takeShortBreak(waitInterval);
-	    	} while(userIds != null && !userIds.isEmpty());
+        	try {
+        		recipients = dispatchConsolidatedEmails(false, batchSize, waitInterval, jobId, jobStatusReporter);
+        	} finally {
+        		// only a run which never got here (the server stopped) is resumed, a failed run selects again next time
+        		this.evaluationService.resetConsolidatedEmailRecipients(false);
+        	}
+    	} else {
+    		this.evaluationService.resetConsolidatedEmailRecipients(false);
     	}
-    	this.evaluationService.resetConsolidatedEmailRecipients();
     	
 		if(jobId != null && jobStatusReporter != null) {
 			jobStatusReporter.reportProgress(jobId, "reminders", calculateElapsedTimeMessage(new Date(), reminderEmailSent));
@@ -1068,104 +1352,237 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
 
 	/**
      * INTERNAL METHOD<br/>
-	 * @param waitInterval
+     * Send all the consolidated emails in the email processing queue on the dispatch threads,
+     * the emails are marked as sent (page by page) as they are delivered so an interrupted run
+     * can be resumed without sending them again
+     * 
+	 * @param sendingAvailableEmails true for available emails, false for reminders
+	 * @param batchSize the number of users to process in each page
+	 * @param waitInterval the number of seconds each batch should take (at least), 0 for no limit
+	 * @param jobId 
+	 * @param jobStatusReporter 
+	 * @return the display ids of the users the emails were delivered to
 	 */
-	protected void takeShortBreak(Integer waitInterval) {
-		if(waitInterval.longValue() > 0L) {
-			if(LOG.isDebugEnabled()) {
-				LOG.debug("Starting wait interval during email processing (in seconds): " + waitInterval);
+	protected List<String> dispatchConsolidatedEmails(boolean sendingAvailableEmails, int batchSize, int waitInterval,
+			String jobId, JobStatusReporter jobStatusReporter) {
+		// the old batch and wait settings become the rate limit
+		double messagesPerSecond = maxEmailsPerSecond;
+		if(waitInterval > 0) {
+			double batchRate = ((double) batchSize) / waitInterval;
+			if(messagesPerSecond <= 0 || batchRate < messagesPerSecond) {
+				messagesPerSecond = batchRate;
 			}
-			try {
-				Thread.sleep(waitInterval.longValue() * 1000L);
-			} catch (InterruptedException e) {
-				LOG.warn("InterruptedException while waiting during email processing: " + e);
+		}
+		EvalEmailDispatcher dispatcher = new EvalEmailDispatcher(commonLogic, emailDispatchThreads, messagesPerSecond, 
+				emailSendRetries, emailRetryDelay);
+		ConsolidatedEmailRun run = new ConsolidatedEmailRun();
+
+		List<String> recipients = new ArrayList<>();
+		List<Map<String,Object>> userMap;
+		// each page starts after the last (template, user) of the previous one
+		Long lastEmailTemplateId = null;
+		String lastUserId = null;
+		try {
+			do {
+				userMap = this.evaluationService.getConsolidatedEmailMapping(sendingAvailableEmails, batchSize, lastEmailTemplateId, lastUserId);
+				if(! userMap.isEmpty()) {
+					Map<String,Object> last = userMap.get(userMap.size() - 1);
+					lastEmailTemplateId = (Long) last.get(EvalConstants.KEY_EMAIL_TEMPLATE_ID);
+					lastUserId = (String) last.get(EvalConstants.KEY_USER_ID);
+				}
+				processConsolidatedEmails(jobId, userMap, run, dispatcher, jobStatusReporter);
+				recipients.addAll(markConsolidatedEmailsSent(sendingAvailableEmails, dispatcher, jobId, jobStatusReporter));
+			} while(! userMap.isEmpty());
+		} finally {
+			dispatcher.finish();
+		}
+		recipients.addAll(markConsolidatedEmailsSent(sendingAvailableEmails, dispatcher, jobId, jobStatusReporter));
+
+		if(jobId != null && jobStatusReporter != null) {
+			jobStatusReporter.reportProgress(jobId, "emailThroughput", String.format("%.2f emails per second", dispatcher.getThroughput()));
+			jobStatusReporter.reportProgress(jobId, "emailFailures", dispatcher.getFailedCount() + " failed (" + dispatcher.getRetryCount() + " retries)");
+		}
+		return recipients;
+	}
+
+	/**
+     * INTERNAL METHOD<br/>
+     * Mark the emails which the dispatcher has delivered since the last call as sent
+     * and report the ones which failed
+     * 
+	 * @return the display ids of the users the emails were delivered to
+	 */
+	protected List<String> markConsolidatedEmailsSent(boolean sendingAvailableEmails, EvalEmailDispatcher dispatcher, 
+			String jobId, JobStatusReporter jobStatusReporter) {
+		List<String> recipients = new ArrayList<>();
+		Map<Long, List<String>> sentUserIds = new HashMap<>();
+		for(EvalEmailDispatcher.Email email : dispatcher.drainSent()) {
+			List<String> userIds = sentUserIds.get(email.emailTemplateId);
+			if(userIds == null) {
+				userIds = new ArrayList<>();
+				sentUserIds.put(email.emailTemplateId, userIds);
+			}
+			userIds.add(email.userId);
+			recipients.add(email.displayId);
+		}
+		for(Map.Entry<Long, List<String>> entry : sentUserIds.entrySet()) {
+			this.evaluationService.markConsolidatedEmailsSent(sendingAvailableEmails, entry.getKey(), entry.getValue());
+		}
+		if(jobStatusReporter != null) {
+			for(EvalEmailDispatcher.Email email : dispatcher.drainFailed()) {
+				jobStatusReporter.reportError(jobId, false, "error", "Error attempting to send email to user (" + email.displayId + "). " + email.error);
 			}
 		}
+		return recipients;
 	}
      
     /**
      * INTERNAL METHOD<br/>
+     * The settings and values which are the same for every consolidated email in a run of the job,
+     * these are looked up once when the run starts (and the templates the first time they are used)
+     */
+    protected class ConsolidatedEmailRun {
+        protected final Map<String, String> constantValues = new HashMap<>();
+        protected final Map<Long, EvalEmailTemplate> templates = new HashMap<>();
+        protected final String from;
+        protected final boolean useDateTime;
+        protected final int reportingInterval;
+        protected final Set<String> inProgressEvaluationOwners;
+
+        public ConsolidatedEmailRun() {
+            // setting reportingInterval to zero results in no incremental reports.
+            reportingInterval = settings.getInt(LOG_PROGRESS_EVERY, 0);
+            useDateTime = settings.getBoolean(USE_DATE_TIME, false);
+            if (settings.getBoolean(ENABLE_JOB_COMPLETION_EMAIL, false)) {
+                inProgressEvaluationOwners = evaluationService.getInProgressEvaluationOwners();
+            } else {
+                inProgressEvaluationOwners = new HashSet<>();
+            }
+            from = settings.getString(FROM_EMAIL_ADDRESS);
+            constantValues.put("EvalCLE", commonLogic.getConfigurationSetting("ui.service", "Sakai"));
+            // get eval tool title from settings? from message bundle?
+            constantValues.put("EvalToolTitle", "Teaching Evaluations");
+            constantValues.put("EvalSite", "MyWorkspace");
+            // we can get it from the eval if needed, but it should come from settings
+            constantValues.put("HelpdeskEmail", from);
+            constantValues.put("URLtoSystem", commonLogic.getServerUrl());
+        }
+
+        /**
+         * @return the email template (looked up the first time it is used in this run)
+         */
+        public EvalEmailTemplate getTemplate(Long emailTemplateId) {
+            EvalEmailTemplate template = templates.get(emailTemplateId);
+            if (template == null) {
+                template = evaluationService.getEmailTemplate(emailTemplateId);
+                templates.put(emailTemplateId, template);
+            }
+            return template;
+        }
+    }
+
+    /**
+     * INTERNAL METHOD<br/>
+     * Get a date format for this locale which can be reused by the current thread
+     * 
+     * @param locale the locale of the user the date is for
+     * @param useDateTime true to include the time, false for only the date
+     * @return the date format (do not share it with other threads)
+     */
+    protected DateFormat getDateFormat(Locale locale, boolean useDateTime) {
+        Map<String, DateFormat> formats = DATE_FORMATS.get();
+        String key = (useDateTime ? "dt:" : "d:") + locale;
+        DateFormat df = formats.get(key);
+        if (df == null) {
+            if (useDateTime) {
+                // show date and time if date/time enabled
+                df = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM, locale);
+            } else {
+                df = DateFormat.getDateInstance(DateFormat.MEDIUM, locale);
+            }
+            formats.put(key, df);
+        }
+        return df;
+    }
+     
+    /**
+     * INTERNAL METHOD<br/>
+     * The users, locales and dashboards for the whole page are fetched first (in bulk)
+     * so the work for each user is only rendering the templates and queueing the email
+     * 
 	 * @param jobId 
      * @param userMap
+     * @param run the values which are the same for the whole run
+     * @param dispatcher sends the emails
      * @param jobStatusReporter 
-	 * @return
+	 * @return the number of emails queued to send
 	 */
-	protected List<String> processConsolidatedEmails(String jobId, List<Map<String,Object>> userMap, JobStatusReporter jobStatusReporter) {
-		Integer reportingInterval = (Integer) this.settings.get(EvalSettings.LOG_PROGRESS_EVERY);
-		if(reportingInterval == null) {
-			// setting reportingInterval to zero results in no incremental reports.
-			reportingInterval = 0;
-		}
+	protected int processConsolidatedEmails(String jobId, List<Map<String,Object>> userMap, ConsolidatedEmailRun run, 
+			EvalEmailDispatcher dispatcher, JobStatusReporter jobStatusReporter) {
 		int userCounter = 0;
 		int emailCounter = 0;
-		List<String> recipients = new ArrayList<>();
-		Set<String> inProgressEvaluationOwners = new HashSet<>();
-		boolean saveWithoutSubmit = (Boolean) settings.get(EvalSettings.ENABLE_JOB_COMPLETION_EMAIL);
-		if (saveWithoutSubmit) {
-		    inProgressEvaluationOwners = evaluationService.getInProgressEvaluationOwners();
+
+		// prefetch everything for the page
+		Set<String> pageUserIds = new LinkedHashSet<>();
+		for(Map<String,Object> entry : userMap) {
+			pageUserIds.add((String) entry.get(EvalConstants.KEY_USER_ID));
 		}
+		String[] userIds = pageUserIds.toArray(new String[pageUserIds.size()]);
+		Map<String, EvalUser> users = new HashMap<>();
+		for(EvalUser user : commonLogic.getEvalUsersByIds(userIds)) {
+			users.put(user.userId, user);
+		}
+		Map<String, Locale> locales = commonLogic.getUserLocales(userIds);
+		Map<String, String> dashboards = commonLogic.getMyWorkspaceDashboards(userIds);
+
     	for(Map<String,Object> entry : userMap) {
     		String userId = (String) entry.get(EvalConstants.KEY_USER_ID);
     		Date earliestDueDate = (Date) entry.get(EvalConstants.KEY_EARLIEST_DUE_DATE);
     		Long emailTemplateId = (Long) entry.get(EvalConstants.KEY_EMAIL_TEMPLATE_ID);
     		
-    		EvalEmailTemplate template = evaluationService.getEmailTemplate(emailTemplateId);
+    		EvalEmailTemplate template = run.getTemplate(emailTemplateId);
+    		EvalUser user = users.get(userId);
+    		String displayId = user == null ? userId : user.displayId;
     			
-    		Map<String, String> replacementValues = new HashMap<>();
-    		EvalUser user = commonLogic.getEvalUserById(userId);
-    		// get user's locale
-    		Locale locale = commonLogic.getUserLocale(userId);
-    	    // use a date which is related to the current users locale
-    	    DateFormat df;
-    	    boolean useDateTime = (Boolean) settings.get(EvalSettings.EVAL_USE_DATE_TIME);
-    	    if (useDateTime) {
-	            // show date and time if date/time enabled
-	            df = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM, locale);
-    	    } else {
-	            df = DateFormat.getDateInstance(DateFormat.MEDIUM, locale);
-	        }
+    		Map<String, String> replacementValues = new HashMap<>(run.constantValues);
+    		// use a date which is related to the users locale
+    		Locale locale = locales.get(userId);
+    		DateFormat df = getDateFormat(locale == null ? Locale.getDefault() : locale, run.useDateTime);
 			// add date to replacementValues
 			replacementValues.put("EarliestEvalDueDate",df.format(earliestDueDate));
-			replacementValues.put("EvalCLE", commonLogic.getConfigurationSetting("ui.service", "Sakai"));
-			// get eval tool title from settings? from message bundle?
-			replacementValues.put("EvalToolTitle", "Teaching Evaluations");
-			replacementValues.put("EvalSite", "MyWorkspace");
-			String from = (String) settings.get(EvalSettings.FROM_EMAIL_ADDRESS);
-			// we can get it from the eval if needed, but it should come from settings
-			replacementValues.put("HelpdeskEmail",from);
-			replacementValues.put("MyWorkspaceDashboard", commonLogic.getMyWorkspaceDashboard(userId));
-			replacementValues.put("InProgress", (inProgressEvaluationOwners.contains(userId) ? "true" : "false"));
-			replacementValues.put("URLtoSystem", commonLogic.getServerUrl());
+			String dashboard = dashboards.get(userId);
+			replacementValues.put("MyWorkspaceDashboard", dashboard == null ? commonLogic.getServerUrl() : dashboard);
+			replacementValues.put("InProgress", (run.inProgressEvaluationOwners.contains(userId) ? "true" : "false"));
 			try {
 				String message = TextTemplateLogicUtils.processTextTemplate(template.getMessage(), replacementValues);
 				String subject = TextTemplateLogicUtils.processTextTemplate(template.getSubject(), replacementValues);
 				if(message == null || subject == null) {
 					if(jobStatusReporter != null) {
-						jobStatusReporter.reportError(jobId, false, "error", "Error attempting to send email to user (" + user.displayId + "). ");
+						jobStatusReporter.reportError(jobId, false, "error", "Error attempting to send email to user (" + displayId + "). ");
 					}
-					LOG.warn("Error trying to send consolidated email to user " + user.displayId, new RuntimeException("\nsubject == " + subject + "\nmessage == " + message));
+					LOG.warn("Error trying to send consolidated email to user " + displayId, new RuntimeException("\nsubject == " + subject + "\nmessage == " + message));
 				} else {
-					this.commonLogic.sendEmailsToUsers(from, new String[]{userId}, subject, message, false, EvalConstants.EMAIL_DELIVERY_DEFAULT);
+					dispatcher.send(new EvalEmailDispatcher.Email(run.from, userId, displayId, emailTemplateId, subject, message));
 					emailCounter++;
-					recipients.add(user.displayId);
 				}
 			} catch (Exception e) {
 				if(jobStatusReporter != null) {
-					jobStatusReporter.reportError(jobId, false, "error", "Error attempting to send email to user (" + user.displayId + "). " + e);
+					jobStatusReporter.reportError(jobId, false, "error", "Error attempting to send email to user (" + displayId + "). " + e);
 				}
-				LOG.warn("Error trying to send consolidated email to user " + user.displayId, e);
+				LOG.warn("Error trying to send consolidated email to user " + displayId, e);
 			}
 
-    		if(jobId != null && reportingInterval > 0) {
+    		if(jobId != null && run.reportingInterval > 0) {
 	    		userCounter++;
-	    		if(userCounter % reportingInterval == 0) {
+	    		if(userCounter % run.reportingInterval == 0) {
 	    			if(jobStatusReporter != null) {
-	    				jobStatusReporter.reportProgress(jobId, "ProcessingEmails", "Processed " + userCounter + " of " + userMap.size() + " evaluatees and sent " + emailCounter + " emails.");
+	    				jobStatusReporter.reportProgress(jobId, "ProcessingEmails", "Processed " + userCounter + " of " + userMap.size() + " evaluatees and queued " + emailCounter + " emails, " 
+	    						+ dispatcher.getSentCount() + " sent so far.");
 	    			}
 	    		}
     		}
     	}
-		return recipients;
+		return emailCounter;
 	}
 
 
@@ -1233,7 +1650,7 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
      * @throws IllegalStateException if a from address cannot be found
      */
     public String getFromEmailOrFail(EvalEvaluation eval) {
-        String from = (String) settings.get(EvalSettings.FROM_EMAIL_ADDRESS);
+        String from = settings.getString(FROM_EMAIL_ADDRESS);
         if (eval.getReminderFromEmail() != null && ! "".equals(eval.getReminderFromEmail())) {
             from = eval.getReminderFromEmail();
         }
@@ -54,6 +54,9 @@ public class EvalEvaluationServiceImpl implements EvalEvaluationService, Evaluat
 
     private static final Log LOG = LogFactory.getLog(EvalEvaluationServiceImpl.class);
 
+    // read for every evaluation which is loaded
+    private static final EvalSettings.BooleanKey EVAL_USE_DATE_TIME = new EvalSettings.BooleanKey(EvalSettings.EVAL_USE_DATE_TIME);
+
     // Event names cannot be over 32 chars long              // max-32:12345678901234567890123456789012
     protected final String EVENT_EVAL_STATE_START =                   "eval.evaluation.state.start";
     protected final String EVENT_EVAL_STATE_DUE =                     "eval.evaluation.state.due";
@@ -100,6 +103,18 @@ public class EvalEvaluationServiceImpl implements EvalEvaluationService, Evaluat
         toolApi.exportReport(evaluation, groupIds, evaluateeId, outputStream, exportType);
     }
 
+    public int exportGroupPDFReports(EvalEvaluation evaluation, String[] groupIds, GroupReportHandler handler) {
+        return toolApi.exportGroupPDFReports(evaluation, groupIds, handler);
+    }
+
+    public void exportGroupPDFReports(EvalEvaluation evaluation, String[] groupIds, OutputStream outputStream) {
+        toolApi.exportGroupPDFReports(evaluation, groupIds, outputStream);
+    }
+
+    public Set<String> exportReports(EvalEvaluation evaluation, String[] groupIds, Map<String, OutputStream> outputStreams) {
+        return toolApi.exportReports(evaluation, groupIds, outputStreams);
+    }
+
     private SiteService siteService;
     public void setSiteService(SiteService siteService) {
         this.siteService = siteService;
@@ -409,6 +424,14 @@ public class EvalEvaluationServiceImpl implements EvalEvaluationService, Evaluat
         return assignments;
     }
 
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalEvaluationService#getParticipantsForEvalByGroup(java.lang.Long, java.lang.String[], java.lang.String, java.lang.String)
+     */
+    public Map<String, List<EvalAssignUser>> getParticipantsForEvalByGroup(Long evaluationId, String[] evalGroupIds,
+            String assignTypeConstant, String includeConstant) {
+        return dao.getParticipantsForEvalByGroup(evaluationId, evalGroupIds, assignTypeConstant, includeConstant);
+    }
+
     public int countParticipantsForEval(Long evaluationId, String[] evalGroupIds) {
         int totalEnrollments = 0;
         EvalEvaluation eval = getEvaluationOrFail(evaluationId);
@@ -1132,7 +1155,7 @@ public class EvalEvaluationServiceImpl implements EvalEvaluationService, Evaluat
     private void fixupEvaluation(EvalEvaluation evaluation) {
         if (evaluation != null) {
             // add in any needed checks or change storage that is needed here
-            evaluation.useDateTimes = (Boolean) settings.get(EvalSettings.EVAL_USE_DATE_TIME);
+            evaluation.useDateTimes = settings.getBoolean(EVAL_USE_DATE_TIME, false);
         }
     }
 
@@ -1195,6 +1218,15 @@ public class EvalEvaluationServiceImpl implements EvalEvaluationService, Evaluat
 		
 		return this.dao.getConsolidatedEmailMapping(sendingAvailableEmails, pageSize, page);
 	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.sakaiproject.evaluation.logic.EvalEvaluationService#getConsolidatedEmailMapping(boolean, int, java.lang.Long, java.lang.String)
+	 */
+	public List<Map<String,Object>> getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, Long afterEmailTemplateId, String afterUserId) {
+		return this.dao.getConsolidatedEmailMapping(sendingAvailableEmails, pageSize, afterEmailTemplateId, afterUserId);
+	}
     
 	/*
 	 * (non-Javadoc)
@@ -1212,6 +1244,30 @@ public class EvalEvaluationServiceImpl implements EvalEvaluationService, Evaluat
 	public int resetConsolidatedEmailRecipients() {
 		return this.dao.resetConsolidatedEmailRecipients();
 	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.sakaiproject.evaluation.logic.EvalEvaluationService#resetConsolidatedEmailRecipients(boolean)
+	 */
+	public int resetConsolidatedEmailRecipients(boolean sendingAvailableEmails) {
+		return this.dao.resetConsolidatedEmailRecipients(sendingAvailableEmails);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.sakaiproject.evaluation.logic.EvalEvaluationService#resumeConsolidatedEmailRecipients(boolean)
+	 */
+	public int resumeConsolidatedEmailRecipients(boolean sendingAvailableEmails) {
+		return this.dao.resumeConsolidatedEmailRecipients(sendingAvailableEmails);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.sakaiproject.evaluation.logic.EvalEvaluationService#markConsolidatedEmailsSent(boolean, java.lang.Long, java.util.List)
+	 */
+	public int markConsolidatedEmailsSent(boolean sendingAvailableEmails, Long emailTemplateId, List<String> userIds) {
+		return this.dao.markConsolidatedEmailsSent(sendingAvailableEmails, emailTemplateId, userIds);
+	}
 	
  	public Set<String> getInProgressEvaluationOwners() {
  		boolean activeEvaluationsOnly = true;
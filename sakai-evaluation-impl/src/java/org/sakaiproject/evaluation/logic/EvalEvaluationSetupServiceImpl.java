@@ -161,88 +161,202 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
         initiateUpdateStateTimer();
     }
 
+    private long stateIndexRebuildInterval = 1000l * 60 * 60;
     /**
-     * This will start up a timer which will keep the evaluations up to date, the disadvantage here is that
-     * it will run every hour and on every server and therefore could increase the load substantially,
-     * the other disadvantage is that if an evaluation goes from say active all the way to closed or viewable
-     * then this would require a lot of extra logic to handle those cases,
-     * holding off on the extra logic -AZ
-     * NOTE: uses a DB server lock to ensure that only one server is running this stuff
-     * 
-     * Does the following:
-     * 1) Ensures all evals have the correct state by checking and updating the state as needed
-     * 2) Removes any partially created evals that are older than the constant (15 days)
-     * 3) Resets the eval settings cache
+     * @param stateIndexRebuildInterval how often (in ms) to reload the evaluation state transition index,
+     * this picks up evaluations which were saved on other servers (default 1 hour),
+     * the reload is checked by the hourly update timer so it never happens more often than that
+     */
+    public void setStateIndexRebuildInterval(long stateIndexRebuildInterval) {
+        this.stateIndexRebuildInterval = stateIndexRebuildInterval;
+    }
+
+    /**
+     * The states which can still change based on the evaluation dates
+     */
+    protected static final String[] STATE_INDEX_STATES = new String[] {
+        EvalConstants.EVALUATION_STATE_INQUEUE,
+        EvalConstants.EVALUATION_STATE_ACTIVE,
+        EvalConstants.EVALUATION_STATE_GRACEPERIOD,
+        EvalConstants.EVALUATION_STATE_CLOSED
+    };
+    protected static final String EVAL_STATE_LOCK_PREFIX = "eval_state_";
+
+    private EvalStateTransitionScheduler stateScheduler;
+    private Timer updateStateTimer;
+
+    /**
+     * Stops the state transition scheduler and timer
+     */
+    public void destroy() {
+        if (stateScheduler != null) {
+            stateScheduler.stop();
+        }
+        if (updateStateTimer != null) {
+            updateStateTimer.cancel();
+        }
+    }
+
+    /**
+     * Locks which were not obtained or renewed for this long (1 day) are purged by the update timer,
+     * this must be longer than the time period of any lock (all are an hour or less)
+     */
+    protected static final long LOCK_PURGE_AGE = 1000l * 60 * 60 * 24;
+
+    /**
+     * This will start up the state transition scheduler which keeps the evaluation states up to date,
+     * it holds the next date each evaluation changes state (start, due, stop, view) and fixes the state
+     * of an evaluation right when that date is reached, the index is built from a single query on
+     * startup and kept up to date as evaluations are saved and deleted<br/>
+     * Also starts a timer which runs every hour and removes any partially created evals that are
+     * older than the constant (15 days) and any unused locks, it also reloads the index every {@link #setStateIndexRebuildInterval(long)}
+     * to pick up evaluations which were saved on other servers<br/>
+     * NOTE: uses DB server locks to ensure that only one server is running this stuff
      */
     public static String EVAL_UPDATE_TIMER = "eval_update_timer";
     protected void initiateUpdateStateTimer() {
+        stateScheduler = new EvalStateTransitionScheduler(this::handleStateTransition);
+        rebuildStateIndex();
+        stateScheduler.start();
+
         // timer repeats every 60 minutes
         final long repeatInterval = 1000 * 60 * 60;
         // start up a timer after 2 mins + random(10 mins)
         long startDelay =  (1000 * 60 * 2) + (1000 * 60 * new Random().nextInt(10));
 
         TimerTask runStateUpdateTask = new TimerTask() {
+            private long lastRebuild = System.currentTimeMillis();
             @Override
             public void run() {
+                if (System.currentTimeMillis() - lastRebuild >= stateIndexRebuildInterval) {
+                    rebuildStateIndex();
+                    lastRebuild = System.currentTimeMillis();
+                }
+
                 String serverId = commonLogic.getConfigurationSetting(EvalExternalLogic.SETTING_SERVER_ID, "UNKNOWN_SERVER_ID");
                 Boolean lockObtained = dao.obtainLock(EVAL_UPDATE_TIMER, serverId, repeatInterval);
                 // only execute the code if we have an exclusive lock
-                if (lockObtained != null && lockObtained) {
-                    // get all evals that are not viewable (i.e. completely done with) or deleted 
+                if (lockObtained == null || ! lockObtained) {
+                    return;
+                }
+
+                // purge out the lock rows which were released or have not been used for a day
+                int purgedLocks = dao.purgeLocks(new Date(System.currentTimeMillis() - LOCK_PURGE_AGE));
+                if (purgedLocks > 0) {
+                    LOG.info("Purged " + purgedLocks + " unused evaluation locks");
+                }
+
+                // only do partial purge if constant > 0
+                if (EvalConstants.EVALUATION_PARTIAL_CLEANUP_DAYS > 0) {
+                    // set the partial purge number of days to the constant (15)
+                    long partialPurgeTime = System.currentTimeMillis() - 
+                        (EvalConstants.EVALUATION_PARTIAL_CLEANUP_DAYS * 24l * 60l * 60l * 1000l);
+                    // purge out partial evaluations older than the partial purge time
                     List<EvalEvaluation> evals = dao.findBySearch(EvalEvaluation.class, 
                             new Search( new Restriction[] {
-                                    new Restriction("state", EvalConstants.EVALUATION_STATE_VIEWABLE, Restriction.NOT_EQUALS),
-                                    new Restriction("state", EvalConstants.EVALUATION_STATE_DELETED, Restriction.NOT_EQUALS)
+                                    new Restriction("state", EvalConstants.EVALUATION_STATE_PARTIAL),
+                                    new Restriction("lastModified", new Date(partialPurgeTime), Restriction.LESS)
                             })
                     );
-                    if (evals.size() > 0) {
-                        LOG.info("Checking the state of " + evals.size() + " evaluations to ensure they are all up to date...");
-                        // only do partial purge if constant > 0
-                        long partialPurgeTime = -1;
-                        if (EvalConstants.EVALUATION_PARTIAL_CLEANUP_DAYS > 0) {
-                            // set the partial purge number of days to the constant (15)
-                            partialPurgeTime = System.currentTimeMillis() - 
-                                (EvalConstants.EVALUATION_PARTIAL_CLEANUP_DAYS * 24l * 60l * 60l * 1000l);
-                        }
-
-                        // loop through and update the state of the evals if needed
-                        int count = 0;
-                        for (EvalEvaluation evaluation : evals) {
-                            String evalState = evaluationService.returnAndFixEvalState(evaluation, false);
-                            if (EvalConstants.EVALUATION_STATE_PARTIAL.equals(evalState)
-                                    && partialPurgeTime > -1) {
-                                // purge out partial evaluations older than the partial purge time
-                                if (evaluation.getLastModified().getTime() < partialPurgeTime) {
-                                    LOG.info("Purging partial evaluation ("+evaluation.getId()+") from " + evaluation.getLastModified());
-                                    deleteEvaluation(evaluation.getId(), commonLogic.getAdminUserId());
-                                    continue;
-                                }
-                            }
-                            // fix up the state if needed
-                            String currentEvalState = evaluation.getState();
-                            if (! currentEvalState.equals(evalState) ) {
-                                evaluationService.returnAndFixEvalState(evaluation, true); // update the state
-                                count++;
-                                // trigger the jobs logic to look at this since the state changed
-                                evalJobLogic.processEvaluationStateChange(evaluation.getId(), EvalJobLogic.ACTION_UPDATE);
-                            }
-                        }
-                        if (count > 0) {
-                            LOG.info("Updated the state of "+count+" evaluations...");
-                        }
+                    for (EvalEvaluation evaluation : evals) {
+                        LOG.info("Purging partial evaluation ("+evaluation.getId()+") from " + evaluation.getLastModified());
+                        deleteEvaluation(evaluation.getId(), commonLogic.getAdminUserId());
                     }
-
-                    // finally we will reset the system config cache
-                    settings.resetCache(null);
                 }
             }
         };
 
         // now we need to obtain a lock and then run the task if we have it
-        Timer timer = new Timer(true);
+        updateStateTimer = new Timer(true);
         LOG.info("Initializing the repeating timer task for evaluation, first run in " + (startDelay/1000) + " seconds " +
                 "and subsequent runs will happen every " + (repeatInterval/1000) + " seconds after that");
-        timer.schedule(runStateUpdateTask, startDelay, repeatInterval);
+        updateStateTimer.schedule(runStateUpdateTask, startDelay, repeatInterval);
+    }
+
+    /**
+     * Reload the state transition index from the database,
+     * evaluations with a stored state which does not match their dates are scheduled right away
+     */
+    protected void rebuildStateIndex() {
+        Date now = new Date();
+        List<Object[]> rows = dao.getEvaluationStateDates(STATE_INDEX_STATES);
+        Map<Long, Date> boundaries = new HashMap<>(rows.size());
+        int outOfDate = 0;
+        EvalEvaluation dates = new EvalEvaluation();
+        for (Object[] row : rows) {
+            Long evaluationId = (Long) row[0];
+            String storedState = (String) row[1];
+            dates.setStartDate((Date) row[2]);
+            dates.setDueDate((Date) row[3]);
+            dates.setStopDate((Date) row[4]);
+            dates.setViewDate((Date) row[5]);
+            String trueState = EvalUtils.getEvaluationState(dates, true);
+            if (! EvalConstants.EVALUATION_STATE_UNKNOWN.equals(trueState)
+                    && ! trueState.equals(storedState)) {
+                // state should have changed already so fix it now
+                boundaries.put(evaluationId, now);
+                outOfDate++;
+            } else {
+                boundaries.put(evaluationId, EvalStateTransitionScheduler.getNextBoundary(now, 
+                        dates.getStartDate(), dates.getDueDate(), dates.getStopDate(), dates.getViewDate()) );
+            }
+        }
+        stateScheduler.replaceAll(boundaries);
+        LOG.info("Loaded the state transition index for " + rows.size() + " evaluations (" + outOfDate + " need their state updated now)");
+    }
+
+    /**
+     * Called by the state transition scheduler when an evaluation reaches one of its state dates,
+     * fixes the stored state and updates the scheduled jobs if the state changed
+     * 
+     * @param evaluationId the id of the evaluation which reached a state date
+     * @return the next date the evaluation state changes OR null if there are no more
+     */
+    protected Date handleStateTransition(Long evaluationId) {
+        String serverId = commonLogic.getConfigurationSetting(EvalExternalLogic.SETTING_SERVER_ID, "UNKNOWN_SERVER_ID");
+        // released as soon as the state is fixed so the lock row is removed by the next lock purge
+        String lockId = EVAL_STATE_LOCK_PREFIX + evaluationId;
+        Boolean lockObtained = dao.obtainLock(lockId, serverId, 1000 * 60);
+        EvalEvaluation evaluation;
+        // only fix the state if no other server is doing it right now
+        if (lockObtained != null && lockObtained) {
+            try {
+                // loaded only once the lock is held so it includes any change made by the server which held it before
+                evaluation = evaluationService.getEvaluationById(evaluationId);
+                if (evaluation == null) {
+                    return null;
+                }
+                String currentEvalState = evaluation.getState();
+                String evalState = evaluationService.returnAndFixEvalState(evaluation, true);
+                if (! currentEvalState.equals(evalState)) {
+                    LOG.info("Updated the state of evaluation ("+evaluationId+") from "+currentEvalState+" to "+evalState);
+                    // trigger the jobs logic to look at this since the state changed
+                    evalJobLogic.processEvaluationStateChange(evaluationId, EvalJobLogic.ACTION_UPDATE);
+                }
+            } finally {
+                dao.releaseLock(lockId, serverId);
+            }
+        } else {
+            // the other server fixes the state, this one only needs the next date
+            evaluation = evaluationService.getEvaluationById(evaluationId);
+            if (evaluation == null) {
+                return null;
+            }
+        }
+        return getNextStateBoundary(evaluation);
+    }
+
+    /**
+     * @param evaluation an evaluation
+     * @return the next date the state of this evaluation changes OR null if it will not change based on dates
+     */
+    protected Date getNextStateBoundary(EvalEvaluation evaluation) {
+        if (EvalConstants.EVALUATION_STATE_PARTIAL.equals(evaluation.getState())
+                || EvalConstants.EVALUATION_STATE_DELETED.equals(evaluation.getState())) {
+            return null;
+        }
+        return EvalStateTransitionScheduler.getNextBoundary(new Date(), evaluation.getStartDate(), 
+                evaluation.getDueDate(), evaluation.getStopDate(), evaluation.getViewDate());
     }
 
 
@@ -490,6 +604,11 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
             }
         }
 
+        // keep the state transition index up to date
+        if (stateScheduler != null) {
+            stateScheduler.schedule(evaluation.getId(), getNextStateBoundary(evaluation));
+        }
+
         // support for autoUse insertion of items on eval creation
         if (created) {
             if (! EvalUtils.isBlank(evaluation.getAutoUseInsertion())
@@ -563,6 +682,9 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
                 Set<EvalAssignUser> eusSet = new HashSet<>(eus);
                 dao.deleteSet(eusSet);
 
+                // remove any results left behind by responses which were removed
+                dao.removeItemResults(evaluationId);
+
                 // remove the evaluation and copied template since there are no responses
                 removeTemplate = true;
                 dao.delete(evaluation);
@@ -573,6 +695,9 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
 
             // remove any remaining scheduled jobs
             evalJobLogic.processEvaluationStateChange(evaluationId, EvalJobLogic.ACTION_DELETE);
+            if (stateScheduler != null) {
+                stateScheduler.schedule(evaluationId, null);
+            }
 
             // this has to be after the removal of the evaluation
 
@@ -1021,19 +1146,23 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
      */
     public List<Long> synchronizeUserAssignmentsForced(EvalEvaluation evaluation, 
             String evalGroupId, boolean removeAllowed) {
+        return synchronizeUserAssignmentsForced(evaluation, evalGroupId, removeAllowed, null);
+    }
+
+    /**
+     * Does the work for {@link #synchronizeUserAssignmentsForced(EvalEvaluation, String, boolean)},
+     * when a bulk sync is passed in the user assignments, assigned groups and group membership are taken
+     * from the data prefetched for all evaluations and the changes are collected in the bulk sync
+     * (to be written in batches) instead of being saved right away
+     * 
+     * @param bulk (OPTIONAL) the bulk sync this evaluation is part of, null to sync only this evaluation
+     * @return the list of {@link EvalAssignUser} ids changed during the synchronization,
+     * NOTE: for a bulk sync this only includes the removed assignments since the new ones are not saved yet
+     */
+    private List<Long> synchronizeUserAssignmentsForced(EvalEvaluation evaluation, 
+            String evalGroupId, boolean removeAllowed, BulkUserAssignmentSync bulk) {
         Long evaluationId = evaluation.getId();
-        String currentUserId = commonLogic.getCurrentUserId();
-        if (currentUserId == null) {
-            currentUserId = commonLogic.getAdminUserId();
-        } else {
-            // check anon and use admin instead
-            EvalUser user = commonLogic.getEvalUserById(currentUserId);
-            if (EvalUser.USER_TYPE_ANONYMOUS.equals(user.type)
-                    || EvalUser.USER_TYPE_INVALID.equals(user.type)
-                    || EvalUser.USER_TYPE_UNKNOWN.equals(user.type)) {
-                currentUserId = commonLogic.getAdminUserId();
-            }
-        }
+        String currentUserId = bulk != null ? bulk.currentUserId : getSynchronizeUserId();
         ArrayList<Long> changedUserAssignments = new ArrayList<>();
         // now the syncing logic
         HashSet<Long> assignUserToRemove = new HashSet<>();
@@ -1044,7 +1173,12 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
             limitGroupIds = new String[] {evalGroupId};
         }
         // all users assigned to this eval (and group if specified)
-        List<EvalAssignUser> assignedUsers = evaluationService.getParticipantsForEval(evaluationId, null, limitGroupIds, null, EvalEvaluationService.STATUS_ANY, null, null);
+        List<EvalAssignUser> assignedUsers;
+        if (bulk != null && evalGroupId == null) {
+            assignedUsers = bulk.getAssignedUsers(evaluationId);
+        } else {
+            assignedUsers = evaluationService.getParticipantsForEval(evaluationId, null, limitGroupIds, null, EvalEvaluationService.STATUS_ANY, null, null);
+        }
         // keys of all assignments which are unlinked or removed
         HashSet<String> assignUserUnlinkedRemovedKeys = new HashSet<>();
         // all assignments which are linked (groupId => assignments)
@@ -1068,7 +1202,9 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
             }
         }
         List<EvalAssignGroup> assignedGroups;
-        if (evalGroupId == null) {
+        if (bulk != null && evalGroupId == null) {
+            assignedGroups = bulk.getAssignedGroups(evaluationId);
+        } else if (evalGroupId == null) {
             // get all the assigned groups for this evaluation
             Map<Long, List<EvalAssignGroup>> m = evaluationService.getAssignGroupsForEvals(new Long[] {evaluationId}, true, null);
             assignedGroups = m.get(evaluationId);
@@ -1087,9 +1223,9 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
             String egid = evalAssignGroup.getEvalGroupId();
             evalGroupIdsFromEvals.add(egid);
             // get all the users who currently have permission for this group
-            Set<String> currentEvaluated = commonLogic.getUserIdsForEvalGroup(egid, EvalConstants.PERM_BE_EVALUATED, evaluation.getSectionAwareness());
-            Set<String> currentAssistants = commonLogic.getUserIdsForEvalGroup(egid, EvalConstants.PERM_ASSISTANT_ROLE, evaluation.getSectionAwareness());
-            Set<String> currentTakers = commonLogic.getUserIdsForEvalGroup(egid, EvalConstants.PERM_TAKE_EVALUATION, evaluation.getSectionAwareness());
+            Set<String> currentEvaluated = getUserIdsForSynchronize(egid, EvalConstants.PERM_BE_EVALUATED, evaluation.getSectionAwareness(), bulk);
+            Set<String> currentAssistants = getUserIdsForSynchronize(egid, EvalConstants.PERM_ASSISTANT_ROLE, evaluation.getSectionAwareness(), bulk);
+            Set<String> currentTakers = getUserIdsForSynchronize(egid, EvalConstants.PERM_TAKE_EVALUATION, evaluation.getSectionAwareness(), bulk);
                         
             if(evaluation.getAllRolesParticipate()) {
             	currentTakers.addAll(currentAssistants);
@@ -1157,6 +1293,18 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
         String message = "Synchronized user assignments for eval ("+evaluationId+") with "+assignedGroups.size()+" assigned groups";
         if (assignUserToRemove.isEmpty() && assignUserToSave.isEmpty()) {
             message += ": no changes to the user assignments ("+assignedUsers.size()+")";
+        } else if (bulk != null) {
+            // the bulk sync writes all the changes in batches once every evaluation has been compared
+            if (removeAllowed) {
+                bulk.assignUserToRemove.addAll(assignUserToRemove);
+                changedUserAssignments.addAll( assignUserToRemove );
+                message += ": removing " + assignUserToRemove.size() + " assignments";
+            }
+            for (EvalAssignUser evalAssignUser : assignUserToSave) {
+                setAssignUserDefaults(evalAssignUser, evaluation, currentUserId);
+                bulk.assignUserToSave.add(evalAssignUser);
+            }
+            message += ": creating " + assignUserToSave.size() + " assignments";
         } else {
             if (removeAllowed 
                     && ! assignUserToRemove.isEmpty()) {
@@ -1201,17 +1349,188 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
                 }
             }
             if (! orphanedUserAssignments.isEmpty()) {
-                Long[] orphanedUserAssignmentsArray = orphanedUserAssignments.toArray(new Long[orphanedUserAssignments.size()]);
-                dao.deleteSet(EvalAssignUser.class, orphanedUserAssignmentsArray);
+                if (bulk != null) {
+                    bulk.assignUserToRemove.addAll(orphanedUserAssignments);
+                } else {
+                    Long[] orphanedUserAssignmentsArray = orphanedUserAssignments.toArray(new Long[orphanedUserAssignments.size()]);
+                    dao.deleteSet(EvalAssignUser.class, orphanedUserAssignmentsArray);
+                }
                 message += ": removed the following orphaned user assignments: " + orphanedUserAssignments;
                 changedUserAssignments.addAll( orphanedUserAssignments );
             }
         }
 
-        LOG.info(message);
+        if (bulk != null) {
+            // thousands of these in a bulk sync so keep them out of the normal log
+            LOG.debug(message);
+        } else {
+            LOG.info(message);
+        }
         return changedUserAssignments;
     }
 
+    /**
+     * The permissions which are checked in every group when synchronizing user assignments
+     */
+    private static final String[] SYNCHRONIZE_PERMISSIONS = new String[] {
+        EvalConstants.PERM_BE_EVALUATED, EvalConstants.PERM_ASSISTANT_ROLE, EvalConstants.PERM_TAKE_EVALUATION };
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalEvaluationSetupService#synchronizeUserAssignmentsForEvaluations(java.lang.Long[], boolean)
+     */
+    public int synchronizeUserAssignmentsForEvaluations(Long[] evaluationIds, boolean removeAllowed) {
+        if (evaluationIds == null) {
+            throw new IllegalArgumentException("evaluationIds must be set");
+        }
+        if (evaluationIds.length == 0) {
+            return 0;
+        }
+        List<EvalEvaluation> evaluations = dao.findBySearch(EvalEvaluation.class, new Search("id", evaluationIds) );
+        BulkUserAssignmentSync bulk = new BulkUserAssignmentSync(getSynchronizeUserId());
+
+        // all assigned groups and user assignments for all the evaluations (one query each)
+        bulk.assignedGroups.putAll( evaluationService.getAssignGroupsForEvals(evaluationIds, true, null) );
+        List<EvalAssignUser> allAssignedUsers = dao.findBySearch(EvalAssignUser.class, new Search(
+                new Restriction("evaluation.id", evaluationIds), 
+                new Order("id") ) );
+        for (EvalAssignUser evalAssignUser : allAssignedUsers) {
+            Long evaluationId = evalAssignUser.getEvaluationId();
+            List<EvalAssignUser> l = bulk.assignedUsers.get(evaluationId);
+            if (l == null) {
+                l = new ArrayList<>();
+                bulk.assignedUsers.put(evaluationId, l);
+            }
+            l.add(evalAssignUser);
+        }
+
+        // the membership of every assigned group for all the sync permissions (grouped by section awareness)
+        Map<Boolean, Set<String>> sectionAwareGroupIds = new HashMap<>();
+        for (EvalEvaluation evaluation : evaluations) {
+            Set<String> groupIds = sectionAwareGroupIds.get(evaluation.getSectionAwareness());
+            if (groupIds == null) {
+                groupIds = new HashSet<>();
+                sectionAwareGroupIds.put(evaluation.getSectionAwareness(), groupIds);
+            }
+            for (EvalAssignGroup evalAssignGroup : bulk.getAssignedGroups(evaluation.getId())) {
+                groupIds.add(evalAssignGroup.getEvalGroupId());
+            }
+        }
+        // the same user shows up in lots of groups so share a single copy of each user id
+        Map<String, String> userIdPool = new HashMap<>();
+        for (Map.Entry<Boolean, Set<String>> entry : sectionAwareGroupIds.entrySet()) {
+            Set<String> groupIds = entry.getValue();
+            Map<String, Map<String, Set<String>>> membership = commonLogic.getUserIdsForEvalGroups(
+                    groupIds.toArray(new String[groupIds.size()]), SYNCHRONIZE_PERMISSIONS, entry.getKey());
+            for (Map<String, Set<String>> groupUserIds : membership.values()) {
+                for (Map.Entry<String, Set<String>> groupEntry : groupUserIds.entrySet()) {
+                    Set<String> compacted = new HashSet<>(groupEntry.getValue().size());
+                    for (String userId : groupEntry.getValue()) {
+                        String pooled = userIdPool.get(userId);
+                        if (pooled == null) {
+                            pooled = userId;
+                            userIdPool.put(pooled, pooled);
+                        }
+                        compacted.add(pooled);
+                    }
+                    groupEntry.setValue(compacted);
+                }
+            }
+            bulk.membership.put(entry.getKey(), membership);
+        }
+
+        // compare everything in memory
+        for (EvalEvaluation evaluation : evaluations) {
+            try {
+                synchronizeUserAssignmentsForced(evaluation, null, removeAllowed, bulk);
+            } catch (IllegalStateException e) {
+                LOG.warn("Unable to synchronize user assignments for eval ("+evaluation.getId()+"): " + e.getMessage());
+            }
+        }
+
+        // now write all the changes together, one deleteSet and one saveSet for the whole set of evals
+        int changes = 0;
+        if (! bulk.assignUserToRemove.isEmpty()) {
+            dao.deleteSet(EvalAssignUser.class, bulk.assignUserToRemove.toArray(new Long[bulk.assignUserToRemove.size()]));
+            changes += bulk.assignUserToRemove.size();
+        }
+        if (! bulk.assignUserToSave.isEmpty()) {
+            // this is meant to force the assigned users set to be re-calculated
+            Set<EvalAssignUser> assignUserToSave = new HashSet<>(bulk.assignUserToSave);
+            dao.saveSet(assignUserToSave);
+            changes += assignUserToSave.size();
+        }
+        LOG.info("Synchronized user assignments for "+evaluations.size()+" evals ("+userIdPool.size()+" users): removed "
+                +bulk.assignUserToRemove.size()+" and created "+bulk.assignUserToSave.size()+" assignments");
+        return changes;
+    }
+
+    /**
+     * Holds the data prefetched for a bulk user assignment synchronization
+     * and collects the changes so they can be written in batches
+     */
+    private static class BulkUserAssignmentSync {
+        final String currentUserId;
+        final Map<Long, List<EvalAssignUser>> assignedUsers = new HashMap<>();
+        final Map<Long, List<EvalAssignGroup>> assignedGroups = new HashMap<>();
+        /** sectionAwareness -> permission -> evalGroupId -> userIds */
+        final Map<Boolean, Map<String, Map<String, Set<String>>>> membership = new HashMap<>();
+        final Set<Long> assignUserToRemove = new HashSet<>();
+        final Set<EvalAssignUser> assignUserToSave = new HashSet<>();
+
+        BulkUserAssignmentSync(String currentUserId) {
+            this.currentUserId = currentUserId;
+        }
+
+        List<EvalAssignUser> getAssignedUsers(Long evaluationId) {
+            List<EvalAssignUser> l = assignedUsers.get(evaluationId);
+            return l == null ? new ArrayList<>() : l;
+        }
+
+        List<EvalAssignGroup> getAssignedGroups(Long evaluationId) {
+            List<EvalAssignGroup> l = assignedGroups.get(evaluationId);
+            return l == null ? new ArrayList<>() : l;
+        }
+    }
+
+    /**
+     * Get the users who currently have a permission in a group, uses the prefetched membership
+     * from the bulk sync if there is one
+     * @return a new set of user ids (which can be modified)
+     */
+    private Set<String> getUserIdsForSynchronize(String evalGroupId, String permission, Boolean sectionAware, 
+            BulkUserAssignmentSync bulk) {
+        if (bulk != null) {
+            Map<String, Map<String, Set<String>>> membership = bulk.membership.get(sectionAware);
+            if (membership != null && membership.containsKey(permission)) {
+                Set<String> userIds = membership.get(permission).get(evalGroupId);
+                if (userIds != null) {
+                    return new HashSet<>(userIds);
+                }
+            }
+        }
+        return commonLogic.getUserIdsForEvalGroup(evalGroupId, permission, sectionAware);
+    }
+
+    /**
+     * @return the user id to use as the owner of synchronized user assignments,
+     * this is the current user unless there is none (or they are anonymous) in which case it is the admin
+     */
+    private String getSynchronizeUserId() {
+        String currentUserId = commonLogic.getCurrentUserId();
+        if (currentUserId == null) {
+            currentUserId = commonLogic.getAdminUserId();
+        } else {
+            // check anon and use admin instead
+            EvalUser user = commonLogic.getEvalUserById(currentUserId);
+            if (EvalUser.USER_TYPE_ANONYMOUS.equals(user.type)
+                    || EvalUser.USER_TYPE_INVALID.equals(user.type)
+                    || EvalUser.USER_TYPE_UNKNOWN.equals(user.type)) {
+                currentUserId = commonLogic.getAdminUserId();
+            }
+        }
+        return currentUserId;
+    }
+
 
     /**
      * Creates the EvalAssignUsers based on userIds, evalGroupId, type,
@@ -14,31 +14,174 @@
  */
 package org.sakaiproject.evaluation.logic;
 
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.evaluation.dao.EvaluationDao;
 
 /**
- * 
- *
+ * Handles the cluster wide locks, the locks are obtained with conditional updates in the database
+ * so only one executer can get a lock, leases are renewed by a heartbeat while they are held
+ * and all leases held by this server are released when it shuts down<br/>
+ * Plain locks (from {@link #obtainLock(String, String, long)}) are not tracked, they are left to
+ * their holder and may be meant to outlive it (e.g. the completed shard markers of the group sync)
  */
 public class EvalLockManagerImpl implements EvalLockManager {
-	
+
+    private static final Log LOG = LogFactory.getLog(EvalLockManagerImpl.class);
+
+    /**
+     * A lease held by this server
+     */
+    private static class HeldLease {
+        final String lockId;
+        final String executerId;
+        final long timePeriod;
+        final long token;
+        volatile long lastRenewed;
+
+        HeldLease(String lockId, String executerId, long timePeriod, long token) {
+            this.lockId = lockId;
+            this.executerId = executerId;
+            this.timePeriod = timePeriod;
+            this.token = token;
+            this.lastRenewed = System.currentTimeMillis();
+        }
+    }
+
     private EvaluationDao dao;
     public void setDao(EvaluationDao dao) {
         this.dao = dao;
     }
-	
+
+    private long heartbeatInterval = 10 * 1000;
+    /**
+     * @param heartbeatInterval how often (in ms) to check if leases need to be renewed (default 10 seconds),
+     * each lease is renewed after a third of its time period has passed
+     */
+    public void setHeartbeatInterval(long heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    private final Map<String, HeldLease> heldLeases = new ConcurrentHashMap<>();
+    private Timer heartbeatTimer;
+
+    /**
+     * Stops the heartbeat and releases all the leases held by this server
+     */
+    public void destroy() {
+        synchronized (this) {
+            if (heartbeatTimer != null) {
+                heartbeatTimer.cancel();
+                heartbeatTimer = null;
+            }
+        }
+        for (HeldLease held : heldLeases.values()) {
+            try {
+                dao.releaseLock(held.lockId, held.executerId);
+            } catch (RuntimeException e) {
+                LOG.warn("Could not release lease ("+held.lockId+") on shutdown: " + e.getMessage());
+            }
+        }
+        heldLeases.clear();
+    }
+
 	/* (non-Javadoc)
 	 * @see org.sakaiproject.evaluation.logic.EvalLockManager#obtainLock(java.lang.String, java.lang.String, long)
 	 */
 	public Boolean obtainLock(String lockId, String executerId, long timePeriod) {
-		return dao.obtainLock(lockId, executerId, timePeriod);
+		Long token = dao.obtainLockToken(lockId, executerId, timePeriod);
+		if (token == null) {
+			return null;
+		}
+		return token > 0;
 	}
 
 	/* (non-Javadoc)
 	 * @see org.sakaiproject.evaluation.logic.EvalLockManager#releaseLock(java.lang.String, java.lang.String)
 	 */
 	public Boolean releaseLock(String lockId, String executerId) {
+		heldLeases.remove(makeKey(lockId, executerId));
 		return dao.releaseLock(lockId, executerId);
 	}
 
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.evaluation.logic.EvalLockManager#getLockHolder(java.lang.String, long)
+	 */
+	public String getLockHolder(String lockId, long timePeriod) {
+		return dao.getLockHolder(lockId, timePeriod);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.evaluation.logic.EvalLockManager#obtainLease(java.lang.String, java.lang.String, long)
+	 */
+	public Long obtainLease(String lockId, String executerId, long timePeriod) {
+		Long token = dao.obtainLockToken(lockId, executerId, timePeriod);
+		if (token != null && token > 0) {
+			heldLeases.put(makeKey(lockId, executerId), new HeldLease(lockId, executerId, timePeriod, token));
+			startHeartbeat();
+		}
+		return token;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.evaluation.logic.EvalLockManager#checkLease(java.lang.String, java.lang.String, long)
+	 */
+	public boolean checkLease(String lockId, String executerId, long token) {
+		Long current = dao.getLockToken(lockId, executerId);
+		return current != null && current == token;
+	}
+
+	/**
+	 * Renews all the leases which are due to be renewed,
+	 * leases which were lost to another executer are dropped
+	 */
+	protected void renewLeases() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, HeldLease> entry : heldLeases.entrySet()) {
+			HeldLease held = entry.getValue();
+			if (now - held.lastRenewed < held.timePeriod / 3) {
+				continue;
+			}
+			Long token = dao.obtainLockToken(held.lockId, held.executerId, held.timePeriod);
+			if (token == null) {
+				// failure, try again on the next heartbeat
+				LOG.warn("Could not renew the lease on lock ("+held.lockId+") for "+held.executerId);
+			} else if (token == held.token) {
+				held.lastRenewed = now;
+			} else {
+				// the lease expired and someone else got the lock (or we got it again with a new token)
+				LOG.warn("Lost the lease on lock ("+held.lockId+") for "+held.executerId+", token was "+held.token+" and is now "+token);
+				heldLeases.remove(entry.getKey(), held);
+				if (token > 0) {
+					dao.releaseLock(held.lockId, held.executerId);
+				}
+			}
+		}
+	}
+
+	private synchronized void startHeartbeat() {
+		if (heartbeatTimer == null) {
+			heartbeatTimer = new Timer("EvalLockManagerHeartbeat", true);
+			heartbeatTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						renewLeases();
+					} catch (RuntimeException e) {
+						LOG.error("Failure renewing lock leases: " + e.getMessage(), e);
+					}
+				}
+			}, heartbeatInterval, heartbeatInterval);
+		}
+	}
+
+	private String makeKey(String lockId, String executerId) {
+		return lockId + "/" + executerId;
+	}
+
 }
@@ -0,0 +1,423 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.dao.EvaluationDao;
+import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.evaluation.utils.EvalUtils;
+
+/**
+ * Caches the rendered reports in files in a local directory, the least recently used reports
+ * are removed when the total size of the cached reports goes over the limit<br/>
+ * The index of cached reports is only held in memory so any files left over from a previous run are removed on startup
+ */
+public class EvalReportCacheImpl implements EvalReportCache {
+
+    private static final Log LOG = LogFactory.getLog(EvalReportCacheImpl.class);
+
+    public static final String STAT_HITS = "hits";
+    public static final String STAT_MISSES = "misses";
+    public static final String STAT_STORED = "stored";
+    public static final String STAT_EVICTED = "evicted";
+    public static final String STAT_INVALIDATED = "invalidated";
+    public static final String STAT_COUNT = "count";
+    public static final String STAT_SIZE = "size";
+
+    private static final String FILE_SUFFIX = ".report";
+
+    private EvaluationDao dao;
+    public void setDao(EvaluationDao dao) {
+        this.dao = dao;
+    }
+
+    private String cacheDirectory;
+    /**
+     * @param cacheDirectory the directory to store the cached reports in,
+     * default is evaluation-report-cache in the system temp directory
+     */
+    public void setCacheDirectory(String cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    private long maxCacheSize = 100l * 1024 * 1024;
+    /**
+     * @param maxCacheSize the maximum total size (in bytes) of the cached reports (0 disables the cache), default 100MB
+     */
+    public void setMaxCacheSize(long maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong invalidated = new AtomicLong();
+
+    private File directory;
+    private final LinkedHashMap<String, CachedReport> reports = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize = 0;
+
+    public void init() {
+        if (cacheDirectory == null || "".equals(cacheDirectory)) {
+            directory = new File(System.getProperty("java.io.tmpdir"), "evaluation-report-cache");
+        } else {
+            directory = new File(cacheDirectory);
+        }
+        if (! directory.isDirectory() && ! directory.mkdirs()) {
+            LOG.warn("Could not create the report cache directory (" + directory + "), reports will not be cached");
+            directory = null;
+            return;
+        }
+        // remove anything left over from the last run
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(FILE_SUFFIX) && ! file.delete()) {
+                    LOG.debug("Could not remove old cached report: " + file);
+                }
+            }
+        }
+        LOG.info("Init: caching up to " + maxCacheSize + " bytes of reports in " + directory);
+    }
+
+    public void destroy() {
+        synchronized (reports) {
+            for (CachedReport report : reports.values()) {
+                deleteFile(report.file);
+            }
+            reports.clear();
+            totalSize = 0;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalReportCache#makeReportKey(java.lang.Long, java.lang.String[], java.lang.String, java.lang.String[])
+     */
+    public String makeReportKey(Long evaluationId, String[] evalGroupIds, String viewerClass, String... variant) {
+        if (directory == null || maxCacheSize <= 0 || evaluationId == null) {
+            return null;
+        }
+        EvalEvaluation evaluation = dao.findById(EvalEvaluation.class, evaluationId);
+        if (evaluation == null) {
+            return null;
+        }
+        // only closed evaluations are cached, the responses change too often before that
+        String state = EvalUtils.getEvaluationState(evaluation, false);
+        if (! EvalUtils.checkStateAfter(state, EvalConstants.EVALUATION_STATE_CLOSED, true)) {
+            return null;
+        }
+        String[] groupIds = new String[0];
+        if (evalGroupIds != null) {
+            groupIds = evalGroupIds.clone();
+            Arrays.sort(groupIds);
+        }
+        Object[] watermark = dao.getResponsesWatermark(evaluationId, groupIds);
+        Date lastResponse = (Date) watermark[1];
+        Date lastModified = evaluation.getLastModified();
+        // the report output depends on the system settings so any settings change makes a new key
+        Long settingsVersion = dao.getConfigVersion(EvalSettingsImpl.SETTINGS_VERSION_NAME);
+        StringBuilder sb = new StringBuilder();
+        sb.append(evaluationId).append('|');
+        sb.append(String.join(",", groupIds)).append('|');
+        sb.append(viewerClass).append('|');
+        for (String v : variant) {
+            sb.append(v).append(',');
+        }
+        sb.append('|').append(watermark[0]);
+        sb.append('|').append(lastResponse == null ? 0 : lastResponse.getTime());
+        sb.append('|').append(lastModified == null ? 0 : lastModified.getTime());
+        sb.append('|').append(settingsVersion == null ? 0 : settingsVersion);
+        return evaluationId + "-" + digest(sb.toString());
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalReportCache#copyReport(java.lang.String, java.io.OutputStream)
+     */
+    public boolean copyReport(String reportKey, OutputStream outputStream) {
+        if (reportKey == null) {
+            return false;
+        }
+        InputStream in = null;
+        synchronized (reports) {
+            CachedReport report = reports.get(reportKey);
+            if (report != null) {
+                try {
+                    // once the file is open it can be read even if it is removed from the cache
+                    in = new FileInputStream(report.file);
+                } catch (IOException e) {
+                    LOG.warn("Cached report file is missing, removing it from the cache: " + report.file);
+                    removeReport(reportKey);
+                }
+            }
+        }
+        if (in == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Failure writing the cached report (" + reportKey + "): " + e.getMessage(), e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing to do here
+            }
+        }
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalReportCache#startReport(java.lang.String, java.lang.Long, java.io.OutputStream)
+     */
+    public OutputStream startReport(String reportKey, Long evaluationId, OutputStream outputStream) {
+        if (reportKey == null || directory == null) {
+            return outputStream;
+        }
+        try {
+            File tempFile = File.createTempFile(reportKey + "-", ".tmp", directory);
+            return new ReportOutputStream(outputStream, tempFile, reportKey, evaluationId);
+        } catch (IOException e) {
+            LOG.warn("Could not create a file to cache the report (" + reportKey + "): " + e.getMessage());
+            return outputStream;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalReportCache#endReport(java.io.OutputStream, boolean)
+     */
+    public void endReport(OutputStream reportStream, boolean complete) {
+        if (! (reportStream instanceof ReportOutputStream)) {
+            return;
+        }
+        ReportOutputStream ros = (ReportOutputStream) reportStream;
+        ros.closeFile();
+        if (! complete || ros.failed) {
+            deleteFile(ros.tempFile);
+            return;
+        }
+        File file = new File(directory, ros.reportKey + FILE_SUFFIX);
+        synchronized (reports) {
+            removeReport(ros.reportKey);
+            if (! ros.tempFile.renameTo(file)) {
+                LOG.warn("Could not store the cached report: " + file);
+                deleteFile(ros.tempFile);
+                return;
+            }
+            reports.put(ros.reportKey, new CachedReport(file, ros.evaluationId, file.length()));
+            totalSize += file.length();
+            stored.incrementAndGet();
+            // drop the least recently used reports until it fits
+            Iterator<Map.Entry<String, CachedReport>> it = reports.entrySet().iterator();
+            while (totalSize > maxCacheSize && it.hasNext()) {
+                CachedReport eldest = it.next().getValue();
+                it.remove();
+                totalSize -= eldest.size;
+                deleteFile(eldest.file);
+                evicted.incrementAndGet();
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalReportCache#invalidate(java.lang.Long)
+     */
+    public void invalidate(Long evaluationId) {
+        if (evaluationId == null) {
+            return;
+        }
+        List<String> keys = new ArrayList<>();
+        synchronized (reports) {
+            for (Map.Entry<String, CachedReport> entry : reports.entrySet()) {
+                if (evaluationId.equals(entry.getValue().evaluationId)) {
+                    keys.add(entry.getKey());
+                }
+            }
+            for (String key : keys) {
+                removeReport(key);
+                invalidated.incrementAndGet();
+            }
+        }
+        if (! keys.isEmpty()) {
+            LOG.debug("Removed " + keys.size() + " cached reports for evaluation: " + evaluationId);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalReportCache#getStats()
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put(STAT_HITS, hits.get());
+        stats.put(STAT_MISSES, misses.get());
+        stats.put(STAT_STORED, stored.get());
+        stats.put(STAT_EVICTED, evicted.get());
+        stats.put(STAT_INVALIDATED, invalidated.get());
+        synchronized (reports) {
+            stats.put(STAT_COUNT, (long) reports.size());
+            stats.put(STAT_SIZE, totalSize);
+        }
+        return stats;
+    }
+
+    /**
+     * Remove a report from the index and delete the file, must hold the reports lock
+     */
+    private void removeReport(String reportKey) {
+        CachedReport report = reports.remove(reportKey);
+        if (report != null) {
+            totalSize -= report.size;
+            deleteFile(report.file);
+        }
+    }
+
+    private void deleteFile(File file) {
+        if (file.exists() && ! file.delete()) {
+            LOG.debug("Could not remove cached report file: " + file);
+        }
+    }
+
+    private static String digest(String value) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = md.digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : bytes) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    private static class CachedReport {
+        final File file;
+        final Long evaluationId;
+        final long size;
+        CachedReport(File file, Long evaluationId, long size) {
+            this.file = file;
+            this.evaluationId = evaluationId;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Writes everything to the real output stream and to the temporary cache file,
+     * if writing the cache file fails then the report still goes out but it is not cached
+     */
+    private static class ReportOutputStream extends OutputStream {
+        final OutputStream out;
+        final File tempFile;
+        final String reportKey;
+        final Long evaluationId;
+        OutputStream fileOut;
+        boolean failed = false;
+
+        ReportOutputStream(OutputStream out, File tempFile, String reportKey, Long evaluationId) throws IOException {
+            this.out = out;
+            this.tempFile = tempFile;
+            this.reportKey = reportKey;
+            this.evaluationId = evaluationId;
+            this.fileOut = new FileOutputStream(tempFile);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (fileOut != null) {
+                try {
+                    fileOut.write(b);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (fileOut != null) {
+                try {
+                    fileOut.write(b, off, len);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        void closeFile() {
+            if (fileOut != null) {
+                try {
+                    fileOut.close();
+                } catch (IOException e) {
+                    fail(e);
+                }
+                fileOut = null;
+            }
+        }
+
+        private void fail(IOException e) {
+            LOG.warn("Failure writing the cached report (" + reportKey + "), it will not be cached: " + e.getMessage());
+            failed = true;
+            OutputStream toClose = fileOut;
+            fileOut = null;
+            try {
+                toClose.close();
+            } catch (IOException ex) {
+                // nothing to do here
+            }
+        }
+    }
+
+}
@@ -0,0 +1,521 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.evaluation.model.EvalResponse;
+
+/**
+ * Bounded queue of validated responses which are saved in batches by background workers,
+ * the queue is split into lanes (one worker per lane) and all responses from the same user
+ * go to the same lane so they are always saved in the order they were submitted<br/>
+ * A submission first reserves space in the lane for the user ({@link #reserve(String)}), when the lane
+ * is full the submitting thread waits up to the offer timeout and then gives up, this is the back-pressure
+ * that keeps the request threads from piling up unbounded work during peak submission times<br/>
+ * The queue itself only holds work in memory, every submission must also be stored
+ * (as an {@link org.sakaiproject.evaluation.model.EvalResponseSubmission}) by the submitting transaction
+ * and only offered ({@link #offer(String, EvalResponse, String, boolean)}) once that transaction has committed,
+ * the handler claims the stored submission in the same transaction that saves the response so
+ * a submission is saved at most once no matter how many servers try, submissions which are still
+ * waiting after the stale age (e.g. because the server which accepted them went down)
+ * are picked up again by the recovery thread
+ */
+public class EvalResponseSubmissionQueue {
+
+    private static final Log LOG = LogFactory.getLog(EvalResponseSubmissionQueue.class);
+
+    /**
+     * The number of times a submission which could not be claimed is tried again,
+     * the committed submission may simply not be visible to the worker yet,
+     * later submissions from the same user are held back until it is done
+     */
+    protected static final int MAX_CLAIM_ATTEMPTS = 5;
+
+    /**
+     * Saves batches of queued responses, all methods are called from the worker threads
+     * so they each need to run in their own transaction
+     */
+    public interface ResponseBatchHandler {
+        /**
+         * Claims and saves a batch of queued responses in a single transaction,
+         * nothing in the batch is saved if this fails
+         *
+         * @param batch the queued responses to save, never empty
+         * @return the set of submission ids from the batch which were claimed and saved,
+         * the others were already handled elsewhere OR have not been committed yet
+         * @throws RuntimeException if the batch could not be saved
+         */
+        public Set<String> saveResponseBatch(List<QueuedResponse> batch);
+
+        /**
+         * Handles everything which should happen after a batch was saved (events, emails)
+         *
+         * @param saved the queued responses which were saved
+         */
+        public void completeResponseBatch(List<QueuedResponse> saved);
+
+        /**
+         * Marks a queued response as failed so the user can be told it was not saved
+         *
+         * @param queued the queued response which could not be saved
+         */
+        public void failResponseSubmission(QueuedResponse queued);
+
+        /**
+         * @param olderThan only get submissions which have been waiting since before this date
+         * @param max the maximum number of submissions to get
+         * @return the stored submissions which are still waiting to be saved (oldest first),
+         * the response is not loaded for these (it is decoded when the batch is saved)
+         */
+        public List<QueuedResponse> getStaleResponseSubmissions(Date olderThan, int max);
+
+        /**
+         * Removes the stored submissions which are finished and no longer needed
+         */
+        public void purgeResponseSubmissions();
+    }
+
+    /**
+     * A response which has been validated and is waiting to be saved
+     */
+    public static class QueuedResponse {
+        public final String submissionId;
+        /**
+         * null for a recovered submission until the handler loads it
+         */
+        public EvalResponse response;
+        public final String userId;
+        public final boolean newResponse;
+        /**
+         * true if this was offered on this server (false if it was recovered)
+         */
+        final boolean local;
+        /**
+         * the number of times this was tried without being claimed
+         */
+        int attempts = 0;
+        /**
+         * this should not be tried again before this time (only used by the worker holding it back)
+         */
+        long notBefore = 0;
+
+        /**
+         * @param submissionId the unique submission id
+         * @param response the validated response OR null if it has to be loaded from the stored submission
+         * @param userId the internal user id of the response owner
+         * @param newResponse true if the response has not been saved before
+         */
+        public QueuedResponse(String submissionId, EvalResponse response, String userId, boolean newResponse) {
+            this.submissionId = submissionId;
+            this.response = response;
+            this.userId = userId;
+            this.newResponse = newResponse;
+            this.local = response != null;
+        }
+    }
+
+    /**
+     * The responses waiting for a single worker, the space is reserved before the submission is stored
+     * and given back when the worker takes the response off the lane
+     */
+    private static class Lane {
+        final BlockingDeque<QueuedResponse> queue = new LinkedBlockingDeque<>();
+        final Semaphore space;
+
+        Lane(int capacity) {
+            this.space = new Semaphore(capacity);
+        }
+    }
+
+    private final ResponseBatchHandler handler;
+    private final List<Lane> lanes;
+    private final List<Thread> workers;
+    private Thread recovery;
+    private final int batchSize;
+    private final long offerTimeoutMillis;
+    private final long staleAgeMillis;
+    private final Set<String> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean running = false;
+
+    /**
+     * @param handler the handler which saves the batches
+     * @param laneCount the number of lanes (and worker threads)
+     * @param capacity the total number of responses which can be waiting (split evenly across lanes)
+     * @param batchSize the maximum number of responses to save in a single batch
+     * @param offerTimeoutMillis how long a submitter will wait to reserve space in a full lane
+     * @param staleAgeMillis how long a stored submission has to be waiting before it is recovered,
+     * this is also how often the recovery runs
+     */
+    public EvalResponseSubmissionQueue(ResponseBatchHandler handler, int laneCount, int capacity,
+            int batchSize, long offerTimeoutMillis, long staleAgeMillis) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler must be set");
+        }
+        if (laneCount < 1 || capacity < laneCount || batchSize < 1) {
+            throw new IllegalArgumentException("laneCount ("+laneCount+") and batchSize ("+batchSize
+                    +") must be at least 1 and capacity ("+capacity+") must be at least laneCount");
+        }
+        this.handler = handler;
+        this.batchSize = batchSize;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.staleAgeMillis = staleAgeMillis;
+        this.lanes = new ArrayList<>(laneCount);
+        this.workers = new ArrayList<>(laneCount);
+        int laneCapacity = capacity / laneCount;
+        for (int i = 0; i < laneCount; i++) {
+            lanes.add( new Lane(laneCapacity) );
+        }
+    }
+
+    /**
+     * Start the worker threads and the recovery thread
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < lanes.size(); i++) {
+            final Lane lane = lanes.get(i);
+            Thread worker = new Thread(() -> { drainLane(lane); }, "EvalResponseSubmission-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        recovery = new Thread(() -> { recoverSubmissions(); }, "EvalResponseSubmission-recovery");
+        recovery.setDaemon(true);
+        recovery.start();
+        LOG.info("Started response submission queue with " + lanes.size() + " lanes (batch size " + batchSize + ")");
+    }
+
+    /**
+     * Stop the worker threads and save anything still waiting in the queue on the calling thread,
+     * anything which cannot be saved now stays stored and is recovered by another server
+     */
+    public synchronized void shutdown() {
+        if (! running) {
+            return;
+        }
+        running = false;
+        recovery.interrupt();
+        for (Thread worker : workers) {
+            try {
+                worker.join(offerTimeoutMillis + 5000l);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers.clear();
+        // save whatever is left so nothing that was accepted has to wait for recovery after a clean shutdown
+        int remaining = 0;
+        for (Lane lane : lanes) {
+            List<QueuedResponse> batch = new ArrayList<>(batchSize);
+            while (lane.queue.drainTo(batch, batchSize) > 0) {
+                remaining += batch.size();
+                try {
+                    processBatch(batch, false);
+                } catch (RuntimeException e) {
+                    LOG.error("Failure while saving a batch of " + batch.size() + " queued responses during shutdown", e);
+                }
+                batch.clear();
+            }
+        }
+        inFlight.clear();
+        LOG.info("Stopped response submission queue, processed " + remaining + " remaining responses during shutdown");
+    }
+
+    /**
+     * Reserve space for a submission in the lane for this user, waits for space if the lane is full,
+     * the submission must then be stored by the calling transaction (see {@link ResponseBatchHandler#saveResponseBatch(List)})
+     * and offered once that commits OR the reservation cancelled if it does not
+     *
+     * @param userId the internal user id of the response owner
+     * @return the submission id to store the submission under,
+     * null if the queue is not running or no space became available before the timeout
+     */
+    public String reserve(String userId) {
+        if (! running) {
+            return null;
+        }
+        boolean reserved = false;
+        try {
+            reserved = getLane(userId).space.tryAcquire(offerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return reserved ? UUID.randomUUID().toString() : null;
+    }
+
+    /**
+     * Gives back the space reserved for a submission which was not stored
+     *
+     * @param userId the internal user id of the response owner
+     */
+    public void cancel(String userId) {
+        getLane(userId).space.release();
+    }
+
+    /**
+     * Add a validated response to the queue in the space reserved by {@link #reserve(String)},
+     * this must only be called after the transaction which stored the submission has committed
+     *
+     * @param submissionId the submission id from {@link #reserve(String)}
+     * @param response the validated response
+     * @param userId the internal user id of the response owner
+     * @param newResponse true if the response has not been saved before
+     * @return true if the response was queued, false if the queue has stopped 
+     * (the submission stays stored so it will be recovered)
+     */
+    public boolean offer(String submissionId, EvalResponse response, String userId, boolean newResponse) {
+        Lane lane = getLane(userId);
+        if (! running) {
+            lane.space.release();
+            return false;
+        }
+        inFlight.add(submissionId);
+        lane.queue.offer( new QueuedResponse(submissionId, response, userId, newResponse) );
+        return true;
+    }
+
+    /**
+     * @return the total number of responses currently waiting to be saved on this server
+     */
+    public int size() {
+        int size = 0;
+        for (Lane lane : lanes) {
+            size += lane.queue.size();
+        }
+        return size;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private Lane getLane(String userId) {
+        int hash = userId == null ? 0 : userId.hashCode();
+        return lanes.get( (hash & Integer.MAX_VALUE) % lanes.size() );
+    }
+
+    /**
+     * Saves the responses in a lane in batches, a batch never holds more than one response from the same user
+     * so a response which could not be claimed (and everything after it from the same user) can be held back
+     * and tried again later without holding up the other users in the lane or changing the order for this user
+     */
+    private void drainLane(Lane lane) {
+        List<QueuedResponse> batch = new ArrayList<>(batchSize);
+        // responses waiting behind an earlier response from the same user (in order), the first one may be waiting for a retry
+        Map<String, Deque<QueuedResponse>> held = new LinkedHashMap<>();
+        while (running) {
+            try {
+                Set<String> batchUsers = new HashSet<>();
+                long nextRetry = takeHeld(held, batch, batchUsers);
+                if (batch.isEmpty()) {
+                    long wait = Math.max(1l, Math.min(1000l, nextRetry - System.currentTimeMillis()));
+                    QueuedResponse first = lane.queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    lane.space.release();
+                    addOrHold(first, held, batch, batchUsers);
+                }
+                List<QueuedResponse> waiting = new ArrayList<>(batchSize);
+                lane.queue.drainTo(waiting, batchSize - batch.size());
+                for (QueuedResponse queued : waiting) {
+                    lane.space.release();
+                    addOrHold(queued, held, batch, batchUsers);
+                }
+                if (batch.isEmpty()) {
+                    // everything taken was from users who are being held back
+                    continue;
+                }
+                for (QueuedResponse queued : processBatch(batch, true)) {
+                    // tried first when it is ready, before anything else from this user
+                    held.computeIfAbsent(queued.userId, k -> new ArrayDeque<QueuedResponse>()).addFirst(queued);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                // never let the worker die, the submissions are still stored so they will be recovered
+                LOG.error("Failure while saving a batch of " + batch.size() + " queued responses", e);
+                for (QueuedResponse queued : batch) {
+                    inFlight.remove(queued.submissionId);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+        // put back anything not processed (at the front since it was offered first) so shutdown can save it
+        List<QueuedResponse> remaining = new ArrayList<>();
+        for (Deque<QueuedResponse> userHeld : held.values()) {
+            remaining.addAll(userHeld);
+        }
+        for (int i = remaining.size() - 1; i >= 0; i--) {
+            lane.queue.offerFirst(remaining.get(i));
+        }
+    }
+
+    /**
+     * Moves the first held response for each user into the batch if it is ready to be tried
+     *
+     * @return the time the next held response which is not ready yet can be tried (or Long.MAX_VALUE)
+     */
+    private long takeHeld(Map<String, Deque<QueuedResponse>> held, List<QueuedResponse> batch, Set<String> batchUsers) {
+        long now = System.currentTimeMillis();
+        long nextRetry = Long.MAX_VALUE;
+        for (Iterator<Deque<QueuedResponse>> it = held.values().iterator(); it.hasNext() && batch.size() < batchSize;) {
+            Deque<QueuedResponse> userHeld = it.next();
+            QueuedResponse queued = userHeld.peekFirst();
+            if (queued.notBefore > now) {
+                nextRetry = Math.min(nextRetry, queued.notBefore);
+                continue;
+            }
+            batch.add(userHeld.pollFirst());
+            batchUsers.add(queued.userId);
+            if (userHeld.isEmpty()) {
+                it.remove();
+            }
+        }
+        return nextRetry;
+    }
+
+    /**
+     * Adds the response to the batch unless the batch already has one from this user or
+     * earlier responses from this user are being held, then it waits behind them
+     */
+    private void addOrHold(QueuedResponse queued, Map<String, Deque<QueuedResponse>> held, 
+            List<QueuedResponse> batch, Set<String> batchUsers) {
+        Deque<QueuedResponse> userHeld = held.get(queued.userId);
+        if (userHeld == null && batchUsers.add(queued.userId)) {
+            batch.add(queued);
+        } else {
+            held.computeIfAbsent(queued.userId, k -> new ArrayDeque<QueuedResponse>()).addLast(queued);
+        }
+    }
+
+    /**
+     * Saves a batch, if the batch fails then each response is saved on its own
+     * so that one bad response does not cause the others to fail
+     *
+     * @param batch the queued responses
+     * @param retry if true then local submissions which could not be claimed are returned to be tried again later
+     * @return the submissions to try again later
+     */
+    private List<QueuedResponse> processBatch(List<QueuedResponse> batch, boolean retry) {
+        List<QueuedResponse> retries = new ArrayList<>();
+        List<QueuedResponse> saved = new ArrayList<>(batch.size());
+        List<QueuedResponse> unclaimed = new ArrayList<>();
+        try {
+            Set<String> savedIds = handler.saveResponseBatch(batch);
+            for (QueuedResponse queued : batch) {
+                (savedIds.contains(queued.submissionId) ? saved : unclaimed).add(queued);
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to save batch of " + batch.size() + " queued responses together, saving them one at a time: " + e.getMessage());
+            for (QueuedResponse queued : batch) {
+                try {
+                    Set<String> savedIds = handler.saveResponseBatch(Collections.singletonList(queued));
+                    (savedIds.contains(queued.submissionId) ? saved : unclaimed).add(queued);
+                } catch (RuntimeException e1) {
+                    // most likely the unique constraint (the user already saved this response)
+                    LOG.warn("Unable to save queued response (" + queued.submissionId + ") from user (" + queued.userId + "): " + e1.getMessage());
+                    try {
+                        handler.failResponseSubmission(queued);
+                    } catch (RuntimeException e2) {
+                        // still stored as queued so it will be tried again by the recovery
+                        LOG.error("Unable to mark queued response (" + queued.submissionId + ") as failed", e2);
+                    }
+                    inFlight.remove(queued.submissionId);
+                }
+            }
+        }
+
+        for (QueuedResponse queued : unclaimed) {
+            queued.attempts++;
+            if (retry && queued.local && queued.attempts < MAX_CLAIM_ATTEMPTS) {
+                queued.notBefore = System.currentTimeMillis() + (100l << queued.attempts);
+                retries.add(queued);
+                continue;
+            }
+            // handled by another server OR never committed, if it is still stored then the recovery will get it
+            inFlight.remove(queued.submissionId);
+        }
+
+        if (! saved.isEmpty()) {
+            try {
+                handler.completeResponseBatch(saved);
+            } finally {
+                for (QueuedResponse queued : saved) {
+                    inFlight.remove(queued.submissionId);
+                }
+            }
+        }
+        return retries;
+    }
+
+    private void recoverSubmissions() {
+        while (running) {
+            try {
+                Thread.sleep(staleAgeMillis);
+                handler.purgeResponseSubmissions();
+                List<QueuedResponse> stale = handler.getStaleResponseSubmissions(
+                        new Date(System.currentTimeMillis() - staleAgeMillis), batchSize * lanes.size());
+                int recovered = 0;
+                for (QueuedResponse queued : stale) {
+                    // skip anything this server is still working on
+                    if (inFlight.add(queued.submissionId)) {
+                        Lane lane = getLane(queued.userId);
+                        if (lane.space.tryAcquire()) {
+                            lane.queue.offer(queued);
+                            recovered++;
+                        } else {
+                            inFlight.remove(queued.submissionId);
+                        }
+                    }
+                }
+                if (recovered > 0) {
+                    LOG.info("Recovered " + recovered + " stored response submissions which were not saved");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                LOG.error("Failure while recovering stored response submissions", e);
+            }
+        }
+    }
+
+}
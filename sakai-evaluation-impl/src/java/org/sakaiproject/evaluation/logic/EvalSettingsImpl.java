@@ -14,11 +14,24 @@
  */
 package org.sakaiproject.evaluation.logic;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -27,6 +40,7 @@ import org.sakaiproject.evaluation.dao.EvaluationDao;
 import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
 import org.sakaiproject.evaluation.model.EvalConfig;
 import org.sakaiproject.evaluation.utils.SettingsLogicUtils;
+import org.sakaiproject.genericdao.api.search.Restriction;
 import org.sakaiproject.genericdao.api.search.Search;
 
 /**
@@ -49,11 +63,73 @@ public class EvalSettingsImpl implements EvalSettings {
     }
 
 
-    private ConcurrentHashMap<String, EvalConfig> configCache = new ConcurrentHashMap<>();
+    private long settingsPollInterval = 30 * 1000;
+    /**
+     * @param settingsPollInterval how often (in ms) to check if the settings were changed on another server,
+     * 0 or less disables the check (changes from other servers are then only picked up from the config events)
+     */
+    public void setSettingsPollInterval(long settingsPollInterval) {
+        this.settingsPollInterval = settingsPollInterval;
+    }
+
+    private long settingsReloadInterval = 60 * 60 * 1000;
+    /**
+     * @param settingsReloadInterval how often (in ms) the poll reloads all the settings instead of only the changed ones
+     * (default 1 hour), this picks up anything the changed settings lookup missed (e.g. because of clock differences between servers)
+     */
+    public void setSettingsReloadInterval(long settingsReloadInterval) {
+        this.settingsReloadInterval = settingsReloadInterval;
+    }
+
     private HashSet<String> booleanSettings = new HashSet<>();
 
     private static final String NULL_VALUE = "NULL";
 
+    /**
+     * The name of the config row which holds the settings version,
+     * this number goes up by one every time a setting is changed
+     */
+    public static final String SETTINGS_VERSION_NAME = "SETTINGS_VERSION";
+
+    /**
+     * When the settings version changes the settings modified since the last check (less this) are reloaded,
+     * this covers changes which were made just before the last check but committed after it and small
+     * clock differences between the servers
+     */
+    private static final long CHANGED_SETTINGS_OVERLAP = 10 * 60 * 1000;
+
+    /**
+     * All the typed setting constants in {@link EvalSettings}, these are parsed when the snapshot is built
+     */
+    private static final List<String> SETTING_CONSTANTS = new ArrayList<>();
+    static {
+        for (Field field : EvalSettings.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == String.class) {
+                try {
+                    String constant = (String) field.get(null);
+                    if (constant != null && constant.indexOf(':') > 0) {
+                        SETTING_CONSTANTS.add(constant);
+                    }
+                } catch (IllegalAccessException e) {
+                    // should not happen for public fields
+                    LOG.warn("Unable to read setting constant: " + field.getName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * looks up the raw value for settings which were not loaded with the snapshot
+     */
+    private final Function<String, String> configLoader = name -> {
+        EvalConfig config = getConfigByName(name);
+        return config == null ? null : config.getValue();
+    };
+
+    private final Object snapshotLock = new Object();
+    private volatile SettingsSnapshot snapshot;
+    private Timer pollTimer;
+
     /**
      * spring init
      */
@@ -79,35 +155,61 @@ public class EvalSettingsImpl implements EvalSettings {
 
         // initialize the cache
         resetCache(null);
+
+        // check for changes made on other servers
+        if (settingsPollInterval > 0) {
+            pollTimer = new Timer("EvalSettingsPoll", true);
+            pollTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        checkSettingsVersion();
+                    } catch (Exception e) {
+                        LOG.warn("Failure while checking the config settings version: " + e.getMessage(), e);
+                    }
+                }
+            }, settingsPollInterval, settingsPollInterval);
+        }
+    }
+
+    /**
+     * spring destroy
+     */
+    public void destroy() {
+        if (pollTimer != null) {
+            pollTimer.cancel();
+        }
     }
 
     /* (non-Javadoc)
      * @see org.sakaiproject.evaluation.logic.EvaluationSettings#get(java.lang.Object)
      */
     public Object get(String settingConstant) {
-        LOG.debug("Getting admin setting for: " + settingConstant);
-        String name = SettingsLogicUtils.getName(settingConstant);
-        String type = SettingsLogicUtils.getType(settingConstant);
-
-        Object setting = null;
-        EvalConfig c = getConfigByName(name, true);
-        if (c == null) {
-            if (booleanSettings.contains(settingConstant)) {
-                // if this boolean is null then make it false instead
-                setting = Boolean.FALSE;
-            }
-        } else if (! NULL_VALUE.equals(c.getValue())){
-            if (type.equals("java.lang.Boolean")) {
-            	setting = Boolean.valueOf( c.getValue() );
-            } else if (type.equals("java.lang.Integer")) {
-                setting = new Integer( c.getValue() );
-            } else if (type.equals("java.lang.Float")) {
-                setting = new Float( c.getValue() );
-            } else {
-                setting = c.getValue();
-            }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Getting admin setting for: " + settingConstant);
         }
-        return setting;
+        return getSnapshot().get(settingConstant, configLoader);
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalSettings#getBoolean(org.sakaiproject.evaluation.logic.EvalSettings.BooleanKey, boolean)
+     */
+    public boolean getBoolean(BooleanKey key, boolean defaultValue) {
+        return getSnapshot().getBoolean(key, defaultValue, configLoader);
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalSettings#getInt(org.sakaiproject.evaluation.logic.EvalSettings.IntKey, int)
+     */
+    public int getInt(IntKey key, int defaultValue) {
+        return getSnapshot().getInt(key, defaultValue, configLoader);
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalSettings#getString(org.sakaiproject.evaluation.logic.EvalSettings.StringKey)
+     */
+    public String getString(StringKey key) {
+        return getSnapshot().getString(key, configLoader);
     }
 
     /* (non-Javadoc)
@@ -119,7 +221,7 @@ public class EvalSettingsImpl implements EvalSettings {
         String type = SettingsLogicUtils.getType(settingConstant);
 
         // retrieve the current setting if it exists
-        EvalConfig c = getConfigByName(name, false);
+        EvalConfig c = getConfigByName(name);
 
         // make sure the type is the one set
         Class<?> typeClass;
@@ -151,8 +253,14 @@ public class EvalSettingsImpl implements EvalSettings {
 
         try {
             dao.save(c); // now save in the database
+            dao.incrementConfigVersion(SETTINGS_VERSION_NAME);
             externalLogic.registerEntityEvent(EVENT_SET_ONE_CONFIG, EvalConfig.class, settingConstant); // register event
-            configCache.put(name, c); // update the cache
+            // update the cache, the new version is not taken here (other servers may have changed settings
+            // at the same time) so the next poll picks up the changes made since the snapshot was loaded
+            synchronized (snapshotLock) {
+                SettingsSnapshot current = getSnapshot();
+                snapshot = current.withValue(name, value);
+            }
         } catch (Exception e) {
             LOG.error("Could not save system setting:" + name + ":" + value, e);
             return false;
@@ -162,76 +270,302 @@ public class EvalSettingsImpl implements EvalSettings {
 
     /**
      * @param name the name value of the Config item
-     * @param useCache if true then use cached values and return no persistent objects,
-     * else always get the persistent object if exists
-     * @return a Config object or null if none found
+     * @return the persistent Config object or null if none found
      */
-    protected EvalConfig getConfigByName(String name, boolean useCache) {
+    protected EvalConfig getConfigByName(String name) {
         EvalConfig config = null;
-        boolean found = false;
-        if (useCache) {
-            // get the cached version if it exists
-            if (configCache.containsKey(name)) {
-                found = true;
-                config = configCache.get(name);
-                if (config instanceof Null) {
-                    config = null;
-                }
+        List<EvalConfig> l = dao.findBySearch(EvalConfig.class, 
+                new Search("name", name) );
+        if (l.size() > 0) {
+            config = (EvalConfig) l.get(0);
+        } else {
+            LOG.debug("No admin setting for this constant:" + name);
+        }
+        return config;
+    }
+
+    /**
+     * Reloads the settings which were changed if the settings version in the database does not match
+     * the loaded one, this is a single row lookup so it is cheap to run often<br/>
+     * All the settings are reloaded once the reload interval has passed
+     */
+    protected void checkSettingsVersion() {
+        long checkTime = System.currentTimeMillis();
+        SettingsSnapshot current = snapshot;
+        if (current == null
+                || checkTime - current.fullLoadTime >= settingsReloadInterval) {
+            resetCache(null);
+            return;
+        }
+        // the version is read before the settings so a change committed in between is picked up on the next check
+        Long version = dao.getConfigVersion(SETTINGS_VERSION_NAME);
+        if (Objects.equals(current.version, version)) {
+            return;
+        }
+        List<EvalConfig> l = dao.findBySearch(EvalConfig.class, new Search(
+                new Restriction("lastModified", new Date(current.loadTime - CHANGED_SETTINGS_OVERLAP), Restriction.GREATER) ) );
+        Map<String, String> changes = new HashMap<>(l.size());
+        for (EvalConfig config : l) {
+            if (! SETTINGS_VERSION_NAME.equals(config.getName())) {
+                changes.put(config.getName(), config.getValue());
             }
         }
-        if (! found) {
-            List<EvalConfig> l = dao.findBySearch(EvalConfig.class, 
-                    new Search("name", name) );
-            if (l.size() > 0) {
-                config = (EvalConfig) l.get(0);
-            } else {
-                LOG.debug("No admin setting for this constant:" + name);
+        synchronized (snapshotLock) {
+            if (snapshot == current) {
+                snapshot = current.withValues(changes, version, checkTime);
             }
-            if (useCache) {
-                if (config == null) {
-                    // we want to store the fact that this is actually a null
-                    configCache.put(name, new Null());
-                } else {
-                    // make the object non-persistent by copying it
-                    config = new EvalConfig(name, config.getValue());
-                    configCache.put(name, config); // update the cache
+        }
+        LOG.info("Settings version changed ("+current.version+" to "+version+"): reloaded "+changes.size()+" changed config settings");
+    }
+
+    /**
+     * @return the current settings snapshot, loads it if it is not loaded yet
+     */
+    private SettingsSnapshot getSnapshot() {
+        SettingsSnapshot current = snapshot;
+        if (current == null) {
+            synchronized (snapshotLock) {
+                current = snapshot;
+                if (current == null) {
+                    current = loadSnapshot();
+                    snapshot = current;
                 }
             }
         }
-        return config;
+        return current;
+    }
+
+    /**
+     * @return a new snapshot of all the settings in the database
+     */
+    private SettingsSnapshot loadSnapshot() {
+        long loadTime = System.currentTimeMillis();
+        Long version = dao.getConfigVersion(SETTINGS_VERSION_NAME);
+        List<EvalConfig> l = dao.findAll(EvalConfig.class);
+        Map<String, String> values = new HashMap<>(l.size());
+        for (EvalConfig config : l) {
+            if (! SETTINGS_VERSION_NAME.equals(config.getName())) {
+                values.put(config.getName(), config.getValue());
+            }
+        }
+        return new SettingsSnapshot(values, version, loadTime, loadTime, booleanSettings);
     }
 
     /**
      * clear out the cache and reload all config settings if the settingConstant is null,
-     * if not null then clean out a single item from the cache,
-     * it will be reloaded from the DB the next time someone attempts to fetch it
+     * if not null then reload a single item from the DB into the cache
      * @param settingConstant (OPTIONAL) a setting constant from {@link EvalSettings}
      */
     public void resetCache(String settingConstant) {
         if (settingConstant == null) {
-            // clear out cache
-            configCache.clear();
-            // reload all cache items
-            List<EvalConfig> l = dao.findAll(EvalConfig.class);
-            for (EvalConfig config : l) {
-                // copy the values to avoid putting persistent objects in the cache
-                config = new EvalConfig(config.getName(), config.getValue());
-                configCache.put(config.getName(), config);
-            }
-            LOG.info("Resetting config settings cache: cleared and reloaded all "+l.size()+" values");
+            synchronized (snapshotLock) {
+                snapshot = loadSnapshot();
+            }
+            LOG.info("Resetting config settings cache: cleared and reloaded all "+snapshot.values.size()+" values");
         } else {
             String name = SettingsLogicUtils.getName(settingConstant);
-            if (configCache.containsKey(name)) {
-                LOG.info("Resetting config settings cache: cleared single value: " + name);
-                configCache.remove(name);
+            EvalConfig config = getConfigByName(name);
+            synchronized (snapshotLock) {
+                SettingsSnapshot current = getSnapshot();
+                snapshot = current.withValue(name, config == null ? null : config.getValue());
             }
+            LOG.info("Resetting config settings cache: reloaded single value: " + name);
         }
     }
 
     /**
-     * Marker class to indicate a null since CHM cannot store null
-     * @author Aaron Zeckoski (aaron@caret.cam.ac.uk)
+     * An immutable copy of all the settings which is replaced as a whole when the settings change,
+     * all the typed setting constants are parsed when it is created so reads do not need to parse anything
      */
-    private class Null extends EvalConfig { }
+    private static final class SettingsSnapshot {
+
+        private static final Object NULL_SETTING = new Object();
+
+        // the states of a typed key value in this snapshot
+        private static final int KEY_UNKNOWN = 0;
+        private static final int KEY_NULL = 1;
+        private static final int KEY_FALSE = 2;
+        private static final int KEY_TRUE = 3;
+        private static final int KEY_SET = 4;
+
+        /** the raw config values by name */
+        final Map<String, String> values;
+        /** the settings version this snapshot was loaded from */
+        final Long version;
+        /** when the settings in this snapshot were last loaded (all or the changed ones) */
+        final long loadTime;
+        /** when all the settings in this snapshot were loaded */
+        final long fullLoadTime;
+        final Set<String> booleanSettings;
+        /** the parsed values for the constants in {@link EvalSettings} */
+        private final Map<String, Object> parsed;
+        /** parsed values for any other constants, filled in as they are requested */
+        private final ConcurrentHashMap<String, Object> otherParsed = new ConcurrentHashMap<>();
+        /** raw values for names which were not loaded with the snapshot, looked up once when requested */
+        private final ConcurrentHashMap<String, Optional<String>> lookedUpValues = new ConcurrentHashMap<>();
+        /**
+         * values for the typed setting keys by key index, filled in as they are requested,
+         * these hold the values unboxed so reading a key does not cast or unbox anything
+         */
+        private final AtomicIntegerArray booleanValues = new AtomicIntegerArray(SettingKey.getKeyCount() + 32);
+        private final AtomicIntegerArray intStates = new AtomicIntegerArray(booleanValues.length());
+        private final AtomicIntegerArray intValues = new AtomicIntegerArray(booleanValues.length());
+        private final AtomicReferenceArray<Optional<String>> stringValues = new AtomicReferenceArray<>(booleanValues.length());
+
+        SettingsSnapshot(Map<String, String> values, Long version, long loadTime, long fullLoadTime, Set<String> booleanSettings) {
+            this.values = values;
+            this.version = version;
+            this.loadTime = loadTime;
+            this.fullLoadTime = fullLoadTime;
+            this.booleanSettings = booleanSettings;
+            Map<String, Object> p = new HashMap<>(SETTING_CONSTANTS.size() * 2);
+            for (String constant : SETTING_CONSTANTS) {
+                String value = values.get(SettingsLogicUtils.getName(constant));
+                if (value != null) {
+                    try {
+                        p.put(constant, parse(constant, value));
+                    } catch (NumberFormatException e) {
+                        // leave it out, the error will be thrown when the setting is requested
+                        LOG.warn("Invalid value for setting " + constant + ": " + e.getMessage());
+                    }
+                }
+            }
+            this.parsed = p;
+        }
+
+        /**
+         * @return a copy of this snapshot with one value changed (null to remove it)
+         */
+        SettingsSnapshot withValue(String name, String value) {
+            Map<String, String> newValues = new HashMap<>(values);
+            if (value == null) {
+                newValues.remove(name);
+            } else {
+                newValues.put(name, value);
+            }
+            return new SettingsSnapshot(newValues, version, loadTime, fullLoadTime, booleanSettings);
+        }
+
+        /**
+         * @return a copy of this snapshot with the changed values (from the given settings version) applied
+         */
+        SettingsSnapshot withValues(Map<String, String> changes, Long newVersion, long newLoadTime) {
+            Map<String, String> newValues = new HashMap<>(values);
+            newValues.putAll(changes);
+            return new SettingsSnapshot(newValues, newVersion, newLoadTime, fullLoadTime, booleanSettings);
+        }
+
+        /**
+         * @param settingConstant a setting constant
+         * @param loader looks up the raw value for a setting name which is not in this snapshot (returns null if there is none)
+         * @return the typed setting value or null if it is not set
+         */
+        Object get(String settingConstant, Function<String, String> loader) {
+            Object setting = parsed.get(settingConstant);
+            if (setting == null) {
+                if (settingConstant == null) {
+                    throw new IllegalArgumentException("Invalid constant (empty or null)");
+                }
+                setting = otherParsed.get(settingConstant);
+                if (setting == null) {
+                    String name = SettingsLogicUtils.getName(settingConstant);
+                    String value = values.get(name);
+                    if (value == null) {
+                        value = lookedUpValues.computeIfAbsent(name, n -> Optional.ofNullable(loader.apply(n))).orElse(null);
+                    }
+                    setting = parse(settingConstant, value);
+                    otherParsed.put(settingConstant, setting);
+                }
+            }
+            return setting == NULL_SETTING ? null : setting;
+        }
+
+        /**
+         * @param key a typed boolean setting key
+         * @param defaultValue returned if the setting is not set
+         * @param loader looks up the raw value for a setting name which is not in this snapshot
+         * @return the setting value or the default if it is not set
+         */
+        boolean getBoolean(BooleanKey key, boolean defaultValue, Function<String, String> loader) {
+            if (key.index >= booleanValues.length()) {
+                // key was created after this snapshot
+                Boolean setting = (Boolean) get(key.constant, loader);
+                return setting == null ? defaultValue : setting;
+            }
+            int state = booleanValues.get(key.index);
+            if (state == KEY_UNKNOWN) {
+                Boolean setting = (Boolean) get(key.constant, loader);
+                state = setting == null ? KEY_NULL : (setting ? KEY_TRUE : KEY_FALSE);
+                booleanValues.set(key.index, state);
+            }
+            return state == KEY_NULL ? defaultValue : state == KEY_TRUE;
+        }
+
+        /**
+         * @param key a typed integer setting key
+         * @param defaultValue returned if the setting is not set
+         * @param loader looks up the raw value for a setting name which is not in this snapshot
+         * @return the setting value or the default if it is not set
+         */
+        int getInt(IntKey key, int defaultValue, Function<String, String> loader) {
+            if (key.index >= intStates.length()) {
+                // key was created after this snapshot
+                Integer setting = (Integer) get(key.constant, loader);
+                return setting == null ? defaultValue : setting;
+            }
+            int state = intStates.get(key.index);
+            if (state == KEY_UNKNOWN) {
+                Integer setting = (Integer) get(key.constant, loader);
+                if (setting != null) {
+                    // the value has to be there before the state says it is set
+                    intValues.set(key.index, setting);
+                }
+                state = setting == null ? KEY_NULL : KEY_SET;
+                intStates.set(key.index, state);
+            }
+            return state == KEY_SET ? intValues.get(key.index) : defaultValue;
+        }
+
+        /**
+         * @param key a typed string setting key
+         * @param loader looks up the raw value for a setting name which is not in this snapshot
+         * @return the setting value or null if it is not set
+         */
+        String getString(StringKey key, Function<String, String> loader) {
+            if (key.index >= stringValues.length()) {
+                // key was created after this snapshot
+                return (String) get(key.constant, loader);
+            }
+            Optional<String> setting = stringValues.get(key.index);
+            if (setting == null) {
+                setting = Optional.ofNullable((String) get(key.constant, loader));
+                stringValues.set(key.index, setting);
+            }
+            return setting.orElse(null);
+        }
+
+        private Object parse(String settingConstant, String value) {
+            String type = SettingsLogicUtils.getType(settingConstant);
+
+            Object setting = NULL_SETTING;
+            if (value == null) {
+                if (booleanSettings.contains(settingConstant)) {
+                    // if this boolean is null then make it false instead
+                    setting = Boolean.FALSE;
+                }
+            } else if (! NULL_VALUE.equals(value)) {
+                if (type.equals("java.lang.Boolean")) {
+                    setting = Boolean.valueOf( value );
+                } else if (type.equals("java.lang.Integer")) {
+                    setting = Integer.valueOf( value );
+                } else if (type.equals("java.lang.Float")) {
+                    setting = Float.valueOf( value );
+                } else {
+                    setting = value;
+                }
+            }
+            return setting;
+        }
+    }
 
 }
@@ -0,0 +1,289 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps a time ordered index of the next date at which each evaluation changes state
+ * (start, due, stop or view date) and calls the handler when that date is reached,
+ * a single background thread sleeps until the earliest date in the index so nothing
+ * has to scan all the evaluations to find the ones which changed state<br/>
+ * The handler returns the next boundary date for the evaluation so it is put back into the index,
+ * if the handler fails then the evaluation is tried again after the retry delay
+ */
+public class EvalStateTransitionScheduler {
+
+    private static final Log LOG = LogFactory.getLog(EvalStateTransitionScheduler.class);
+
+    /**
+     * Handles an evaluation reaching a state boundary date
+     */
+    public interface TransitionHandler {
+        /**
+         * @param evaluationId the id of the evaluation which reached a boundary date
+         * @return the next boundary date for this evaluation OR null if there are no more
+         */
+        public Date handleTransition(Long evaluationId);
+    }
+
+    /**
+     * An entry in the index
+     */
+    private static class Boundary implements Comparable<Boundary> {
+        final long time;
+        final Long evaluationId;
+
+        Boundary(long time, Long evaluationId) {
+            this.time = time;
+            this.evaluationId = evaluationId;
+        }
+
+        public int compareTo(Boundary other) {
+            int c = Long.compare(time, other.time);
+            if (c == 0) {
+                c = evaluationId.compareTo(other.evaluationId);
+            }
+            return c;
+        }
+    }
+
+    /**
+     * The default time to wait before handling an evaluation again when the handler fails
+     */
+    public static final long DEFAULT_RETRY_DELAY = 60l * 1000l;
+
+    private final TransitionHandler handler;
+    private final long retryDelayMillis;
+    private final TreeSet<Boundary> index = new TreeSet<>();
+    private final Map<Long, Boundary> boundaries = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private Thread worker;
+    private volatile boolean running = false;
+
+    /**
+     * @param handler the handler to call when an evaluation reaches a boundary date
+     */
+    public EvalStateTransitionScheduler(TransitionHandler handler) {
+        this(handler, DEFAULT_RETRY_DELAY);
+    }
+
+    /**
+     * @param handler the handler to call when an evaluation reaches a boundary date
+     * @param retryDelayMillis how long to wait before handling an evaluation again when the handler fails
+     */
+    public EvalStateTransitionScheduler(TransitionHandler handler, long retryDelayMillis) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler must be set");
+        }
+        this.handler = handler;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Start the background thread
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "EvalStateTransitionScheduler");
+        worker.setDaemon(true);
+        worker.start();
+        LOG.info("Started evaluation state transition scheduler");
+    }
+
+    /**
+     * Stop the background thread, the index is left as it is
+     */
+    public synchronized void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+    }
+
+    /**
+     * Set (or replace) the next boundary date for an evaluation
+     *
+     * @param evaluationId the id of an evaluation
+     * @param boundary the next date the evaluation changes state, null removes the evaluation from the index
+     */
+    public void schedule(Long evaluationId, Date boundary) {
+        if (evaluationId == null) {
+            throw new IllegalArgumentException("evaluationId must be set");
+        }
+        lock.lock();
+        try {
+            Boundary old = boundary == null ? boundaries.remove(evaluationId)
+                    : boundaries.put(evaluationId, new Boundary(boundary.getTime(), evaluationId));
+            if (old != null) {
+                index.remove(old);
+            }
+            if (boundary != null) {
+                index.add(boundaries.get(evaluationId));
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replace the whole index
+     *
+     * @param evaluationBoundaries map of evaluation id to the next boundary date for that evaluation
+     */
+    public void replaceAll(Map<Long, Date> evaluationBoundaries) {
+        lock.lock();
+        try {
+            index.clear();
+            boundaries.clear();
+            for (Map.Entry<Long, Date> entry : evaluationBoundaries.entrySet()) {
+                if (entry.getValue() != null) {
+                    Boundary boundary = new Boundary(entry.getValue().getTime(), entry.getKey());
+                    boundaries.put(entry.getKey(), boundary);
+                    index.add(boundary);
+                }
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param evaluationId the id of an evaluation
+     * @return the next boundary date for this evaluation OR null if it is not in the index
+     */
+    public Date getBoundary(Long evaluationId) {
+        lock.lock();
+        try {
+            Boundary boundary = boundaries.get(evaluationId);
+            return boundary == null ? null : new Date(boundary.time);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of evaluations in the index
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return index.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the earliest boundary and hands it to the handler
+     */
+    private void run() {
+        while (running) {
+            Boundary due = null;
+            lock.lock();
+            try {
+                if (index.isEmpty()) {
+                    changed.await();
+                } else {
+                    Boundary first = index.first();
+                    long wait = first.time - System.currentTimeMillis();
+                    if (wait > 0) {
+                        changed.await(wait, TimeUnit.MILLISECONDS);
+                    } else {
+                        index.remove(first);
+                        boundaries.remove(first.evaluationId);
+                        due = first;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopping
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                lock.unlock();
+            }
+
+            if (due != null) {
+                try {
+                    Date next = handler.handleTransition(due.evaluationId);
+                    if (next != null && ! next.after(new Date(due.time))) {
+                        LOG.warn("Next boundary ("+next+") for evaluation ("+due.evaluationId+") is not after the current one, ignoring it");
+                        next = null;
+                    }
+                    if (next != null) {
+                        scheduleIfAbsent(due.evaluationId, next.getTime());
+                    }
+                } catch (Exception e) {
+                    // keep it in the index so the state is still fixed (instead of waiting for the index to be rebuilt)
+                    LOG.error("Failure handling the state transition for evaluation ("+due.evaluationId+"), trying again in "
+                            + (retryDelayMillis / 1000) + " seconds: " + e.getMessage(), e);
+                    scheduleIfAbsent(due.evaluationId, System.currentTimeMillis() + retryDelayMillis);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the evaluation to the index only if nothing else scheduled it while the handler was running
+     */
+    private void scheduleIfAbsent(Long evaluationId, long time) {
+        lock.lock();
+        try {
+            if (! boundaries.containsKey(evaluationId)) {
+                Boundary boundary = new Boundary(time, evaluationId);
+                boundaries.put(evaluationId, boundary);
+                index.add(boundary);
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Find the next boundary date after now from the evaluation dates
+     *
+     * @param now the current date
+     * @param dates the state dates for an evaluation (start, due, stop, view), nulls are ignored
+     * @return the earliest of the dates after now OR null if none are after now
+     */
+    public static Date getNextBoundary(Date now, Date... dates) {
+        Date next = null;
+        for (Date date : dates) {
+            if (date != null && date.after(now)
+                    && (next == null || date.before(next))) {
+                next = date;
+            }
+        }
+        return next;
+    }
+
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.logic.model.EvalUser;
+
+/**
+ * Caches resolved {@link EvalUser} objects so the same user is not looked up over and over
+ * (e.g. once per item for the instructor items in a report)<br/>
+ * There are two tiers:
+ * <ul>
+ * <li>a request tier which remembers every user resolved by the current thread (including invalid users),
+ * this is only active between {@link #startRequest()} and {@link #endRequest()}</li>
+ * <li>a shared tier which holds a limited number of valid users for a limited time,
+ * the least recently used users are dropped when it is full</li>
+ * </ul>
+ * <b>NOTE:</b> Invalid users are never put in the shared tier so new users show up right away<br/>
+ * <b>NOTE:</b> {@link EvalUser} is mutable so the cache holds its own copies and every caller gets a new copy,
+ * changes made by a caller never show up for other callers
+ */
+public class EvalUserCache {
+
+    public static final String STAT_REQUEST_HITS = "requestHits";
+    public static final String STAT_SHARED_HITS = "sharedHits";
+    public static final String STAT_MISSES = "misses";
+    public static final String STAT_EXPIRED = "expired";
+    public static final String STAT_EVICTED = "evicted";
+    public static final String STAT_SIZE = "size";
+
+    private final AtomicLong requestHits = new AtomicLong();
+    private final AtomicLong sharedHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    private final ThreadLocal<RequestUsers> requestUsers = new ThreadLocal<>();
+
+    private final Map<String, CachedUser> sharedUsers;
+    private volatile int maxSize;
+    private volatile long timeToLive;
+
+    /**
+     * @param maxSize the maximum number of users to hold in the shared tier (0 disables it)
+     * @param timeToLive the time (in ms) to hold a user in the shared tier
+     */
+    public EvalUserCache(int maxSize, long timeToLive) {
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.sharedUsers = new LinkedHashMap<String, CachedUser>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+                if (size() > EvalUserCache.this.maxSize) {
+                    evicted.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        if (maxSize <= 0) {
+            clear();
+        }
+    }
+
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Start remembering all users resolved by the current thread,
+     * calls can be nested as long as each one is matched by a call to {@link #endRequest()}
+     */
+    public void startRequest() {
+        RequestUsers ru = requestUsers.get();
+        if (ru == null) {
+            ru = new RequestUsers();
+            requestUsers.set(ru);
+        }
+        ru.depth++;
+    }
+
+    /**
+     * Stop remembering the users for the current thread (once the outermost request ends)
+     */
+    public void endRequest() {
+        RequestUsers ru = requestUsers.get();
+        if (ru != null) {
+            ru.depth--;
+            if (ru.depth <= 0) {
+                requestUsers.remove();
+            }
+        }
+    }
+
+    /**
+     * @param userId the internal user id
+     * @return the cached user OR null if the user is not cached
+     */
+    public EvalUser get(String userId) {
+        if (userId == null) {
+            return null;
+        }
+        RequestUsers ru = requestUsers.get();
+        if (ru != null) {
+            EvalUser user = ru.users.get(userId);
+            if (user != null) {
+                requestHits.incrementAndGet();
+                return copy(user);
+            }
+        }
+        EvalUser user = null;
+        if (maxSize > 0) {
+            synchronized (sharedUsers) {
+                CachedUser cached = sharedUsers.get(userId);
+                if (cached != null) {
+                    if (cached.expires > System.currentTimeMillis()) {
+                        user = cached.user;
+                    } else {
+                        sharedUsers.remove(userId);
+                        expired.incrementAndGet();
+                    }
+                }
+            }
+        }
+        if (user == null) {
+            misses.incrementAndGet();
+        } else {
+            sharedHits.incrementAndGet();
+            if (ru != null) {
+                ru.users.put(userId, user);
+            }
+            user = copy(user);
+        }
+        return user;
+    }
+
+    /**
+     * Cache a resolved user, invalid users are only remembered for the current request
+     *
+     * @param user the resolved user
+     */
+    public void put(EvalUser user) {
+        if (user == null || user.userId == null) {
+            return;
+        }
+        user = copy(user);
+        RequestUsers ru = requestUsers.get();
+        if (ru != null) {
+            ru.users.put(user.userId, user);
+        }
+        if (maxSize > 0 && ! EvalConstants.USER_TYPE_INVALID.equals(user.type)) {
+            CachedUser cached = new CachedUser(user, System.currentTimeMillis() + timeToLive);
+            synchronized (sharedUsers) {
+                sharedUsers.put(user.userId, cached);
+            }
+        }
+    }
+
+    /**
+     * Remove a user from the cache (e.g. because the user was changed)
+     *
+     * @param userId the internal user id
+     */
+    public void remove(String userId) {
+        RequestUsers ru = requestUsers.get();
+        if (ru != null) {
+            ru.users.remove(userId);
+        }
+        synchronized (sharedUsers) {
+            sharedUsers.remove(userId);
+        }
+    }
+
+    /**
+     * Remove all users from the shared tier and the request tier of the current thread
+     */
+    public void clear() {
+        RequestUsers ru = requestUsers.get();
+        if (ru != null) {
+            ru.users.clear();
+        }
+        synchronized (sharedUsers) {
+            sharedUsers.clear();
+        }
+    }
+
+    /**
+     * @return the hit/miss counts (see the STAT_* constants) and the current size of the shared tier
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put(STAT_REQUEST_HITS, requestHits.get());
+        stats.put(STAT_SHARED_HITS, sharedHits.get());
+        stats.put(STAT_MISSES, misses.get());
+        stats.put(STAT_EXPIRED, expired.get());
+        stats.put(STAT_EVICTED, evicted.get());
+        synchronized (sharedUsers) {
+            stats.put(STAT_SIZE, (long) sharedUsers.size());
+        }
+        return stats;
+    }
+
+    /**
+     * @param user a user
+     * @return a new user with the same values
+     */
+    private static EvalUser copy(EvalUser user) {
+        EvalUser copy = new EvalUser();
+        copy.userId = user.userId;
+        copy.username = user.username;
+        copy.email = user.email;
+        copy.displayName = user.displayName;
+        copy.displayId = user.displayId;
+        copy.sortName = user.sortName;
+        copy.type = user.type;
+        return copy;
+    }
+
+    private static class RequestUsers {
+        final Map<String, EvalUser> users = new HashMap<>();
+        int depth = 0;
+    }
+
+    private static class CachedUser {
+        final EvalUser user;
+        final long expires;
+        CachedUser(EvalUser user, long expires) {
+            this.user = user;
+            this.expires = expires;
+        }
+    }
+
+}
@@ -58,6 +58,11 @@ import org.sakaiproject.evaluation.utils.EvalUtils;
  */
 public class ReportingPermissionsImpl implements ReportingPermissions {
 
+    // settings which are read for every report permission check
+    private static final EvalSettings.BooleanKey VIEW_SURVEY_RESULTS_IGNORE_DATES = new EvalSettings.BooleanKey(EvalSettings.VIEW_SURVEY_RESULTS_IGNORE_DATES);
+    private static final EvalSettings.BooleanKey INSTRUCTOR_ALLOWED_VIEW_RESULTS = new EvalSettings.BooleanKey(EvalSettings.INSTRUCTOR_ALLOWED_VIEW_RESULTS);
+    private static final EvalSettings.BooleanKey STUDENT_ALLOWED_VIEW_RESULTS = new EvalSettings.BooleanKey(EvalSettings.STUDENT_ALLOWED_VIEW_RESULTS);
+
     private EvaluationDao dao;
     public void setDao(EvaluationDao dao) {
         this.dao = dao;
@@ -264,19 +269,19 @@ public class ReportingPermissionsImpl implements ReportingPermissions {
             typeToEvalGroupId.get(type).add(eau.getEvalGroupId());
         }
 
-        Boolean viewSurveyResultsIgnoreDates = (Boolean) evalSettings.get(EvalSettings.VIEW_SURVEY_RESULTS_IGNORE_DATES);
+        boolean viewSurveyResultsIgnoreDates = evalSettings.getBoolean(VIEW_SURVEY_RESULTS_IGNORE_DATES, false);
         
         boolean allowedInstructor = false;
         if ( typeToEvalGroupId.containsKey(EvalAssignUser.TYPE_EVALUATEE) ) {
-            Boolean instructorAllowedViewResults = (Boolean) evalSettings.get(EvalSettings.INSTRUCTOR_ALLOWED_VIEW_RESULTS);
-            if (instructorAllowedViewResults == null || instructorAllowedViewResults) {
+            // not set means it is configured per evaluation
+            if (evalSettings.getBoolean(INSTRUCTOR_ALLOWED_VIEW_RESULTS, true)) {
                 boolean instructorViewResults = eval.getInstructorViewResults();
                 boolean instructorViewAllResults = eval.getInstructorViewAllResults();
                 if ((instructorViewResults && (userId.equals(eval.getOwner()) || isUserAdmin)) || instructorViewAllResults) {
                     Date checkDate = eval.getInstructorsDate();
                     if ( (checkDate == null && EvalUtils.checkStateAfter(eval.getState(), EvalConstants.EVALUATION_STATE_VIEWABLE, true))
                             || (checkDate != null && (new Date()).after(checkDate)) 
-                            || (viewSurveyResultsIgnoreDates != null && viewSurveyResultsIgnoreDates)) {
+                            || viewSurveyResultsIgnoreDates) {
                         // user is allowed to view based on state and settings so check the groups below
                         allowedInstructor = true;
                     }
@@ -293,13 +298,13 @@ public class ReportingPermissionsImpl implements ReportingPermissions {
 
         boolean allowedStudent = false;
         if ( typeToEvalGroupId.containsKey(EvalAssignUser.TYPE_EVALUATOR) ) {
-            Boolean studentAllowedViewResults = (Boolean) evalSettings.get(EvalSettings.STUDENT_ALLOWED_VIEW_RESULTS);
-            if (studentAllowedViewResults == null || studentAllowedViewResults) {
+            // not set means it is configured per evaluation
+            if (evalSettings.getBoolean(STUDENT_ALLOWED_VIEW_RESULTS, true)) {
                 if (eval.getStudentViewResults()) {
                     Date checkDate = eval.getStudentsDate();
                     if ( (checkDate == null && EvalUtils.checkStateAfter(eval.getState(), EvalConstants.EVALUATION_STATE_VIEWABLE, true))
                             || (checkDate != null && (new Date()).after(checkDate)) 
-                            || (viewSurveyResultsIgnoreDates != null && viewSurveyResultsIgnoreDates)) {
+                            || viewSurveyResultsIgnoreDates) {
                         // user is allowed to view based on state and settings so check the groups below
                         allowedStudent = true;
                     }
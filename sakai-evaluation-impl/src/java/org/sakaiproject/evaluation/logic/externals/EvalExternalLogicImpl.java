@@ -507,6 +507,21 @@ public class EvalExternalLogicImpl implements EvalExternalLogic {
         return new ResourceLoader().getLocale();
     }
 
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.externals.ExternalUsers#getUserLocales(java.lang.String[])
+     */
+    public Map<String, Locale> getUserLocales(String[] userIds) {
+        Map<String, Locale> locales = new HashMap<>();
+        if (userIds != null && userIds.length > 0) {
+            // only the locale for the current user is available (see getUserLocale) so look it up once
+            Locale locale = getUserLocale(userIds[0]);
+            for (String userId : userIds) {
+                locales.put(userId, locale);
+            }
+        }
+        return locales;
+    }
+
     /* (non-Javadoc)
      * @see org.sakaiproject.evaluation.logic.externals.ExternalEvalGroups#makeEvalGroupObjectsForSectionAwareness(java.lang.String)
      */
@@ -908,6 +923,90 @@ public class EvalExternalLogicImpl implements EvalExternalLogic {
         return userIDs;
     }
 
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.externals.ExternalEvalGroups#getUserIdsForEvalGroups(java.lang.String[], java.lang.String[], java.lang.Boolean)
+     */
+    public Map<String, Map<String, Set<String>>> getUserIdsForEvalGroups( String[] evalGroupIDs, String[] permissions, Boolean sectionAware )
+    {
+        if( evalGroupIDs == null || permissions == null )
+        {
+            throw new IllegalArgumentException( "evalGroupIDs and permissions must be set" );
+        }
+        Map<String, Map<String, Set<String>>> results = new HashMap<>( permissions.length );
+        for( String permission : permissions )
+        {
+            Map<String, Set<String>> groupUserIDs = new HashMap<>( evalGroupIDs.length );
+            for( String evalGroupID : evalGroupIDs )
+            {
+                groupUserIDs.put( evalGroupID, new HashSet<>() );
+            }
+            results.put( permission, groupUserIDs );
+        }
+        if( evalGroupIDs.length == 0 )
+        {
+            return results;
+        }
+
+        if( BooleanUtils.isFalse(sectionAware) )
+        {
+            // Map the realms back to the eval groups (several eval groups can share the same realm)
+            Map<String, List<String>> azGroupToEvalGroupIDs = new HashMap<>();
+            for( String evalGroupID : evalGroupIDs )
+            {
+                ParsedEvalGroupID groupID = new ParsedEvalGroupID( evalGroupID );
+                String azGroup = EvalConstants.GROUP_ID_SITE_PREFIX + groupID.getSiteID();
+                if( groupID.hasGroup() )
+                {
+                    azGroup += EvalConstants.GROUP_ID_GROUP_PREFIX + groupID.getGroupID();
+                }
+                List<String> mapped = azGroupToEvalGroupIDs.get( azGroup );
+                if( mapped == null )
+                {
+                    mapped = new ArrayList<>( 1 );
+                    azGroupToEvalGroupIDs.put( azGroup, mapped );
+                }
+                mapped.add( evalGroupID );
+            }
+
+            // One realm query per permission for all the groups
+            for( String permission : permissions )
+            {
+                Map<String, Set<String>> groupUserIDs = results.get( permission );
+                Set<String[]> userGroupPairs = authzGroupService.getUsersIsAllowedByGroup( permission, azGroupToEvalGroupIDs.keySet() );
+                for( String[] userGroupPair : userGroupPairs )
+                {
+                    String userID = userGroupPair[0];
+                    if( ADMIN_USER_ID.equals( userID ) )
+                    {
+                        continue;
+                    }
+                    List<String> mapped = azGroupToEvalGroupIDs.get( userGroupPair[1] );
+                    if( mapped != null )
+                    {
+                        for( String evalGroupID : mapped )
+                        {
+                            groupUserIDs.get( evalGroupID ).add( userID );
+                        }
+                    }
+                }
+            }
+        }
+        else
+        {
+            // Section membership comes from course management so it has to be done one group at a time
+            for( String permission : permissions )
+            {
+                Map<String, Set<String>> groupUserIDs = results.get( permission );
+                for( String evalGroupID : evalGroupIDs )
+                {
+                    groupUserIDs.get( evalGroupID ).addAll( getUserIdsForEvalGroup( evalGroupID, permission, sectionAware ) );
+                }
+            }
+        }
+
+        return results;
+    }
+
     /* (non-Javadoc)
      * @see org.sakaiproject.evaluation.logic.EvalExternalLogic#isUserAllowedInEvalGroup(java.lang.String, java.lang.String, java.lang.String)
      */
@@ -1527,6 +1626,27 @@ public class EvalExternalLogicImpl implements EvalExternalLogic {
      * @see org.sakaiproject.evaluation.logic.externals.ExternalUsers#getMyWorkspaceDashboard(java.lang.String)
      */
     public String getMyWorkspaceDashboard(String userId) {
+        return makeMyWorkspaceDashboard(userId, getServerUrl());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.externals.ExternalUsers#getMyWorkspaceDashboards(java.lang.String[])
+     */
+    public Map<String, String> getMyWorkspaceDashboards(String[] userIds) {
+        Map<String, String> dashboards = new HashMap<>();
+        if (userIds != null) {
+            String serverUrl = getServerUrl();
+            for (String userId : userIds) {
+                if (! dashboards.containsKey(userId)) {
+                    dashboards.put(userId, makeMyWorkspaceDashboard(userId, serverUrl));
+                }
+            }
+        }
+        return dashboards;
+    }
+
+    private String makeMyWorkspaceDashboard(String userId, String serverUrl) {
         String url = null;
         try {
             String toolPage = null;
@@ -1555,14 +1675,14 @@ public class EvalExternalLogicImpl implements EvalExternalLogic {
                 }
                 if(toolPage != null && ! toolPage.trim().equals("")) {
                     // e.g., https://testctools.ds.itd.umich.edu/portal/site/~37d8035e-54b3-425c-bcb5-961e881d2afe/page/866dd4e6-0323-43a1-807c-9522bb3167b7
-                    url = getServerUrl() + EvalConstants.GROUP_ID_SITE_PREFIX + myWorkspaceId + "/page/" + toolPage;
+                    url = serverUrl + EvalConstants.GROUP_ID_SITE_PREFIX + myWorkspaceId + "/page/" + toolPage;
                 }
             }
         } catch (Exception e) {
             LOG.warn("getMyWorkspaceUrl(String userId) '" + userId + "' " + e);
         }
         if(url == null) {
-            url = getServerUrl();
+            url = serverUrl;
         }
         return url;
     }
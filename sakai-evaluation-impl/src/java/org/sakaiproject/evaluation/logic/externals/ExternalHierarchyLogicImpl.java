@@ -22,8 +22,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.coursemanagement.api.CourseManagementService;
@@ -31,6 +31,7 @@ import org.sakaiproject.coursemanagement.api.Section;
 import org.sakaiproject.authz.api.AuthzGroupService;
 import org.sakaiproject.coursemanagement.api.exception.IdNotFoundException;
 import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.dao.EvalHierarchyRuleSupport;
 import org.sakaiproject.evaluation.dao.EvaluationDao;
 import org.sakaiproject.evaluation.logic.model.EvalHierarchyNode;
 import org.sakaiproject.evaluation.logic.model.HierarchyNodeRule;
@@ -92,6 +93,34 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
         this.authzGroupService = authzGroupService;
     }
 
+    private EvalHierarchyRuleSupport evalHierarchyRuleLogic;
+    public void setEvalHierarchyRuleLogic( EvalHierarchyRuleSupport evalHierarchyRuleLogic ) {
+        this.evalHierarchyRuleLogic = evalHierarchyRuleLogic;
+    }
+
+    private long ruleRefreshInterval = 5 * 60 * 1000;
+    /**
+     * @param ruleRefreshInterval the max time (in ms) to use the compiled hierarchy rules before reloading them,
+     * rule changes on this server are picked up right away but changes on other servers are only seen after this
+     */
+    public void setRuleRefreshInterval( long ruleRefreshInterval ) {
+        this.ruleRefreshInterval = ruleRefreshInterval;
+    }
+
+    private long ruleNodesCacheTime = 10 * 60 * 1000;
+    /**
+     * @param ruleNodesCacheTime the time (in ms) to cache the rule based nodes for an eval group
+     */
+    public void setRuleNodesCacheTime( long ruleNodesCacheTime ) {
+        this.ruleNodesCacheTime = ruleNodesCacheTime;
+    }
+
+    private static final int MAX_CACHED_RULE_GROUPS = 50000;
+
+    private final Object compiledRulesLock = new Object();
+    private volatile CompiledRules compiledRules;
+    private final Map<String, CachedRuleNodes> ruleNodesCache = new ConcurrentHashMap<>();
+
     public static final String HIERARCHY_ID = "evaluationHierarchyId";
     public static final String HIERARCHY_ROOT_TITLE = "Root";
 
@@ -590,7 +619,32 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
 
         // Support for resolving eval groups based on hierarchy node rules
         // Hierarchy rules should be obeyed regardless of if an external provider is present or not (supplemental)
-        String nodeID = "";
+        hierarchyNodes.addAll( getRuleNodesAboveEvalGroup( evalGroupId ) );
+        return hierarchyNodes;
+    }
+
+    /**
+     * Find the nodes above an eval group based on the hierarchy node rules,
+     * the results are cached per group until the rules change or the cache time runs out
+     * 
+     * @param evalGroupId the unique id of an eval group
+     * @return the list of nodes (root first) from the last matching rule, empty if no rules match
+     */
+    private List<EvalHierarchyNode> getRuleNodesAboveEvalGroup( String evalGroupId )
+    {
+        CompiledRules rules = getCompiledRules();
+        if( rules.matcher.size() == 0 )
+        {
+            return new ArrayList<>();
+        }
+
+        long now = System.currentTimeMillis();
+        CachedRuleNodes cached = ruleNodesCache.get( evalGroupId );
+        if( cached != null && cached.rules == rules && cached.expires > now )
+        {
+            return new ArrayList<>( cached.nodes );
+        }
+
         String siteID = evalGroupId.replace( EvalConstants.GROUP_ID_SITE_PREFIX, "" );
         boolean isGroupIDSectionBased = false;
         if( evalGroupId.contains( EvalConstants.GROUP_ID_SECTION_PREFIX ) )
@@ -599,82 +653,127 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
             isGroupIDSectionBased = true;
         }
 
+        Long nodeID = null;
+        boolean cacheable = true;
         try
         {
             Site site = siteService.getSite( siteID );
-            List<HierarchyNodeRule> rules = externalLogic.getAllRules();
-            Map<String, Set<String>> realmSectionIDs = new HashMap<>();
-            for( HierarchyNodeRule rule : rules )
-            {
-                String rawRuleText = removeQualifierFromRuleText( rule.getRule() );
-                String qualifier = determineQualifierFromRuleText( rule.getRule() );
-
-                // If the rule is section based and so is the group ID...
-                if( EvalConstants.HIERARCHY_RULE_SECTION.equals( rule.getOption() ) && isGroupIDSectionBased )
-                {
-                    // Get the sections of the site, if necessary
-                    String realmID = siteService.siteReference( site.getId() );
-                    if( !realmSectionIDs.containsKey( realmID ) )
-                    {
-                        realmSectionIDs.put( realmID, authzGroupService.getProviderIds( realmID ) );
-                    }
-
-                    for( String sectionID : realmSectionIDs.get( realmID ) )
-                    {
-                        Section section = courseManagementService.getSection( sectionID );
-                        if( siteOrSectionTitleSatisfiesRule( section.getTitle(), qualifier, rawRuleText ) )
-                        {
-                            nodeID = rule.getNodeID().toString();
-                        }
-                    }
-                }
 
-                // Otherwise it's a site based rule...
-                else
+            // Only look up the section titles if there are section rules which could use them
+            List<String> sectionTitles = null;
+            if( isGroupIDSectionBased && rules.matcher.hasSectionRules() )
+            {
+                sectionTitles = new ArrayList<>();
+                String realmID = siteService.siteReference( site.getId() );
+                for( String sectionID : authzGroupService.getProviderIds( realmID ) )
                 {
-                    if( siteOrSectionTitleSatisfiesRule( site.getTitle(), qualifier, rawRuleText ) )
-                    {
-                        nodeID = rule.getNodeID().toString();
-                    }
+                    Section section = courseManagementService.getSection( sectionID );
+                    sectionTitles.add( section.getTitle() );
                 }
             }
+
+            nodeID = rules.matcher.findNodeId( site.getTitle(), sectionTitles, isGroupIDSectionBased );
         }
         catch ( IdUnusedException ex ) { LOG.debug("IdUnusedException looking up site ID", ex); }
-        catch ( IdNotFoundException ex ) { LOG.warn( "Could not find site or section by ID", ex ); }
+        catch ( IdNotFoundException ex ) { LOG.warn( "Could not find site or section by ID", ex ); cacheable = false; }
 
-        if (StringUtils.isNotBlank(nodeID)) {
-            HierarchyNode currentNode = hierarchyService.getNodeById(nodeID);
-            Set<HierarchyNode> parents = hierarchyService.getParentNodes(nodeID, false);
+        List<EvalHierarchyNode> nodes = new ArrayList<>();
+        if (nodeID != null) {
+            HierarchyNode currentNode = hierarchyService.getNodeById(nodeID.toString());
+            Set<HierarchyNode> parents = hierarchyService.getParentNodes(nodeID.toString(), false);
             parents.add(currentNode);
             List<HierarchyNode> sorted = HierarchyUtils.getSortedNodes(parents);
             // now convert the nodes to eval nodes
             for (HierarchyNode node : sorted) {
-                hierarchyNodes.add( makeEvalNode(node) );
+                nodes.add( makeEvalNode(node) );
             }
         }
 
-        return hierarchyNodes;
+        if( cacheable )
+        {
+            if( ruleNodesCache.size() >= MAX_CACHED_RULE_GROUPS )
+            {
+                ruleNodesCache.clear();
+            }
+            ruleNodesCache.put( evalGroupId, new CachedRuleNodes( rules, nodes, now + ruleNodesCacheTime ) );
+        }
+        return new ArrayList<>( nodes );
     }
 
     /**
-     * Utility method to determine if a site or section title satisfies a given rule's
-     * qualifier and rule text.
+     * Get the compiled hierarchy rules, they are rebuilt when the rules are changed on this server
+     * and also after the refresh interval so changes made on other servers are picked up
      * 
-     * @param siteOrSectionTitle the site or section title to compare
-     * @param ruleQualifier the qualifier of the rule (is, starts with, ends with or contains)
-     * @param ruleText the actual text of the rule to be obeyed
-     * @return true if the site or section title satisfies the rule; false otherwise
+     * @return the current compiled rules
      */
-    private boolean siteOrSectionTitleSatisfiesRule( String siteOrSectionTitle, String ruleQualifier, String ruleText )
+    private CompiledRules getCompiledRules()
     {
-        // If the qualifier is 'contains' and the title contains the raw rule text, OR
-        // the qualifier is 'ends with' and the title ends with the raw rule text, OR
-        // the qualifier is 'starts with' and the title starts with the raw rule text, OR
-        // the qualifier is 'is' and the title equals the raw rule text, grab the node ID of the rule
-        return (EvalConstants.HIERARCHY_QUALIFIER_CONTAINS.equals( ruleQualifier ) && siteOrSectionTitle.contains( ruleText ))
-                            || (EvalConstants.HIERARCHY_QUALIFIER_ENDS_WITH.equals( ruleQualifier ) && siteOrSectionTitle.endsWith( ruleText ))
-                            || (EvalConstants.HIERARCHY_QUALIFIER_STARTS_WITH.equals( ruleQualifier) && siteOrSectionTitle.startsWith( ruleText ))
-                            || (EvalConstants.HIERARCHY_QUALIFIER_IS.equals( ruleQualifier ) && siteOrSectionTitle.equals( ruleText ));
+        long version = evalHierarchyRuleLogic == null ? 0l : evalHierarchyRuleLogic.getRulesVersion();
+        CompiledRules current = compiledRules;
+        if( current != null && current.version == version && current.refreshTime > System.currentTimeMillis() )
+        {
+            return current;
+        }
+
+        synchronized( compiledRulesLock )
+        {
+            current = compiledRules;
+            if( current != null && current.version == version && current.refreshTime > System.currentTimeMillis() )
+            {
+                return current;
+            }
+
+            HierarchyRuleMatcher matcher = new HierarchyRuleMatcher();
+            for( HierarchyNodeRule rule : externalLogic.getAllRules() )
+            {
+                if( rule.getRule() == null || rule.getNodeID() == null )
+                {
+                    LOG.warn( "Skipping invalid hierarchy rule (" + rule.getId() + "), rule text and node id must be set" );
+                    continue;
+                }
+                matcher.addRule( determineQualifierFromRuleText( rule.getRule() ), removeQualifierFromRuleText( rule.getRule() ),
+                        rule.getOption(), rule.getNodeID() );
+            }
+            current = new CompiledRules( matcher.compile(), version, System.currentTimeMillis() + ruleRefreshInterval );
+            compiledRules = current;
+            ruleNodesCache.clear();
+            LOG.debug( "Compiled " + matcher.size() + " hierarchy rules (version " + version + ")" );
+            return current;
+        }
+    }
+
+    /**
+     * Holds the compiled hierarchy rules and the rules version they were built from
+     */
+    private static class CompiledRules
+    {
+        final HierarchyRuleMatcher matcher;
+        final long version;
+        final long refreshTime;
+
+        CompiledRules( HierarchyRuleMatcher matcher, long version, long refreshTime )
+        {
+            this.matcher = matcher;
+            this.version = version;
+            this.refreshTime = refreshTime;
+        }
+    }
+
+    /**
+     * Holds the rule based nodes for a group, only valid for the compiled rules they were found with
+     */
+    private static class CachedRuleNodes
+    {
+        final CompiledRules rules;
+        final List<EvalHierarchyNode> nodes;
+        final long expires;
+
+        CachedRuleNodes( CompiledRules rules, List<EvalHierarchyNode> nodes, long expires )
+        {
+            this.rules = rules;
+            this.nodes = nodes;
+            this.expires = expires;
+        }
     }
 
     /* (non-Javadoc)
@@ -0,0 +1,250 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic.externals;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.sakaiproject.evaluation.constant.EvalConstants;
+
+/**
+ * Compiled form of the hierarchy node rules which can match a site or section title against all
+ * the rules at once instead of checking the rules one at a time<br/>
+ * The rules are indexed by qualifier: a hash map for "is", a trie for "starts with",
+ * a trie of the reversed rule text for "ends with" and an Aho-Corasick automaton for "contains"<br/>
+ * When more than one rule matches the rule which was added last wins (same as checking the rules in order
+ * and keeping the last match), add all the rules with {@link #addRule(String, String, String, Long)}
+ * and then call {@link #compile()} before matching, a compiled matcher is safe to share between threads
+ */
+public class HierarchyRuleMatcher {
+
+    /**
+     * A node in the tries and the Aho-Corasick automaton
+     */
+    private static class TrieNode {
+        final Map<Character, TrieNode> children = new HashMap<>(4);
+        TrieNode fail;
+        /** the highest rule index ending at this node (or found through the fail links for contains) */
+        int best = -1;
+
+        TrieNode child(char c) {
+            TrieNode node = children.get(c);
+            if (node == null) {
+                node = new TrieNode();
+                children.put(c, node);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * All the rules for one rule option (site or section titles)
+     */
+    private static class TitleIndex {
+        final Map<String, Integer> exact = new HashMap<>();
+        final TrieNode prefixes = new TrieNode();
+        final TrieNode suffixes = new TrieNode();
+        final TrieNode contains = new TrieNode();
+        int size = 0;
+
+        void add(String qualifier, String text, int index) {
+            TrieNode node;
+            if (EvalConstants.HIERARCHY_QUALIFIER_IS.equals(qualifier)) {
+                Integer current = exact.get(text);
+                exact.put(text, current == null ? index : Math.max(current, index));
+            } else if (EvalConstants.HIERARCHY_QUALIFIER_STARTS_WITH.equals(qualifier)) {
+                node = prefixes;
+                for (int i = 0; i < text.length(); i++) {
+                    node = node.child(text.charAt(i));
+                }
+                node.best = Math.max(node.best, index);
+            } else if (EvalConstants.HIERARCHY_QUALIFIER_ENDS_WITH.equals(qualifier)) {
+                node = suffixes;
+                for (int i = text.length() - 1; i >= 0; i--) {
+                    node = node.child(text.charAt(i));
+                }
+                node.best = Math.max(node.best, index);
+            } else if (EvalConstants.HIERARCHY_QUALIFIER_CONTAINS.equals(qualifier)) {
+                node = contains;
+                for (int i = 0; i < text.length(); i++) {
+                    node = node.child(text.charAt(i));
+                }
+                node.best = Math.max(node.best, index);
+            } else {
+                // unknown qualifiers never match anything
+                return;
+            }
+            size++;
+        }
+
+        /**
+         * Builds the Aho-Corasick fail links (breadth first) and pushes the best match down them
+         */
+        void compile() {
+            Queue<TrieNode> queue = new ArrayDeque<>();
+            for (TrieNode child : contains.children.values()) {
+                child.fail = contains;
+                child.best = Math.max(child.best, contains.best);
+                queue.add(child);
+            }
+            while (! queue.isEmpty()) {
+                TrieNode node = queue.remove();
+                for (Map.Entry<Character, TrieNode> entry : node.children.entrySet()) {
+                    char c = entry.getKey();
+                    TrieNode child = entry.getValue();
+                    TrieNode fail = node.fail;
+                    while (fail != null && ! fail.children.containsKey(c)) {
+                        fail = fail.fail;
+                    }
+                    child.fail = fail == null ? contains : fail.children.get(c);
+                    child.best = Math.max(child.best, child.fail.best);
+                    queue.add(child);
+                }
+            }
+        }
+
+        /**
+         * @return the highest index of a rule matching this title or -1 if none match
+         */
+        int match(String title) {
+            if (size == 0 || title == null) {
+                return -1;
+            }
+            int best = -1;
+            Integer exactMatch = exact.get(title);
+            if (exactMatch != null) {
+                best = exactMatch;
+            }
+            int length = title.length();
+            // starts with
+            TrieNode node = prefixes;
+            best = Math.max(best, node.best);
+            for (int i = 0; i < length && node != null; i++) {
+                node = node.children.get(title.charAt(i));
+                if (node != null) {
+                    best = Math.max(best, node.best);
+                }
+            }
+            // ends with
+            node = suffixes;
+            best = Math.max(best, node.best);
+            for (int i = length - 1; i >= 0 && node != null; i--) {
+                node = node.children.get(title.charAt(i));
+                if (node != null) {
+                    best = Math.max(best, node.best);
+                }
+            }
+            // contains
+            node = contains;
+            best = Math.max(best, node.best);
+            for (int i = 0; i < length; i++) {
+                char c = title.charAt(i);
+                while (node != contains && ! node.children.containsKey(c)) {
+                    node = node.fail;
+                }
+                TrieNode next = node.children.get(c);
+                node = next == null ? contains : next;
+                best = Math.max(best, node.best);
+            }
+            return best;
+        }
+    }
+
+    private final TitleIndex siteRules = new TitleIndex();
+    private final TitleIndex sectionRules = new TitleIndex();
+    private final List<Long> nodeIds = new ArrayList<>();
+    private boolean compiled = false;
+
+    /**
+     * Add a rule, rules must be added in the same order they would be checked in
+     *
+     * @param qualifier the rule qualifier (one of the EvalConstants.HIERARCHY_QUALIFIER_* constants)
+     * @param ruleText the rule text without the qualifier
+     * @param option the rule option ({@link EvalConstants#HIERARCHY_RULE_SECTION} for section titles, otherwise site titles)
+     * @param nodeId the id of the node the rule belongs to
+     */
+    public void addRule(String qualifier, String ruleText, String option, Long nodeId) {
+        if (compiled) {
+            throw new IllegalStateException("Cannot add rules after the matcher is compiled");
+        }
+        if (ruleText == null || nodeId == null) {
+            throw new IllegalArgumentException("ruleText and nodeId must be set");
+        }
+        int index = nodeIds.size();
+        nodeIds.add(nodeId);
+        if (EvalConstants.HIERARCHY_RULE_SECTION.equals(option)) {
+            sectionRules.add(qualifier, ruleText, index);
+        } else {
+            siteRules.add(qualifier, ruleText, index);
+        }
+    }
+
+    /**
+     * Finish adding rules, this must be called before matching
+     * @return this matcher
+     */
+    public HierarchyRuleMatcher compile() {
+        siteRules.compile();
+        sectionRules.compile();
+        compiled = true;
+        return this;
+    }
+
+    /**
+     * @return true if there are any rules which match on section titles
+     */
+    public boolean hasSectionRules() {
+        return sectionRules.size > 0;
+    }
+
+    /**
+     * @return the number of rules in this matcher
+     */
+    public int size() {
+        return nodeIds.size();
+    }
+
+    /**
+     * Find the node for a group based on the rules, section rules are matched against the section titles
+     * when the group is section based and against the site title otherwise (site rules always use the site title)
+     *
+     * @param siteTitle the title of the site for the group
+     * @param sectionTitles the titles of the sections in the site (only used if the group is section based)
+     * @param sectionBased true if the group is a section of the site
+     * @return the node id of the winning (last added) matching rule OR null if no rules match
+     */
+    public Long findNodeId(String siteTitle, Collection<String> sectionTitles, boolean sectionBased) {
+        if (! compiled) {
+            throw new IllegalStateException("The matcher must be compiled before it can be used");
+        }
+        int best = siteRules.match(siteTitle);
+        if (sectionBased) {
+            if (sectionTitles != null) {
+                for (String sectionTitle : sectionTitles) {
+                    best = Math.max(best, sectionRules.match(sectionTitle));
+                }
+            }
+        } else {
+            best = Math.max(best, sectionRules.match(siteTitle));
+        }
+        return best < 0 ? null : nodeIds.get(best);
+    }
+
+}
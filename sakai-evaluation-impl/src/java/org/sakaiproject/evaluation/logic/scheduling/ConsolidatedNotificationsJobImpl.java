@@ -41,7 +41,7 @@ import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
 public class ConsolidatedNotificationsJobImpl implements ConsolidatedNotificationsJob {
 	
 	public static final String LOCK_CONSOLIDATED_EMAIL_JOB = "LOCK_CONSOLIDATED_EMAIL_JOB";
-	private static final long TWO_HOURS = 2L * 60L * 60L * 1000L;
+	private static final long LEASE_PERIOD = 5L * 60L * 1000L;
 
 	private static final Log LOG = LogFactory.getLog(ConsolidatedNotificationsJobImpl.class);
 	
@@ -101,8 +101,9 @@ public class ConsolidatedNotificationsJobImpl implements ConsolidatedNotificatio
 		
 		// this server must get lock to do this job
 		String serverId = this.externalLogic.getServerId();
-		Boolean gotLock = lockManager.obtainLock(LOCK_CONSOLIDATED_EMAIL_JOB, serverId, TWO_HOURS);
-		if(gotLock != null && gotLock) {
+		// the lease is renewed while the job runs so it only blocks other servers for a few minutes if this one dies
+		Long lockToken = lockManager.obtainLease(LOCK_CONSOLIDATED_EMAIL_JOB, serverId, LEASE_PERIOD);
+		if(lockToken != null && lockToken > 0) {
 			try {
 				
 				Date beginTime = new Date();
@@ -150,6 +151,10 @@ public class ConsolidatedNotificationsJobImpl implements ConsolidatedNotificatio
 					long rdate = nextReminder.getTime();
 					long tdate = System.currentTimeMillis();
 					if (tdate >= (rdate - 6L * one_hour)) {
+						if (! lockManager.checkLease(LOCK_CONSOLIDATED_EMAIL_JOB, serverId, lockToken)) {
+							LOG.warn("Lost the lock for the consolidated email job, another server will send the reminders");
+							return;
+						}
 						
 		
 						String[] recipients = this.emailLogic.sendConsolidatedReminderNotifications(jobStatusReporter, jobId);
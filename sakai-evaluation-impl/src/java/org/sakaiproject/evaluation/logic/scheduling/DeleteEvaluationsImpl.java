@@ -34,6 +34,9 @@ import org.sakaiproject.evaluation.model.EvalEvaluation;
 public class DeleteEvaluationsImpl implements DeleteEvaluations {
 	
 	private static final Log LOG = LogFactory.getLog(DeleteEvaluations.class);
+
+	public static final String LOCK_DELETE_EVALUATIONS = "LOCK_DELETE_EVALUATIONS_";
+	private static final long LEASE_PERIOD = 5L * 60L * 1000L;
 	
     private EvalEvaluationService evaluationService;
     public void setEvaluationService(EvalEvaluationService evaluationService) {
@@ -66,12 +69,28 @@ public class DeleteEvaluationsImpl implements DeleteEvaluations {
 	public void execute(JobExecutionContext context) throws JobExecutionException {
 		LOG.debug("DeleteEvaluations.execute()");
         String termId = context.getMergedJobDataMap().getString("term.id");
-        List<EvalEvaluation> evaluations = evaluationService.getEvaluationsByTermId(termId);
-        LOG.info("Found "+ evaluations.size() + " evaluations to delete matching " + termId);
-        for (EvalEvaluation evaluation: evaluations) {
-        	//Set admin as the id, I don't think there's any way to get this from the job scheduler
-        	LOG.info("Deleting evaluation id " + evaluation.getId());
-        	evaluationSetupService.deleteEvaluation(evaluation.getId(), "admin");
+        // only one server should delete the evaluations for a term
+        String lockId = LOCK_DELETE_EVALUATIONS + termId;
+        String serverId = externalLogic.getServerId();
+        Long lockToken = lockManager.obtainLease(lockId, serverId, LEASE_PERIOD);
+        if (lockToken == null || lockToken <= 0) {
+            LOG.info("Evaluations for " + termId + " are already being deleted by " + lockManager.getLockHolder(lockId, LEASE_PERIOD));
+            return;
+        }
+        try {
+            List<EvalEvaluation> evaluations = evaluationService.getEvaluationsByTermId(termId);
+            LOG.info("Found "+ evaluations.size() + " evaluations to delete matching " + termId);
+            for (EvalEvaluation evaluation: evaluations) {
+                if (! lockManager.checkLease(lockId, serverId, lockToken)) {
+                    LOG.warn("Lost the lock for deleting the evaluations for " + termId + ", stopping");
+                    break;
+                }
+                //Set admin as the id, I don't think there's any way to get this from the job scheduler
+                LOG.info("Deleting evaluation id " + evaluation.getId());
+                evaluationSetupService.deleteEvaluation(evaluation.getId(), "admin");
+            }
+        } finally {
+            lockManager.releaseLock(lockId, serverId);
         }
 	}
 	
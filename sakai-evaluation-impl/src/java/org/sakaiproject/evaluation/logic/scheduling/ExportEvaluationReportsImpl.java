@@ -17,14 +17,29 @@
  */
 package org.sakaiproject.evaluation.logic.scheduling;
 
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,6 +47,7 @@ import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
 import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
+import org.sakaiproject.evaluation.logic.EvalEvaluationService.GroupReportHandler;
 import org.sakaiproject.evaluation.logic.EvalLockManager;
 import org.sakaiproject.evaluation.logic.ReportingPermissions;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
@@ -41,12 +57,32 @@ import org.sakaiproject.tool.api.Session;
 import org.sakaiproject.tool.api.SessionManager;
 
 /**
- * Job to export evaluation reports for a term 
+ * Job to export evaluation reports for a term,
+ * the evaluations are exported in parallel and a failure in one evaluation does not stop the others<br/>
+ * Each report is written to a temp file and moved into place when it is complete, the finished reports
+ * are recorded in a checkpoint file in the term directory so a rerun with resume on skips them
  *
  */
 public class ExportEvaluationReportsImpl implements ExportEvaluationReports {
 	
 	private static final Log LOG = LogFactory.getLog(ExportEvaluationReportsImpl.class);
+
+	/**
+	 * The name of the file (in the term directory) which records the finished reports
+	 */
+	public static final String CHECKPOINT_FILE = ".export-checkpoint";
+
+	private static final String PDF_FORMAT = "pdf";
+	/**
+	 * The report formats which can be exported (format -> [report type, file extension])
+	 */
+	private static final Map<String, String[]> FORMATS = new LinkedHashMap<>();
+	static {
+		FORMATS.put("csv", new String[] {EvalEvaluationService.CSV_RESULTS_REPORT, ".csv"});
+		FORMATS.put(PDF_FORMAT, new String[] {EvalEvaluationService.PDF_RESULTS_REPORT, ".pdf"});
+		FORMATS.put("xls", new String[] {EvalEvaluationService.XLS_RESULTS_REPORT, ".xls"});
+	}
+	private static final String DEFAULT_FORMATS = "csv,pdf";
 	
     private EvalEvaluationService evaluationService;
     public void setEvaluationService(EvalEvaluationService evaluationService) {
@@ -78,6 +114,14 @@ public class ExportEvaluationReportsImpl implements ExportEvaluationReports {
     public void setReportingPermissions(ReportingPermissions perms) {
         this.reportingPermissions = perms;
     }
+
+    /**
+     * The number of evaluations to export at the same time
+     */
+    private int exportThreads = 4;
+    public void setExportThreads(int exportThreads) {
+        this.exportThreads = exportThreads;
+    }
     
 
 	/*
@@ -92,7 +136,9 @@ public class ExportEvaluationReportsImpl implements ExportEvaluationReports {
 			session.setUserId("admin");
 			LOG.debug("ExportEvaluationReports.execute()");
 			String termId = context.getMergedJobDataMap().getString("term.id");
-			Boolean mergeGroups = context.getMergedJobDataMap().getBoolean("merge.groups");
+			final Boolean mergeGroups = context.getMergedJobDataMap().getBoolean("merge.groups");
+			boolean resume = Boolean.parseBoolean(context.getMergedJobDataMap().getString("resume"));
+			final List<String> formats = getFormats(context.getMergedJobDataMap().getString("export.formats"));
 			List<EvalEvaluation> evaluations = evaluationService.getEvaluationsByTermId(termId);
 			String reportPath = serverConfigurationService.getString("evaluation.exportjob.outputlocation");
 			if (reportPath == null) {
@@ -105,69 +151,295 @@ public class ExportEvaluationReportsImpl implements ExportEvaluationReports {
 				return;
 			}
 			
-			LOG.info("Evaluation query returned" + evaluations.size() + " results to export for " + termId);
-			
+			LOG.info("Evaluation query returned" + evaluations.size() + " results to export for " + termId + " as " + formats);
 
-			//Maybe make a termId folder for these to go in?
-			for (EvalEvaluation evaluation: evaluations) {
-				OutputStream outputStream = null;
-				try {
-					String [] evalGroupIds;
-					evalGroupIds = reportingPermissions.getResultsViewableEvalGroupIdsForCurrentUser(evaluation).toArray(new String[] {});
-					
-					//Make the term directories structure
-					String dirName = reportPath + "/" + evaluation.getTermId();
-					new File(dirName).mkdirs();
-					String addDate = new SimpleDateFormat("yyyy-MM-dd_hh-mm-ss").format(new Date());
-					//Clean up non-alpha characters from title
-					String evaluationTitle = evaluation.getTitle();
-					evaluationTitle = evaluationTitle.replaceAll("\\W+","_");
-
-					/* This is where merged and non-merged groups will differ */
-					if (mergeGroups == true) {
-						String outputName = dirName + "/" + evaluationTitle + "_" + addDate;
-						LOG.info("Writing reports to a basename of "+ outputName);
-						outputStream = new FileOutputStream(outputName+".csv", false);
-						evaluationService.exportReport(evaluation, evalGroupIds, null, outputStream, EvalEvaluationService.CSV_RESULTS_REPORT);
-						outputStream.close();
-						outputStream = new FileOutputStream(outputName+".pdf",false);
-						evaluationService.exportReport(evaluation, evalGroupIds, null, outputStream, EvalEvaluationService.PDF_RESULTS_REPORT);
+			final ExportCheckpoint checkpoint;
+			final String addDate = new SimpleDateFormat("yyyy-MM-dd_hh-mm-ss").format(new Date());
+			final Map<String, File> termDirs = new HashMap<>();
+			for (EvalEvaluation evaluation : evaluations) {
+				//Make the term directories structure
+				File termDir = new File(reportPath + "/" + evaluation.getTermId());
+				termDir.mkdirs();
+				termDirs.put(evaluation.getTermId(), termDir);
+			}
+			File checkpointDir = new File(reportPath + "/" + termId);
+			checkpointDir.mkdirs();
+			try {
+				checkpoint = new ExportCheckpoint(new File(checkpointDir, CHECKPOINT_FILE), resume);
+			} catch (IOException e) {
+				throw new JobExecutionException("Unable to open the export checkpoint for term " + termId + ": " + e.getMessage(), e, false);
+			}
+
+			final AtomicInteger written = new AtomicInteger();
+			final AtomicInteger skipped = new AtomicInteger();
+			int threads = exportThreads < 1 ? 1 : exportThreads;
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			Map<EvalEvaluation, Future<?>> results = new LinkedHashMap<>();
+			try {
+				for (final EvalEvaluation evaluation : evaluations) {
+					results.put(evaluation, pool.submit(() -> {
+						exportEvaluation(evaluation, termDirs.get(evaluation.getTermId()), mergeGroups, formats, addDate, 
+								checkpoint, written, skipped);
+						return null;
+					}));
+				}
+				// each evaluation fails on its own
+				int failed = 0;
+				for (Map.Entry<EvalEvaluation, Future<?>> entry : results.entrySet()) {
+					try {
+						entry.getValue().get();
+					} catch (ExecutionException e) {
+						failed++;
+						LOG.warn("Unable to export the reports for evaluation (" + entry.getKey().getId() + ") " 
+								+ entry.getKey().getTitle() + ": " + e.getCause(), e.getCause());
 					}
-					else {
-						//Export each group in it's own file
-						for (String groupId: evalGroupIds) {
-							Group group = siteService.findGroup(groupId);		
-							String groupTitle = groupId;
-							//If it's not null the group exists in the system, so look up the title
-							if (group != null) {
-								groupTitle = group.getTitle();
-							}
-							groupTitle = groupTitle.replaceAll("\\W+","_");
-							String outputName = dirName + "/" + evaluationTitle + "_" + groupTitle + "_" + addDate;
-							LOG.info("Writing reports to a basename of "+ outputName);
-							outputStream = new FileOutputStream(outputName+".csv", false);
-							evaluationService.exportReport(evaluation, new String[] {groupId}, null, outputStream, EvalEvaluationService.CSV_RESULTS_REPORT);
-							outputStream.close();
-							outputStream = new FileOutputStream(outputName+".pdf",false);
-							evaluationService.exportReport(evaluation, new String[] {groupId}, null, outputStream, EvalEvaluationService.PDF_RESULTS_REPORT);
-						}
+				}
+				LOG.info("Exported " + written.get() + " reports for " + evaluations.size() + " evaluations in term " + termId 
+						+ " (" + skipped.get() + " already done, " + failed + " evaluations failed)");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				LOG.warn("Export of the reports for term " + termId + " was interrupted, rerun with resume to finish it");
+			} finally {
+				pool.shutdownNow();
+				checkpoint.close();
+			}
+		} 
+		finally {
+			// the session was only made for this run so it must not be left behind in the session manager
+			session.invalidate();
+		}
+	}
+
+	/**
+	 * Exports all the reports for a single evaluation, this runs in a worker thread
+	 */
+	private void exportEvaluation(EvalEvaluation evaluation, File termDir, Boolean mergeGroups, List<String> formats, 
+			String addDate, ExportCheckpoint checkpoint, AtomicInteger written, AtomicInteger skipped) throws IOException {
+		// worker threads need their own session
+		Session session = sessionManager.getCurrentSession();
+		try {
+			session.setUserEid("admin");
+			session.setUserId("admin");
+			String [] evalGroupIds;
+			evalGroupIds = reportingPermissions.getResultsViewableEvalGroupIdsForCurrentUser(evaluation).toArray(new String[] {});
+			
+			//Clean up non-alpha characters from title
+			String evaluationTitle = evaluation.getTitle();
+			evaluationTitle = evaluationTitle.replaceAll("\\W+","_");
+
+			/* This is where merged and non-merged groups will differ */
+			if (mergeGroups == true) {
+				String outputName = evaluationTitle + "_" + addDate;
+				exportReports(evaluation, evalGroupIds, evaluation.getId() + "/*", termDir, outputName, formats, checkpoint, written, skipped);
+			}
+			else {
+				// the PDFs for all the groups are exported together so the template layout is only worked out once
+				List<String> groupFormats = new ArrayList<>(formats);
+				boolean exportPDFs = groupFormats.remove(PDF_FORMAT);
+				//Export each group in it's own file
+				final Map<String, String> outputNames = new LinkedHashMap<>();
+				for (String groupId: evalGroupIds) {
+					Group group = siteService.findGroup(groupId);		
+					String groupTitle = groupId;
+					//If it's not null the group exists in the system, so look up the title
+					if (group != null) {
+						groupTitle = group.getTitle();
 					}
+					groupTitle = groupTitle.replaceAll("\\W+","_");
+					String outputName = evaluationTitle + "_" + groupTitle + "_" + addDate;
+					outputNames.put(groupId, outputName);
+					exportReports(evaluation, new String[] {groupId}, evaluation.getId() + "/" + groupId, termDir, outputName, 
+							groupFormats, checkpoint, written, skipped);
 				}
-				catch (FileNotFoundException e) {
-					LOG.warn("Error writing to file " + outputStream + ". Job aborting");
-					return;
+				if (exportPDFs) {
+					exportGroupPDFReports(evaluation, outputNames, termDir, checkpoint, written, skipped);
+				}
+			}
+		} finally {
+			session.invalidate();
+		}
+	}
+
+	/**
+	 * Writes the reports in each format for one set of groups (all the formats come from one pass over the responses),
+	 * each report goes to a temp file first and is only moved into place (and checkpointed) when it is complete
+	 */
+	private void exportReports(EvalEvaluation evaluation, String[] evalGroupIds, String checkpointKey, File termDir, 
+			String outputName, List<String> formats, ExportCheckpoint checkpoint, AtomicInteger written, AtomicInteger skipped) throws IOException {
+		LOG.info("Writing reports to a basename of "+ termDir + "/" + outputName);
+		Map<String, String> reportFormats = new LinkedHashMap<>();
+		for (String format : formats) {
+			if (checkpoint.isDone(checkpointKey + "/" + format, termDir)) {
+				skipped.incrementAndGet();
+			} else {
+				reportFormats.put(FORMATS.get(format)[0], format);
+			}
+		}
+		if (reportFormats.isEmpty()) {
+			return;
+		}
+		Map<String, OutputStream> outputStreams = new LinkedHashMap<>();
+		Set<String> completed = null;
+		try {
+			for (String reportType : reportFormats.keySet()) {
+				outputStreams.put(reportType, new FileOutputStream(getReportTempFile(termDir, outputName, reportFormats.get(reportType)), false));
+			}
+			completed = evaluationService.exportReports(evaluation, evalGroupIds, outputStreams);
+		} finally {
+			for (OutputStream outputStream : outputStreams.values()) {
+				try {
+					outputStream.close();
 				} catch (IOException e) {
-					LOG.warn("Error writing to file " + outputStream + ". Job aborting");
-					return;
-				} catch (Exception e) {
-					LOG.warn("Unknown exception " + e.getMessage() + " found. Job aborting");;
+					LOG.warn("Could not close report file for " + outputName + ": " + e);
+				}
+			}
+			for (Map.Entry<String, String> entry : reportFormats.entrySet()) {
+				if (completed == null || ! completed.contains(entry.getKey())) {
+					getReportTempFile(termDir, outputName, entry.getValue()).delete();
+				}
+			}
+		}
+		for (String reportType : completed) {
+			String format = reportFormats.get(reportType);
+			File outputFile = new File(termDir, outputName + FORMATS.get(format)[1]);
+			Files.move(getReportTempFile(termDir, outputName, format).toPath(), outputFile.toPath(), 
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			checkpoint.markDone(checkpointKey + "/" + format, outputFile.getName());
+			written.incrementAndGet();
+		}
+		if (completed.size() < reportFormats.size()) {
+			throw new IOException("Only " + completed.size() + " of the " + reportFormats.size() 
+					+ " reports were written for " + termDir + "/" + outputName);
+		}
+	}
+
+	/**
+	 * @return the temp file a report is written to before it is moved into place
+	 */
+	private File getReportTempFile(File termDir, String outputName, String format) {
+		return new File(termDir, outputName + FORMATS.get(format)[1] + ".tmp");
+	}
+
+	/**
+	 * Writes a separate PDF report for each group (which is not done yet) in one pass,
+	 * each report goes to a temp file first and is only moved into place (and checkpointed) when it is complete
+	 * 
+	 * @param outputNames map of group id -> base name of the report file for the group
+	 * @throws IOException if any of the group reports could not be written (the rest are still kept)
+	 */
+	private void exportGroupPDFReports(EvalEvaluation evaluation, final Map<String, String> outputNames, final File termDir, 
+			final ExportCheckpoint checkpoint, final AtomicInteger written, AtomicInteger skipped) throws IOException {
+		final String[] reportFormat = FORMATS.get(PDF_FORMAT);
+		final Map<String, String> keys = new HashMap<>();
+		List<String> groupIds = new ArrayList<>();
+		for (Map.Entry<String, String> entry : outputNames.entrySet()) {
+			String key = evaluation.getId() + "/" + entry.getKey() + "/" + PDF_FORMAT;
+			if (checkpoint.isDone(key, termDir)) {
+				skipped.incrementAndGet();
+			} else {
+				keys.put(entry.getKey(), key);
+				groupIds.add(entry.getKey());
+			}
+		}
+		if (groupIds.isEmpty()) {
+			return;
+		}
+		int completed = evaluationService.exportGroupPDFReports(evaluation, groupIds.toArray(new String[groupIds.size()]), 
+				new GroupReportHandler() {
+			public OutputStream startGroupReport(String evalGroupId) throws IOException {
+				LOG.info("Writing reports to a basename of "+ termDir + "/" + outputNames.get(evalGroupId));
+				return new FileOutputStream(getTempFile(evalGroupId), false);
+			}
+
+			public void endGroupReport(String evalGroupId, OutputStream outputStream, boolean complete) throws IOException {
+				outputStream.close();
+				File tempFile = getTempFile(evalGroupId);
+				if (! complete) {
+					tempFile.delete();
 					return;
 				}
+				File outputFile = new File(termDir, outputNames.get(evalGroupId) + reportFormat[1]);
+				Files.move(tempFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				checkpoint.markDone(keys.get(evalGroupId), outputFile.getName());
+				written.incrementAndGet();
+			}
 
+			private File getTempFile(String evalGroupId) {
+				return new File(termDir, outputNames.get(evalGroupId) + reportFormat[1] + ".tmp");
+			}
+		});
+		if (completed < groupIds.size()) {
+			throw new IOException("Only exported " + completed + " of " + groupIds.size() + " group PDF reports for evaluation (" 
+					+ evaluation.getId() + ") " + evaluation.getTitle() + ", rerun with resume to finish them");
+		}
+	}
+
+	/**
+	 * @param formats comma separated report formats (csv, pdf, xls), blank for the default (csv,pdf)
+	 * @return the list of valid formats
+	 */
+	protected static List<String> getFormats(String formats) {
+		if (formats == null || "".equals(formats.trim())) {
+			formats = DEFAULT_FORMATS;
+		}
+		List<String> togo = new ArrayList<>();
+		for (String format : formats.toLowerCase().split(",")) {
+			format = format.trim();
+			if (FORMATS.containsKey(format) && ! togo.contains(format)) {
+				togo.add(format);
+			} else if (! "".equals(format)) {
+				LOG.warn("Ignoring unknown export format: " + format);
+			}
+		}
+		return togo;
+	}
+
+	/**
+	 * Records the finished reports (key and file name, tab separated, one per line) so a rerun can skip them
+	 */
+	protected static class ExportCheckpoint {
+		private final Map<String, String> done = new HashMap<>();
+		private final Writer writer;
+
+		/**
+		 * @param file the checkpoint file
+		 * @param resume if true then load the finished reports from the file, otherwise start over
+		 */
+		public ExportCheckpoint(File file, boolean resume) throws IOException {
+			if (resume && file.exists()) {
+				try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						int split = line.indexOf('\t');
+						if (split > 0) {
+							done.put(line.substring(0, split), line.substring(split + 1));
+						}
+					}
+				}
+			}
+			writer = new FileWriter(file, resume);
+		}
+
+		/**
+		 * @return true if the report was finished before and the file is still there
+		 */
+		public synchronized boolean isDone(String key, File dir) {
+			String fileName = done.get(key);
+			return fileName != null && new File(dir, fileName).isFile();
+		}
+
+		public synchronized void markDone(String key, String fileName) throws IOException {
+			done.put(key, fileName);
+			writer.write(key + "\t" + fileName + "\n");
+			writer.flush();
+		}
+
+		public synchronized void close() {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				LOG.warn("Unable to close the export checkpoint: " + e.getMessage());
 			}
-		} 
-		finally {
-			session.clear();
 		}
 	}
 	
@@ -175,4 +447,4 @@ public class ExportEvaluationReportsImpl implements ExportEvaluationReports {
 		LOG.debug("init()");
 	}
 
-}
\ No newline at end of file
+}
@@ -14,7 +14,19 @@
  */
 package org.sakaiproject.evaluation.logic.scheduling;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -22,9 +34,12 @@ import org.quartz.JobDataMap;
 import org.quartz.JobDetail;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
+import org.sakaiproject.evaluation.jobmonitor.JobStatusReporter;
+import org.sakaiproject.evaluation.jobmonitor.LoggingJobStatusReporter;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
 import org.sakaiproject.evaluation.logic.EvalEvaluationSetupService;
 import org.sakaiproject.evaluation.logic.EvalEvaluationSetupServiceImpl;
+import org.sakaiproject.evaluation.logic.EvalLockManager;
 import org.sakaiproject.evaluation.logic.EvalSettings;
 import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
@@ -53,6 +68,99 @@ public class GroupMembershipSyncImpl implements GroupMembershipSync {
         this.evalSettings = settings;
     }
 
+    protected JobStatusReporter jobStatusReporter;
+    public void setJobStatusReporter(JobStatusReporter jobStatusReporter) {
+        this.jobStatusReporter = jobStatusReporter;
+    }
+
+    protected String jobStatusReporterName;
+    public void setJobStatusReporterName(String jobStatusReporterName) {
+        this.jobStatusReporterName = jobStatusReporterName;
+    }
+
+    /**
+     * The number of evaluations to synchronize together in one bulk sync (and transaction)
+     */
+    private int evaluationsPerBatch = 100;
+    public void setEvaluationsPerBatch(int evaluationsPerBatch) {
+        this.evaluationsPerBatch = evaluationsPerBatch;
+    }
+
+    private EvalLockManager lockManager;
+    public void setEvalLockManager(EvalLockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+    /**
+     * Sharded mode: the width of the evaluation id range in each shard
+     */
+    private long shardSize = 500;
+    public void setShardSize(long shardSize) {
+        this.shardSize = shardSize;
+    }
+
+    /**
+     * Sharded mode: the number of shards a server syncs at the same time
+     */
+    private int syncThreads = 4;
+    public void setSyncThreads(int syncThreads) {
+        this.syncThreads = syncThreads;
+    }
+
+    /**
+     * Sharded mode: how long a shard claim is valid without a heartbeat,
+     * the shard of a failed server is reclaimed by another server after this
+     */
+    private long shardLockTime = 15L * 60L * 1000L;
+    public void setShardLockTime(long shardLockTime) {
+        this.shardLockTime = shardLockTime;
+    }
+
+    /**
+     * Sharded mode: how long a finished shard is remembered as done, the done marker is kept for
+     * each run (by the scheduled fire time) so a later run never skips a shard because of it,
+     * this only has to be at least as long as a run can take (see {@link #setMaxRunTime(long)})
+     */
+    private long shardDoneTime = 4L * 60L * 60L * 1000L;
+    public void setShardDoneTime(long shardDoneTime) {
+        this.shardDoneTime = shardDoneTime;
+    }
+
+    /**
+     * Sharded mode: how long a server keeps checking for shards to reclaim from other servers
+     */
+    private long maxRunTime = 4L * 60L * 60L * 1000L;
+    public void setMaxRunTime(long maxRunTime) {
+        this.maxRunTime = maxRunTime;
+    }
+
+    /**
+     * Sharded mode: how long to wait between checks for shards held by other servers
+     */
+    private long reclaimPollInterval = 60L * 1000L;
+    public void setReclaimPollInterval(long reclaimPollInterval) {
+        this.reclaimPollInterval = reclaimPollInterval;
+    }
+
+    public static final String LOCK_GROUP_MEMBERSHIP_SYNC_SHARD = "LOCK_GROUP_MEMBERSHIP_SYNC_SHARD";
+
+    /**
+     * A range of evaluation ids (in one state) which is synced by one server
+     */
+    private static class SyncShard {
+        final String state;
+        final String lockId;
+        final String doneLockId;
+        final List<EvalEvaluation> evaluations = new ArrayList<>();
+
+        SyncShard(String state, long firstId, long lastId, long runTime) {
+            this.state = state;
+            this.lockId = LOCK_GROUP_MEMBERSHIP_SYNC_SHARD + ":" + state + ":" + firstId + "-" + lastId;
+            // every server running the same scheduled run shares the marker, the next run gets a new one
+            this.doneLockId = this.lockId + ":DONE:" + runTime;
+        }
+    }
+
     /*
      * (non-Javadoc)
      * @see org.quartz.Job#execute(org.quartz.JobExecutionContext)
@@ -60,8 +168,9 @@ public class GroupMembershipSyncImpl implements GroupMembershipSync {
 	public void execute(JobExecutionContext context) throws JobExecutionException {
 		LOG.debug("GroupMembershipSync.execute()");
 		String syncServerId = (String) this.evalSettings.get(EvalSettings.SYNC_SERVER);
+		Boolean sharded = (Boolean) this.evalSettings.get(EvalSettings.SYNC_SHARDED);
 		String thisServerId = this.externalLogic.getServerId();
-		if(thisServerId != null && thisServerId.equals(syncServerId)) {
+		if(thisServerId != null && (thisServerId.equals(syncServerId) || (sharded != null && sharded))) {
 			JobDetail jobDetail = context.getJobDetail();
 			JobDataMap data = jobDetail.getJobDataMap();
 			String statusStr = (String) data.get(GroupMembershipSync.GROUP_MEMBERSHIP_SYNC_PROPNAME_STATE_LIST);
@@ -72,62 +181,235 @@ public class GroupMembershipSyncImpl implements GroupMembershipSync {
 				String[] stateList = statusStr.trim().split(" ");
 				
 				LOG.info("GroupMembershipSync.execute() syncing " + statusStr);
-	
-				for(String state : stateList) {
-					List<EvalEvaluation> evals = evaluationService.getEvaluationsByState(state);
-					int count = evals.size();
-					if(LOG.isInfoEnabled()) {
-						StringBuilder buf1 = new StringBuilder();
-						buf1.append("GroupMembershipSync.execute() syncing ");
-						buf1.append(count);
-						buf1.append("groups for evals in state: ");
-						buf1.append(state);
-						LOG.info(buf1.toString());
+				String jobId = this.jobStatusReporter.reportStarted("GroupMembershipSync");
+				this.jobStatusReporter.reportProgress(jobId, "server-id", thisServerId);
+				int totalChanges;
+				if(sharded != null && sharded) {
+					Date runTime = context.getScheduledFireTime() != null ? context.getScheduledFireTime() : context.getFireTime();
+					totalChanges = executeSharded(stateList, runTime.getTime(), thisServerId, jobId);
+				} else {
+					totalChanges = 0;
+					for(String state : stateList) {
+						List<EvalEvaluation> evals = evaluationService.getEvaluationsByState(state);
+						int count = evals.size();
+						if(LOG.isInfoEnabled()) {
+							StringBuilder buf1 = new StringBuilder();
+							buf1.append("GroupMembershipSync.execute() syncing ");
+							buf1.append(count);
+							buf1.append("groups for evals in state: ");
+							buf1.append(state);
+							LOG.info(buf1.toString());
+						}
+						int batchSize = evaluationsPerBatch < 1 ? 1 : evaluationsPerBatch;
+						for(int start = 0; start < count; start += batchSize) {
+							List<EvalEvaluation> batch = evals.subList(start, Math.min(start + batchSize, count));
+							totalChanges += synchronizeBatch(batch, state, jobId);
+							this.jobStatusReporter.reportProgress(jobId, state, "synchronized " + Math.min(start + batchSize, count) 
+									+ " of " + count + " evals (" + totalChanges + " user assignments changed so far)");
+						}
 					}
-					for(EvalEvaluation eval : evals) {
-						if(this.evaluationSetupService instanceof EvalEvaluationSetupServiceImpl) {
-							if(LOG.isDebugEnabled()) {
-								StringBuilder buf = new StringBuilder();
-								buf.append("====> ");
-								buf.append(state);
-								buf.append("          ==> ");
-								buf.append(eval.getEid());
-								buf.append(" using impl");
-								LOG.debug(buf.toString());
-							}
+				}
+				this.jobStatusReporter.reportFinished(jobId, false, "done", totalChanges + " user assignments changed");
+			}
+			LOG.info("GroupMembershipSync.execute() done with sync of evals by state: " + statusStr);
+		}
+	}
+
+	/**
+	 * Syncs the evaluations in all the states by splitting them into shards (evaluation id ranges),
+	 * every server running the job claims free shards through the eval locks and syncs them on a
+	 * bounded thread pool, shards which are claimed by other servers are checked again until they
+	 * are done so the shards of a server which fails are reclaimed once the claim expires
+	 * 
+	 * @param runTime the scheduled fire time of this run, shards are only marked done for this run
+	 * @return the number of user assignments changed by this server
+	 */
+	private int executeSharded(String[] stateList, long runTime, final String serverId, final String jobId) {
+		long rangeSize = shardSize < 1 ? 1 : shardSize;
+		List<SyncShard> pending = new ArrayList<>();
+		for(String state : stateList) {
+			Map<Long, SyncShard> shards = new TreeMap<>();
+			for(EvalEvaluation eval : evaluationService.getEvaluationsByState(state)) {
+				long firstId = (eval.getId() / rangeSize) * rangeSize;
+				SyncShard shard = shards.get(firstId);
+				if(shard == null) {
+					shard = new SyncShard(state, firstId, firstId + rangeSize - 1, runTime);
+					shards.put(firstId, shard);
+				}
+				shard.evaluations.add(eval);
+			}
+			pending.addAll(shards.values());
+		}
+		int shardCount = pending.size();
+		LOG.info("GroupMembershipSync sharded run on server " + serverId + " with " + shardCount + " shards");
+		if(shardCount == 0) {
+			return 0;
+		}
+		// start at a different shard on each server so they do not all fight over the same locks
+		Collections.rotate(pending, (serverId.hashCode() & Integer.MAX_VALUE) % shardCount);
+
+		final AtomicInteger totalChanges = new AtomicInteger();
+		final Semaphore freeThreads = new Semaphore(syncThreads < 1 ? 1 : syncThreads);
+		ExecutorService pool = Executors.newFixedThreadPool(syncThreads < 1 ? 1 : syncThreads);
+		long deadline = System.currentTimeMillis() + maxRunTime;
+		try {
+			while(! pending.isEmpty() && System.currentTimeMillis() < deadline) {
+				boolean claimedAny = false;
+				for(Iterator<SyncShard> it = pending.iterator(); it.hasNext();) {
+					final SyncShard shard = it.next();
+					if(lockManager.getLockHolder(shard.doneLockId, shardDoneTime) != null) {
+						// already synced in this run by this or another server
+						it.remove();
+						continue;
+					}
+					// only claim a shard when there is a thread free to sync it
+					freeThreads.acquire();
+					Boolean claimed = lockManager.obtainLock(shard.lockId, serverId, shardLockTime);
+					if(claimed != null && claimed) {
+						it.remove();
+						claimedAny = true;
+						pool.execute(() -> {
 							try {
-								((EvalEvaluationSetupServiceImpl) this.evaluationSetupService).synchronizeUserAssignmentsForced(eval, null, true);
-							} catch(IllegalStateException e) {
-								StringBuilder buf = new StringBuilder();
-								buf.append("Unable to user assignments for eval (");
-								buf.append(eval.getId());
-								buf.append(") due to IllegalStateException: ");
-								buf.append(e.getMessage());
-								LOG.warn(buf.toString());
-								
-								// TODO: should update the state so it is not selected next time ??
-							}
-						} else {
-							if(LOG.isDebugEnabled()) {
-								StringBuilder buf = new StringBuilder();
-								buf.append("====> ");
-								buf.append(state);
-								buf.append("          ==> ");
-								buf.append(eval.getEid());
-								buf.append(" using api");
-								LOG.debug(buf.toString());
+								totalChanges.addAndGet( synchronizeShard(shard, serverId, jobId) );
+							} catch(RuntimeException e) {
+								LOG.error("GroupMembershipSync failed to sync shard " + shard.lockId + ": " + e.getMessage(), e);
+								jobStatusReporter.reportError(jobId, false, shard.state, "shard " + shard.lockId + " failed: " + e.getMessage());
+							} finally {
+								freeThreads.release();
 							}
-							this.evaluationSetupService.synchronizeUserAssignments(eval.getId(), null);
-						}
+						});
+					} else {
+						freeThreads.release();
 					}
 				}
+				if(! pending.isEmpty() && ! claimedAny) {
+					// the rest are held by other servers, check back in case one of them fails
+					Thread.sleep(reclaimPollInterval);
+				}
+			}
+			if(! pending.isEmpty()) {
+				LOG.warn("GroupMembershipSync gave up waiting on " + pending.size() + " shards held by other servers");
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("GroupMembershipSync sharded run interrupted on server " + serverId);
+		} finally {
+			pool.shutdown();
+			try {
+				pool.awaitTermination(maxRunTime, TimeUnit.MILLISECONDS);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
-			LOG.info("GroupMembershipSync.execute() done with sync of evals by state: " + statusStr);
 		}
+		return totalChanges.get();
+	}
+
+	/**
+	 * Syncs all the evaluations in a shard which has been claimed by this server,
+	 * the claim is renewed before each batch (heartbeat) and the shard is marked done at the end
+	 * 
+	 * @return the number of user assignments changed
+	 */
+	private int synchronizeShard(SyncShard shard, String serverId, String jobId) {
+		int changes = 0;
+		int count = shard.evaluations.size();
+		int batchSize = evaluationsPerBatch < 1 ? 1 : evaluationsPerBatch;
+		for(int start = 0; start < count; start += batchSize) {
+			Boolean stillHeld = lockManager.obtainLock(shard.lockId, serverId, shardLockTime);
+			if(stillHeld == null || ! stillHeld) {
+				LOG.warn("GroupMembershipSync lost the claim on shard " + shard.lockId + " (taken over by another server), stopping");
+				return changes;
+			}
+			changes += synchronizeBatch(shard.evaluations.subList(start, Math.min(start + batchSize, count)), shard.state, jobId);
+		}
+		lockManager.obtainLock(shard.doneLockId, serverId, shardDoneTime);
+		this.jobStatusReporter.reportProgress(jobId, shard.state, "synchronized shard " + shard.lockId + " with " 
+				+ count + " evals (" + changes + " user assignments changed)");
+		return changes;
+	}
+
+	/**
+	 * Syncs a batch of evaluations together, falls back to syncing them one at a time if the batch fails
+	 * 
+	 * @return the number of user assignments changed
+	 */
+	private int synchronizeBatch(List<EvalEvaluation> batch, String state, String jobId) {
+		Long[] evaluationIds = new Long[batch.size()];
+		for(int i = 0; i < evaluationIds.length; i++) {
+			evaluationIds[i] = batch.get(i).getId();
+		}
+		try {
+			return this.evaluationSetupService.synchronizeUserAssignmentsForEvaluations(evaluationIds, true);
+		} catch(RuntimeException e) {
+			// one bad evaluation should not stop the rest of the batch from being synced
+			LOG.warn("Bulk sync failed for evals " + Arrays.toString(evaluationIds) + ", syncing them one at a time: " + e.getMessage(), e);
+			this.jobStatusReporter.reportError(jobId, false, state, "bulk sync failed for " + evaluationIds.length + " evals: " + e.getMessage());
+			int changes = 0;
+			for(EvalEvaluation eval : batch) {
+				changes += synchronizeEvaluation(eval, state);
+			}
+			return changes;
+		}
+	}
+
+	/**
+	 * Synchronize the user assignments for a single evaluation
+	 * 
+	 * @return the number of user assignments changed (0 if the sync failed)
+	 */
+	private int synchronizeEvaluation(EvalEvaluation eval, String state) {
+		int changes = 0;
+		if(this.evaluationSetupService instanceof EvalEvaluationSetupServiceImpl) {
+			if(LOG.isDebugEnabled()) {
+				StringBuilder buf = new StringBuilder();
+				buf.append("====> ");
+				buf.append(state);
+				buf.append("          ==> ");
+				buf.append(eval.getEid());
+				buf.append(" using impl");
+				LOG.debug(buf.toString());
+			}
+			try {
+				changes = ((EvalEvaluationSetupServiceImpl) this.evaluationSetupService).synchronizeUserAssignmentsForced(eval, null, true).size();
+			} catch(IllegalStateException e) {
+				StringBuilder buf = new StringBuilder();
+				buf.append("Unable to user assignments for eval (");
+				buf.append(eval.getId());
+				buf.append(") due to IllegalStateException: ");
+				buf.append(e.getMessage());
+				LOG.warn(buf.toString());
+				
+				// TODO: should update the state so it is not selected next time ??
+			}
+		} else {
+			if(LOG.isDebugEnabled()) {
+				StringBuilder buf = new StringBuilder();
+				buf.append("====> ");
+				buf.append(state);
+				buf.append("          ==> ");
+				buf.append(eval.getEid());
+				buf.append(" using api");
+				LOG.debug(buf.toString());
+			}
+			try {
+				changes = this.evaluationSetupService.synchronizeUserAssignments(eval.getId(), null).size();
+			} catch(RuntimeException e) {
+				LOG.warn("Unable to sync user assignments for eval (" + eval.getId() + "): " + e.getMessage());
+			}
+		}
+		return changes;
 	}
 	
 	public void init() {
 		LOG.debug("init()");
+		if(jobStatusReporter == null) {
+			if(jobStatusReporterName != null) {
+				this.jobStatusReporter = this.externalLogic.getBean(JobStatusReporter.class);
+			}
+		}
+		if(jobStatusReporter == null) {
+			jobStatusReporter = new LoggingJobStatusReporter();
+		}
 	}
 
 }
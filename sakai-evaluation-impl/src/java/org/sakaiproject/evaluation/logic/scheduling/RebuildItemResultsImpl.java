@@ -0,0 +1,127 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic.scheduling;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.logic.EvalDeliveryService;
+import org.sakaiproject.evaluation.logic.EvalEvaluationService;
+import org.sakaiproject.evaluation.logic.EvalLockManager;
+import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
+import org.sakaiproject.evaluation.model.EvalEvaluation;
+
+/**
+ * Job to rebuild the pre-aggregated item results from the saved answers,
+ * for a single evaluation or for all the evaluations which can have responses
+ *
+ */
+public class RebuildItemResultsImpl implements RebuildItemResults {
+
+    private static final Log LOG = LogFactory.getLog(RebuildItemResults.class);
+
+    public static final String LOCK_REBUILD_ITEM_RESULTS = "LOCK_REBUILD_ITEM_RESULTS";
+    private static final long LEASE_PERIOD = 5L * 60L * 1000L;
+
+    /**
+     * The evaluation states which can have completed responses
+     */
+    private static final String[] RESPONSE_STATES = {
+        EvalConstants.EVALUATION_STATE_ACTIVE,
+        EvalConstants.EVALUATION_STATE_GRACEPERIOD,
+        EvalConstants.EVALUATION_STATE_CLOSED,
+        EvalConstants.EVALUATION_STATE_VIEWABLE
+    };
+
+    private EvalEvaluationService evaluationService;
+    public void setEvaluationService(EvalEvaluationService evaluationService) {
+        this.evaluationService = evaluationService;
+    }
+
+    private EvalDeliveryService deliveryService;
+    public void setDeliveryService(EvalDeliveryService deliveryService) {
+        this.deliveryService = deliveryService;
+    }
+
+    private EvalExternalLogic externalLogic;
+    public void setExternalLogic(EvalExternalLogic externalLogic) {
+        this.externalLogic = externalLogic;
+    }
+
+    protected EvalLockManager lockManager;
+    public void setEvalLockManager(EvalLockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.quartz.Job#execute(org.quartz.JobExecutionContext)
+     */
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        LOG.debug("RebuildItemResults.execute()");
+        String evaluationId = context.getMergedJobDataMap().getString("evaluation.id");
+        List<Long> evaluationIds = new ArrayList<>();
+        if (evaluationId == null || "".equals(evaluationId.trim())) {
+            for (String state : RESPONSE_STATES) {
+                for (EvalEvaluation evaluation : evaluationService.getEvaluationsByState(state)) {
+                    evaluationIds.add(evaluation.getId());
+                }
+            }
+        } else {
+            try {
+                evaluationIds.add(Long.valueOf(evaluationId.trim()));
+            } catch (NumberFormatException e) {
+                throw new JobExecutionException("Invalid evaluation id (" + evaluationId + "), it must be a number", e, false);
+            }
+        }
+
+        // only one server should rebuild the results at a time
+        String serverId = externalLogic.getServerId();
+        Long lockToken = lockManager.obtainLease(LOCK_REBUILD_ITEM_RESULTS, serverId, LEASE_PERIOD);
+        if (lockToken == null || lockToken <= 0) {
+            LOG.info("Item results are already being rebuilt by " + lockManager.getLockHolder(LOCK_REBUILD_ITEM_RESULTS, LEASE_PERIOD));
+            return;
+        }
+        try {
+            LOG.info("Rebuilding the item results for " + evaluationIds.size() + " evaluations");
+            int responsesCount = 0;
+            for (Long id : evaluationIds) {
+                if (! lockManager.checkLease(LOCK_REBUILD_ITEM_RESULTS, serverId, lockToken)) {
+                    LOG.warn("Lost the lock for rebuilding the item results, stopping");
+                    break;
+                }
+                try {
+                    // each evaluation is rebuilt in its own transaction
+                    responsesCount += deliveryService.rebuildItemResults(id);
+                } catch (Exception e) {
+                    LOG.error("Unable to rebuild the item results for evaluation (" + id + "): " + e.getMessage(), e);
+                }
+            }
+            LOG.info("Rebuilt the item results for " + evaluationIds.size() + " evaluations from " + responsesCount + " responses");
+        } finally {
+            lockManager.releaseLock(LOCK_REBUILD_ITEM_RESULTS, serverId);
+        }
+    }
+
+    public void init() {
+        LOG.debug("init()");
+    }
+
+}
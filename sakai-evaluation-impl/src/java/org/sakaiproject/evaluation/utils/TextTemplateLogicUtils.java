@@ -20,6 +20,7 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
@@ -61,7 +62,7 @@ public class TextTemplateLogicUtils {
     public static boolean useVelocity = false;
     public final static int TOTAL_RESET_COUNT = 500;
     /**
-     * Used to track and reset the processor every totalResetCount runs
+     * Used to track and reset the velocity processor every totalResetCount runs
      */
     public static AtomicInteger resetCounter = new AtomicInteger(0);
 
@@ -101,27 +102,56 @@ public class TextTemplateLogicUtils {
         }
     }
 
-    private static Configuration freemarkerConfig = null;
-    private static String processFreemarkerTextTemplate(String textTemplate, Map<String, String> replacementValues) {
-        // setup freemarker if it is not already done
-        synchronized (LOCK) {
-            if (freemarkerConfig == null || resetCounter.getAndAdd(1) > TOTAL_RESET_COUNT) {
-                freemarkerConfig = new Configuration();
-                // Specify how templates will see the data-model
-                freemarkerConfig.setObjectWrapper(new DefaultObjectWrapper());
-                resetCounter.getAndSet(0);
-                LOG.info("Constructed new freemarker template for template processing");
+    /**
+     * The maximum number of compiled freemarker templates to keep,
+     * the cache is emptied when it goes over this (the set of email templates is small so this should not happen)
+     */
+    public final static int MAX_CACHED_TEMPLATES = 200;
+    /**
+     * Freemarker configurations are thread safe once they are setup so one is shared by all templates
+     */
+    private static final Configuration freemarkerConfig = makeFreemarkerConfig();
+    /**
+     * Compiled freemarker templates keyed by the template text, templates are thread safe
+     * so these are reused for every recipient of an email
+     */
+    private static final ConcurrentHashMap<String, Template> freemarkerTemplates = new ConcurrentHashMap<>();
+
+    private static Configuration makeFreemarkerConfig() {
+        Configuration config = new Configuration();
+        // Specify how templates will see the data-model
+        config.setObjectWrapper(new DefaultObjectWrapper());
+        LOG.info("Constructed new freemarker configuration for template processing");
+        return config;
+    }
+
+    /**
+     * Get the compiled freemarker template for this text (from the cache if it was compiled already)
+     * 
+     * @param textTemplate a freemarker style text template
+     * @return the compiled template
+     */
+    protected static Template getFreemarkerTemplate(String textTemplate) {
+        Template template = freemarkerTemplates.get(textTemplate);
+        if (template == null) {
+            try {
+                template = new Template("textProcess", new StringReader(textTemplate), freemarkerConfig);
+            } catch (IOException e) {
+                throw new RuntimeException("Failure while creating freemarker template", e);
+            }
+            if (freemarkerTemplates.size() >= MAX_CACHED_TEMPLATES) {
+                freemarkerTemplates.clear();
             }
+            // another thread may have compiled it at the same time, either one is fine to use
+            freemarkerTemplates.put(textTemplate, template);
         }
+        return template;
+    }
 
+    private static String processFreemarkerTextTemplate(String textTemplate, Map<String, String> replacementValues) {
         // get the template
-        Template template;
-        try {
-            template = new Template("textProcess", new StringReader(textTemplate), freemarkerConfig);
-            if (replacementValues == null) return textTemplate;
-        } catch (IOException e) {
-            throw new RuntimeException("Failure while creating freemarker template", e);
-        }
+        Template template = getFreemarkerTemplate(textTemplate);
+        if (replacementValues == null) return textTemplate;
 
         Writer output = new StringWriter();
         try {
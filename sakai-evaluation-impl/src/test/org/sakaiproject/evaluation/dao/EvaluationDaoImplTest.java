@@ -14,7 +14,9 @@
  */
 package org.sakaiproject.evaluation.dao;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +36,8 @@ import org.sakaiproject.evaluation.model.EvalEmailProcessingData;
 import org.sakaiproject.evaluation.model.EvalEmailTemplate;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 import org.sakaiproject.evaluation.model.EvalItem;
+import org.sakaiproject.evaluation.model.EvalItemResults;
+import org.sakaiproject.evaluation.model.EvalLock;
 import org.sakaiproject.evaluation.model.EvalResponse;
 import org.sakaiproject.evaluation.model.EvalScale;
 import org.sakaiproject.evaluation.model.EvalTemplate;
@@ -41,6 +45,7 @@ import org.sakaiproject.evaluation.model.EvalTemplateItem;
 import org.sakaiproject.evaluation.test.EvalTestDataLoad;
 import org.sakaiproject.evaluation.test.PreloadTestDataImpl;
 import org.sakaiproject.evaluation.utils.ArrayUtils;
+import org.sakaiproject.evaluation.utils.TemplateItemUtils;
 import org.sakaiproject.genericdao.api.search.Restriction;
 import org.sakaiproject.genericdao.api.search.Search;
 import org.springframework.test.context.ContextConfiguration;
@@ -292,6 +297,57 @@ public class EvaluationDaoImplTest extends AbstractTransactionalJUnit4SpringCont
 
     }
 
+    @Test
+    public void testGetParticipantsForEvalByGroup() {
+        Map<String, List<EvalAssignUser>> m;
+
+        // all participants for an evaluation
+        m = evaluationDao.getParticipantsForEvalByGroup(etdl.evaluationActive.getId(), null, null, null);
+        Assert.assertNotNull(m);
+        Assert.assertEquals(1, m.size());
+        Assert.assertEquals(2, m.get(EvalTestDataLoad.SITE1_REF).size());
+
+        m = evaluationDao.getParticipantsForEvalByGroup(etdl.evaluationActive.getId(), null, EvalAssignUser.TYPE_EVALUATOR, null);
+        Assert.assertEquals(1, m.get(EvalTestDataLoad.SITE1_REF).size());
+
+        // limit groups
+        m = evaluationDao.getParticipantsForEvalByGroup(etdl.evaluationActive.getId(), new String[] {EvalTestDataLoad.SITE2_REF}, null, null);
+        Assert.assertNotNull(m);
+        Assert.assertEquals(0, m.size());
+
+        // responses only filter the participants in the group the response was made in
+        evaluationDao.save( new EvalAssignUser(EvalTestDataLoad.USER_ID_4, etdl.evaluationActiveUntaken, EvalTestDataLoad.SITE1_REF, EvalTestDataLoad.MAINT_USER_ID) );
+        evaluationDao.save( new EvalAssignUser(EvalTestDataLoad.USER_ID_5, etdl.evaluationActiveUntaken, EvalTestDataLoad.SITE1_REF, EvalTestDataLoad.MAINT_USER_ID) );
+        EvalResponse r1 = new EvalResponse(EvalTestDataLoad.USER_ID_4, EvalTestDataLoad.SITE1_REF, etdl.evaluationActiveUntaken, etdl.yesterday, new Date(), null);
+        r1.setAnswers( new HashSet<>() );
+        evaluationDao.save(r1);
+        EvalResponse r2 = new EvalResponse(EvalTestDataLoad.USER_ID_5, EvalTestDataLoad.SITE2_REF, etdl.evaluationActiveUntaken, etdl.yesterday, new Date(), null);
+        r2.setAnswers( new HashSet<>() );
+        evaluationDao.save(r2);
+
+        m = evaluationDao.getParticipantsForEvalByGroup(etdl.evaluationActiveUntaken.getId(), null, null, EvalConstants.EVAL_INCLUDE_ALL);
+        Assert.assertEquals(3, m.get(EvalTestDataLoad.SITE1_REF).size());
+
+        m = evaluationDao.getParticipantsForEvalByGroup(etdl.evaluationActiveUntaken.getId(), null, null, EvalConstants.EVAL_INCLUDE_NONTAKERS);
+        Assert.assertEquals(2, m.get(EvalTestDataLoad.SITE1_REF).size());
+        Assert.assertEquals(m.get(EvalTestDataLoad.SITE1_REF).size(), evaluationDao.getParticipantsForEval(etdl.evaluationActiveUntaken.getId(), null,
+                new String[] {EvalTestDataLoad.SITE1_REF}, null, null, EvalConstants.EVAL_INCLUDE_NONTAKERS, null).size());
+
+        m = evaluationDao.getParticipantsForEvalByGroup(etdl.evaluationActiveUntaken.getId(), null, null, EvalConstants.EVAL_INCLUDE_RESPONDENTS);
+        Assert.assertEquals(1, m.get(EvalTestDataLoad.SITE1_REF).size());
+        Assert.assertEquals(EvalTestDataLoad.USER_ID_4, m.get(EvalTestDataLoad.SITE1_REF).get(0).getUserId());
+
+        m = evaluationDao.getParticipantsForEvalByGroup(etdl.evaluationActiveUntaken.getId(), null, null, EvalConstants.EVAL_INCLUDE_IN_PROGRESS);
+        Assert.assertEquals(0, m.size());
+
+        try {
+            evaluationDao.getParticipantsForEvalByGroup(null, null, null, null);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e);
+        }
+    }
+
     @Test
     public void testGetEvalsUserCanTake() {
         // get ones we can take
@@ -922,6 +978,207 @@ public class EvaluationDaoImplTest extends AbstractTransactionalJUnit4SpringCont
         Assert.assertEquals(0, l.size());
     }
 
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationDaoImpl#streamAnswers(Long, String[], Long[], int, org.sakaiproject.evaluation.dao.ResponseAnswersHandler)}.
+     */
+    @Test
+    public void testStreamAnswers() {
+        final List<Long> responseIds = new ArrayList<>();
+        final List<Long> answerIds = new ArrayList<>();
+        int count;
+
+        // all answers, grouped by response in order by response id
+        count = evaluationDao.streamAnswers(etdl.evaluationClosed.getId(), null, null, 1, (responseId, evalGroupId, answers) -> {
+            responseIds.add(responseId);
+            for (EvalAnswer answer : answers) {
+                Assert.assertEquals(responseId, answer.getResponse().getId());
+                Assert.assertEquals(evalGroupId, answer.getResponse().getEvalGroupId());
+                answerIds.add(answer.getId());
+            }
+        });
+        Assert.assertEquals(2, count);
+        Assert.assertEquals(2, responseIds.size());
+        Assert.assertTrue(responseIds.get(0) < responseIds.get(1));
+        Assert.assertEquals(3, answerIds.size());
+        Assert.assertTrue(answerIds.contains( etdl.answer2_2A.getId() ));
+        Assert.assertTrue(answerIds.contains( etdl.answer2_5A.getId() ));
+        Assert.assertTrue(answerIds.contains( etdl.answer3_2A.getId() ));
+
+        // restrict to groups and template items
+        responseIds.clear();
+        answerIds.clear();
+        count = evaluationDao.streamAnswers(etdl.evaluationClosed.getId(), new String[] {EvalTestDataLoad.SITE1_REF},
+                new Long[] {etdl.templateItem2A.getId()}, 100, (responseId, evalGroupId, answers) -> {
+            responseIds.add(responseId);
+            answerIds.addAll( EvalTestDataLoad.makeIdList(answers) );
+        });
+        Assert.assertEquals(1, count);
+        Assert.assertEquals(etdl.response2.getId(), responseIds.get(0));
+        Assert.assertEquals(1, answerIds.size());
+        Assert.assertEquals(etdl.answer2_2A.getId(), answerIds.get(0));
+
+        // invalid eval id streams nothing
+        count = evaluationDao.streamAnswers(EvalTestDataLoad.INVALID_LONG_ID, null, null, 100, (responseId, evalGroupId, answers) -> {
+            Assert.fail("Should not have called the handler");
+        });
+        Assert.assertEquals(0, count);
+    }
+
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationDaoImpl#rebuildItemResults(Long)}.
+     */
+    @Test
+    public void testRebuildItemResults() {
+        Long evalId = etdl.evaluationClosed.getId();
+        String key2A = TemplateItemUtils.makeTemplateItemAnswerKey(etdl.templateItem2A.getId(), null, null);
+        String key5A = TemplateItemUtils.makeTemplateItemAnswerKey(etdl.templateItem5A.getId(), 
+                EvalConstants.ITEM_CATEGORY_INSTRUCTOR, EvalTestDataLoad.MAINT_USER_ID);
+
+        // response6 has no answers but it still counts
+        int count = evaluationDao.rebuildItemResults(evalId);
+        Assert.assertEquals(3, count);
+
+        Map<String, EvalItemResults> site1 = mapItemResults(evaluationDao.getItemResults(evalId, new String[] {EvalTestDataLoad.SITE1_REF}));
+        Assert.assertEquals(3, site1.size());
+        Assert.assertEquals(Integer.valueOf(1), site1.get(EvalItemResults.RESPONSES_KEY).getResponsesCount());
+        Assert.assertEquals(Integer.valueOf(1), site1.get(key2A).getResponsesCount());
+        Assert.assertEquals(Long.valueOf(EvalTestDataLoad.ANSWER_SCALED_ONE), site1.get(key2A).getNumericSum());
+        Assert.assertEquals(Integer.valueOf(1), site1.get(key5A).getResponsesCount());
+        Assert.assertEquals(Integer.valueOf(0), site1.get(key5A).getNumericCount());
+
+        Map<String, EvalItemResults> site2 = mapItemResults(evaluationDao.getItemResults(evalId, new String[] {EvalTestDataLoad.SITE2_REF}));
+        Assert.assertEquals(2, site2.size());
+        Assert.assertEquals(Integer.valueOf(2), site2.get(EvalItemResults.RESPONSES_KEY).getResponsesCount());
+        int[] choices = site2.get(key2A).getAnswerChoicesCounts(3);
+        Assert.assertArrayEquals(new int[] {0, 0, 1, 0}, choices);
+
+        // rebuilding again gives the same results
+        Assert.assertEquals(3, evaluationDao.rebuildItemResults(evalId));
+        Assert.assertEquals(5, evaluationDao.getItemResults(evalId, null).size());
+
+        // nothing to rebuild
+        Assert.assertEquals(0, evaluationDao.rebuildItemResults(etdl.evaluationNew.getId()));
+        Assert.assertEquals(0, evaluationDao.getItemResults(etdl.evaluationNew.getId(), null).size());
+    }
+
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationDaoImpl#removeItemResults(Long)}.
+     */
+    @Test
+    public void testRemoveItemResults() {
+        Long evalId = etdl.evaluationClosed.getId();
+        evaluationDao.rebuildItemResults(evalId);
+        Assert.assertEquals(5, evaluationDao.getItemResults(evalId, null).size());
+
+        Assert.assertEquals(5, evaluationDao.removeItemResults(evalId));
+        Assert.assertEquals(0, evaluationDao.getItemResults(evalId, null).size());
+
+        // nothing to remove
+        Assert.assertEquals(0, evaluationDao.removeItemResults(evalId));
+    }
+
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationDaoImpl#applyItemResults(java.util.Collection)}.
+     */
+    @Test
+    public void testApplyItemResults() {
+        Long evalId = etdl.evaluationClosed.getId();
+        String key2A = TemplateItemUtils.makeTemplateItemAnswerKey(etdl.templateItem2A.getId(), null, null);
+        evaluationDao.rebuildItemResults(evalId);
+
+        // only completed responses have changes
+        Map<Long, ItemResultsDelta> deltas = evaluationDao.getResponseItemResults(
+                new Long[] {etdl.response2.getId(), etdl.response3.getId(), etdl.response1.getId()}, -1);
+        Assert.assertEquals(2, deltas.size());
+        Assert.assertEquals(EvalTestDataLoad.SITE1_REF, deltas.get(etdl.response2.getId()).getEvalGroupId());
+        Assert.assertFalse(deltas.get(etdl.response2.getId()).isEmpty());
+
+        // take out response2 and then put it back with a different answer
+        List<ItemResultsDelta> removed = new ArrayList<>();
+        removed.add(deltas.get(etdl.response2.getId()));
+        evaluationDao.applyItemResults(removed);
+        Map<String, EvalItemResults> site1 = mapItemResults(evaluationDao.getItemResults(evalId, new String[] {EvalTestDataLoad.SITE1_REF}));
+        Assert.assertEquals(Integer.valueOf(0), site1.get(EvalItemResults.RESPONSES_KEY).getResponsesCount());
+        Assert.assertTrue(site1.get(key2A).isEmpty());
+
+        ItemResultsDelta delta = new ItemResultsDelta(evalId, EvalTestDataLoad.SITE1_REF);
+        delta.addResponses(1);
+        delta.addAnswer(etdl.templateItem2A.getId(), null, null, EvalTestDataLoad.ANSWER_SCALED_TWO, null, 1);
+        delta.addAnswer(etdl.templateItem2A.getId(), null, null, EvalConstants.NA_VALUE, null, 1);
+        List<ItemResultsDelta> changes = new ArrayList<>();
+        changes.add(delta);
+        evaluationDao.applyItemResults(changes);
+        site1 = mapItemResults(evaluationDao.getItemResults(evalId, new String[] {EvalTestDataLoad.SITE1_REF}));
+        Assert.assertEquals(Integer.valueOf(1), site1.get(EvalItemResults.RESPONSES_KEY).getResponsesCount());
+        Assert.assertEquals(Integer.valueOf(2), site1.get(key2A).getResponsesCount());
+        Assert.assertEquals(Integer.valueOf(1), site1.get(key2A).getNaCount());
+        Assert.assertArrayEquals(new int[] {0, 0, 1, 1}, site1.get(key2A).getAnswerChoicesCounts(3));
+
+        // removing responses takes them out of the results
+        evaluationDao.removeResponses(new Long[] {etdl.response3.getId()});
+        Map<String, EvalItemResults> site2 = mapItemResults(evaluationDao.getItemResults(evalId, new String[] {EvalTestDataLoad.SITE2_REF}));
+        Assert.assertEquals(Integer.valueOf(1), site2.get(EvalItemResults.RESPONSES_KEY).getResponsesCount());
+        Assert.assertTrue(site2.get(key2A).isEmpty());
+
+        // nothing to apply
+        evaluationDao.applyItemResults(new ArrayList<ItemResultsDelta>());
+        Assert.assertEquals(0, evaluationDao.getResponseItemResults(new Long[] {}, 1).size());
+    }
+
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationDaoImpl#getStaleItemResultsGroups(Long, String[])}.
+     */
+    @Test
+    public void testGetStaleItemResultsGroups() {
+        Long evalId = etdl.evaluationClosed.getId();
+        // no results yet so nothing is stale
+        Assert.assertEquals(0, evaluationDao.getStaleItemResultsGroups(evalId, null).size());
+
+        // starting the results for a group which already has completed responses makes them stale
+        ItemResultsDelta delta = new ItemResultsDelta(evalId, EvalTestDataLoad.SITE2_REF);
+        delta.addResponses(1);
+        List<ItemResultsDelta> changes = new ArrayList<>();
+        changes.add(delta);
+        evaluationDao.applyItemResults(changes);
+        List<String> staleGroups = evaluationDao.getStaleItemResultsGroups(evalId, null);
+        Assert.assertEquals(1, staleGroups.size());
+        Assert.assertEquals(EvalTestDataLoad.SITE2_REF, staleGroups.get(0));
+        Assert.assertEquals(0, evaluationDao.getStaleItemResultsGroups(evalId, new String[] {EvalTestDataLoad.SITE1_REF}).size());
+
+        // rebuilding makes them current again
+        evaluationDao.rebuildItemResults(evalId);
+        Assert.assertEquals(0, evaluationDao.getStaleItemResultsGroups(evalId, null).size());
+    }
+
+    private Map<String, EvalItemResults> mapItemResults(List<EvalItemResults> itemResults) {
+        Map<String, EvalItemResults> map = new HashMap<>();
+        for (EvalItemResults results : itemResults) {
+            Assert.assertNull("Duplicate results for " + results.getKey(), map.put(results.getKey(), results));
+        }
+        return map;
+    }
+
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationDaoImpl#getAnswerAssociateIds(Long, String[], String)}.
+     */
+    @Test
+    public void testGetAnswerAssociateIds() {
+        List<String> l;
+
+        l = evaluationDao.getAnswerAssociateIds(etdl.evaluationClosed.getId(), null, EvalConstants.ITEM_CATEGORY_INSTRUCTOR);
+        Assert.assertNotNull(l);
+        Assert.assertEquals(1, l.size());
+        Assert.assertEquals(EvalTestDataLoad.MAINT_USER_ID, l.get(0));
+
+        l = evaluationDao.getAnswerAssociateIds(etdl.evaluationClosed.getId(), new String[] {EvalTestDataLoad.SITE2_REF}, EvalConstants.ITEM_CATEGORY_INSTRUCTOR);
+        Assert.assertNotNull(l);
+        Assert.assertEquals(0, l.size());
+
+        l = evaluationDao.getAnswerAssociateIds(etdl.evaluationClosed.getId(), null, EvalConstants.ITEM_CATEGORY_ASSISTANT);
+        Assert.assertNotNull(l);
+        Assert.assertEquals(0, l.size());
+    }
+
     /**
      * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationDaoImpl#removeTemplateItems(org.sakaiproject.evaluation.model.EvalTemplateItem[])}.
      */
@@ -1109,6 +1366,29 @@ public class EvaluationDaoImplTest extends AbstractTransactionalJUnit4SpringCont
 
     }
 
+    @Test
+    public void testGetResponsesWatermark() {
+        Object[] watermark;
+
+        watermark = evaluationDao.getResponsesWatermark(etdl.evaluationClosed.getId(), null);
+        Assert.assertEquals(3l, watermark[0]);
+        Assert.assertNotNull(watermark[1]);
+
+        watermark = evaluationDao.getResponsesWatermark(etdl.evaluationClosed.getId(), new String[] {EvalTestDataLoad.SITE1_REF});
+        Assert.assertEquals(1l, watermark[0]);
+
+        // saving a response moves the watermark
+        Date later = new Date(((Date) watermark[1]).getTime() + 60000);
+        etdl.response2.setLastModified(later);
+        evaluationDao.save(etdl.response2);
+        watermark = evaluationDao.getResponsesWatermark(etdl.evaluationClosed.getId(), null);
+        Assert.assertEquals(later.getTime(), ((Date) watermark[1]).getTime());
+
+        watermark = evaluationDao.getResponsesWatermark(etdl.evaluationNew.getId(), null);
+        Assert.assertEquals(0l, watermark[0]);
+        Assert.assertNull(watermark[1]);
+    }
+
     @Test
     public void testRemoveResponses() {
         // check that response and answer are removed correctly
@@ -1612,6 +1892,40 @@ public class EvaluationDaoImplTest extends AbstractTransactionalJUnit4SpringCont
 
     }
 
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationDaoImpl#lockEvaluationIfUnlocked(java.lang.Long)}.
+     */
+    @Test
+    public void testLockEvaluationIfUnlocked() {
+
+        // check that unlocked evaluation gets locked only once
+        Assert.assertFalse( etdl.templatePublicUnused.getLocked() );
+        Assert.assertTrue( evaluationDao.lockEvaluationIfUnlocked( evalUnLocked.getId() ) );
+        Assert.assertFalse( evaluationDao.lockEvaluationIfUnlocked( evalUnLocked.getId() ) );
+
+        // verify that associated template gets locked
+        Assert.assertTrue( etdl.templatePublicUnused.getLocked() );
+
+        // an already locked evaluation is not changed
+        Assert.assertFalse( evaluationDao.lockEvaluationIfUnlocked( etdl.evaluationActive.getId() ) );
+
+        // unlocking clears the known lock so it can be locked again
+        EvalEvaluation eval = (EvalEvaluation) evaluationDao.findById(EvalEvaluation.class, evalUnLocked.getId());
+        Assert.assertTrue( eval.getLocked() );
+        Assert.assertTrue( evaluationDao.lockEvaluation( eval, false ) );
+        Assert.assertTrue( evaluationDao.lockEvaluationIfUnlocked( evalUnLocked.getId() ) );
+
+        // invalid id is not locked
+        Assert.assertFalse( evaluationDao.lockEvaluationIfUnlocked( EvalTestDataLoad.INVALID_LONG_ID ) );
+
+        try {
+            evaluationDao.lockEvaluationIfUnlocked(null);
+            Assert.fail("Should have thrown an exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e);
+        }
+    }
+
 
     /**
      * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationDaoImpl#isUsedScale(java.lang.Long)}.
@@ -1694,6 +2008,36 @@ public class EvaluationDaoImplTest extends AbstractTransactionalJUnit4SpringCont
         }
     }
 
+    @Test
+    public void testGetLockHolder() {
+        Assert.assertNull( evaluationDao.getLockHolder("AZ.H.lock", 1000) );
+
+        Assert.assertTrue( evaluationDao.obtainLock("AZ.H.lock", "AZ1", 1000) );
+        Assert.assertEquals("AZ1", evaluationDao.getLockHolder("AZ.H.lock", 1000) );
+
+        // checking does not take the lock
+        Assert.assertFalse( evaluationDao.obtainLock("AZ.H.lock", "AZ2", 1000) );
+        Assert.assertEquals("AZ1", evaluationDao.getLockHolder("AZ.H.lock", 1000) );
+
+        // allow the lock to expire
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            Assert.fail("sleep interrupted?");
+        }
+        Assert.assertNull( evaluationDao.getLockHolder("AZ.H.lock", 100) );
+
+        Assert.assertTrue( evaluationDao.releaseLock("AZ.H.lock", "AZ1") );
+        Assert.assertNull( evaluationDao.getLockHolder("AZ.H.lock", 1000) );
+
+        try {
+            evaluationDao.getLockHolder(null, 1000);
+            Assert.fail("Should have thrown an exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e);
+        }
+    }
+
     @Test
     public void testReleaseLock() {
 
@@ -1730,6 +2074,98 @@ public class EvaluationDaoImplTest extends AbstractTransactionalJUnit4SpringCont
         }
     }
 
+    @Test
+    public void testObtainLockToken() {
+        // a new lock starts with token 1
+        Long token = evaluationDao.obtainLockToken("AZ.T.lock", "AZ1", 100);
+        Assert.assertEquals(Long.valueOf(1l), token);
+        Assert.assertEquals(token, evaluationDao.getLockToken("AZ.T.lock", "AZ1") );
+        Assert.assertNull( evaluationDao.getLockToken("AZ.T.lock", "AZ2") );
+
+        // someone else cannot get it
+        Assert.assertEquals(Long.valueOf(0l), evaluationDao.obtainLockToken("AZ.T.lock", "AZ2", 100) );
+
+        // renewing my own lock keeps the same token
+        Assert.assertEquals(token, evaluationDao.obtainLockToken("AZ.T.lock", "AZ1", 100) );
+
+        // allow the lock to expire
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            Assert.fail("sleep interrupted?");
+        }
+
+        // the token goes up when someone else takes the lock
+        Long token2 = evaluationDao.obtainLockToken("AZ.T.lock", "AZ2", 100);
+        Assert.assertEquals(Long.valueOf(2l), token2);
+        Assert.assertNull( evaluationDao.getLockToken("AZ.T.lock", "AZ1") );
+        Assert.assertEquals(Long.valueOf(0l), evaluationDao.obtainLockToken("AZ.T.lock", "AZ1", 100) );
+
+        Assert.assertTrue( evaluationDao.releaseLock("AZ.T.lock", "AZ2") );
+        Assert.assertNull( evaluationDao.getLockToken("AZ.T.lock", "AZ2") );
+
+        // released locks keep counting up
+        Assert.assertEquals(Long.valueOf(3l), evaluationDao.obtainLockToken("AZ.T.lock", "AZ1", 100) );
+    }
+
+    @Test
+    public void testPurgeLocks() {
+        Assert.assertTrue( evaluationDao.obtainLock("AZ.P1.lock", "AZ1", 1000) );
+        Assert.assertTrue( evaluationDao.obtainLock("AZ.P2.lock", "AZ1", 1000) );
+        Assert.assertTrue( evaluationDao.releaseLock("AZ.P2.lock", "AZ1") );
+
+        // only the released lock is removed, the held one is still in use
+        Assert.assertTrue( evaluationDao.purgeLocks(new Date(System.currentTimeMillis() - 60000)) >= 1 );
+        Assert.assertEquals(1, evaluationDao.countBySearch(EvalLock.class, new Search("name", "AZ.P1.lock")) );
+        Assert.assertEquals(0, evaluationDao.countBySearch(EvalLock.class, new Search("name", "AZ.P2.lock")) );
+        Assert.assertEquals("AZ1", evaluationDao.getLockHolder("AZ.P1.lock", 1000) );
+
+        try {
+            evaluationDao.purgeLocks(null);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e);
+        }
+    }
+
+    /**
+     * Mark the emails in a page of the consolidated email mapping as delivered
+     */
+    private void markMappingSent(boolean sendingAvailableEmails, List<Map<String,Object>> mapping) {
+        for (Map<String,Object> entry : mapping) {
+            List<String> userIds = new ArrayList<>();
+            userIds.add((String) entry.get(EvalConstants.KEY_USER_ID));
+            this.evaluationDao.markConsolidatedEmailsSent(sendingAvailableEmails, (Long) entry.get(EvalConstants.KEY_EMAIL_TEMPLATE_ID), userIds);
+        }
+    }
+
+    @Test
+    public void testResumeConsolidatedEmailRecipients() {
+        // nothing to resume
+        Assert.assertEquals(0, this.evaluationDao.resumeConsolidatedEmailRecipients(true));
+
+        int count = this.evaluationDao.selectConsolidatedEmailRecipients(true, (Date) null, false, (Date) null, EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_AVAILABLE);
+        Assert.assertEquals(1, count);
+        List<Map<String,Object>> mapping = this.evaluationDao.getConsolidatedEmailMapping(true, 100, 0);
+        Assert.assertEquals(1, mapping.size());
+
+        // keyset pages start after the last mapping of the previous page
+        Assert.assertEquals(1, this.evaluationDao.getConsolidatedEmailMapping(true, 100, null, null).size());
+        Assert.assertEquals(0, this.evaluationDao.getConsolidatedEmailMapping(true, 100, 
+                (Long) mapping.get(0).get(EvalConstants.KEY_EMAIL_TEMPLATE_ID), (String) mapping.get(0).get(EvalConstants.KEY_USER_ID)).size());
+
+        // the run stopped before sending so everything is still waiting (but only for available emails)
+        Assert.assertEquals(1, this.evaluationDao.resumeConsolidatedEmailRecipients(true));
+        Assert.assertEquals(0, this.evaluationDao.resumeConsolidatedEmailRecipients(false));
+        Assert.assertEquals(0, this.evaluationDao.getConsolidatedEmailMapping(false, 100, 0).size());
+
+        // once sent there is nothing left to resume
+        markMappingSent(true, mapping);
+        Assert.assertEquals(0, this.evaluationDao.resumeConsolidatedEmailRecipients(true));
+        Assert.assertEquals(0, this.evaluationDao.resetConsolidatedEmailRecipients(true));
+        Assert.assertEquals(0, this.evaluationDao.selectConsolidatedEmailRecipients(true, (Date) null, false, (Date) null, EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_AVAILABLE));
+    }
+
     @Test
     public void testGetConsolidatedEmailMapping() {
 
@@ -1749,6 +2185,7 @@ public class EvaluationDaoImplTest extends AbstractTransactionalJUnit4SpringCont
         List<Map<String,Object>> mapping1 = this.evaluationDao.getConsolidatedEmailMapping(true, 100, 0);
         Assert.assertNotNull(mapping1);
         Assert.assertEquals(1, mapping1.size());
+        markMappingSent(true, mapping1);
         int deletions1 = this.evaluationDao.resetConsolidatedEmailRecipients();
         Assert.assertEquals(1, deletions1);
 
@@ -1767,6 +2204,7 @@ public class EvaluationDaoImplTest extends AbstractTransactionalJUnit4SpringCont
         List<Map<String,Object>> mapping3 = this.evaluationDao.getConsolidatedEmailMapping(true, 100, 0);
         Assert.assertNotNull(mapping3);
         Assert.assertEquals(1, mapping3.size());
+        markMappingSent(true, mapping3);
         int deletions3 = this.evaluationDao.resetConsolidatedEmailRecipients();
         Assert.assertEquals(1, deletions3);
 
@@ -1785,6 +2223,7 @@ public class EvaluationDaoImplTest extends AbstractTransactionalJUnit4SpringCont
         List<Map<String,Object>> mapping5 = this.evaluationDao.getConsolidatedEmailMapping(false, 100, 0);
         Assert.assertNotNull(mapping5);
         Assert.assertEquals(1, mapping5.size());
+        markMappingSent(false, mapping5);
         int deletions5 = this.evaluationDao.resetConsolidatedEmailRecipients();
         Assert.assertEquals(1, deletions5);
 
@@ -1803,6 +2242,7 @@ public class EvaluationDaoImplTest extends AbstractTransactionalJUnit4SpringCont
         List<Map<String,Object>> mapping7 = this.evaluationDao.getConsolidatedEmailMapping(false, 100, 0);
         Assert.assertNotNull(mapping7);
         Assert.assertEquals(1, mapping7.size());
+        markMappingSent(false, mapping7);
         int deletions7 = this.evaluationDao.resetConsolidatedEmailRecipients();
         Assert.assertEquals(1, deletions7);
 
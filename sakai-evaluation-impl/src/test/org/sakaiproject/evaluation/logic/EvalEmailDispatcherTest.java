@@ -0,0 +1,105 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the consolidated email dispatcher
+ */
+public class EvalEmailDispatcherTest {
+
+   /**
+    * Fails the first few sends to each user instead of sending anything
+    */
+   private static class TestDispatcher extends EvalEmailDispatcher {
+      private final int failures;
+      private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+
+      public TestDispatcher(int threads, double messagesPerSecond, int maxRetries, int failures) {
+         super(null, threads, messagesPerSecond, maxRetries, 1L);
+         this.failures = failures;
+      }
+
+      @Override
+      protected void sendEmail(Email email) {
+         attempts.putIfAbsent(email.userId, new AtomicInteger());
+         if (attempts.get(email.userId).incrementAndGet() <= failures) {
+            throw new RuntimeException("Mail server is busy");
+         }
+      }
+   }
+
+   private EvalEmailDispatcher.Email makeEmail(String userId) {
+      return new EvalEmailDispatcher.Email("from@institution.edu", userId, userId + "-display", 1L, "subject", "message");
+   }
+
+   @Test
+   public void testSend() {
+      TestDispatcher dispatcher = new TestDispatcher(4, 0, 3, 0);
+      for (int i = 0; i < 50; i++) {
+         dispatcher.send(makeEmail("user" + i));
+      }
+      dispatcher.finish();
+      Assert.assertEquals(50, dispatcher.getSentCount());
+      Assert.assertEquals(0, dispatcher.getFailedCount());
+      List<EvalEmailDispatcher.Email> sent = dispatcher.drainSent();
+      Assert.assertEquals(50, sent.size());
+      Assert.assertTrue(dispatcher.drainSent().isEmpty());
+      Assert.assertTrue(dispatcher.drainFailed().isEmpty());
+   }
+
+   @Test
+   public void testRetries() {
+      // transient failures are retried
+      TestDispatcher dispatcher = new TestDispatcher(2, 0, 3, 2);
+      dispatcher.send(makeEmail("user1"));
+      dispatcher.send(makeEmail("user2"));
+      dispatcher.finish();
+      Assert.assertEquals(2, dispatcher.getSentCount());
+      Assert.assertEquals(4, dispatcher.getRetryCount());
+
+      // but not forever
+      dispatcher = new TestDispatcher(2, 0, 1, 5);
+      dispatcher.send(makeEmail("user1"));
+      dispatcher.finish();
+      Assert.assertEquals(0, dispatcher.getSentCount());
+      List<EvalEmailDispatcher.Email> failed = dispatcher.drainFailed();
+      Assert.assertEquals(1, failed.size());
+      Assert.assertEquals("user1", failed.get(0).userId);
+      Assert.assertNotNull(failed.get(0).error);
+   }
+
+   @Test
+   public void testRateLimit() {
+      // 20 per second with a burst of 20 means 40 emails take about a second
+      TestDispatcher dispatcher = new TestDispatcher(4, 20, 0, 0);
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < 40; i++) {
+         dispatcher.send(makeEmail("user" + i));
+      }
+      dispatcher.finish();
+      long elapsed = System.currentTimeMillis() - start;
+      Assert.assertEquals(40, dispatcher.getSentCount());
+      Assert.assertTrue("Sent too fast: " + elapsed + " ms", elapsed >= 900);
+   }
+
+}
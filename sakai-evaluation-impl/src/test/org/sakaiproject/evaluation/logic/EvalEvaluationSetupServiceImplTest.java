@@ -1210,7 +1210,37 @@ public class EvalEvaluationSetupServiceImplTest extends BaseTestEvalLogic {
         }
 
     }
-    
+
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.logic.EvalEvaluationSetupServiceImpl#synchronizeUserAssignmentsForEvaluations(java.lang.Long[], boolean)}.
+     */
+    @Test
+    public void testSynchronizeUserAssignmentsForEvaluations() {
+        Long[] evaluationIds = new Long[] {etdl.evaluationNewAdmin.getId(), etdl.evaluationActive.getId()};
+
+        evaluationSetupService.synchronizeUserAssignmentsForEvaluations(evaluationIds, true);
+
+        // the bulk sync should leave things exactly as a normal sync would so a normal sync changes nothing
+        List<Long> changed = evaluationSetupService.synchronizeUserAssignmentsForced(etdl.evaluationNewAdmin, null, true);
+        Assert.assertNotNull(changed);
+        Assert.assertEquals(0, changed.size());
+        changed = evaluationSetupService.synchronizeUserAssignmentsForced(etdl.evaluationActive, null, true);
+        Assert.assertNotNull(changed);
+        Assert.assertEquals(0, changed.size());
+
+        // running it again changes nothing
+        Assert.assertEquals(0, evaluationSetupService.synchronizeUserAssignmentsForEvaluations(evaluationIds, true));
+
+        Assert.assertEquals(0, evaluationSetupService.synchronizeUserAssignmentsForEvaluations(new Long[] {}, true));
+
+        try {
+            evaluationSetupService.synchronizeUserAssignmentsForEvaluations(null, true);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e);
+        }
+    }
+
     /**
      * Test method for {@link org.sakaiproject.evaluation.logic.EvalEvaluationSetupServiceImpl#synchronizeUserAssignments(java.lang.Long, java.lang.String)}.
      */
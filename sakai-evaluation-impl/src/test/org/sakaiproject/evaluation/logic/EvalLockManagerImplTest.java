@@ -0,0 +1,132 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.evaluation.dao.EvaluationDao;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
+
+/**
+ * Races many threads (each acting as a different server) against the in-memory database
+ * to make sure only one of them ever holds a lock at a time,
+ * this is not transactional so every lock call commits like it would on a real server
+ */
+@ContextConfiguration(locations={
+		"/hibernate-test.xml",
+		"classpath:org/sakaiproject/evaluation/spring-hibernate.xml"})
+public class EvalLockManagerImplTest extends AbstractJUnit4SpringContextTests {
+
+    private static final int THREADS = 12;
+    private static final int ROUNDS = 25;
+
+    private EvalLockManagerImpl lockManager;
+
+    @Before
+    public void onSetUp() {
+        EvaluationDao evaluationDao = (EvaluationDao) applicationContext.getBean("org.sakaiproject.evaluation.dao.EvaluationDao");
+        lockManager = new EvalLockManagerImpl();
+        lockManager.setDao(evaluationDao);
+        lockManager.setHeartbeatInterval(50);
+    }
+
+    @After
+    public void onTearDown() {
+        lockManager.destroy();
+    }
+
+    @Test
+    public void testObtainLeaseRace() throws InterruptedException {
+        final String lockId = "race.lease.lock";
+        final AtomicInteger holders = new AtomicInteger();
+        final AtomicInteger maxHolders = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final List<Long> tokens = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final String serverId = "server" + i;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int round = 0; round < ROUNDS; round++) {
+                    Long token = lockManager.obtainLease(lockId, serverId, 60000);
+                    if (token == null) {
+                        failures.incrementAndGet();
+                    } else if (token > 0) {
+                        int current = holders.incrementAndGet();
+                        maxHolders.accumulateAndGet(current, Math::max);
+                        tokens.add(token);
+                        if (! lockManager.checkLease(lockId, serverId, token)) {
+                            failures.incrementAndGet();
+                        }
+                        holders.decrementAndGet();
+                        lockManager.releaseLock(lockId, serverId);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES));
+
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(1, maxHolders.get());
+        Assert.assertFalse(tokens.isEmpty());
+        // every time the lock changed hands it got a new token
+        Assert.assertEquals(tokens.size(), new HashSet<>(tokens).size());
+        Assert.assertNull(lockManager.getLockHolder(lockId, 60000));
+    }
+
+    @Test
+    public void testLeaseHeartbeat() throws InterruptedException {
+        final String lockId = "heartbeat.lease.lock";
+        Long token = lockManager.obtainLease(lockId, "server1", 300);
+        Assert.assertNotNull(token);
+        Assert.assertTrue(token > 0);
+
+        // the heartbeat keeps the lease alive well past the time period
+        Thread.sleep(1000);
+        Assert.assertEquals("server1", lockManager.getLockHolder(lockId, 300));
+        Assert.assertEquals(Long.valueOf(0l), lockManager.obtainLease(lockId, "server2", 300));
+        Assert.assertTrue(lockManager.checkLease(lockId, "server1", token));
+
+        // shutting down releases it
+        lockManager.destroy();
+        Assert.assertNull(lockManager.getLockHolder(lockId, 300));
+        Assert.assertFalse(lockManager.checkLease(lockId, "server1", token));
+        Long token2 = lockManager.obtainLease(lockId, "server2", 300);
+        Assert.assertTrue(token2 > token);
+        lockManager.releaseLock(lockId, "server2");
+    }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.evaluation.test.EvalTestDataLoad;
+
+/**
+ * Tests for the report output cache
+ */
+public class EvalReportCacheImplTest extends BaseTestEvalLogic {
+
+   private EvalReportCacheImpl reportCache;
+   private File directory;
+
+   @Override
+   @Before
+   public void onSetUpBeforeTransaction() throws Exception {
+      super.onSetUpBeforeTransaction();
+
+      directory = Files.createTempDirectory("evalReportCacheTest").toFile();
+      reportCache = new EvalReportCacheImpl();
+      reportCache.setDao(evaluationDao);
+      reportCache.setCacheDirectory(directory.getAbsolutePath());
+      reportCache.setMaxCacheSize(10);
+      reportCache.init();
+   }
+
+   @After
+   public void tearDown() {
+      reportCache.destroy();
+      directory.delete();
+   }
+
+   private void storeReport(String key, Long evaluationId, String content, boolean complete) throws Exception {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      OutputStream reportStream = reportCache.startReport(key, evaluationId, out);
+      reportStream.write(content.getBytes("UTF-8"));
+      reportCache.endReport(reportStream, complete);
+      Assert.assertEquals(content, out.toString("UTF-8"));
+   }
+
+   private String copyReport(String key) throws Exception {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      if (! reportCache.copyReport(key, out)) {
+         return null;
+      }
+      return out.toString("UTF-8");
+   }
+
+   @Test
+   public void testMakeReportKey() {
+      Long evalId = etdl.evaluationClosed.getId();
+      String key = reportCache.makeReportKey(evalId, new String[] {EvalTestDataLoad.SITE1_REF, EvalTestDataLoad.SITE2_REF}, "all", "csv");
+      Assert.assertNotNull(key);
+      Assert.assertTrue(key.startsWith(evalId + "-"));
+
+      // group order does not matter but everything else does
+      Assert.assertEquals(key, reportCache.makeReportKey(evalId, new String[] {EvalTestDataLoad.SITE2_REF, EvalTestDataLoad.SITE1_REF}, "all", "csv"));
+      Assert.assertFalse(key.equals(reportCache.makeReportKey(evalId, new String[] {EvalTestDataLoad.SITE1_REF}, "all", "csv")));
+      Assert.assertFalse(key.equals(reportCache.makeReportKey(evalId, new String[] {EvalTestDataLoad.SITE1_REF, EvalTestDataLoad.SITE2_REF}, "user:" + EvalTestDataLoad.MAINT_USER_ID, "csv")));
+      Assert.assertFalse(key.equals(reportCache.makeReportKey(evalId, new String[] {EvalTestDataLoad.SITE1_REF, EvalTestDataLoad.SITE2_REF}, "all", "pdf")));
+
+      // changing a response changes the key
+      etdl.response3.setLastModified(new Date(System.currentTimeMillis() + 60000));
+      evaluationDao.save(etdl.response3);
+      Assert.assertFalse(key.equals(reportCache.makeReportKey(evalId, new String[] {EvalTestDataLoad.SITE1_REF, EvalTestDataLoad.SITE2_REF}, "all", "csv")));
+
+      // changing the settings changes the key
+      key = reportCache.makeReportKey(evalId, new String[] {EvalTestDataLoad.SITE1_REF, EvalTestDataLoad.SITE2_REF}, "all", "csv");
+      evaluationDao.incrementConfigVersion(EvalSettingsImpl.SETTINGS_VERSION_NAME);
+      Assert.assertFalse(key.equals(reportCache.makeReportKey(evalId, new String[] {EvalTestDataLoad.SITE1_REF, EvalTestDataLoad.SITE2_REF}, "all", "csv")));
+
+      // evaluations which are not closed are not cached
+      Assert.assertNull(reportCache.makeReportKey(etdl.evaluationActive.getId(), null, "all", "csv"));
+      Assert.assertNull(reportCache.makeReportKey(EvalTestDataLoad.INVALID_LONG_ID, null, "all", "csv"));
+   }
+
+   @Test
+   public void testStoreAndCopyReport() throws Exception {
+      Long evalId = etdl.evaluationClosed.getId();
+      Assert.assertNull(copyReport("missing"));
+      Assert.assertNull(copyReport(null));
+
+      storeReport("r1", evalId, "12345", true);
+      Assert.assertEquals("12345", copyReport("r1"));
+
+      // incomplete reports are not kept
+      storeReport("r2", evalId, "abc", false);
+      Assert.assertNull(copyReport("r2"));
+
+      // least recently used are dropped when over the size limit
+      storeReport("r3", etdl.evaluationViewable.getId(), "678", true);
+      copyReport("r1");
+      storeReport("r4", evalId, "901", true);
+      Assert.assertEquals("12345", copyReport("r1"));
+      Assert.assertEquals("901", copyReport("r4"));
+      Assert.assertNull(copyReport("r3"));
+      Assert.assertEquals(Long.valueOf(1), reportCache.getStats().get(EvalReportCacheImpl.STAT_EVICTED));
+      Assert.assertEquals(Long.valueOf(8), reportCache.getStats().get(EvalReportCacheImpl.STAT_SIZE));
+
+      // replacing a report does not double count it
+      storeReport("r4", evalId, "109", true);
+      Assert.assertEquals("109", copyReport("r4"));
+      Assert.assertEquals(Long.valueOf(8), reportCache.getStats().get(EvalReportCacheImpl.STAT_SIZE));
+
+      reportCache.invalidate(evalId);
+      Assert.assertNull(copyReport("r1"));
+      Assert.assertNull(copyReport("r4"));
+      Assert.assertEquals(Long.valueOf(0), reportCache.getStats().get(EvalReportCacheImpl.STAT_COUNT));
+      Assert.assertEquals(0, directory.list().length);
+   }
+
+}
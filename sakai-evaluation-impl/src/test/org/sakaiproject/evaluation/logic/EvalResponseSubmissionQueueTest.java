@@ -0,0 +1,208 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sakaiproject.evaluation.logic.EvalResponseSubmissionQueue.QueuedResponse;
+import org.sakaiproject.evaluation.model.EvalResponse;
+
+/**
+ * Test class for EvalResponseSubmissionQueue
+ */
+public class EvalResponseSubmissionQueueTest {
+
+    /**
+     * Records what happens to each submission, groups named "bad" cannot be saved
+     * and groups named "late" are only claimed on the second try (not committed yet)
+     */
+    private static class TestHandler implements EvalResponseSubmissionQueue.ResponseBatchHandler {
+        final List<String> savedGroups = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+        final Set<String> triedLate = Collections.synchronizedSet(new HashSet<String>());
+        CountDownLatch blocker = new CountDownLatch(0);
+
+        public Set<String> saveResponseBatch(List<QueuedResponse> batch) {
+            try {
+                blocker.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Set<String> claimed = new HashSet<>();
+            for (QueuedResponse queued : batch) {
+                String groupId = queued.response.getEvalGroupId();
+                if ("bad".equals(groupId)) {
+                    throw new IllegalStateException("cannot save " + queued.submissionId);
+                }
+                if ("late".equals(groupId) && triedLate.add(queued.submissionId)) {
+                    continue;
+                }
+                claimed.add(queued.submissionId);
+            }
+            for (QueuedResponse queued : batch) {
+                if (claimed.contains(queued.submissionId)) {
+                    savedGroups.add(queued.response.getEvalGroupId());
+                }
+            }
+            return claimed;
+        }
+
+        public void completeResponseBatch(List<QueuedResponse> saved) {
+            for (QueuedResponse queued : saved) {
+                completed.add(queued.submissionId);
+            }
+        }
+
+        public void failResponseSubmission(QueuedResponse queued) {
+            failed.add(queued.submissionId);
+        }
+
+        public List<QueuedResponse> getStaleResponseSubmissions(Date olderThan, int max) {
+            return new ArrayList<>();
+        }
+
+        public void purgeResponseSubmissions() {
+            // nothing stored
+        }
+    }
+
+    private EvalResponse makeResponse(String userId, String evalGroupId) {
+        return new EvalResponse(userId, evalGroupId, null, new Date());
+    }
+
+    /**
+     * Reserve space and offer the response the way a committed submission is
+     */
+    private String submit(EvalResponseSubmissionQueue queue, String userId, String evalGroupId) {
+        String submissionId = queue.reserve(userId);
+        if (submissionId != null) {
+            Assert.assertTrue( queue.offer(submissionId, makeResponse(userId, evalGroupId), userId, true) );
+        }
+        return submissionId;
+    }
+
+    private void waitFor(List<String> list, int size) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000l;
+        while (list.size() < size && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void testOfferAndSave() throws Exception {
+        TestHandler handler = new TestHandler();
+        EvalResponseSubmissionQueue queue = new EvalResponseSubmissionQueue(handler, 2, 10, 5, 1000l, 60000l);
+
+        // not running so nothing is accepted
+        Assert.assertNull( submit(queue, "user1", "g1") );
+
+        queue.start();
+        String id1 = submit(queue, "user1", "g1");
+        String id2 = submit(queue, "user1", "g2");
+        String id3 = submit(queue, "user2", "bad");
+        Assert.assertNotNull(id1);
+        Assert.assertNotNull(id2);
+        Assert.assertNotNull(id3);
+
+        waitFor(handler.completed, 2);
+        waitFor(handler.failed, 1);
+        queue.shutdown();
+
+        // same user so the order is preserved
+        Assert.assertEquals(2, handler.savedGroups.size());
+        Assert.assertEquals("g1", handler.savedGroups.get(0));
+        Assert.assertEquals("g2", handler.savedGroups.get(1));
+        Assert.assertTrue( handler.completed.contains(id1) );
+        Assert.assertTrue( handler.completed.contains(id2) );
+
+        // the one that cannot be saved is marked as failed so the user can be told
+        Assert.assertEquals(1, handler.failed.size());
+        Assert.assertEquals(id3, handler.failed.get(0));
+        Assert.assertFalse( handler.completed.contains(id3) );
+    }
+
+    @Test
+    public void testRetryUnclaimed() throws Exception {
+        TestHandler handler = new TestHandler();
+        EvalResponseSubmissionQueue queue = new EvalResponseSubmissionQueue(handler, 1, 10, 5, 1000l, 60000l);
+        queue.start();
+
+        // not claimed the first time (submitter has not committed), saved on the retry
+        String id = submit(queue, "user1", "late");
+        Assert.assertNotNull(id);
+        waitFor(handler.completed, 1);
+        queue.shutdown();
+
+        Assert.assertTrue( handler.triedLate.contains(id) );
+        Assert.assertEquals(1, handler.completed.size());
+        Assert.assertEquals(id, handler.completed.get(0));
+        Assert.assertEquals(0, handler.failed.size());
+    }
+
+    @Test
+    public void testRetryKeepsUserOrder() throws Exception {
+        TestHandler handler = new TestHandler();
+        EvalResponseSubmissionQueue queue = new EvalResponseSubmissionQueue(handler, 1, 10, 5, 1000l, 60000l);
+        queue.start();
+
+        // the later response from the same user waits for the retry, the other user does not
+        String late = submit(queue, "user1", "late");
+        String next = submit(queue, "user1", "g2");
+        String other = submit(queue, "user2", "g3");
+        waitFor(handler.completed, 3);
+        queue.shutdown();
+
+        Assert.assertEquals(3, handler.completed.size());
+        Assert.assertTrue( handler.completed.contains(late) );
+        Assert.assertTrue( handler.completed.contains(next) );
+        Assert.assertTrue( handler.completed.contains(other) );
+        Assert.assertTrue( handler.savedGroups.indexOf("late") < handler.savedGroups.indexOf("g2") );
+        Assert.assertTrue( handler.savedGroups.indexOf("g3") < handler.savedGroups.indexOf("late") );
+    }
+
+    @Test
+    public void testBackPressure() throws Exception {
+        TestHandler handler = new TestHandler();
+        handler.blocker = new CountDownLatch(1);
+        EvalResponseSubmissionQueue queue = new EvalResponseSubmissionQueue(handler, 1, 1, 1, 50l, 60000l);
+        queue.start();
+
+        // first is taken by the (blocked) worker, second fills the lane, third has to give up
+        Assert.assertNotNull( submit(queue, "user1", "g1") );
+        Thread.sleep(200);
+        String queued = submit(queue, "user1", "g2");
+        Assert.assertNotNull(queued);
+        Assert.assertEquals(1, queue.size());
+        Assert.assertNull( submit(queue, "user1", "g3") );
+
+        // shutdown saves whatever is left
+        handler.blocker.countDown();
+        queue.shutdown();
+        Assert.assertEquals(0, queue.size());
+        Assert.assertEquals(2, handler.completed.size());
+        Assert.assertTrue( handler.completed.contains(queued) );
+    }
+
+}
@@ -178,4 +178,121 @@ public class EvalSettingsImplTest extends BaseTestEvalLogic {
 
 	}
 
+	/**
+	 * Test method for {@link org.sakaiproject.evaluation.logic.EvalSettingsImpl#resetCache(java.lang.String)}.
+	 */
+	@Test
+	public void testResetCache() {
+		String s = (String) evalSettings.get(TEST_CONSTANT1);
+		Assert.assertEquals(TEST_VALUE1, s);
+
+		// change the value directly in the DB, the cached value is used until the cache is reset
+		config1.setValue(TEST_VALUE2);
+		evaluationDao.save(config1);
+		s = (String) evalSettings.get(TEST_CONSTANT1);
+		Assert.assertEquals(TEST_VALUE1, s);
+
+		evalSettings.resetCache(TEST_CONSTANT1);
+		s = (String) evalSettings.get(TEST_CONSTANT1);
+		Assert.assertEquals(TEST_VALUE2, s);
+
+		// reset all
+		config3.setValue(TEST_VALUE1);
+		evaluationDao.save(config3);
+		evalSettings.resetCache(null);
+		s = (String) evalSettings.get(TEST_CONSTANT3);
+		Assert.assertEquals(TEST_VALUE1, s);
+	}
+
+	/**
+	 * Test method for {@link org.sakaiproject.evaluation.logic.EvalSettingsImpl#checkSettingsVersion()}.
+	 */
+	@Test
+	public void testCheckSettingsVersion() {
+		Assert.assertEquals(true, evalSettings.set(TEST_CONSTANT1, TEST_VALUE2));
+		String s = (String) evalSettings.get(TEST_CONSTANT1);
+		Assert.assertEquals(TEST_VALUE2, s);
+
+		// another server changes the setting (and the version) directly in the DB
+		EvalSettingsImpl otherServerSettings = new EvalSettingsImpl();
+		otherServerSettings.setDao(evaluationDao);
+		otherServerSettings.setExternalLogic(externalLogic);
+		Assert.assertEquals(true, otherServerSettings.set(TEST_CONSTANT1, TEST_VALUE3));
+
+		s = (String) evalSettings.get(TEST_CONSTANT1);
+		Assert.assertEquals(TEST_VALUE2, s);
+		evalSettings.checkSettingsVersion();
+		s = (String) evalSettings.get(TEST_CONSTANT1);
+		Assert.assertEquals(TEST_VALUE3, s);
+
+		// nothing changed so this keeps the current values
+		evalSettings.checkSettingsVersion();
+		s = (String) evalSettings.get(TEST_CONSTANT1);
+		Assert.assertEquals(TEST_VALUE3, s);
+	}
+
+	/**
+	 * Test method for {@link org.sakaiproject.evaluation.logic.EvalSettingsImpl#checkSettingsVersion()}
+	 * when two servers change settings at the same time
+	 */
+	@Test
+	public void testCheckSettingsVersionConcurrentChanges() {
+		EvalSettingsImpl otherServerSettings = new EvalSettingsImpl();
+		otherServerSettings.setDao(evaluationDao);
+		otherServerSettings.setExternalLogic(externalLogic);
+		Assert.assertEquals(TEST_VALUE1, evalSettings.get(TEST_CONSTANT1));
+		Assert.assertEquals(TEST_VALUE3, otherServerSettings.get(TEST_CONSTANT3));
+
+		// both servers change a different setting, each version change is counted
+		Long version = evaluationDao.getConfigVersion(EvalSettingsImpl.SETTINGS_VERSION_NAME);
+		long startVersion = version == null ? 0l : version;
+		Assert.assertEquals(true, evalSettings.set(TEST_CONSTANT1, TEST_VALUE2));
+		Assert.assertEquals(true, otherServerSettings.set(TEST_CONSTANT3, TEST_VALUE1));
+		Assert.assertEquals(Long.valueOf(startVersion + 2), evaluationDao.getConfigVersion(EvalSettingsImpl.SETTINGS_VERSION_NAME));
+
+		// each server keeps its own change and picks up the other one
+		evalSettings.checkSettingsVersion();
+		otherServerSettings.checkSettingsVersion();
+		Assert.assertEquals(TEST_VALUE2, evalSettings.get(TEST_CONSTANT1));
+		Assert.assertEquals(TEST_VALUE1, evalSettings.get(TEST_CONSTANT3));
+		Assert.assertEquals(TEST_VALUE2, otherServerSettings.get(TEST_CONSTANT1));
+		Assert.assertEquals(TEST_VALUE1, otherServerSettings.get(TEST_CONSTANT3));
+	}
+
+	/**
+	 * Test method for {@link org.sakaiproject.evaluation.logic.EvalSettingsImpl#getBoolean(EvalSettings.BooleanKey, boolean)},
+	 * {@link org.sakaiproject.evaluation.logic.EvalSettingsImpl#getInt(EvalSettings.IntKey, int)} and
+	 * {@link org.sakaiproject.evaluation.logic.EvalSettingsImpl#getString(EvalSettings.StringKey)}.
+	 */
+	@Test
+	public void testGetTypedKeys() {
+		EvalSettings.StringKey stringKey = new EvalSettings.StringKey(TEST_CONSTANT1);
+		Assert.assertEquals(TEST_VALUE1, evalSettings.getString(stringKey));
+		Assert.assertEquals(true, evalSettings.set(TEST_CONSTANT1, TEST_VALUE2));
+		Assert.assertEquals(TEST_VALUE2, evalSettings.getString(stringKey));
+
+		EvalSettings.BooleanKey booleanKey = new EvalSettings.BooleanKey(EvalSettings.EVAL_USE_DATE_TIME);
+		Assert.assertEquals(true, evalSettings.set(EvalSettings.EVAL_USE_DATE_TIME, Boolean.FALSE));
+		Assert.assertFalse(evalSettings.getBoolean(booleanKey, true));
+		Assert.assertEquals(true, evalSettings.set(EvalSettings.EVAL_USE_DATE_TIME, Boolean.TRUE));
+		Assert.assertTrue(evalSettings.getBoolean(booleanKey, false));
+		// a boolean setting which is not set is false rather than the default
+		Assert.assertEquals(true, evalSettings.set(EvalSettings.EVAL_USE_DATE_TIME, null));
+		Assert.assertFalse(evalSettings.getBoolean(booleanKey, true));
+
+		EvalSettings.IntKey intKey = new EvalSettings.IntKey(EvalSettings.EMAIL_BATCH_SIZE);
+		Assert.assertEquals(true, evalSettings.set(EvalSettings.EMAIL_BATCH_SIZE, 25));
+		Assert.assertEquals(25, evalSettings.getInt(intKey, -1));
+		Assert.assertEquals(true, evalSettings.set(EvalSettings.EMAIL_BATCH_SIZE, null));
+		Assert.assertEquals(-1, evalSettings.getInt(intKey, -1));
+
+		// keys must match the type of the constant
+		try {
+			new EvalSettings.IntKey(EvalSettings.EVAL_USE_DATE_TIME);
+			Assert.fail("Should have thrown an illegal argument exception");
+		} catch (IllegalArgumentException e) {
+			Assert.assertNotNull(e);
+		}
+	}
+
 }
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for EvalStateTransitionScheduler
+ */
+public class EvalStateTransitionSchedulerTest {
+
+    @Test
+    public void testGetNextBoundary() {
+        Date now = new Date();
+        Date past = new Date(now.getTime() - 1000);
+        Date soon = new Date(now.getTime() + 1000);
+        Date later = new Date(now.getTime() + 5000);
+
+        Assert.assertEquals(soon, EvalStateTransitionScheduler.getNextBoundary(now, past, later, soon, null));
+        Assert.assertEquals(later, EvalStateTransitionScheduler.getNextBoundary(now, past, null, later));
+        Assert.assertNull(EvalStateTransitionScheduler.getNextBoundary(now, past, null));
+        Assert.assertNull(EvalStateTransitionScheduler.getNextBoundary(now, now));
+    }
+
+    @Test
+    public void testScheduleIndex() {
+        EvalStateTransitionScheduler scheduler = new EvalStateTransitionScheduler(id -> null);
+        Date date = new Date(System.currentTimeMillis() + 100000);
+        scheduler.schedule(1l, date);
+        scheduler.schedule(2l, date);
+        Assert.assertEquals(2, scheduler.size());
+        Assert.assertEquals(date, scheduler.getBoundary(1l));
+
+        // rescheduling replaces the entry
+        Date other = new Date(date.getTime() + 1000);
+        scheduler.schedule(1l, other);
+        Assert.assertEquals(2, scheduler.size());
+        Assert.assertEquals(other, scheduler.getBoundary(1l));
+
+        // null removes it
+        scheduler.schedule(1l, null);
+        Assert.assertEquals(1, scheduler.size());
+        Assert.assertNull(scheduler.getBoundary(1l));
+
+        Map<Long, Date> all = new HashMap<>();
+        all.put(3l, date);
+        all.put(4l, null);
+        scheduler.replaceAll(all);
+        Assert.assertEquals(1, scheduler.size());
+        Assert.assertNull(scheduler.getBoundary(2l));
+        Assert.assertEquals(date, scheduler.getBoundary(3l));
+    }
+
+    @Test
+    public void testTransitionsFireInOrder() throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        final List<Long> fired = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(4);
+        EvalStateTransitionScheduler scheduler = new EvalStateTransitionScheduler(id -> {
+            fired.add(id);
+            latch.countDown();
+            // evaluation 1 has one more boundary after the first one
+            if (id == 1l && Collections.frequency(fired, 1l) == 1) {
+                return new Date(start + 300);
+            }
+            return null;
+        });
+        scheduler.schedule(1l, new Date(start + 100));
+        scheduler.schedule(2l, new Date(start + 200));
+        scheduler.schedule(3l, new Date(start - 1000));
+        scheduler.start();
+        try {
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(4, fired.size());
+            Assert.assertEquals(Long.valueOf(3l), fired.get(0));
+            Assert.assertEquals(Long.valueOf(1l), fired.get(1));
+            Assert.assertEquals(Long.valueOf(2l), fired.get(2));
+            Assert.assertEquals(Long.valueOf(1l), fired.get(3));
+            Assert.assertEquals(0, scheduler.size());
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testFailedTransitionIsRetried() throws InterruptedException {
+        final List<Long> fired = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(2);
+        EvalStateTransitionScheduler scheduler = new EvalStateTransitionScheduler(id -> {
+            fired.add(id);
+            latch.countDown();
+            if (fired.size() == 1) {
+                throw new IllegalStateException("first try fails");
+            }
+            return null;
+        }, 100l);
+        scheduler.schedule(1l, new Date(System.currentTimeMillis() - 1000));
+        scheduler.start();
+        try {
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(2, fired.size());
+            Assert.assertEquals(Long.valueOf(1l), fired.get(1));
+            Assert.assertEquals(0, scheduler.size());
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+}
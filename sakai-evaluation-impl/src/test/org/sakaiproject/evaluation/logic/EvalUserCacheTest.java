@@ -0,0 +1,133 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.logic.model.EvalUser;
+
+/**
+ * Test class for EvalUserCache
+ */
+public class EvalUserCacheTest {
+
+    private EvalUser makeUser(String userId) {
+        return new EvalUser(userId, EvalConstants.USER_TYPE_EXTERNAL, userId + "@institution.edu", userId, "User " + userId);
+    }
+
+    @Test
+    public void testSharedCache() {
+        EvalUserCache cache = new EvalUserCache(2, 60000);
+        EvalUser user1 = makeUser("user1");
+        Assert.assertNull(cache.get("user1"));
+        Assert.assertNull(cache.get(null));
+
+        cache.put(user1);
+        Assert.assertEquals(user1, cache.get("user1"));
+
+        // least recently used is dropped when full
+        cache.put(makeUser("user2"));
+        cache.get("user1");
+        cache.put(makeUser("user3"));
+        Assert.assertNotNull(cache.get("user1"));
+        Assert.assertNull(cache.get("user2"));
+        Assert.assertNotNull(cache.get("user3"));
+
+        // invalid users are not shared
+        EvalUser invalid = new EvalUser("invalid1", EvalConstants.USER_TYPE_INVALID, null);
+        cache.put(invalid);
+        Assert.assertNull(cache.get("invalid1"));
+
+        cache.remove("user1");
+        Assert.assertNull(cache.get("user1"));
+
+        Map<String, Long> stats = cache.getStats();
+        Assert.assertEquals(Long.valueOf(4), stats.get(EvalUserCache.STAT_SHARED_HITS));
+        Assert.assertEquals(Long.valueOf(4), stats.get(EvalUserCache.STAT_MISSES));
+        Assert.assertEquals(Long.valueOf(1), stats.get(EvalUserCache.STAT_EVICTED));
+        Assert.assertEquals(Long.valueOf(1), stats.get(EvalUserCache.STAT_SIZE));
+    }
+
+    @Test
+    public void testCopies() {
+        EvalUserCache cache = new EvalUserCache(10, 60000);
+        EvalUser user1 = makeUser("user1");
+        cache.put(user1);
+
+        // changing the user after it is cached does not change the cached user
+        user1.displayName = "Changed";
+        EvalUser cached = cache.get("user1");
+        Assert.assertNotSame(user1, cached);
+        Assert.assertEquals("User user1", cached.displayName);
+        Assert.assertEquals("user1@institution.edu", cached.email);
+        Assert.assertEquals(EvalConstants.USER_TYPE_EXTERNAL, cached.type);
+
+        // every caller gets its own copy
+        cached.displayName = "Changed again";
+        Assert.assertNotSame(cached, cache.get("user1"));
+        Assert.assertEquals("User user1", cache.get("user1").displayName);
+
+        // the same for the request tier
+        cache.startRequest();
+        cache.get("user1").email = "changed@institution.edu";
+        Assert.assertEquals("user1@institution.edu", cache.get("user1").email);
+        cache.endRequest();
+    }
+
+    @Test
+    public void testExpiry() {
+        EvalUserCache cache = new EvalUserCache(10, -1);
+        cache.put(makeUser("user1"));
+        Assert.assertNull(cache.get("user1"));
+        Assert.assertEquals(Long.valueOf(1), cache.getStats().get(EvalUserCache.STAT_EXPIRED));
+        Assert.assertEquals(Long.valueOf(0), cache.getStats().get(EvalUserCache.STAT_SIZE));
+    }
+
+    @Test
+    public void testRequestCache() throws InterruptedException {
+        // shared tier disabled so only the request tier is used
+        final EvalUserCache cache = new EvalUserCache(0, 60000);
+        EvalUser invalid = new EvalUser("invalid1", EvalConstants.USER_TYPE_INVALID, null);
+        cache.put(makeUser("user1"));
+        Assert.assertNull(cache.get("user1"));
+
+        cache.startRequest();
+        cache.startRequest();
+        cache.put(makeUser("user1"));
+        cache.put(invalid);
+        Assert.assertNotNull(cache.get("user1"));
+        Assert.assertEquals(invalid, cache.get("invalid1"));
+
+        // other threads do not see the request users
+        final EvalUser[] other = new EvalUser[1];
+        Thread thread = new Thread(() -> other[0] = cache.get("user1"));
+        thread.start();
+        thread.join();
+        Assert.assertNull(other[0]);
+
+        // nested requests keep the users until the outer one ends
+        cache.endRequest();
+        Assert.assertNotNull(cache.get("user1"));
+        cache.endRequest();
+        Assert.assertNull(cache.get("user1"));
+        cache.endRequest();
+
+        Assert.assertEquals(Long.valueOf(3), cache.getStats().get(EvalUserCache.STAT_REQUEST_HITS));
+    }
+
+}
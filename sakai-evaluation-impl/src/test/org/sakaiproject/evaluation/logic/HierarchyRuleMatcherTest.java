@@ -0,0 +1,103 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.logic.externals.HierarchyRuleMatcher;
+
+/**
+ * Test class for HierarchyRuleMatcher
+ */
+public class HierarchyRuleMatcherTest {
+
+    @Test
+    public void testFindNodeIdQualifiers() {
+        HierarchyRuleMatcher matcher = new HierarchyRuleMatcher();
+        matcher.addRule(EvalConstants.HIERARCHY_QUALIFIER_IS, "MATH 101", EvalConstants.HIERARCHY_RULE_SITE, 1l);
+        matcher.addRule(EvalConstants.HIERARCHY_QUALIFIER_STARTS_WITH, "CHEM", EvalConstants.HIERARCHY_RULE_SITE, 2l);
+        matcher.addRule(EvalConstants.HIERARCHY_QUALIFIER_ENDS_WITH, "FALL", EvalConstants.HIERARCHY_RULE_SITE, 3l);
+        matcher.addRule(EvalConstants.HIERARCHY_QUALIFIER_CONTAINS, "BIO", EvalConstants.HIERARCHY_RULE_SITE, 4l);
+        matcher.compile();
+
+        Assert.assertEquals(4, matcher.size());
+        Assert.assertFalse(matcher.hasSectionRules());
+        Assert.assertEquals(Long.valueOf(1l), matcher.findNodeId("MATH 101", null, false));
+        Assert.assertEquals(Long.valueOf(2l), matcher.findNodeId("CHEM 200", null, false));
+        Assert.assertEquals(Long.valueOf(3l), matcher.findNodeId("PHYS 300 FALL", null, false));
+        Assert.assertEquals(Long.valueOf(4l), matcher.findNodeId("MICROBIOLOGY", null, false));
+        Assert.assertNull(matcher.findNodeId("MATH 1010", null, false));
+        Assert.assertNull(matcher.findNodeId("XCHEM", null, false));
+        Assert.assertNull(matcher.findNodeId("FALLING", null, false));
+        Assert.assertNull(matcher.findNodeId("BI O", null, false));
+        Assert.assertNull(matcher.findNodeId(null, null, false));
+    }
+
+    @Test
+    public void testFindNodeIdLastRuleWins() {
+        HierarchyRuleMatcher matcher = new HierarchyRuleMatcher();
+        matcher.addRule(EvalConstants.HIERARCHY_QUALIFIER_CONTAINS, "ABAB", EvalConstants.HIERARCHY_RULE_SITE, 1l);
+        matcher.addRule(EvalConstants.HIERARCHY_QUALIFIER_CONTAINS, "BA", EvalConstants.HIERARCHY_RULE_SITE, 2l);
+        matcher.addRule(EvalConstants.HIERARCHY_QUALIFIER_STARTS_WITH, "AB", EvalConstants.HIERARCHY_RULE_SITE, 3l);
+        matcher.addRule(EvalConstants.HIERARCHY_QUALIFIER_CONTAINS, "BAB", EvalConstants.HIERARCHY_RULE_SITE, 4l);
+        matcher.compile();
+
+        // all four match so the last one wins
+        Assert.assertEquals(Long.valueOf(4l), matcher.findNodeId("ABABAB", null, false));
+        // matched through a fail link
+        Assert.assertEquals(Long.valueOf(2l), matcher.findNodeId("XXBA", null, false));
+        Assert.assertEquals(Long.valueOf(3l), matcher.findNodeId("ABA", null, false));
+        Assert.assertNull(matcher.findNodeId("AAB", null, false));
+    }
+
+    @Test
+    public void testFindNodeIdSections() {
+        HierarchyRuleMatcher matcher = new HierarchyRuleMatcher();
+        matcher.addRule(EvalConstants.HIERARCHY_QUALIFIER_STARTS_WITH, "ENG", EvalConstants.HIERARCHY_RULE_SECTION, 1l);
+        matcher.addRule(EvalConstants.HIERARCHY_QUALIFIER_IS, "Site Title", EvalConstants.HIERARCHY_RULE_SITE, 2l);
+        matcher.compile();
+
+        Assert.assertTrue(matcher.hasSectionRules());
+        // section rules use the section titles for section based groups
+        Assert.assertEquals(Long.valueOf(1l), matcher.findNodeId("Other", Arrays.asList("HIST 1", "ENG 2"), true));
+        Assert.assertNull(matcher.findNodeId("ENG Site", Arrays.asList("HIST 1"), true));
+        // and the site title otherwise
+        Assert.assertEquals(Long.valueOf(1l), matcher.findNodeId("ENG Site", null, false));
+        // the site rule was added last so it wins
+        Assert.assertEquals(Long.valueOf(2l), matcher.findNodeId("Site Title", Arrays.asList("ENG 2"), true));
+    }
+
+    @Test
+    public void testNotCompiled() {
+        HierarchyRuleMatcher matcher = new HierarchyRuleMatcher();
+        try {
+            matcher.findNodeId("title", null, false);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalStateException e) {
+            Assert.assertNotNull(e.getMessage());
+        }
+        matcher.compile();
+        try {
+            matcher.addRule(EvalConstants.HIERARCHY_QUALIFIER_IS, "title", EvalConstants.HIERARCHY_RULE_SITE, 1l);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalStateException e) {
+            Assert.assertNotNull(e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic.scheduling;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.evaluation.logic.scheduling.ExportEvaluationReportsImpl.ExportCheckpoint;
+
+/**
+ * Test class for the checkpoint which lets an interrupted export resume
+ */
+public class ExportEvaluationReportsImplTest {
+
+    private File dir;
+    private File checkpointFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("eval-export").toFile();
+        checkpointFile = new File(dir, "checkpoint.txt");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private void makeReport(String fileName) throws IOException {
+        Files.write(new File(dir, fileName).toPath(), "report".getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        ExportCheckpoint checkpoint = new ExportCheckpoint(checkpointFile, true);
+        Assert.assertFalse(checkpoint.isDone("1:csv", dir));
+        makeReport("eval1.csv");
+        checkpoint.markDone("1:csv", "eval1.csv");
+        makeReport("eval1.pdf");
+        checkpoint.markDone("1:pdf", "eval1.pdf");
+        Assert.assertTrue(checkpoint.isDone("1:csv", dir));
+        checkpoint.close();
+
+        // the next run skips the finished reports
+        checkpoint = new ExportCheckpoint(checkpointFile, true);
+        Assert.assertTrue(checkpoint.isDone("1:csv", dir));
+        Assert.assertTrue(checkpoint.isDone("1:pdf", dir));
+        Assert.assertFalse(checkpoint.isDone("2:csv", dir));
+        makeReport("eval2 with spaces.csv");
+        checkpoint.markDone("2:csv", "eval2 with spaces.csv");
+        checkpoint.close();
+
+        // reports added on resume are kept as well
+        checkpoint = new ExportCheckpoint(checkpointFile, true);
+        Assert.assertTrue(checkpoint.isDone("1:csv", dir));
+        Assert.assertTrue(checkpoint.isDone("2:csv", dir));
+
+        // a report which was removed is exported again
+        Assert.assertTrue(new File(dir, "eval1.pdf").delete());
+        Assert.assertFalse(checkpoint.isDone("1:pdf", dir));
+        checkpoint.close();
+    }
+
+    @Test
+    public void testStartOver() throws IOException {
+        ExportCheckpoint checkpoint = new ExportCheckpoint(checkpointFile, false);
+        makeReport("eval1.csv");
+        checkpoint.markDone("1:csv", "eval1.csv");
+        checkpoint.close();
+
+        // without resume the finished reports are forgotten
+        checkpoint = new ExportCheckpoint(checkpointFile, false);
+        Assert.assertFalse(checkpoint.isDone("1:csv", dir));
+        checkpoint.close();
+        Assert.assertEquals(0, checkpointFile.length());
+
+        checkpoint = new ExportCheckpoint(checkpointFile, true);
+        Assert.assertFalse(checkpoint.isDone("1:csv", dir));
+        checkpoint.close();
+    }
+
+}
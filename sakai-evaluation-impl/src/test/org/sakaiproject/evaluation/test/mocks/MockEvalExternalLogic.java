@@ -448,6 +448,14 @@ public class MockEvalExternalLogic implements EvalExternalLogic {
         return Locale.US;
     }
 
+    public Map<String, Locale> getUserLocales(String[] userIds) {
+        Map<String, Locale> locales = new HashMap<>();
+        for (String userId : userIds) {
+            locales.put(userId, getUserLocale(userId));
+        }
+        return locales;
+    }
+
     /**
      * Return titles from the data load class
      * @param evalGroupId
@@ -660,6 +668,14 @@ public class MockEvalExternalLogic implements EvalExternalLogic {
         return null;
     }
 
+    public Map<String, String> getMyWorkspaceDashboards(String[] userIds) {
+        Map<String, String> dashboards = new HashMap<>();
+        for (String userId : userIds) {
+            dashboards.put(userId, getMyWorkspaceDashboard(userId));
+        }
+        return dashboards;
+    }
+
     public void setSessionTimeout(int Seconds) {
         // TODO Auto-generated method stub
     }
@@ -697,6 +713,19 @@ public class MockEvalExternalLogic implements EvalExternalLogic {
         return new HashSet<>();
     }
 
+    public Map<String, Map<String, Set<String>>> getUserIdsForEvalGroups( String[] evalGroupIDs, String[] permissions, Boolean sectionAware )
+    {
+        Map<String, Map<String, Set<String>>> m = new HashMap<>();
+        for (String permission : permissions) {
+            Map<String, Set<String>> groupUserIds = new HashMap<>();
+            for (String evalGroupID : evalGroupIDs) {
+                groupUserIds.put(evalGroupID, getUserIdsForEvalGroup(evalGroupID, permission, sectionAware));
+            }
+            m.put(permission, groupUserIds);
+        }
+        return m;
+    }
+
     @Override
     public List<HierarchyNodeRule> getRulesByNodeID( Long nodeID )
     {
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.test.EvalTestDataLoad;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the compact answer matrix against the entity based aggregation
+ */
+public class AnswerMatrixTest extends TestCase {
+
+   private EvalTestDataLoad etdl;
+   private List<EvalAnswer> answers;
+   private String scaledKey;
+   private String multipleKey;
+   private String textKey;
+
+   @Override
+   protected void setUp() throws Exception {
+      etdl = new EvalTestDataLoad(null);
+      etdl.templateItem2A.setId(102l);
+      etdl.templateItem3A.setId(103l);
+      etdl.templateItem5A.setId(105l);
+      etdl.response1.setId(1l);
+      etdl.response2.setId(2l);
+      etdl.response3.setId(3l);
+
+      scaledKey = TemplateItemUtils.makeTemplateItemAnswerKey(102l, null, null);
+      multipleKey = TemplateItemUtils.makeTemplateItemAnswerKey(103l, null, null);
+      textKey = TemplateItemUtils.makeTemplateItemAnswerKey(105l, EvalConstants.ITEM_CATEGORY_INSTRUCTOR, EvalTestDataLoad.MAINT_USER_ID);
+
+      answers = new ArrayList<>();
+      // scaled
+      answers.add( new EvalAnswer(etdl.response1, etdl.templateItem2A, etdl.item2, null, null, null, 1, null, "first") );
+      answers.add( new EvalAnswer(etdl.response2, etdl.templateItem2A, etdl.item2, null, null, null, 1, null, " ") );
+      answers.add( new EvalAnswer(etdl.response3, etdl.templateItem2A, etdl.item2, null, null, null, EvalConstants.NA_VALUE, null, "na") );
+      // multiple answer
+      answers.add( new EvalAnswer(etdl.response1, etdl.templateItem3A, etdl.item3, null, null, null, EvalConstants.NO_NUMERIC_ANSWER, ":0:2:", null) );
+      answers.add( new EvalAnswer(etdl.response2, etdl.templateItem3A, etdl.item3, null, null, null, EvalConstants.NO_NUMERIC_ANSWER, ":2:70:", null) );
+      answers.add( new EvalAnswer(etdl.response3, etdl.templateItem3A, etdl.item3, null, null, null, EvalConstants.NO_NUMERIC_ANSWER, EvalConstants.NO_MULTIPLE_ANSWER, null) );
+      // text (instructor)
+      answers.add( new EvalAnswer(etdl.response1, etdl.templateItem5A, etdl.item5, EvalTestDataLoad.MAINT_USER_ID, EvalConstants.ITEM_CATEGORY_INSTRUCTOR, "same text", null, null, null) );
+      answers.add( new EvalAnswer(etdl.response2, etdl.templateItem5A, etdl.item5, EvalTestDataLoad.MAINT_USER_ID, EvalConstants.ITEM_CATEGORY_INSTRUCTOR, "same text", null, null, null) );
+      answers.add( new EvalAnswer(etdl.response3, etdl.templateItem5A, etdl.item5, EvalTestDataLoad.MAINT_USER_ID, EvalConstants.ITEM_CATEGORY_INSTRUCTOR, null, EvalConstants.NA_VALUE, null, null) );
+   }
+
+   /**
+    * Test method for {@link AnswerMatrix#getAnswerChoicesCounts(String, String, int)}
+    */
+   public void testGetAnswerChoicesCounts() {
+      AnswerMatrix matrix = new AnswerMatrix(answers);
+
+      assertEquals(3, matrix.getResponsesCount());
+      assertEquals(Arrays.asList(1l, 2l, 3l), matrix.getResponseIds());
+      assertEquals(3, matrix.countAnswers(scaledKey));
+      assertEquals(0, matrix.countAnswers("invalid"));
+
+      // must match the entity based counts
+      List<EvalAnswer> scaledAnswers = answers.subList(0, 3);
+      assertTrue(Arrays.equals(
+            TemplateItemDataList.getAnswerChoicesCounts(EvalConstants.ITEM_TYPE_SCALED, 5, scaledAnswers),
+            matrix.getAnswerChoicesCounts(scaledKey, EvalConstants.ITEM_TYPE_SCALED, 5)));
+      assertTrue(Arrays.equals(new int[] {0, 2, 0, 0, 0, 1}, matrix.getAnswerChoicesCounts(scaledKey, EvalConstants.ITEM_TYPE_SCALED, 5)));
+
+      // multiple answers out of range end up in the last slot (same as the entity based counts)
+      List<EvalAnswer> multipleAnswers = answers.subList(3, 6);
+      assertTrue(Arrays.equals(
+            TemplateItemDataList.getAnswerChoicesCounts(EvalConstants.ITEM_TYPE_MULTIPLEANSWER, 3, multipleAnswers),
+            matrix.getAnswerChoicesCounts(multipleKey, EvalConstants.ITEM_TYPE_MULTIPLEANSWER, 3)));
+      assertTrue(Arrays.equals(new int[] {1, 0, 2, 1}, matrix.getAnswerChoicesCounts(multipleKey, EvalConstants.ITEM_TYPE_MULTIPLEANSWER, 3)));
+
+      // no answers
+      assertTrue(Arrays.equals(new int[3], matrix.getAnswerChoicesCounts("invalid", EvalConstants.ITEM_TYPE_SCALED, 2)));
+
+      try {
+         matrix.getAnswerChoicesCounts(textKey, EvalConstants.ITEM_TYPE_TEXT, 2);
+         fail("Should have thrown exception");
+      } catch (IllegalArgumentException e) {
+         assertNotNull(e.getMessage());
+      }
+   }
+
+   /**
+    * Test method for {@link AnswerMatrix#getComments(String)} and the text answers
+    */
+   public void testGetStrings() {
+      AnswerMatrix matrix = new AnswerMatrix(answers);
+
+      assertEquals(Arrays.asList("first", "na"), matrix.getComments(scaledKey));
+      assertEquals(0, matrix.getComments(textKey).size());
+      assertEquals(Arrays.asList("same text", "same text", null), matrix.getTextAnswers(textKey));
+      assertEquals(Arrays.asList("same text", "same text"), matrix.getNonBlankTextAnswers(textKey, false));
+      assertEquals(1, matrix.countNA(textKey));
+      assertEquals(1, matrix.countNA(scaledKey));
+      assertEquals(0, matrix.getTextAnswers("invalid").size());
+   }
+
+   /**
+    * Test method for the per response methods
+    */
+   public void testPerResponse() {
+      // streamed one response at a time
+      AnswerMatrix matrix = new AnswerMatrix();
+      matrix.handleResponseAnswers(3l, EvalTestDataLoad.SITE2_REF, Arrays.asList(answers.get(2), answers.get(5), answers.get(8)));
+      matrix.handleResponseAnswers(1l, EvalTestDataLoad.SITE1_REF, Arrays.asList(answers.get(0), answers.get(6),
+            new EvalAnswer(etdl.response1, etdl.templateItem3A, etdl.item3, null, null, null, EvalConstants.NO_NUMERIC_ANSWER, ":0:2:70:", null)));
+
+      assertEquals(Arrays.asList(1l, 3l), matrix.getResponseIds());
+      assertTrue(matrix.hasAnswer(textKey, 3l));
+      assertFalse(matrix.hasAnswer(textKey, 2l));
+      assertTrue(matrix.isNA(textKey, 3l));
+      assertFalse(matrix.isNA(textKey, 1l));
+      assertEquals(Integer.valueOf(1), matrix.getNumeric(scaledKey, 1l));
+      assertNull(matrix.getNumeric(multipleKey, 1l));
+      assertNull(matrix.getNumeric(scaledKey, 99l));
+      assertEquals("first", matrix.getComment(scaledKey, 1l));
+      assertEquals("same text", matrix.getText(textKey, 1l));
+      assertNull(matrix.getText(textKey, 3l));
+
+      // the bitsets are widened for choices past 64
+      int[] choices = matrix.getMultipleAnswers(multipleKey, 1l);
+      assertEquals(3, choices.length);
+      assertEquals(0, choices[0]);
+      assertEquals(2, choices[1]);
+      assertEquals(70, choices[2]);
+      assertEquals(0, matrix.getMultipleAnswers(multipleKey, 3l).length);
+      assertEquals(0, matrix.getMultipleAnswers(scaledKey, 1l).length);
+   }
+
+}
@@ -187,4 +187,82 @@ public class TemplateItemDataListTest extends TestCase {
 
    }
 
+   /**
+    * Test method for {@link org.sakaiproject.evaluation.utils.TemplateItemDataList#makeGroupTemplateItemDataList(String)}.
+    */
+   public void testMakeGroupTemplateItemDataList() {
+      EvalTestDataLoad etdl = new EvalTestDataLoad(null);
+
+      etdl.templateItem2A.setId(102l);
+      etdl.templateItem3A.setId(103l);
+      etdl.templateItem5A.setId(105l);
+      // items added at the group level for 2 different groups
+      EvalTemplateItem group1Item = new EvalTemplateItem( EvalTestDataLoad.ADMIN_USER_ID, etdl.templateAdmin, 
+            etdl.item2, 4, EvalConstants.ITEM_CATEGORY_COURSE, EvalConstants.HIERARCHY_LEVEL_GROUP,
+            EvalTestDataLoad.SITE1_REF, null,
+            EvalConstants.ITEM_SCALE_DISPLAY_FULL, Boolean.FALSE, false, false, null, null, null);
+      group1Item.setId(106l);
+      EvalTemplateItem group2Item = new EvalTemplateItem( EvalTestDataLoad.ADMIN_USER_ID, etdl.templateAdmin, 
+            etdl.item3, 5, EvalConstants.ITEM_CATEGORY_COURSE, EvalConstants.HIERARCHY_LEVEL_GROUP,
+            EvalTestDataLoad.SITE2_REF, null,
+            EvalConstants.ITEM_SCALE_DISPLAY_FULL, Boolean.FALSE, false, false, null, null, null);
+      group2Item.setId(107l);
+
+      List<EvalTemplateItem> testList = new ArrayList<>();
+      testList.add(etdl.templateItem2A); // course
+      testList.add(etdl.templateItem3A); // course
+      testList.add(etdl.templateItem5A); // instructor
+      testList.add(group1Item);
+      testList.add(group2Item);
+
+      Map<String, List<String>> associates = new HashMap<>();
+      List<String> associateIds = new ArrayList<>();
+      associateIds.add(EvalTestDataLoad.MAINT_USER_ID);
+      associates.put(EvalConstants.ITEM_CATEGORY_INSTRUCTOR, associateIds);
+      List<EvalHierarchyNode> nodes = new ArrayList<>();
+      nodes.add( new EvalHierarchyNode("node1", "node title", "description") );
+
+      TemplateItemDataList tidl = new TemplateItemDataList(testList, nodes, associates, null);
+      assertEquals(5, tidl.getTemplateItemsCount());
+
+      // only the group level items for the group are kept
+      TemplateItemDataList groupTidl = tidl.makeGroupTemplateItemDataList(EvalTestDataLoad.SITE1_REF);
+      assertNotNull(groupTidl);
+      assertNotSame(tidl, groupTidl);
+      assertEquals(4, groupTidl.getTemplateItemsCount());
+      assertTrue(groupTidl.getAllTemplateItems().contains(etdl.templateItem2A));
+      assertTrue(groupTidl.getAllTemplateItems().contains(etdl.templateItem3A));
+      assertTrue(groupTidl.getAllTemplateItems().contains(etdl.templateItem5A));
+      assertTrue(groupTidl.getAllTemplateItems().contains(group1Item));
+      assertFalse(groupTidl.getAllTemplateItems().contains(group2Item));
+      assertNotNull(groupTidl.getTemplateItem(106l));
+      assertNull(groupTidl.getTemplateItem(107l));
+      // the nodes and associates are shared and there are no answers
+      assertEquals(nodes, groupTidl.getHierarchyNodes());
+      assertEquals(associates, groupTidl.getAssociates());
+      assertEquals(2, groupTidl.getTemplateItemGroupsCount());
+      assertEquals(2, groupTidl.getAssociateTypes().size());
+      assertEquals(0, groupTidl.getAnswers().size());
+
+      groupTidl = tidl.makeGroupTemplateItemDataList(EvalTestDataLoad.SITE2_REF);
+      assertEquals(4, groupTidl.getTemplateItemsCount());
+      assertFalse(groupTidl.getAllTemplateItems().contains(group1Item));
+      assertTrue(groupTidl.getAllTemplateItems().contains(group2Item));
+
+      // a group without any group level items only gets the shared items
+      groupTidl = tidl.makeGroupTemplateItemDataList("/sites/ref-no-items");
+      assertEquals(3, groupTidl.getTemplateItemsCount());
+      assertFalse(groupTidl.getAllTemplateItems().contains(group1Item));
+      assertFalse(groupTidl.getAllTemplateItems().contains(group2Item));
+      // the original is not changed
+      assertEquals(5, tidl.getTemplateItemsCount());
+
+      try {
+         tidl.makeGroupTemplateItemDataList(null);
+         fail("Should have thrown exception");
+      } catch (IllegalArgumentException e) {
+         assertNotNull(e.getMessage());
+      }
+   }
+
 }
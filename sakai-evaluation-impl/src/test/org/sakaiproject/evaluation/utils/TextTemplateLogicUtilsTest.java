@@ -130,6 +130,25 @@ public class TextTemplateLogicUtilsTest extends TestCase {
       assertEquals(resultIf, result);
    }
 
+   public void testFreemarkerTemplateCache() {
+      // the same text always gets the same compiled template
+      assertSame(TextTemplateLogicUtils.getFreemarkerTemplate(SAMPLE1), TextTemplateLogicUtils.getFreemarkerTemplate(new String(SAMPLE1)));
+      assertNotSame(TextTemplateLogicUtils.getFreemarkerTemplate(SAMPLE1), TextTemplateLogicUtils.getFreemarkerTemplate(SAMPLE2));
+
+      // reusing the compiled template does not carry over values from earlier runs
+      Map<String, String> rVals = new HashMap<>();
+      rVals.put("name", "Aaron Zeckoski");
+      rVals.put("email", "aaronz@vt.edu");
+      rVals.put("company", "CARET, University of Cambridge");
+      assertEquals(RESULT1, TextTemplateLogicUtils.processTextTemplate(SAMPLE1, rVals));
+      rVals.put("name", "Someone Else");
+      assertEquals(RESULT1.replace("Aaron Zeckoski", "Someone Else"), TextTemplateLogicUtils.processTextTemplate(SAMPLE1, rVals));
+
+      // invalid templates are not cached and still fail every time
+      assertFalse(TextTemplateLogicUtils.checkTextTemplate("Broken <#if>"));
+      assertFalse(TextTemplateLogicUtils.checkTextTemplate("Broken <#if>"));
+   }
+
    public void testVelocityTextTemplate() {
       TextTemplateLogicUtils.useFreemarker = false;
       TextTemplateLogicUtils.useVelocity = true;
@@ -117,4 +117,14 @@ public class LocalResponsesLogic {
         responsesLogic.saveResponse(response, commonLogic.getCurrentUserId());
     }
 
+    /**
+     * Submits the current response, complete responses may be queued and saved
+     * in the background depending on the system settings
+     * @param response
+     * @return the submission id which can be used to check if the response was saved
+     */
+    public String submitResponse(EvalResponse response) {
+        return responsesLogic.submitResponse(response, commonLogic.getCurrentUserId());
+    }
+
 }
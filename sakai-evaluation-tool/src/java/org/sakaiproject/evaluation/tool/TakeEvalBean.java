@@ -119,7 +119,14 @@ public class TakeEvalBean {
             messages.addMessage(new TargettedMessage(messageKey, e));
             return "failure";
         }
-        messages.addMessage(new TargettedMessage("evaluations.take.message", new Object[] {
+        // queued responses are not saved yet, the summary page tells the user if they fail
+        String messageKey = "evaluations.take.message";
+        for (String submissionId : responseBeanLocator.getSubmissionIds().values()) {
+            if (submissionId != null) {
+                messageKey = "evaluations.take.queued.message";
+            }
+        }
+        messages.addMessage(new TargettedMessage(messageKey, new Object[] {
                 eval.getTitle(), commonLogic.getDisplayTitle(evalGroupId) },
                 TargettedMessage.SEVERITY_INFO));
         return "success";
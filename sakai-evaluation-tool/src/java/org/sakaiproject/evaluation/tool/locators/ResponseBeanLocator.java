@@ -42,6 +42,7 @@ public class ResponseBeanLocator implements BeanLocator {
     }
 
     private Map<String, EvalResponse> delivered = new HashMap<>();
+    private Map<String, String> submissionIds = new HashMap<>();
 
     public Object locateBean(String path) {
         EvalResponse togo = delivered.get(path);
@@ -93,9 +94,21 @@ public class ResponseBeanLocator implements BeanLocator {
             // saving so set the endTime to now
             if (isEvalComplete) {
                 response.setEndTime(new Date());
+                // complete responses may be queued and saved in the background
+                String submissionId = localResponsesLogic.submitResponse(response);
+                submissionIds.put(key, submissionId);
+            } else {
+                localResponsesLogic.saveResponse(response);
             }
-            localResponsesLogic.saveResponse(response);
         }
     }
 
+    /**
+     * @return the map of bean path to submission id for all responses submitted as complete in this request,
+     * the submission id is null for responses which were saved immediately (not queued)
+     */
+    public Map<String, String> getSubmissionIds() {
+        return submissionIds;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.tool.producers;
+
+import org.sakaiproject.evaluation.tool.renderers.NavBarRenderer;
+import org.sakaiproject.evaluation.tool.reporting.AsyncReportExporter;
+import org.sakaiproject.evaluation.tool.reporting.AsyncReportExporter.ReportJob;
+import org.sakaiproject.evaluation.tool.viewparams.ReportJobViewParams;
+import org.sakaiproject.evaluation.tool.viewparams.ReportParameters;
+
+import uk.org.ponder.rsf.components.UIBranchContainer;
+import uk.org.ponder.rsf.components.UIContainer;
+import uk.org.ponder.rsf.components.UIInternalLink;
+import uk.org.ponder.rsf.components.UIMessage;
+import uk.org.ponder.rsf.view.ComponentChecker;
+import uk.org.ponder.rsf.view.ViewComponentProducer;
+import uk.org.ponder.rsf.viewstate.ViewParameters;
+import uk.org.ponder.rsf.viewstate.ViewParamsReporter;
+
+/**
+ * Starts generating a report in the background and shows how it is going,
+ * the page keeps refreshing until the report can be downloaded
+ */
+public class ReportJobProducer implements ViewComponentProducer, ViewParamsReporter {
+
+	public static final String VIEW_ID = "report_job";
+	public String getViewID() {
+		return VIEW_ID;
+	}
+
+	/**
+	 * The view which sends the finished report (handled by the ReportHandlerHook)
+	 */
+	public static final String DOWNLOAD_VIEW_ID = "report_job_download";
+
+	private AsyncReportExporter asyncReportExporter;
+	public void setAsyncReportExporter(AsyncReportExporter asyncReportExporter) {
+		this.asyncReportExporter = asyncReportExporter;
+	}
+
+	private NavBarRenderer navBarRenderer;
+	public void setNavBarRenderer(NavBarRenderer navBarRenderer) {
+		this.navBarRenderer = navBarRenderer;
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.org.ponder.rsf.view.ComponentProducer#fillComponents(uk.org.ponder.rsf.components.UIContainer, uk.org.ponder.rsf.viewstate.ViewParameters, uk.org.ponder.rsf.view.ComponentChecker)
+	 */
+	public void fillComponents(UIContainer tofill, ViewParameters viewparams, ComponentChecker checker) {
+
+		UIMessage.make(tofill, "report-job-title", "reportjob.page.title");
+
+		navBarRenderer.makeNavBar(tofill, NavBarRenderer.NAV_ELEMENT, this.getViewID());
+
+		ReportJobViewParams jobParams = (ReportJobViewParams) viewparams;
+
+		String jobId = jobParams.jobId;
+		if (jobId == null) {
+			if (jobParams.evalId == null || jobParams.reportType == null) {
+				throw new IllegalArgumentException("evalId and reportType must be set for this view when there is no jobId");
+			}
+			String filename = jobParams.filename == null ? jobParams.reportType : jobParams.filename;
+			try {
+				jobId = asyncReportExporter.submit(jobParams.evalId, jobParams.groupIds, jobParams.evaluateeId,
+						jobParams.reportType, filename);
+			} catch (IllegalStateException e) {
+				UIMessage.make(tofill, "report-job-message", "reportjob.busy");
+				return;
+			}
+		}
+
+		ReportJob job = asyncReportExporter.getJob(jobId);
+		if (job == null) {
+			UIMessage.make(tofill, "report-job-message", "reportjob.missing");
+			return;
+		}
+
+		UIBranchContainer jobDiv = UIBranchContainer.make(tofill, "report-job:");
+		UIMessage.make(jobDiv, "report-job-file", "reportjob.report", new Object[] {job.getFilename()});
+		String state = job.getState();
+		if (AsyncReportExporter.STATE_DONE.equals(state)) {
+			UIMessage.make(jobDiv, "report-job-state", "reportjob.state.done", new Object[] {(job.getSize() + 1023) / 1024});
+			UIInternalLink.make(jobDiv, "report-job-download-link", UIMessage.make("reportjob.download"),
+					new ReportJobViewParams(DOWNLOAD_VIEW_ID, jobId));
+		} else if (AsyncReportExporter.STATE_FAILED.equals(state)) {
+			UIMessage.make(jobDiv, "report-job-state", "reportjob.state.failed", new Object[] {job.getError()});
+		} else {
+			UIMessage.make(jobDiv, "report-job-state", "reportjob.state." + state);
+			// the template reloads this link until the report is done
+			UIBranchContainer refreshDiv = UIBranchContainer.make(jobDiv, "report-job-refresh:");
+			UIInternalLink.make(refreshDiv, "report-job-refresh-link", UIMessage.make("reportjob.refresh"),
+					new ReportJobViewParams(VIEW_ID, jobId));
+		}
+		UIInternalLink.make(jobDiv, "report-job-back-link", UIMessage.make("reportjob.back"),
+				new ReportParameters(ReportsViewingProducer.VIEW_ID, job.getEvaluationId(), job.getGroupIds()));
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.org.ponder.rsf.viewstate.ViewParamsReporter#getViewParameters()
+	 */
+	public ViewParameters getViewParameters() {
+		return new ReportJobViewParams();
+	}
+}
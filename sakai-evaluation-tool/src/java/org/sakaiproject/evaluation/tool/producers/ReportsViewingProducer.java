@@ -29,7 +29,6 @@ import org.sakaiproject.evaluation.logic.EvalEvaluationService;
 import org.sakaiproject.evaluation.logic.EvalSettings;
 import org.sakaiproject.evaluation.logic.ReportingPermissions;
 import org.sakaiproject.evaluation.logic.model.EvalUser;
-import org.sakaiproject.evaluation.model.EvalAnswer;
 import org.sakaiproject.evaluation.model.EvalAssignUser;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 import org.sakaiproject.evaluation.model.EvalScale;
@@ -40,9 +39,9 @@ import org.sakaiproject.evaluation.tool.utils.EvalResponseAggregatorUtil;
 import org.sakaiproject.evaluation.tool.utils.RenderingUtils;
 import org.sakaiproject.evaluation.tool.utils.RenderingUtils.AnswersMean;
 import org.sakaiproject.evaluation.tool.viewparams.DownloadReportViewParams;
+import org.sakaiproject.evaluation.tool.viewparams.ReportJobViewParams;
 import org.sakaiproject.evaluation.tool.viewparams.ReportParameters;
 import org.sakaiproject.evaluation.utils.ArrayUtils;
-import org.sakaiproject.evaluation.utils.EvalUtils;
 import org.sakaiproject.evaluation.utils.TemplateItemDataList;
 import org.sakaiproject.evaluation.utils.TemplateItemDataList.DataTemplateItem;
 import org.sakaiproject.evaluation.utils.TemplateItemDataList.HierarchyNodeGroup;
@@ -223,8 +222,8 @@ public class ReportsViewingProducer extends EvalCommonProducer implements ViewPa
 
             Long templateId = evaluation.getTemplate().getId();
 
-            // Fetch most of all the data and metadata with the ultra TIDL object
-            TemplateItemDataList tidl = responseAggregator.prepareTemplateItemDataStructure(evaluationId, reportViewParams.groupIds);
+            // Fetch most of all the data and metadata with the ultra TIDL object (answers are only shown in aggregate)
+            TemplateItemDataList tidl = responseAggregator.prepareTemplateItemDataMatrix(evaluationId, reportViewParams.groupIds);
 
             List<EvalTemplateItem> allTemplateItems = tidl.getAllTemplateItems();
 
@@ -333,8 +332,6 @@ public class ReportsViewingProducer extends EvalCommonProducer implements ViewPa
         EvalTemplateItem templateItem = dti.templateItem;
         String templateItemType = TemplateItemUtils.getTemplateItemType(templateItem);
 
-        // get the answers associated with this data template item
-        List<EvalAnswer> itemAnswers = dti.getAnswers();
 
         if ( EvalConstants.ITEM_TYPE_SCALED.equals(templateItemType) 
                 || EvalConstants.ITEM_TYPE_MULTIPLEANSWER.equals(templateItemType) 
@@ -345,7 +342,7 @@ public class ReportsViewingProducer extends EvalCommonProducer implements ViewPa
 
             UIBranchContainer scaled = UIBranchContainer.make(tofill, "scaledSurvey:");
 
-            int responsesCount = itemAnswers.size();
+            int responsesCount = dti.getAnswersCount();
 
             UIOutput.make(scaled, "itemNum", displayNumber+"");
             UIVerbatim.make(scaled, "itemText", templateItem.getItem().getItemText());
@@ -358,7 +355,7 @@ public class ReportsViewingProducer extends EvalCommonProducer implements ViewPa
                 String[] scaleOptions = scale.getOptions();
                 String scaleLabels[] = RenderingUtils.makeReportingScaleLabels(templateItem, scaleOptions);
 
-                int[] choicesCounts = TemplateItemDataList.getAnswerChoicesCounts(templateItemType, scaleOptions.length, itemAnswers);
+                int[] choicesCounts = dti.getAnswerChoicesCounts(scaleOptions.length);
 
                 for (int x = 0; x < scaleLabels.length; x++) {
                     UIBranchContainer choicesBranch = UIBranchContainer.make(scaled, "choices:");
@@ -424,19 +421,15 @@ public class ReportsViewingProducer extends EvalCommonProducer implements ViewPa
             // render the responses
             UIBranchContainer showResponsesBranch = UIBranchContainer.make(tofill, "showResponses:");
             int responsesCount = 0;
-            int naCount = 0;
-            for (EvalAnswer answer : itemAnswers) {
-                if (answer.NA) {
-                    naCount++;
-                } else if (! EvalUtils.isBlank(answer.getText())) {
-                    UIBranchContainer responsesBranch = UIBranchContainer.make(showResponsesBranch, "responses:");
-                    if (responsesCount % 2 != 0) {
-                        responsesBranch.decorate(new UIStyleDecorator("itemsListOddLine")); // must match the existing CSS class
-                    }
-                    UIOutput.make(responsesBranch, "responseNum", (responsesCount + 1)+"");
-                    UIOutput.make(responsesBranch, "itemResponse", answer.getText());
-                    responsesCount++;
+            int naCount = dti.getNACount();
+            for (String text : dti.getNonBlankTextAnswers()) {
+                UIBranchContainer responsesBranch = UIBranchContainer.make(showResponsesBranch, "responses:");
+                if (responsesCount % 2 != 0) {
+                    responsesBranch.decorate(new UIStyleDecorator("itemsListOddLine")); // must match the existing CSS class
                 }
+                UIOutput.make(responsesBranch, "responseNum", (responsesCount + 1)+"");
+                UIOutput.make(responsesBranch, "itemResponse", text);
+                responsesCount++;
             }
             if (responsesCount == 0) {
                 UIMessage.make(showResponsesBranch, "noResponse", "viewreport.no.responses");
@@ -592,6 +585,9 @@ public class ReportsViewingProducer extends EvalCommonProducer implements ViewPa
             UICommand xlsButton = UICommand.make( form, EvalEvaluationService.XLS_RESULTS_REPORT, UIMessage.make("viewreport.view.xls"), actionBean + "processReport" );
             xlsButton.parameters.add( new UIELBinding( actionBean + "viewID", EvalEvaluationService.XLS_RESULTS_REPORT ) );
             xlsButton.parameters.add( new UIELBinding( actionBean + "fileName", evaltitle + ".xlsx" ) );
+            UIBranchContainer xlsJobBranch = UIBranchContainer.make( tofill, "backgroundReport:", EvalEvaluationService.XLS_RESULTS_REPORT );
+            UIInternalLink.make( xlsJobBranch, "backgroundReportLink", UIMessage.make("viewreport.view.background.xls"), new ReportJobViewParams(
+                    ReportJobProducer.VIEW_ID, EvalEvaluationService.XLS_RESULTS_REPORT, templateId, evaluation.getId(), reportViewParams.groupIds, evaltitle + ".xlsx" ) );
         }
 
         // New report style - csv export button and parameters
@@ -610,6 +606,9 @@ public class ReportsViewingProducer extends EvalCommonProducer implements ViewPa
             UICommand pdfButton = UICommand.make( form, EvalEvaluationService.PDF_RESULTS_REPORT, UIMessage.make("viewreport.view.pdf"), actionBean + "processReport" );
             pdfButton.parameters.add( new UIELBinding( actionBean + "viewID", EvalEvaluationService.PDF_RESULTS_REPORT ) );
             pdfButton.parameters.add( new UIELBinding( actionBean + "fileName", evaltitle + ".pdf" ) );
+            UIBranchContainer pdfJobBranch = UIBranchContainer.make( tofill, "backgroundReport:", EvalEvaluationService.PDF_RESULTS_REPORT );
+            UIInternalLink.make( pdfJobBranch, "backgroundReportLink", UIMessage.make("viewreport.view.background.pdf"), new ReportJobViewParams(
+                    ReportJobProducer.VIEW_ID, EvalEvaluationService.PDF_RESULTS_REPORT, templateId, evaluation.getId(), reportViewParams.groupIds, evaltitle + ".pdf" ) );
 
 			List<EvalAssignUser> evaluatees = evaluationService.getParticipantsForEval(evaluation.getId(), null, null, EvalAssignUser.TYPE_EVALUATEE, null, null, null);
             evaluatees.addAll(evaluationService.getParticipantsForEval(evaluation.getId(), null, null, EvalAssignUser.TYPE_ASSISTANT, null, null, null));
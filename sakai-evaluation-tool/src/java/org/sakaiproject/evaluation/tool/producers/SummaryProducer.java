@@ -19,15 +19,20 @@ import java.util.List;
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.EvalAuthoringService;
 import org.sakaiproject.evaluation.logic.EvalCommonLogic;
+import org.sakaiproject.evaluation.logic.EvalDeliveryService;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
 import org.sakaiproject.evaluation.logic.EvalSettings;
 import org.sakaiproject.evaluation.logic.model.EvalGroup;
+import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.evaluation.model.EvalResponseSubmission;
 import org.sakaiproject.evaluation.tool.renderers.AdminBoxRenderer;
 import org.sakaiproject.evaluation.tool.renderers.BeEvaluatedBoxRenderer;
 import org.sakaiproject.evaluation.tool.renderers.EvaluateBoxRenderer;
 import org.sakaiproject.evaluation.tool.renderers.NavBarRenderer;
 import org.sakaiproject.evaluation.tool.viewparams.EvalViewParameters;
 import org.sakaiproject.evaluation.tool.viewparams.TemplateViewParameters;
+import uk.org.ponder.messageutil.TargettedMessage;
+import uk.org.ponder.messageutil.TargettedMessageList;
 import uk.org.ponder.rsf.components.UIBranchContainer;
 import uk.org.ponder.rsf.components.UIContainer;
 import uk.org.ponder.rsf.components.UIInternalLink;
@@ -70,6 +75,16 @@ public class SummaryProducer extends EvalCommonProducer implements DefaultView,
         this.evaluationService = evaluationService;
     }
 
+    private EvalDeliveryService deliveryService;
+    public void setDeliveryService(EvalDeliveryService deliveryService) {
+        this.deliveryService = deliveryService;
+    }
+
+    private TargettedMessageList messages;
+    public void setMessages(TargettedMessageList messages) {
+        this.messages = messages;
+    }
+
     private EvalSettings settings;
     public void setSettings(EvalSettings settings) {
         this.settings = settings;
@@ -113,6 +128,26 @@ public class SummaryProducer extends EvalCommonProducer implements DefaultView,
 
         navBarRenderer.makeNavBar(tofill, NavBarRenderer.NAV_ELEMENT, this.getViewID());
 
+        // tell the user about any submitted responses which are still waiting to be saved or could not be saved
+        List<EvalResponseSubmission> submissions = deliveryService.getResponseSubmissionsForUser(currentUserId, null);
+        for (EvalResponseSubmission submission : submissions) {
+            String messageKey;
+            int severity;
+            if (EvalConstants.RESPONSE_SUBMISSION_FAILED.equals(submission.getStatus())) {
+                messageKey = "summary.submission.failed";
+                severity = TargettedMessage.SEVERITY_ERROR;
+            } else if (EvalConstants.RESPONSE_SUBMISSION_QUEUED.equals(submission.getStatus())) {
+                messageKey = "summary.submission.queued";
+                severity = TargettedMessage.SEVERITY_INFO;
+            } else {
+                continue;
+            }
+            EvalEvaluation eval = evaluationService.getEvaluationById(submission.getEvaluationId());
+            messages.addMessage(new TargettedMessage(messageKey, new Object[] {
+                    eval == null ? "" : eval.getTitle(), commonLogic.getDisplayTitle(submission.getEvalGroupId()) },
+                    severity));
+        }
+
         if (beginEvaluation) {
             // show instructor instructions
             UIMessage.make(tofill, "instructor-instructions", "summary.instructor.instruction");
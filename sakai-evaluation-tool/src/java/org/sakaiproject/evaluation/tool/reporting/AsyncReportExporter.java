@@ -0,0 +1,448 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.tool.reporting;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.evaluation.jobmonitor.JobStatusReporter;
+import org.sakaiproject.evaluation.logic.EvalCommonLogic;
+import org.sakaiproject.evaluation.logic.EvalEvaluationService;
+import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.api.SessionManager;
+
+/**
+ * Generates reports in the background so large reports do not tie up the request,
+ * the finished reports are kept on the local disk until they expire<br/>
+ * Requests by the same user for the same report while it is still being generated
+ * (or is not yet expired) get the same job
+ */
+public class AsyncReportExporter {
+
+    private static final Log LOG = LogFactory.getLog(AsyncReportExporter.class);
+
+    public static final String STATE_QUEUED = "queued";
+    public static final String STATE_RUNNING = "running";
+    public static final String STATE_DONE = "done";
+    public static final String STATE_FAILED = "failed";
+
+    private static final String FILE_SUFFIX = ".report";
+
+    private ReportExporterBean reportExporterBean;
+    public void setReportExporterBean(ReportExporterBean reportExporterBean) {
+        this.reportExporterBean = reportExporterBean;
+    }
+
+    private EvalEvaluationService evaluationService;
+    public void setEvaluationService(EvalEvaluationService evaluationService) {
+        this.evaluationService = evaluationService;
+    }
+
+    private EvalCommonLogic commonLogic;
+    public void setCommonLogic(EvalCommonLogic commonLogic) {
+        this.commonLogic = commonLogic;
+    }
+
+    private SessionManager sessionManager;
+    public void setSessionManager(SessionManager sessionManager) {
+        this.sessionManager = sessionManager;
+    }
+
+    private JobStatusReporter jobStatusReporter;
+    public void setJobStatusReporter(JobStatusReporter jobStatusReporter) {
+        this.jobStatusReporter = jobStatusReporter;
+    }
+
+    private int exportThreads = 2;
+    /**
+     * @param exportThreads the number of reports to generate at the same time, default 2
+     */
+    public void setExportThreads(int exportThreads) {
+        this.exportThreads = exportThreads;
+    }
+
+    private int maxQueuedJobs = 20;
+    /**
+     * @param maxQueuedJobs the number of reports which can wait to be generated before new ones are refused, default 20
+     */
+    public void setMaxQueuedJobs(int maxQueuedJobs) {
+        this.maxQueuedJobs = maxQueuedJobs;
+    }
+
+    private String reportDirectory;
+    /**
+     * @param reportDirectory the directory to store the generated reports in,
+     * default is evaluation-report-jobs in the system temp directory
+     */
+    public void setReportDirectory(String reportDirectory) {
+        this.reportDirectory = reportDirectory;
+    }
+
+    private long expiryTime = 30l * 60 * 1000;
+    /**
+     * @param expiryTime the time (in ms) a finished report is kept for, default 30 minutes
+     */
+    public void setExpiryTime(long expiryTime) {
+        this.expiryTime = expiryTime;
+    }
+
+    private File directory;
+    private ThreadPoolExecutor pool;
+    private ScheduledExecutorService cleaner;
+    private final Map<String, ReportJob> jobs = new ConcurrentHashMap<>();
+    // the running or finished job for each report, so duplicate requests share one job
+    private final Map<String, ReportJob> jobsByKey = new ConcurrentHashMap<>();
+
+    public void init() {
+        if (reportDirectory == null || "".equals(reportDirectory)) {
+            directory = new File(System.getProperty("java.io.tmpdir"), "evaluation-report-jobs");
+        } else {
+            directory = new File(reportDirectory);
+        }
+        if (! directory.isDirectory() && ! directory.mkdirs()) {
+            throw new IllegalStateException("Could not create the report jobs directory: " + directory);
+        }
+        // remove anything left over from the last run
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(FILE_SUFFIX) && ! file.delete()) {
+                    LOG.debug("Could not remove old report: " + file);
+                }
+            }
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        int threads = exportThreads < 1 ? 1 : exportThreads;
+        pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(maxQueuedJobs < 1 ? 1 : maxQueuedJobs), r -> {
+                    Thread t = new Thread(r, "EvalReportJob-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "EvalReportJobCleaner");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(expiryTime / 4, 60000l);
+        cleaner.scheduleWithFixedDelay(this::removeExpiredJobs, period, period, TimeUnit.MILLISECONDS);
+        LOG.info("Init: generating reports on " + threads + " threads, keeping them for " + expiryTime + " ms in " + directory);
+    }
+
+    public void destroy() {
+        if (cleaner != null) {
+            cleaner.shutdownNow();
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        for (ReportJob job : jobs.values()) {
+            deleteFile(job.file);
+        }
+        jobs.clear();
+        jobsByKey.clear();
+    }
+
+    /**
+     * Start generating a report in the background for the current user,
+     * if the same report is already being generated (or is done and not expired) then that job is used
+     *
+     * @param evaluationId
+     * @param groupIds the groups to report on, if null or empty the viewable groups for the current user are used
+     * @param evaluateeId the user for individual reports, otherwise null
+     * @param exportType the type of report (the exporter view id)
+     * @param filename the name of the report file
+     * @return the id of the job generating the report
+     * @throws SecurityException if the current user cannot view the report
+     * @throws IllegalStateException if too many reports are already waiting to be generated
+     */
+    public String submit(Long evaluationId, String[] groupIds, String evaluateeId, String exportType, String filename) {
+        if (! reportExporterBean.isExportType(exportType)) {
+            throw new IllegalArgumentException("No exporter found for ViewID: " + exportType);
+        }
+        EvalEvaluation evaluation = evaluationService.getEvaluationById(evaluationId);
+        if (evaluation == null) {
+            throw new IllegalArgumentException("Invalid evaluationId, cannot find evaluation: " + evaluationId);
+        }
+        String[] reportGroupIds = reportExporterBean.checkReportPermissions(evaluation, groupIds).clone();
+        Arrays.sort(reportGroupIds);
+
+        String userId = commonLogic.getCurrentUserId();
+        String key = userId + ":" + evaluationId + ":" + exportType + ":" + evaluateeId + ":" + Arrays.toString(reportGroupIds);
+        ReportJob job = new ReportJob(UUID.randomUUID().toString(), key, userId, sessionManager.getCurrentSession().getUserEid(),
+                evaluationId, reportGroupIds, evaluateeId, exportType, filename.replaceAll(" ", "_"));
+        synchronized (jobsByKey) {
+            ReportJob existing = jobsByKey.get(key);
+            if (existing != null && ! STATE_FAILED.equals(existing.state) && ! existing.isExpired()) {
+                LOG.debug("Report job " + existing.id + " already started for " + key);
+                return existing.id;
+            }
+            try {
+                pool.execute(() -> runJob(job));
+            } catch (RejectedExecutionException e) {
+                throw new IllegalStateException("Too many reports are waiting to be generated, could not start report for " + key, e);
+            }
+            jobs.put(job.id, job);
+            jobsByKey.put(key, job);
+        }
+        return job.id;
+    }
+
+    /**
+     * @param jobId
+     * @return the job (only if it was started by the current user) or null if there is no job with this id
+     */
+    public ReportJob getJob(String jobId) {
+        if (jobId == null) {
+            return null;
+        }
+        ReportJob job = jobs.get(jobId);
+        if (job == null || job.isExpired() || ! job.userId.equals(commonLogic.getCurrentUserId())) {
+            return null;
+        }
+        return job;
+    }
+
+    /**
+     * Send a finished report to the browser
+     *
+     * @param jobId
+     * @param response
+     * @return true if the response was handled
+     */
+    public boolean download(String jobId, HttpServletResponse response) {
+        ReportJob job = getJob(jobId);
+        try {
+            if (job == null || ! STATE_DONE.equals(job.state)) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return true;
+            }
+            reportExporterBean.setDownloadHeaders(response, job.exportType, job.filename);
+            // set as a header since setContentLength only takes an int and reports can be larger than that
+            response.setHeader("Content-Length", Long.toString(job.file.length()));
+            Files.copy(job.file.toPath(), response.getOutputStream());
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to send report for job " + jobId, e);
+        }
+        return true;
+    }
+
+    private void runJob(ReportJob job) {
+        // the report is generated as the user who asked for it in a session which only lasts for this job
+        Session session = sessionManager.getCurrentSession();
+        session.setUserId(job.userId);
+        session.setUserEid(job.userEid);
+        String statusId = null;
+        if (jobStatusReporter != null) {
+            statusId = jobStatusReporter.reportStarted("ReportJob");
+            jobStatusReporter.reportProgress(statusId, STATE_RUNNING, job.id + ": " + job.exportType
+                    + " report for evaluation " + job.evaluationId + " (" + job.groupIds.length + " groups)");
+        }
+        job.state = STATE_RUNNING;
+        long start = System.currentTimeMillis();
+        File tempFile = new File(directory, job.id + ".tmp");
+        try {
+            EvalEvaluation evaluation = evaluationService.getEvaluationById(job.evaluationId);
+            CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                reportExporterBean.exportReport(evaluation, job.groupIds, job.evaluateeId, out, job.exportType);
+            } finally {
+                out.close();
+            }
+            Files.move(tempFile.toPath(), job.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            job.size = out.count;
+            job.finished = System.currentTimeMillis();
+            job.state = STATE_DONE;
+            if (jobStatusReporter != null) {
+                jobStatusReporter.reportFinished(statusId, false, STATE_DONE, job.id + ": wrote "
+                        + job.size + " bytes in " + (job.finished - start) + " ms");
+            }
+        } catch (Exception e) {
+            LOG.warn("Report job " + job.id + " failed: " + job.exportType + " report for evaluation " + job.evaluationId, e);
+            deleteFile(tempFile);
+            job.error = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+            job.finished = System.currentTimeMillis();
+            job.state = STATE_FAILED;
+            if (jobStatusReporter != null) {
+                jobStatusReporter.reportFinished(statusId, true, STATE_FAILED, job.id + ": " + job.error);
+            }
+        } finally {
+            session.invalidate();
+        }
+    }
+
+    /**
+     * Remove the jobs (and their reports) which finished longer ago than the expiry time
+     */
+    protected void removeExpiredJobs() {
+        synchronized (jobsByKey) {
+            Iterator<ReportJob> it = jobs.values().iterator();
+            while (it.hasNext()) {
+                ReportJob job = it.next();
+                if (job.isExpired()) {
+                    it.remove();
+                    jobsByKey.remove(job.key, job);
+                    deleteFile(job.file);
+                    LOG.debug("Removed expired report job " + job.id);
+                }
+            }
+        }
+    }
+
+    private void deleteFile(File file) {
+        if (file.exists() && ! file.delete()) {
+            LOG.warn("Could not remove report file: " + file);
+        }
+    }
+
+    /**
+     * A report being generated in the background
+     */
+    public class ReportJob {
+        private final String id;
+        private final String key;
+        private final String userId;
+        private final String userEid;
+        private final Long evaluationId;
+        private final String[] groupIds;
+        private final String evaluateeId;
+        private final String exportType;
+        private final String filename;
+        private final File file;
+        private final long created = System.currentTimeMillis();
+        private volatile String state = STATE_QUEUED;
+        private volatile long finished = 0;
+        private volatile long size = 0;
+        private volatile String error;
+
+        ReportJob(String id, String key, String userId, String userEid, Long evaluationId, String[] groupIds,
+                String evaluateeId, String exportType, String filename) {
+            this.id = id;
+            this.key = key;
+            this.userId = userId;
+            this.userEid = userEid;
+            this.evaluationId = evaluationId;
+            this.groupIds = groupIds;
+            this.evaluateeId = evaluateeId;
+            this.exportType = exportType;
+            this.filename = filename;
+            this.file = new File(directory, id + FILE_SUFFIX);
+        }
+
+        boolean isExpired() {
+            return finished > 0 && System.currentTimeMillis() - finished > expiryTime;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Long getEvaluationId() {
+            return evaluationId;
+        }
+
+        /**
+         * @return the groups in the report
+         */
+        public String[] getGroupIds() {
+            return groupIds.clone();
+        }
+
+        public String getExportType() {
+            return exportType;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        /**
+         * @return one of the STATE_* constants
+         */
+        public String getState() {
+            return state;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getFinished() {
+            return finished;
+        }
+
+        /**
+         * @return the size of the finished report (in bytes)
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the reason the report failed, null unless the job failed
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Counts the bytes written to the report file
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+}
@@ -17,10 +17,14 @@ package org.sakaiproject.evaluation.tool.reporting;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.ZipEntry;
@@ -28,6 +32,7 @@ import java.util.zip.ZipOutputStream;
 
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.EvalCommonLogic;
+import org.sakaiproject.evaluation.logic.EvalEvaluationService;
 import org.sakaiproject.evaluation.logic.model.EvalUser;
 import org.sakaiproject.evaluation.model.EvalAnswer;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
@@ -35,6 +40,7 @@ import org.sakaiproject.evaluation.tool.utils.EvalResponseAggregatorUtil;
 import org.sakaiproject.evaluation.utils.EvalUtils;
 import org.sakaiproject.evaluation.utils.TemplateItemDataList;
 import org.sakaiproject.evaluation.utils.TemplateItemDataList.DataTemplateItem;
+import org.sakaiproject.evaluation.utils.TemplateItemUtils;
 import org.sakaiproject.user.api.User;
 import org.sakaiproject.user.api.UserNotDefinedException;
 import org.sakaiproject.user.cover.UserDirectoryService;
@@ -49,7 +55,7 @@ import org.apache.commons.lang3.StringUtils;
  * @author Steven Githens
  * @author Aaron Zeckoski (aaronz@vt.edu)
  */
-public class CSVReportExporter implements ReportExporter {
+public class CSVReportExporter implements SinglePassReportExporter {
 
     private static final char COMMA = ',';
     private static final String COMMA_DELIMITER = ",";
@@ -62,6 +68,11 @@ public class CSVReportExporter implements ReportExporter {
         this.commonLogic = commonLogic;
     }
 
+    private EvalEvaluationService evaluationService;
+    public void setEvaluationService(EvalEvaluationService evaluationService) {
+        this.evaluationService = evaluationService;
+    }
+
     private EvalResponseAggregatorUtil responseAggregator;
     public void setEvalResponseAggregatorUtil(EvalResponseAggregatorUtil bean) {
         this.responseAggregator = bean;
@@ -73,21 +84,38 @@ public class CSVReportExporter implements ReportExporter {
     }
 
     /**
-     * Utility method to take a list of strings and append them to a StringBuilder
+     * Utility method to take a list of strings and write them to a Writer
      * in CSV style
      * 
-     * @param sb - the StringBuilder object to use
-     * @param entries - the entries to add to the StringBuilder
+     * @param writer - the Writer to use
+     * @param entries - the entries to write
      */
-    private void appendToStringBuilder( StringBuilder sb, List<String> entries )
+    private void appendToWriter( Writer writer, List<String> entries ) throws IOException
     {
         String prefix = "";
         for( String str : entries )
         {
-            sb.append( prefix ).append( DOUBLE_QUOTE ).append( str ).append(DOUBLE_QUOTE);
+            writer.append( prefix ).append( DOUBLE_QUOTE ).append( str ).append(DOUBLE_QUOTE);
             prefix = COMMA_DELIMITER;
         }
-        sb.append( NEW_LINE );
+        writer.append( NEW_LINE );
+    }
+
+    /**
+     * Map the answers for a single response by the template item answer key (same as {@link DataTemplateItem#getKey()})
+     * 
+     * @param answers - the answers for one response
+     * @return the map of answer key to answer
+     */
+    private Map<String, EvalAnswer> mapAnswersByKey( List<EvalAnswer> answers )
+    {
+        Map<String, EvalAnswer> answerMap = new HashMap<>( answers.size() * 2 );
+        for( EvalAnswer answer : answers )
+        {
+            answerMap.put( TemplateItemUtils.makeTemplateItemAnswerKey( answer.getTemplateItem().getId(),
+                    answer.getAssociatedType(), answer.getAssociatedId() ), answer );
+        }
+        return answerMap;
     }
 
     /**
@@ -122,15 +150,22 @@ public class CSVReportExporter implements ReportExporter {
             String currentUserID = commonLogic.getCurrentUserId();
             String evalOwner = evaluation.getOwner();
 
-            // Get the TIDL and DTIs for this evaluation
-            TemplateItemDataList tidl = responseAggregator.prepareTemplateItemDataStructure( evaluation.getId(), groupIDs );
-            List<DataTemplateItem> dtiList = tidl.getFlatListOfDataTemplateItems( true );
+            // Get the TIDL and DTIs for this evaluation, the answers are streamed one response at a time below
+            TemplateItemDataList tidl = responseAggregator.prepareTemplateItemStructure( evaluation.getId(), groupIDs );
+            responseAggregator.prefetchAssociateUsers( tidl );
+            List<DataTemplateItem> dtiList = new ArrayList<>();
+            for( DataTemplateItem dti : tidl.getFlatListOfDataTemplateItems( true ) )
+            {
+                // Skip items that aren't for the current user
+                if( !isItemNotForCurrentUser( instructorViewAllResults, currentUserID, evalOwner, dti ) )
+                {
+                    dtiList.add( dti );
+                }
+            }
 
             // Create all the holders
             List<String> instructorRelatedQuestionHeaders = new ArrayList<>();
             List<String> courseRelatedQuestionHeaders = new ArrayList<>();
-            List<List<String>> courseRelatedQuestions = new ArrayList<>();
-            List<List<String>> instructorRelatedQuestions = new ArrayList<>();
 
             // Generate static column headers
             if( evaluation.getSectionAwareness() )
@@ -152,12 +187,6 @@ public class CSVReportExporter implements ReportExporter {
             // Generate dynamic question (column) headers
             for( DataTemplateItem dti : dtiList )
             {
-                // Skip items that aren't for the current user
-                if( isItemNotForCurrentUser( instructorViewAllResults, currentUserID, evalOwner, dti ) )
-                {
-                    continue;
-                }
-
                 // If there's already a header for a specific instructor question, don't list it twice
                 String questionText = commonLogic.makePlainTextFromHTML( dti.templateItem.getItem().getItemText() );
                 if( instructorRelatedQuestionHeaders.contains( questionText ) )
@@ -184,68 +213,43 @@ public class CSVReportExporter implements ReportExporter {
                 }
             }
 
-            // Loop through the responses
-            List<Long> responseIDs = tidl.getResponseIdsForAnswers();
-            Map<Long, Map<User, List<EvalAnswer>>> answerMap = new HashMap<>();
-            for( Long responseID : responseIDs )
+            // The rows are sorted by section/site, so stream the answers one group at a time in order by the group names
+            final Map<String, String> groupNames = new HashMap<>();
+            for( String groupID : groupIDs )
             {
-                // Course related: section/site
-                List<String> row = new ArrayList<>();
-                String sectionName = "";
-                List<EvalAnswer> answers = tidl.getAnswersByResponseId( responseID );
-                if( answers != null && !answers.isEmpty() )
-                {
-                    sectionName = responseAggregator.getCommaSeparatedGroupNames( new String[] { answers.get( 0 ).getResponse().getEvalGroupId() } );
-                }
-                row.add( sectionName );
-
-                // Course related: response ID
-                row.add( responseID.toString() );
+                groupNames.put( groupID, StringUtils.defaultString( responseAggregator.getCommaSeparatedGroupNames( new String[] { groupID } ) ) );
+            }
+            List<String> sortedGroupIDs = new ArrayList<>( new LinkedHashSet<>( Arrays.asList( groupIDs ) ) );
+            Collections.sort( sortedGroupIDs, Comparator.comparing( groupNames::get ) );
 
-                // Add the response ID to the answer map
-                answerMap.put( responseID, new HashMap<>() );
+            // Writes straight into the zip entries, this must not be closed until the zip is done
+            final Writer zipWriter = new OutputStreamWriter( zout );
 
-                // Loop through the DTIs
-                for( DataTemplateItem dti : dtiList )
+            // Create a ZipEntry for the course related data, each row is written as soon as the answers for the response are in
+            ZipEntry entry = new ZipEntry( evalTitle + "-courseItems.csv" );
+            zout.putNextEntry( entry );
+            appendToWriter( zipWriter, courseRelatedQuestionHeaders );
+            for( String groupID : sortedGroupIDs )
+            {
+                responseAggregator.streamAnswers( evaluation.getId(), new String[] { groupID }, ( responseID, evalGroupID, answers ) ->
                 {
-                    // Skip items that aren't for the current user
-                    if( isItemNotForCurrentUser( instructorViewAllResults, currentUserID, evalOwner, dti ) )
-                    {
-                        continue;
-                    }
+                    Map<String, EvalAnswer> answerMap = mapAnswersByKey( answers );
 
-                    // If it's an instructor related item...
-                    EvalAnswer answer = dti.getAnswer( responseID );
-                    if( EvalConstants.ITEM_CATEGORY_ASSISTANT.equals( dti.associateType ) || EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals( dti.associateType ) )
+                    // Course related: section/site, response ID
+                    List<String> row = new ArrayList<>();
+                    row.add( groupNames.get( evalGroupID ) );
+                    row.add( responseID.toString() );
+
+                    // Loop through the course related DTIs
+                    for( DataTemplateItem dti : dtiList )
                     {
-                        // If the answer is NOT null (it would be null for an instructor from a different section than the evaluator)
-                        if( answer != null )
+                        if( EvalConstants.ITEM_CATEGORY_ASSISTANT.equals( dti.associateType ) || EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals( dti.associateType ) )
                         {
-                            User instructor;
-                            try { instructor = UserDirectoryService.getUser( answer.getAssociatedId() ); }
-                            catch( UserNotDefinedException ex ) { continue; }
-
-                            // If the answer map has a list of answers for this response and this instructor, add the answer to the list
-                            if( answerMap.get( responseID ).containsKey( instructor ) )
-                            {
-                                answerMap.get( responseID ).get( instructor ).add( answer );
-                            }
-
-                            // Otherwise, the answer map doesn't have a list of answers for this response and this instructor,
-                            // create the list and add the answer to it
-                            else
-                            {
-                                List<EvalAnswer> list = new ArrayList<>();
-                                list.add( answer );
-                                answerMap.get( responseID ).put( instructor, list );
-                            }
+                            continue;
                         }
-                    }
 
-                    // If it's a course related item, add it to the course 'row'
-                    else
-                    {
                         // If the answer is not null, put the answer in the row
+                        EvalAnswer answer = answerMap.get( dti.getKey() );
                         if( answer != null )
                         {
                             row.add( responseAggregator.formatForSpreadSheet( answer.getTemplateItem(), answer ) );
@@ -260,98 +264,74 @@ public class CSVReportExporter implements ReportExporter {
                         // If this DTI uses comments, put in the comment or a blank placeholder in the next column
                         if( dti.usesComments() )
                         {
-                            row.add( StringUtils.trimToEmpty( answer.getComment() ) );
+                            row.add( answer != null ? StringUtils.trimToEmpty( answer.getComment() ) : "" );
                         }
                     }
-                }
-
-                // Add the 'row' to the course related items list
-                courseRelatedQuestions.add( row );
+                    writeRow( zipWriter, row );
+                });
             }
+            zipWriter.flush();
+            zout.closeEntry();
 
-            // Loop through the instructor related items
-            for( Long responseID : answerMap.keySet() )
+            // Create a ZipEntry for the instructor related data, one row per response and instructor
+            entry = new ZipEntry( evalTitle + "-instructorItems.csv" );
+            zout.putNextEntry( entry );
+            appendToWriter( zipWriter, instructorRelatedQuestionHeaders );
+            final Map<String, User> instructors = new HashMap<>();
+            for( String groupID : sortedGroupIDs )
             {
-                // Loop through the instructors for the current response
-                for( User instructor : answerMap.get( responseID ).keySet() )
+                responseAggregator.streamAnswers( evaluation.getId(), new String[] { groupID }, ( responseID, evalGroupID, answers ) ->
                 {
-                    // Loop through the questions for the current instructor and response
-                    int answerCounter = 0;
-                    List<String> row = new ArrayList<>();
-                    for( EvalAnswer answer : answerMap.get( responseID ).get( instructor ) )
+                    Map<String, EvalAnswer> answerMap = mapAnswersByKey( answers );
+
+                    // Group the instructor related answers by instructor (in item order)
+                    Map<User, List<EvalAnswer>> instructorAnswers = new LinkedHashMap<>();
+                    for( DataTemplateItem dti : dtiList )
                     {
-                        // If this is the first answer for this instructor and this response ID, add the qualifying columns
-                        if( answerCounter == 0  )
+                        if( !EvalConstants.ITEM_CATEGORY_ASSISTANT.equals( dti.associateType ) && !EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals( dti.associateType ) )
                         {
-                            // Instructor related: section/site
-                            row.add( responseAggregator.getCommaSeparatedGroupNames( new String[] { answer.getResponse().getEvalGroupId() } ) );
-
-                            // Instructor related: response ID, instructor identifiers
-                            row.add( responseID.toString() );
-                            row.add( instructor.getDisplayId() );
-                            row.add( instructor.getFirstName() );
-                            row.add( instructor.getLastName() );
+                            continue;
                         }
 
-                        // Instructor related response
-                        // If the answer is not null, put the answer in the row
+                        // The answer is null for an instructor from a different section than the evaluator
+                        EvalAnswer answer = answerMap.get( dti.getKey() );
                         if( answer != null )
                         {
-                            row.add( responseAggregator.formatForSpreadSheet( answer.getTemplateItem(), answer ) );
+                            User instructor = getInstructor( instructors, answer.getAssociatedId() );
+                            if( instructor != null )
+                            {
+                                instructorAnswers.computeIfAbsent( instructor, k -> new ArrayList<>() ).add( answer );
+                            }
                         }
+                    }
 
-                        // Otherwise, put in a blank entry as a column placeholder
-                        else
+                    for( Map.Entry<User, List<EvalAnswer>> instructorEntry : instructorAnswers.entrySet() )
+                    {
+                        // Instructor related: section/site, response ID, instructor identifiers
+                        User instructor = instructorEntry.getKey();
+                        List<String> row = new ArrayList<>();
+                        row.add( groupNames.get( evalGroupID ) );
+                        row.add( responseID.toString() );
+                        row.add( instructor.getDisplayId() );
+                        row.add( instructor.getFirstName() );
+                        row.add( instructor.getLastName() );
+
+                        for( EvalAnswer answer : instructorEntry.getValue() )
                         {
-                            row.add( "" );
-                        }
+                            // Instructor related response
+                            row.add( responseAggregator.formatForSpreadSheet( answer.getTemplateItem(), answer ) );
 
-                        // If this uses comments, put in the comment or a blank placeholder in the next column
-                        if( answer != null && answer.getComment() != null )
-                        {
-                            row.add( EvalUtils.isBlank( answer.getComment() ) ? "" : answer.getComment() );
+                            // If this uses comments, put in the comment or a blank placeholder in the next column
+                            if( answer.getComment() != null )
+                            {
+                                row.add( EvalUtils.isBlank( answer.getComment() ) ? "" : answer.getComment() );
+                            }
                         }
-
-                        // Increment the answer counter
-                        answerCounter++;
+                        writeRow( zipWriter, row );
                     }
-
-                    // Add the 'row' to the course related items list
-                    instructorRelatedQuestions.add( row );
-                }
+                });
             }
-
-            // Sort the responses by section/site
-            SortBySectionOrSiteComparator sorter = new SortBySectionOrSiteComparator();
-            Collections.sort( courseRelatedQuestions, sorter );
-            Collections.sort( instructorRelatedQuestions, sorter );
-
-            // Dump all the aggregated data to StringBuilders
-            StringBuilder sbCourseItems = new StringBuilder();
-            StringBuilder sbInstructorItems = new StringBuilder();
-            appendToStringBuilder( sbCourseItems, courseRelatedQuestionHeaders );
-            appendToStringBuilder( sbInstructorItems, instructorRelatedQuestionHeaders );
-            for( List<String> row : courseRelatedQuestions )
-            {
-                appendToStringBuilder( sbCourseItems, row );
-            }
-            for( List<String> row : instructorRelatedQuestions )
-            {
-                appendToStringBuilder( sbInstructorItems, row );
-            }
-
-            // Create a ZipEntry for the course related data
-            ZipEntry entry = new ZipEntry( evalTitle + "-courseItems.csv" );
-            zout.putNextEntry( entry );
-            byte[] data = sbCourseItems.toString().getBytes();
-            zout.write( data, 0, data.length );
-            zout.closeEntry();
-
-            // Create a ZipEntry for the instructor related data
-            entry = new ZipEntry( evalTitle + "-instructorItems.csv" );
-            zout.putNextEntry( entry );
-            data = sbInstructorItems.toString().getBytes();
-            zout.write( data, 0, data.length );
+            zipWriter.flush();
             zout.closeEntry();
 
             // Close the ZipOutputStream
@@ -377,6 +357,38 @@ public class CSVReportExporter implements ReportExporter {
                 && !currentUserID.equals( commonLogic.getEvalUserById( dti.associateId ).userId );
     }
 
+    /**
+     * Write a row from inside an answer handler
+     * @param writer
+     * @param row
+     */
+    private void writeRow( Writer writer, List<String> row )
+    {
+        try
+        {
+            appendToWriter( writer, row );
+        }
+        catch( IOException ex ) { throw UniversalRuntimeException.accumulate( ex, "Could not write to the ZipOutputStream" ); }
+    }
+
+    /**
+     * Lookup an instructor, the instructors are cached since the same few come up for every response
+     * @param instructors - the cache of instructors (a null value means the user does not exist)
+     * @param userID
+     * @return the instructor or null if the user does not exist
+     */
+    private User getInstructor( Map<String, User> instructors, String userID )
+    {
+        if( !instructors.containsKey( userID ) )
+        {
+            User instructor;
+            try { instructor = UserDirectoryService.getUser( userID ); }
+            catch( UserNotDefinedException ex ) { instructor = null; }
+            instructors.put( userID, instructor );
+        }
+        return instructors.get( userID );
+    }
+
     /* (non-Javadoc)
      * @see org.sakaiproject.evaluation.tool.reporting.ReportExporter#buildReport(org.sakaiproject.evaluation.model.EvalEvaluation, java.lang.String[], java.io.OutputStream)
      */
@@ -401,87 +413,72 @@ public class CSVReportExporter implements ReportExporter {
         }
         else
         {
-            OutputStreamWriter outputStreamWriter = new OutputStreamWriter(outputStream);
-            CSVWriter writer = new CSVWriter(outputStreamWriter, COMMA);
-
-            Boolean instructorViewAllResults = (boolean) evaluation.getInstructorViewAllResults();
-            String currentUserId = commonLogic.getCurrentUserId();
-            String evalOwner = evaluation.getOwner();
-
-            boolean isCurrentUserAdmin = commonLogic.isUserAdmin(currentUserId);
-
-            // 1 Make TIDL
-            TemplateItemDataList tidl = responseAggregator.prepareTemplateItemDataStructure(evaluation.getId(), groupIds);
-
-            // 2 get DTIs for this eval from tidl
-            List<DataTemplateItem> dtiList = tidl.getFlatListOfDataTemplateItems(true);
-
-            // 3 use DTIs to make the headers
-            List<String> questionCatRow = new ArrayList<>();
-            List<String> questionTypeRow = new ArrayList<>();
-            List<String> questionTextRow = new ArrayList<>();
-            for (DataTemplateItem dti : dtiList) {
-
-                if (!instructorViewAllResults // If the eval is so configured,
-                  && !isCurrentUserAdmin // and currentUser is not an admin
-                  && !currentUserId.equals(evalOwner) // and currentUser is not the eval creator
-                  && !EvalConstants.ITEM_CATEGORY_COURSE.equals(dti.associateType) 
-                  && !currentUserId.equals(commonLogic.getEvalUserById(dti.associateId).userId) ) {
-                    //skip instructor items that aren't for the current user
-                    continue;
-                }
+            SharedReportData data = new SharedReportData(evaluation, groupIds, responseAggregator, commonLogic, evaluationService);
+            ReportWriter reportWriter = startReport(data, outputStream);
+            // stream the answers in order by response id and write each row as soon as the response is complete
+            responseAggregator.streamAnswers(evaluation.getId(), groupIds, reportWriter);
+            reportWriter.finish();
+        }
+    }
 
-                questionTypeRow.add(responseAggregator.getHeaderLabelForItemType(dti.getTemplateItemType()));
-                questionTextRow.add(commonLogic.makePlainTextFromHTML(dti.templateItem.getItem().getItemText()));
-                if (EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals(dti.associateType)) {
-                    EvalUser user = commonLogic.getEvalUserById( dti.associateId );
-                    String instructorMsg = messageLocator.getMessage("reporting.spreadsheet.instructor", 
-                            new Object[] {user.displayName} );
-                    questionCatRow.add( instructorMsg );
-                } else if (EvalConstants.ITEM_CATEGORY_ASSISTANT.equals(dti.associateType)) {
-                    EvalUser user = commonLogic.getEvalUserById( dti.associateId );
-                    String assistantMsg = messageLocator.getMessage("reporting.spreadsheet.ta", 
-                            new Object[] {user.displayName} );
-                    questionCatRow.add( assistantMsg );
-                } else if (EvalConstants.ITEM_CATEGORY_COURSE.equals(dti.associateType)) {
-                    questionCatRow.add(messageLocator.getMessage("reporting.spreadsheet.course"));
-                } else {
-                    questionCatRow.add(messageLocator.getMessage("unknown.caps"));
-                }
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.tool.reporting.SinglePassReportExporter#startReport(org.sakaiproject.evaluation.tool.reporting.SharedReportData, java.io.OutputStream)
+     */
+    public ReportWriter startReport(SharedReportData data, OutputStream outputStream) {
+        //Make sure responseAggregator is using this messageLocator
+        responseAggregator.setMessageLocator(messageLocator);
 
-                if (dti.usesComments()) {
-                    // add an extra column for comments
-                    questionTypeRow.add(messageLocator.getMessage("viewreport.comments.header"));
-                    // also add in blanks for the other columns
-                    questionTextRow.add("");
-                    questionCatRow.add("");
-                }
+        OutputStreamWriter outputStreamWriter = new OutputStreamWriter(outputStream);
+        final CSVWriter writer = new CSVWriter(outputStreamWriter, COMMA);
+
+        // 1 get DTIs for this eval from the shared tidl
+        final List<DataTemplateItem> dtiList = data.getCurrentUserDataTemplateItems();
+
+        // 2 use DTIs to make the headers
+        List<String> questionCatRow = new ArrayList<>();
+        List<String> questionTypeRow = new ArrayList<>();
+        List<String> questionTextRow = new ArrayList<>();
+        for (DataTemplateItem dti : dtiList) {
+            questionTypeRow.add(responseAggregator.getHeaderLabelForItemType(dti.getTemplateItemType()));
+            questionTextRow.add(commonLogic.makePlainTextFromHTML(dti.templateItem.getItem().getItemText()));
+            if (EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals(dti.associateType)) {
+                EvalUser user = commonLogic.getEvalUserById( dti.associateId );
+                String instructorMsg = messageLocator.getMessage("reporting.spreadsheet.instructor", 
+                        new Object[] {user.displayName} );
+                questionCatRow.add( instructorMsg );
+            } else if (EvalConstants.ITEM_CATEGORY_ASSISTANT.equals(dti.associateType)) {
+                EvalUser user = commonLogic.getEvalUserById( dti.associateId );
+                String assistantMsg = messageLocator.getMessage("reporting.spreadsheet.ta", 
+                        new Object[] {user.displayName} );
+                questionCatRow.add( assistantMsg );
+            } else if (EvalConstants.ITEM_CATEGORY_COURSE.equals(dti.associateType)) {
+                questionCatRow.add(messageLocator.getMessage("reporting.spreadsheet.course"));
+            } else {
+                questionCatRow.add(messageLocator.getMessage("unknown.caps"));
+            }
 
+            if (dti.usesComments()) {
+                // add an extra column for comments
+                questionTypeRow.add(messageLocator.getMessage("viewreport.comments.header"));
+                // also add in blanks for the other columns
+                questionTextRow.add("");
+                questionCatRow.add("");
             }
 
-            writer.writeNext(questionCatRow.toArray(new String[] {}));
-            writer.writeNext(questionTypeRow.toArray(new String[] {}));
-            writer.writeNext(questionTextRow.toArray(new String[] {}));
+        }
 
-            // 4) get responseIds from tidl
-            List<Long> responseIds = tidl.getResponseIdsForAnswers();
+        writer.writeNext(questionCatRow.toArray(new String[] {}));
+        writer.writeNext(questionTypeRow.toArray(new String[] {}));
+        writer.writeNext(questionTextRow.toArray(new String[] {}));
 
-            // 5) loop over response ids
-            for (Long responseId : responseIds) {
-                // 6) loop over DTIs
+        return new ReportWriter() {
+            public void handleResponseAnswers(Long responseId, String evalGroupId, List<EvalAnswer> answers) {
+                Map<String, EvalAnswer> answerMap = mapAnswersByKey(answers);
+                // 3) loop over DTIs
                 List<String> nextResponseRow = new ArrayList<>();
                 for (DataTemplateItem dti : dtiList) {
-
-                    if (!instructorViewAllResults // If the eval is so configured,
-                      && !isCurrentUserAdmin // and currentUser is not an admin
-                      && !currentUserId.equals(evalOwner) // and currentUser is not the eval creator
-                      && !EvalConstants.ITEM_CATEGORY_COURSE.equals(dti.associateType) 
-                      && !currentUserId.equals(commonLogic.getEvalUserById(dti.associateId).userId) ) {
-                        //skip instructor items that aren't for the current user
-                        continue;
-                    }
-
-                    EvalAnswer answer = dti.getAnswer(responseId);
+                    EvalAnswer answer = answerMap.get(dti.getKey());
                     if (answer != null) {
                         nextResponseRow.add(responseAggregator.formatForSpreadSheet(answer.getTemplateItem(), answer));
                         if (dti.usesComments()) {
@@ -498,12 +495,14 @@ public class CSVReportExporter implements ReportExporter {
                 writer.writeNext(nextResponseRow.toArray(new String[] {}));
             }
 
-            try {
-                writer.close();
-            } catch (IOException e1) {
-                throw UniversalRuntimeException.accumulate(e1, "Could not close the CSVWriter");
+            public void finish() {
+                try {
+                    writer.close();
+                } catch (IOException e1) {
+                    throw UniversalRuntimeException.accumulate(e1, "Could not close the CSVWriter");
+                }
             }
-        }
+        };
     }
 
     public String getContentType() {
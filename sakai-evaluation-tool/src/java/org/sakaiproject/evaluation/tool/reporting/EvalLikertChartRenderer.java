@@ -0,0 +1,236 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.tool.reporting;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jfree.chart.JFreeChart;
+
+/**
+ * Renders the likert charts for the PDF reports as PNG images on a pool of threads
+ * so all the charts for a report can be rendered at once before the document is put together<br/>
+ * The images are cached by everything that changes the chart (labels, counts, percentages and size)
+ * so identical charts in other groups and repeat exports are not rendered again
+ */
+public class EvalLikertChartRenderer {
+
+    private static final Log LOG = LogFactory.getLog(EvalLikertChartRenderer.class);
+
+    public static final String STAT_HITS = "hits";
+    public static final String STAT_MISSES = "misses";
+    public static final String STAT_COUNT = "count";
+    public static final String STAT_SIZE = "size";
+
+    /**
+     * The number of charts to render at the same time
+     */
+    private int renderThreads = Runtime.getRuntime().availableProcessors();
+    public void setRenderThreads(int renderThreads) {
+        this.renderThreads = renderThreads;
+    }
+
+    /**
+     * The maximum total size (in bytes) of the cached chart images
+     */
+    private long maxCacheSize = 20L * 1024 * 1024;
+    public void setMaxCacheSize(long maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * The images are rendered this many times larger than the chart size in the document (which is in points)
+     * so they still print clearly
+     */
+    private int chartScale = 4;
+    public void setChartScale(int chartScale) {
+        this.chartScale = chartScale;
+    }
+
+    private ExecutorService pool;
+    // charts which are being rendered right now, so the same chart is never rendered twice at once
+    private final Map<String, Future<byte[]>> rendering = new ConcurrentHashMap<>();
+    // access ordered so the least recently used are dropped first
+    private final LinkedHashMap<String, byte[]> charts = new LinkedHashMap<>(64, 0.75f, true);
+    private long cacheSize = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public void init() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(renderThreads < 1 ? 1 : renderThreads, r -> {
+            Thread t = new Thread(r, "EvalLikertChart-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void destroy() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Start rendering a likert chart image (or get it from the cache)
+     *
+     * @param choices the text for the choices
+     * @param values the count of answers for each choice (same order as choices)
+     * @param responseCount the number of responses to the question
+     * @param showPercentages if true then show the percentages
+     * @param width the width of the chart in the document
+     * @param height the height of the chart in the document
+     * @return the PNG image bytes (when done)
+     */
+    public Future<byte[]> renderChart(String[] choices, int[] values, int responseCount, boolean showPercentages,
+            int width, int height) {
+        final String key = makeChartKey(choices, values, responseCount, showPercentages, width, height);
+        byte[] chart = getCachedChart(key);
+        if (chart != null) {
+            return CompletableFuture.completedFuture(chart);
+        }
+        final String[] chartChoices = choices.clone();
+        final int[] chartValues = values.clone();
+        FutureTask<byte[]> task = new FutureTask<>(() -> {
+            try {
+                byte[] image = drawChart(chartChoices, chartValues, responseCount, showPercentages, width, height);
+                putCachedChart(key, image);
+                return image;
+            } finally {
+                rendering.remove(key);
+            }
+        });
+        Future<byte[]> existing = rendering.putIfAbsent(key, task);
+        if (existing != null) {
+            return existing;
+        }
+        if (pool == null) {
+            task.run();
+        } else {
+            try {
+                pool.execute(task);
+            } catch (RejectedExecutionException e) {
+                // shutting down so just render it here
+                task.run();
+            }
+        }
+        return task;
+    }
+
+    /**
+     * @return the key for a chart, identical charts have the same key
+     */
+    protected static String makeChartKey(String[] choices, int[] values, int responseCount, boolean showPercentages,
+            int width, int height) {
+        StringBuilder key = new StringBuilder();
+        key.append(width).append('x').append(height).append(showPercentages ? ":p:" : ":c:").append(responseCount);
+        for (int i = 0; i < choices.length; i++) {
+            key.append('\u0000').append(choices[i]).append('\u0000').append(i < values.length ? values[i] : 0);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Draw the chart into an image
+     *
+     * @return the PNG image bytes
+     */
+    protected byte[] drawChart(String[] choices, int[] values, int responseCount, boolean showPercentages,
+            int width, int height) throws IOException {
+        EvalLikertChartBuilder chartBuilder = new EvalLikertChartBuilder();
+        chartBuilder.setValues(values);
+        chartBuilder.setResponses(choices);
+        chartBuilder.setShowPercentages(showPercentages);
+        chartBuilder.setResponseCount(responseCount);
+        JFreeChart chart = chartBuilder.makeLikertChart();
+
+        int scale = chartScale < 1 ? 1 : chartScale;
+        BufferedImage image = new BufferedImage(width * scale, height * scale, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g2d.scale(scale, scale);
+            chart.draw(g2d, new Rectangle2D.Double(0, 0, width, height));
+        } finally {
+            g2d.dispose();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private synchronized byte[] getCachedChart(String key) {
+        byte[] chart = charts.get(key);
+        if (chart != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return chart;
+    }
+
+    private synchronized void putCachedChart(String key, byte[] chart) {
+        if (chart.length > maxCacheSize) {
+            return;
+        }
+        byte[] previous = charts.put(key, chart);
+        if (previous != null) {
+            cacheSize -= previous.length;
+        }
+        cacheSize += chart.length;
+        Iterator<byte[]> it = charts.values().iterator();
+        while (cacheSize > maxCacheSize && it.hasNext()) {
+            cacheSize -= it.next().length;
+            it.remove();
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Cached likert chart (" + chart.length + " bytes), " + charts.size() + " charts cached in " + cacheSize + " bytes");
+        }
+    }
+
+    /**
+     * @return the hit/miss counts and size of the chart cache (name -> value)
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new HashMap<>();
+        stats.put(STAT_HITS, hits);
+        stats.put(STAT_MISSES, misses);
+        stats.put(STAT_COUNT, (long) charts.size());
+        stats.put(STAT_SIZE, cacheSize);
+        return stats;
+    }
+
+}
@@ -19,6 +19,7 @@ import java.awt.geom.Rectangle2D;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import org.jfree.chart.JFreeChart;
 
@@ -38,6 +39,8 @@ import com.lowagie.text.Paragraph;
 import com.lowagie.text.pdf.BaseFont;
 import com.lowagie.text.pdf.DefaultFontMapper;
 import com.lowagie.text.pdf.PdfContentByte;
+import com.lowagie.text.pdf.PdfDestination;
+import com.lowagie.text.pdf.PdfOutline;
 import com.lowagie.text.pdf.PdfTemplate;
 import com.lowagie.text.pdf.PdfWriter;
 import com.lowagie.text.pdf.ColumnText;
@@ -80,6 +83,19 @@ public class EvalPDFReportBuilder {
     
     private static final Log LOG = LogFactory.getLog(EvalPDFReportBuilder.class);
 
+    /* The width of the likert charts, the height is based off the number of choices */
+    private static final int LIKERT_CHART_WIDTH = 200;
+    private static final int LIKERT_CHART_CHOICE_HEIGHT = 15;
+
+    private EvalLikertChartRenderer chartRenderer;
+    /**
+     * @param chartRenderer if set then the likert charts are rendered (and cached) as images by this,
+     * otherwise they are drawn into the document as each one is added
+     */
+    public void setChartRenderer(EvalLikertChartRenderer chartRenderer) {
+        this.chartRenderer = chartRenderer;
+    }
+
     public EvalPDFReportBuilder(OutputStream outputStream) {
         document = new Document();
         try {
@@ -110,6 +126,23 @@ public class EvalPDFReportBuilder {
             document.close();
     }
 
+    /**
+     * Starts another report in this document (when putting the reports for several groups into one document),
+     * the report starts on a new page and gets a bookmark, call this before {@link #addTitlePage(String, String, String, String, String, byte[], String, String)}
+     * 
+     * @param bookmarkTitle the title of the bookmark for this report
+     */
+    public void startReport(String bookmarkTitle) {
+        if (responseArea != null) {
+            // the previous report is done
+            document.newPage();
+            column = 0;
+        }
+        pdfWriter.setViewerPreferences(PdfWriter.PageModeUseOutlines);
+        // goes to the top of the current page
+        new PdfOutline(pdfWriter.getRootOutline(), new PdfDestination(PdfDestination.FITH, document.top()), bookmarkTitle);
+    }
+
     public void addTitlePage(String evaltitle, String groupNames, String startDate, String endDate,
             String responseInformation, byte[] bannerImageBytes, String evalSystemTitle, String informationTitle) {
         try {
@@ -309,6 +342,32 @@ public class EvalPDFReportBuilder {
         }
     }
 
+    /**
+     * Start rendering the chart for a likert response which will be added later with
+     * {@link #addLikertResponse(String, String[], int[], int, boolean, String, boolean)},
+     * call this for all the charts before adding anything so they are all rendered at once<br/>
+     * Does nothing if there is no chart renderer
+     * 
+     * @param choices
+     *            the text for the choices
+     * @param values
+     *            the count of answers for each choice (same order as choices)
+     * @param responseCount
+     *            the number of responses to the question
+     * @param showPercentages
+     *            if true then show the percentages
+     */
+    public void prerenderLikertChart(String[] choices, int[] values, int responseCount, boolean showPercentages) {
+        if (chartRenderer != null) {
+            chartRenderer.renderChart(choices, values, responseCount, showPercentages, 
+                    LIKERT_CHART_WIDTH, getLikertChartHeight(choices));
+        }
+    }
+
+    private int getLikertChartHeight(String[] choices) {
+        return LIKERT_CHART_CHOICE_HEIGHT * choices.length;
+    }
+
 	/**
      * @param question
      *            the question text
@@ -343,23 +402,39 @@ public class EvalPDFReportBuilder {
         	myPara.setSpacingAfter(SPACING_AFTER_HEADER);
         	myElements.add(myPara);
 
-			EvalLikertChartBuilder chartBuilder = new EvalLikertChartBuilder();
-			chartBuilder.setValues(values);
-			chartBuilder.setResponses(choices);
-			chartBuilder.setShowPercentages(showPercentages);
-			chartBuilder.setResponseCount(responseCount);
-			JFreeChart chart = chartBuilder.makeLikertChart();
-
 			/* The height is going to be based off the number of choices */
-			int height = 15 * choices.length;
-
-			PdfContentByte cb = pdfWriter.getDirectContent();
-			PdfTemplate tp = cb.createTemplate(200, height);
-			Graphics2D g2d = tp.createGraphics(200, height, new DefaultFontMapper());
-			Rectangle2D r2d = new Rectangle2D.Double(0, 0, 200, height);
-			chart.draw(g2d, r2d);
-			g2d.dispose();
-			Image image = Image.getInstance(tp);
+			int height = getLikertChartHeight(choices);
+
+			Image image = null;
+			if (chartRenderer != null) {
+				// normally already rendered by prerenderLikertChart
+				try {
+					image = Image.getInstance(chartRenderer.renderChart(choices, values, responseCount,
+							showPercentages, LIKERT_CHART_WIDTH, height).get());
+					image.scaleAbsolute(LIKERT_CHART_WIDTH, height);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					LOG.warn("Interrupted while rendering the chart image, drawing it instead");
+				} catch (ExecutionException | IOException e) {
+					LOG.warn("Unable to render the chart image, drawing it instead: " + e);
+				}
+			}
+			if (image == null) {
+				EvalLikertChartBuilder chartBuilder = new EvalLikertChartBuilder();
+				chartBuilder.setValues(values);
+				chartBuilder.setResponses(choices);
+				chartBuilder.setShowPercentages(showPercentages);
+				chartBuilder.setResponseCount(responseCount);
+				JFreeChart chart = chartBuilder.makeLikertChart();
+
+				PdfContentByte cb = pdfWriter.getDirectContent();
+				PdfTemplate tp = cb.createTemplate(LIKERT_CHART_WIDTH, height);
+				Graphics2D g2d = tp.createGraphics(LIKERT_CHART_WIDTH, height, new DefaultFontMapper());
+				Rectangle2D r2d = new Rectangle2D.Double(0, 0, LIKERT_CHART_WIDTH, height);
+				chart.draw(g2d, r2d);
+				g2d.dispose();
+				image = Image.getInstance(tp);
+			}
 
 			// put image in the document
 			myElements.add(image);
@@ -14,12 +14,16 @@
  */
 package org.sakaiproject.evaluation.tool.reporting;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,6 +35,7 @@ import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.EvalCommonLogic;
 import org.sakaiproject.evaluation.logic.EvalDeliveryService;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
+import org.sakaiproject.evaluation.logic.EvalEvaluationService.GroupReportHandler;
 import org.sakaiproject.evaluation.logic.EvalSettings;
 import org.sakaiproject.evaluation.model.EvalAnswer;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
@@ -39,6 +44,7 @@ import org.sakaiproject.evaluation.model.EvalTemplateItem;
 import org.sakaiproject.evaluation.logic.model.EvalUser;
 import org.sakaiproject.evaluation.tool.utils.EvalResponseAggregatorUtil;
 import org.sakaiproject.evaluation.tool.utils.RenderingUtils;
+import org.sakaiproject.evaluation.utils.AnswerMatrix;
 import org.sakaiproject.evaluation.utils.EvalUtils;
 import org.sakaiproject.evaluation.utils.TemplateItemDataList;
 import org.sakaiproject.evaluation.utils.TemplateItemUtils;
@@ -53,15 +59,10 @@ import uk.org.ponder.messageutil.MessageLocator;
  * @author Steven Githens
  * @author Aaron Zeckoski (aaronz@vt.edu)
  */
-public class PDFReportExporter implements ReportExporter {
+public class PDFReportExporter implements SinglePassReportExporter {
 
     private static final Log LOG = LogFactory.getLog(PDFReportExporter.class);
 
-    int displayNumber;
-    
-    ArrayList<Double> weightedMeansBlocks;
-    int blockNumber=0;
-
     private EvalCommonLogic commonLogic;
     public void setCommonLogic(EvalCommonLogic commonLogic) {
         this.commonLogic = commonLogic;
@@ -92,6 +93,11 @@ public class PDFReportExporter implements ReportExporter {
         this.messageLocator = locator;
     }
 
+    private EvalLikertChartRenderer chartRenderer;
+    public void setChartRenderer(EvalLikertChartRenderer chartRenderer) {
+        this.chartRenderer = chartRenderer;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -111,31 +117,196 @@ public class PDFReportExporter implements ReportExporter {
      * .model.EvalEvaluation, java.lang.String[], java.lang.String, java.io.OutputStream, boolean)
      */
     public void buildReport(EvalEvaluation evaluation, String[] groupIds, String evaluateeId, OutputStream outputStream, boolean newReportStyle) {
-				
-    	//Make sure responseAggregator is using this messageLocator
+        ReportLayout layout = prepareLayout(evaluation, groupIds);
+        EvalPDFReportBuilder evalPDFReportBuilder = makeReportBuilder(layout, outputStream);
+        responseAggregator.loadTemplateItemDataMatrix(layout.tidl, evaluation.getId(), groupIds);
+        renderReport(evalPDFReportBuilder, layout, layout.tidl, groupIds, null);
+        evalPDFReportBuilder.close();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.tool.reporting.SinglePassReportExporter#startReport(org.sakaiproject.evaluation.tool.reporting.SharedReportData, java.io.OutputStream)
+     */
+    public ReportWriter startReport(SharedReportData data, final OutputStream outputStream) {
+        final ReportLayout layout = prepareLayout(data);
+        // the results are only needed in aggregate so every answer goes into the answer matrix
+        final AnswerMatrix answerMatrix = new AnswerMatrix();
+        return new ReportWriter() {
+            public void handleResponseAnswers(Long responseId, String evalGroupId, List<EvalAnswer> answers) {
+                answerMatrix.handleResponseAnswers(responseId, evalGroupId, answers);
+            }
+
+            public void finish() {
+                layout.tidl.setItemResults(null);
+                layout.tidl.setAnswerMatrix(answerMatrix);
+                EvalPDFReportBuilder evalPDFReportBuilder = makeReportBuilder(layout, outputStream);
+                renderReport(evalPDFReportBuilder, layout, layout.tidl, layout.data.getGroupIds(), null);
+                evalPDFReportBuilder.close();
+            }
+        };
+    }
+
+    /**
+     * Builds a separate report for each of the groups, the template layout is only worked out once
+     * and then the results for each group are rendered into it
+     * 
+     * @param evaluation the {@link EvalEvaluation} object to build the reports for
+     * @param groupIds the groups to build a report for each of
+     * @param handler provides the output for each group report
+     * @return the number of group reports which were completed
+     */
+    public int buildGroupReports(EvalEvaluation evaluation, String[] groupIds, GroupReportHandler handler) {
+        ReportLayout layout = prepareLayout(evaluation, groupIds);
+        int completed = 0;
+        for (String groupId : groupIds) {
+            OutputStream outputStream;
+            try {
+                outputStream = handler.startGroupReport(groupId);
+            } catch (IOException e) {
+                LOG.warn("Unable to start the PDF report for group " + groupId + " in evaluation " + evaluation.getId() + ": " + e);
+                continue;
+            }
+            boolean complete = false;
+            try {
+                EvalPDFReportBuilder evalPDFReportBuilder = makeReportBuilder(layout, outputStream);
+                TemplateItemDataList groupTidl = responseAggregator.prepareGroupTemplateItemDataMatrix(layout.tidl, evaluation.getId(), groupId);
+                renderReport(evalPDFReportBuilder, layout, groupTidl, new String[] {groupId}, getGroupAssociateIds(evaluation.getId(), groupId));
+                evalPDFReportBuilder.close();
+                complete = true;
+                completed++;
+            } catch (RuntimeException e) {
+                LOG.warn("Unable to build the PDF report for group " + groupId + " in evaluation " + evaluation.getId() + ": " + e, e);
+            } finally {
+                try {
+                    handler.endGroupReport(groupId, outputStream, complete);
+                } catch (IOException e) {
+                    LOG.warn("Unable to finish the PDF report for group " + groupId + " in evaluation " + evaluation.getId() + ": " + e);
+                }
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Same as {@link #buildGroupReports(EvalEvaluation, String[], GroupReportHandler)} but all the group reports
+     * go into one document with a bookmark for each group
+     * 
+     * @param evaluation the {@link EvalEvaluation} object to build the reports for
+     * @param groupIds the groups to build a report for each of
+     * @param outputStream the combined document will be placed into this
+     */
+    public void buildGroupReports(EvalEvaluation evaluation, String[] groupIds, OutputStream outputStream) {
+        ReportLayout layout = prepareLayout(evaluation, groupIds);
+        EvalPDFReportBuilder evalPDFReportBuilder = makeReportBuilder(layout, outputStream);
+        for (String groupId : groupIds) {
+            evalPDFReportBuilder.startReport(commonLogic.getDisplayTitle(groupId));
+            TemplateItemDataList groupTidl = responseAggregator.prepareGroupTemplateItemDataMatrix(layout.tidl, evaluation.getId(), groupId);
+            renderReport(evalPDFReportBuilder, layout, groupTidl, new String[] {groupId}, getGroupAssociateIds(evaluation.getId(), groupId));
+        }
+        evalPDFReportBuilder.close();
+    }
+
+    /**
+     * Works out everything in the report which does not depend on the results (the template items, hierarchy nodes,
+     * instructors, titles and settings) so it can be used for the reports for any of the groups
+     * 
+     * @param evaluation
+     * @param groupIds all the groups which will be in the report(s)
+     * @return the layout for the report(s)
+     */
+    private ReportLayout prepareLayout(EvalEvaluation evaluation, String[] groupIds) {
+        return prepareLayout(new SharedReportData(evaluation, groupIds, responseAggregator, commonLogic, evaluationService));
+    }
+
+    /**
+     * Same as {@link #prepareLayout(EvalEvaluation, String[])} but uses the template items
+     * which were already loaded for the report in another format
+     * 
+     * @param data the report data shared by all the formats
+     * @return the layout for the report(s)
+     */
+    private ReportLayout prepareLayout(SharedReportData data) {
+        //Make sure responseAggregator is using this messageLocator
         responseAggregator.setMessageLocator(messageLocator);
-        EvalPDFReportBuilder evalPDFReportBuilder = new EvalPDFReportBuilder(outputStream);
-        Boolean instructorViewAllResults = (boolean) evaluation.getInstructorViewAllResults();
-        String currentUserId = commonLogic.getCurrentUserId();
-        String evalOwner = evaluation.getOwner();
 
-        boolean isCurrentUserAdmin = commonLogic.isUserAdmin(currentUserId);
+        EvalEvaluation evaluation = data.getEvaluation();
+        ReportLayout layout = new ReportLayout();
+        layout.data = data;
+        layout.evaluation = evaluation;
 
         Boolean useBannerImage = (Boolean) evalSettings.get(EvalSettings.ENABLE_PDF_REPORT_BANNER);
-        byte[] bannerImageBytes = null;
         if (useBannerImage != null && useBannerImage == true) {
             String bannerImageLocation = (String) evalSettings
                     .get(EvalSettings.PDF_BANNER_IMAGE_LOCATION);
             if (bannerImageLocation != null) {
-                bannerImageBytes = commonLogic.getFileContent(bannerImageLocation);
+                layout.bannerImageBytes = commonLogic.getFileContent(bannerImageLocation);
             }
         }
 
         //EvalUser user = commonLogic.getEvalUserById(commonLogic.getCurrentUserId());
 
         DateFormat df = DateFormat.getDateInstance(DateFormat.LONG);
-        
-        evalPDFReportBuilder.addFooter(df.format(evaluation.getDueDate()));
+        layout.footer = df.format(evaluation.getDueDate());
+
+        // Configurable system title
+        layout.evalSystemTitle = messageLocator.getMessage( "reporting.pdf.defaultsystemname", 
+                new Object[] { ServerConfigurationService.getString( "ui.service", "Sakai" ) } );
+        layout.startDate = messageLocator.getMessage( "reporting.pdf.startdatetime", df.format( evaluation.getStartDate() ) );
+        layout.endDate = messageLocator.getMessage( "reporting.pdf.enddatetime", df.format( evaluation.getDueDate() ) );
+        layout.informationTitle = messageLocator.getMessage( "reporting.pdf.informationTitle" );
+
+        /**
+         * set title and instructions
+         * 
+         * Note this doesn't go far enough
+         * commonLogic.makePlainTextFromHTML removes html tags
+         * but it also leaves the text
+         */
+        layout.instructions = htmlContentParser(
+                commonLogic.makePlainTextFromHTML(
+                        evaluation.getInstructions()));
+
+        // Showing the section title is system configurable via the administrate view
+        layout.showHierSectionTitle = (Boolean) evalSettings.get(EvalSettings.DISPLAY_HIERARCHY_HEADERS);
+
+        // The TIDL has no answers, they are only needed in aggregate so they are loaded into a compact answer matrix for each report
+        layout.tidl = data.getTemplateItemDataList();
+        return layout;
+    }
+
+    private EvalPDFReportBuilder makeReportBuilder(ReportLayout layout, OutputStream outputStream) {
+        EvalPDFReportBuilder evalPDFReportBuilder = new EvalPDFReportBuilder(outputStream);
+        evalPDFReportBuilder.setChartRenderer(chartRenderer);
+        evalPDFReportBuilder.addFooter(layout.footer);
+        return evalPDFReportBuilder;
+    }
+
+    /**
+     * @return the ids of the instructors and assistants (associate type -> ids) which have results in this group
+     */
+    private Map<String, Set<String>> getGroupAssociateIds(Long evaluationId, String groupId) {
+        Map<String, Set<String>> associateIds = new HashMap<>();
+        for (String associateType : new String[] {EvalConstants.ITEM_CATEGORY_INSTRUCTOR, EvalConstants.ITEM_CATEGORY_ASSISTANT}) {
+            associateIds.put(associateType, deliveryService.getAnswerAssociateIdsForEval(evaluationId, new String[] {groupId}, associateType));
+        }
+        return associateIds;
+    }
+
+    /**
+     * Renders a whole report (title page and all the items) for the results of the given groups
+     * 
+     * @param evalPDFReportBuilder
+     * @param layout the layout from {@link #prepareLayout(EvalEvaluation, String[])}
+     * @param tidl the layout TIDL OR the TIDL for a single group made from it,
+     * the results for these groups must already be loaded into it
+     * @param groupIds the groups to include the results for
+     * @param groupAssociateIds (OPTIONAL) only include the instructors and assistants in this map (associate type -> ids),
+     * if null then all the ones in the layout are included
+     */
+    private void renderReport(EvalPDFReportBuilder evalPDFReportBuilder, ReportLayout layout, TemplateItemDataList tidl,
+            String[] groupIds, Map<String, Set<String>> groupAssociateIds) {
+        EvalEvaluation evaluation = layout.evaluation;
 
         // calculate the response rate
         // int responsesCount = deliveryService.countResponses(evaluation.getId(), null, true);
@@ -144,45 +315,33 @@ public class PDFReportExporter implements ReportExporter {
 
         String groupNames = responseAggregator.getCommaSeparatedGroupNames(groupIds);
 
-        // Configurable system title
-        String evalSystemTitle = messageLocator.getMessage( "reporting.pdf.defaultsystemname", 
-                new Object[] { ServerConfigurationService.getString( "ui.service", "Sakai" ) } );
-
         // Create the title page
-        String startDate = messageLocator.getMessage( "reporting.pdf.startdatetime", df.format( evaluation.getStartDate() ) );
-        String endDate = messageLocator.getMessage( "reporting.pdf.enddatetime", df.format( evaluation.getDueDate() ) );
         String responseInfo = messageLocator.getMessage( "reporting.pdf.replyrate", 
                 new String[] { EvalUtils.makeResponseRateStringFromCounts( responsesCount, enrollmentsCount ) } );
-        String informationTitle = messageLocator.getMessage( "reporting.pdf.informationTitle" );
-        evalPDFReportBuilder.addTitlePage( evaluation.getTitle(), groupNames, startDate, endDate, responseInfo, bannerImageBytes, evalSystemTitle, informationTitle );
+        evalPDFReportBuilder.addTitlePage( evaluation.getTitle(), groupNames, layout.startDate, layout.endDate, responseInfo, 
+                layout.bannerImageBytes, layout.evalSystemTitle, layout.informationTitle );
 
-        /**
-         * set title and instructions
-         * 
-         * Note this doesn't go far enough
-         * commonLogic.makePlainTextFromHTML removes html tags
-         * but it also leaves the text
-         */
-        evalPDFReportBuilder.addIntroduction(evaluation.getTitle(), 
-                htmlContentParser(
-                        commonLogic.makePlainTextFromHTML(
-                                evaluation.getInstructions())));
+        evalPDFReportBuilder.addIntroduction(evaluation.getTitle(), layout.instructions);
+
+        // the question numbering is only for this report, the exporter is shared by all the reports being built
+        ReportNumbering numbering = new ReportNumbering();
 
-        // Reset question numbering
-        displayNumber = 0;
+        // 1 The TIDL has already been filled with the results for these groups
 
-        // 1 Make TIDL
-        TemplateItemDataList tidl = responseAggregator.prepareTemplateItemDataStructure(evaluation.getId(), groupIds);
+        // Render all the charts at once before the document is put together (same items as below)
+        List<DataTemplateItem> chartDtis = new ArrayList<>();
+        for (DataTemplateItem dti : tidl.getFlatListOfDataTemplateItems(true)) {
+            if (isIncludedAssociate(layout, groupAssociateIds, dti.associateType, dti.associateId)) {
+                chartDtis.add(dti);
+            }
+        }
+        prerenderLikertCharts(evalPDFReportBuilder, chartDtis);
 
         // Loop through the major group types: Course Questions, Instructor Questions, etc.
         for (TemplateItemGroup tig : tidl.getTemplateItemGroups()) {
             
-            if (!instructorViewAllResults   // If the eval is so configured,
-              && !isCurrentUserAdmin // and currentUser is not an admin
-              && !currentUserId.equals(evalOwner) // and currentUser is not the eval creator
-              && !EvalConstants.ITEM_CATEGORY_COURSE.equals(tig.associateType) 
-              && !currentUserId.equals(commonLogic.getEvalUserById(tig.associateId).userId) ) {
-                // skip items that aren't for the current user
+            if (!isIncludedAssociate(layout, groupAssociateIds, tig.associateType, tig.associateId)) {
+                // skip items that aren't for the current user (or are for instructors who are not in these groups)
                 continue;
             }
             
@@ -207,43 +366,81 @@ public class PDFReportExporter implements ReportExporter {
             for (HierarchyNodeGroup hng : tig.hierarchyNodeGroups) {
                 // Render the Node title if it's enabled in the admin settings.
                 if (hng.node != null) {
-                    // Showing the section title is system configurable via the administrate view
-                    Boolean showHierSectionTitle = (Boolean) evalSettings.get(EvalSettings.DISPLAY_HIERARCHY_HEADERS);
-                    if (showHierSectionTitle) {
+                    if (layout.showHierSectionTitle) {
                         evalPDFReportBuilder.addSectionHeader(hng.node.title, true, 0);
                     }
                 }
 
                 List<DataTemplateItem> dtis = hng.getDataTemplateItems(true); // include block children
 
-                weightedMeansBlocks = this.getWeightedMeansBlocks(dtis);
+                numbering.weightedMeansBlocks = this.getWeightedMeansBlocks(dtis);
 
                 for (int i = 0; i < dtis.size(); i++) {
                     DataTemplateItem dti = dtis.get(i);
                     LOG.debug("Item text: "+dti.templateItem.getItem().getItemText());
 
 
-                    if (!instructorViewAllResults // If the eval is so configured,
-                      && !isCurrentUserAdmin  // and currentUser is not an admin
-                      && !currentUserId.equals(evalOwner) // and currentUser is not the eval creator
-                      && !EvalConstants.ITEM_CATEGORY_COURSE.equals(dti.associateType) 
-                      && !currentUserId.equals(commonLogic.getEvalUserById(dti.associateId).userId) ) {
+                    if (!isIncludedAssociate(layout, null, dti.associateType, dti.associateId)) {
                         //skip instructor items that aren't for the current user
                         continue;
                     }
                     
-                    renderDataTemplateItem(evalPDFReportBuilder, dti);
+                    renderDataTemplateItem(evalPDFReportBuilder, dti, numbering);
                 }
 
-                blockNumber=0;
-                weightedMeansBlocks.clear();
+                numbering.blockNumber = 0;
+                numbering.weightedMeansBlocks.clear();
 
             }
         }
+    }
 
-        evalPDFReportBuilder.close();
+    /**
+     * @param layout
+     * @param groupAssociateIds (OPTIONAL) the instructors and assistants in the groups in the report (associate type -> ids)
+     * @param associateType
+     * @param associateId
+     * @return true if the items for this associate should be in the report
+     */
+    private boolean isIncludedAssociate(ReportLayout layout, Map<String, Set<String>> groupAssociateIds, 
+            String associateType, String associateId) {
+        if (EvalConstants.ITEM_CATEGORY_COURSE.equals(associateType)) {
+            return true;
+        }
+        if (groupAssociateIds != null
+                && (! groupAssociateIds.containsKey(associateType)
+                        || ! groupAssociateIds.get(associateType).contains(associateId))) {
+            return false;
+        }
+        return layout.data.isForCurrentUser(associateType, associateId);
+    }
+
+    /**
+     * The parts of the report which are the same for all the groups
+     */
+    private static class ReportLayout {
+        SharedReportData data;
+        EvalEvaluation evaluation;
+        TemplateItemDataList tidl;
+        byte[] bannerImageBytes;
+        String footer;
+        String evalSystemTitle;
+        String startDate;
+        String endDate;
+        String informationTitle;
+        String instructions;
+        Boolean showHierSectionTitle;
     }
     
+    /**
+     * The question and block numbering for a single report while it is being rendered
+     */
+    private static class ReportNumbering {
+        int displayNumber = 0;
+        int blockNumber = 0;
+        List<Double> weightedMeansBlocks;
+    }
+
     /**
      * Remove tags & inclusive content
      * 
@@ -264,9 +461,11 @@ public class PDFReportExporter implements ReportExporter {
      * @param evalPDFReportBuilder
      * @param dti
      *            the data template item
+     * @param numbering
+     *            the question numbering for the report being rendered
      */
     private void renderDataTemplateItem(EvalPDFReportBuilder evalPDFReportBuilder,
-            DataTemplateItem dti) {
+            DataTemplateItem dti, ReportNumbering numbering) {
         EvalTemplateItem templateItem = dti.templateItem;
         EvalItem item = templateItem.getItem();
         //HTML has data like color or size. Size is important because we can replicate it in the report.
@@ -275,8 +474,6 @@ public class PDFReportExporter implements ReportExporter {
         
         boolean lastElementIsHeader=false; //Two close headers or blocks are too separated. 
 
-        List<EvalAnswer> itemAnswers = dti.getAnswers();
-
         String templateItemType = TemplateItemUtils.getTemplateItemType(templateItem);
         
         if (EvalConstants.ITEM_TYPE_HEADER.equals(templateItemType))
@@ -287,20 +484,17 @@ public class PDFReportExporter implements ReportExporter {
         {
             evalPDFReportBuilder.addSectionHeader(questionText,lastElementIsHeader, itemSize);
             
-            if (weightedMeansBlocks.get(blockNumber)!=-1.0)
+            if (numbering.weightedMeansBlocks.get(numbering.blockNumber)!=-1.0)
             {
-            	evalPDFReportBuilder.addBoldText(messageLocator.getMessage("viewreport.blockWeightedMean")+": "+new DecimalFormat("#.##").format(weightedMeansBlocks.get(blockNumber)));
+            	evalPDFReportBuilder.addBoldText(messageLocator.getMessage("viewreport.blockWeightedMean")+": "+new DecimalFormat("#.##").format(numbering.weightedMeansBlocks.get(numbering.blockNumber)));
             }
-            blockNumber++;
+            numbering.blockNumber++;
         }
         else if (EvalConstants.ITEM_TYPE_TEXT.equals(templateItemType))
         {
-            displayNumber++;
-            List<String> essays = new ArrayList<>();
-            for (EvalAnswer answer : itemAnswers) {
-                essays.add(answer.getText());
-            }
-            evalPDFReportBuilder.addTextItemsList(displayNumber + ". " + questionText, essays, false, messageLocator.getMessage("viewreport.numberanswers"));
+            numbering.displayNumber++;
+            List<String> essays = dti.getTextAnswers();
+            evalPDFReportBuilder.addTextItemsList(numbering.displayNumber + ". " + questionText, essays, false, messageLocator.getMessage("viewreport.numberanswers"));
         }
         else if (EvalConstants.ITEM_TYPE_MULTIPLEANSWER.equals(templateItemType)
                 || EvalConstants.ITEM_TYPE_MULTIPLECHOICE.equals(templateItemType)
@@ -317,18 +511,12 @@ public class PDFReportExporter implements ReportExporter {
             //evalPDFReportBuilder.addSectionHeader(questionText);
         	//evalPDFReportBuilder.addRegularText(" ");
         	
-            int responseNo = itemAnswers.size();
-            displayNumber++;
+            int responseNo = dti.getAnswersCount();
+            numbering.displayNumber++;
             String[] itemScaleOptions = item.getScale().getOptions();
-            int[] responseArray = TemplateItemDataList.getAnswerChoicesCounts(templateItemType,
-                    itemScaleOptions.length, itemAnswers);
-
-            String[] optionLabels = RenderingUtils.makeReportingScaleLabels(templateItem, itemScaleOptions);
-            if (templateItem.getUsesNA()) {
-                // add in the N/A label to the end
-                optionLabels = Arrays.copyOf(optionLabels, optionLabels.length+1);
-                optionLabels[optionLabels.length - 1] = messageLocator.getMessage("reporting.notapplicable.longlabel");
-            }
+            int[] responseArray = dti.getAnswerChoicesCounts(itemScaleOptions.length);
+
+            String[] optionLabels = makeOptionLabels(templateItem, itemScaleOptions);
 
             // http://www.caret.cam.ac.uk/jira/browse/CTL-1504
             /*
@@ -351,7 +539,7 @@ public class PDFReportExporter implements ReportExporter {
             }
             else answersAndMean = answersAndMean + " ";
 
-            evalPDFReportBuilder.addLikertResponse(displayNumber + ". " + questionText,
+            evalPDFReportBuilder.addLikertResponse(numbering.displayNumber + ". " + questionText,
                     optionLabels, responseArray, responseNo, showPercentages, answersAndMean,lastElementIsHeader);
 
             // handle comments
@@ -372,6 +560,45 @@ public class PDFReportExporter implements ReportExporter {
     }
 
 
+    /**
+     * Start rendering the charts for all the likert items,
+     * the values must match the ones used in {@link #renderDataTemplateItem(EvalPDFReportBuilder, DataTemplateItem, ReportNumbering)}
+     * 
+     * @param evalPDFReportBuilder
+     * @param dtis the data template items which will be in the report
+     */
+    private void prerenderLikertCharts(EvalPDFReportBuilder evalPDFReportBuilder, List<DataTemplateItem> dtis) {
+        for (DataTemplateItem dti : dtis) {
+            EvalTemplateItem templateItem = dti.templateItem;
+            String templateItemType = TemplateItemUtils.getTemplateItemType(templateItem);
+            if (!EvalConstants.ITEM_TYPE_MULTIPLEANSWER.equals(templateItemType)
+                    && !EvalConstants.ITEM_TYPE_MULTIPLECHOICE.equals(templateItemType)
+                    && !EvalConstants.ITEM_TYPE_SCALED.equals(templateItemType)
+                    && !EvalConstants.ITEM_TYPE_BLOCK_CHILD.equals(templateItemType)) {
+                continue;
+            }
+            String[] itemScaleOptions = templateItem.getItem().getScale().getOptions();
+            int responseNo = dti.getAnswersCount();
+            int[] responseArray = dti.getAnswerChoicesCounts(itemScaleOptions.length);
+            // always showing percentages for now
+            evalPDFReportBuilder.prerenderLikertChart(makeOptionLabels(templateItem, itemScaleOptions), 
+                    responseArray, responseNo, true);
+        }
+    }
+
+    /**
+     * @return the labels for the choices of a scaled item (including N/A if it is used)
+     */
+    private String[] makeOptionLabels(EvalTemplateItem templateItem, String[] itemScaleOptions) {
+        String[] optionLabels = RenderingUtils.makeReportingScaleLabels(templateItem, itemScaleOptions);
+        if (templateItem.getUsesNA()) {
+            // add in the N/A label to the end
+            optionLabels = Arrays.copyOf(optionLabels, optionLabels.length+1);
+            optionLabels[optionLabels.length - 1] = messageLocator.getMessage("reporting.notapplicable.longlabel");
+        }
+        return optionLabels;
+    }
+
     float calculateFontSize(String itemText)
     {
         //20140226 - daniel.merino@unavarra.es - https://jira.sakaiproject.org/browse/EVALSYS-1100
@@ -496,7 +723,6 @@ public class PDFReportExporter implements ReportExporter {
             templateItem = dti.templateItem;
             item = templateItem.getItem();
 
-            List<EvalAnswer> itemAnswers = dti.getAnswers();
             String templateItemType = TemplateItemUtils.getTemplateItemType(templateItem);
 
             if ((processingBlock) && (numberOfChildren==0))
@@ -529,7 +755,7 @@ public class PDFReportExporter implements ReportExporter {
                 {
                     if (numberOfChildren>0) numberOfChildren--;
 
-                    int[] responseArray = TemplateItemDataList.getAnswerChoicesCounts(templateItemType, item.getScale().getOptions().length, itemAnswers);
+                    int[] responseArray = dti.getAnswerChoicesCounts(item.getScale().getOptions().length);
                     int temporal;
 
                     optionLabels = item.getScale().getOptions();
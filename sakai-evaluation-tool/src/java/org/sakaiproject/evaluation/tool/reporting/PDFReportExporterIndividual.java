@@ -55,11 +55,6 @@ public class PDFReportExporterIndividual implements ReportExporter {
 
     private static final Log LOG = LogFactory.getLog(PDFReportExporterIndividual.class);
 
-    int displayNumber;
-
-    ArrayList<Double> weightedMeansBlocks;
-    int blockNumber=0;
-
     private EvalCommonLogic commonLogic;
     public void setCommonLogic(EvalCommonLogic commonLogic) {
         this.commonLogic = commonLogic;
@@ -90,6 +85,11 @@ public class PDFReportExporterIndividual implements ReportExporter {
         this.messageLocator = locator;
     }
 
+    private EvalLikertChartRenderer chartRenderer;
+    public void setChartRenderer(EvalLikertChartRenderer chartRenderer) {
+        this.chartRenderer = chartRenderer;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -113,6 +113,7 @@ public class PDFReportExporterIndividual implements ReportExporter {
     	//Make sure responseAggregator is using this messageLocator
         responseAggregator.setMessageLocator(messageLocator);
 		EvalPDFReportBuilder evalPDFReportBuilder = new EvalPDFReportBuilder(outputStream);
+		evalPDFReportBuilder.setChartRenderer(chartRenderer);
         Boolean instructorViewAllResults = (boolean) evaluation.getInstructorViewAllResults();
         String currentUserId = commonLogic.getCurrentUserId();
         String evalOwner = evaluation.getOwner();
@@ -164,11 +165,28 @@ public class PDFReportExporterIndividual implements ReportExporter {
                         commonLogic.makePlainTextFromHTML(
                                 evaluation.getInstructions())));
 
-        // Reset question numbering
-        displayNumber = 0;
+        // the question numbering is only for this report, the exporter is shared by all the reports being built
+        ReportNumbering numbering = new ReportNumbering();
 
         // 1 Make TIDL
         TemplateItemDataList tidl = responseAggregator.prepareTemplateItemDataStructure(evaluation.getId(), groupIds);
+        responseAggregator.prefetchAssociateUsers(tidl);
+
+        // Render all the charts at once before the document is put together (same items as below)
+        List<DataTemplateItem> chartDtis = new ArrayList<>();
+        for (DataTemplateItem dti : tidl.getFlatListOfDataTemplateItems(true)) {
+            if ((!instructorViewAllResults // If the eval is so configured,
+                  && !commonLogic.isUserAdmin(currentUserId) // and currentUser is not an admin
+                  && !currentUserId.equals(evalOwner) // and currentUser is not the eval creator
+                  && !EvalConstants.ITEM_CATEGORY_COURSE.equals(dti.associateType) 
+                  && !currentUserId.equals(commonLogic.getEvalUserById(dti.associateId).userId))
+                || (!EvalConstants.ITEM_CATEGORY_COURSE.equals(dti.associateType) 
+                  && !evaluateeId.equals(commonLogic.getEvalUserById(dti.associateId).userId))) {
+                continue;
+            }
+            chartDtis.add(dti);
+        }
+        prerenderLikertCharts(evalPDFReportBuilder, chartDtis);
 
         // Loop through the major group types: Course Questions, Instructor Questions, etc.
         for (TemplateItemGroup tig : tidl.getTemplateItemGroups()) {
@@ -217,7 +235,7 @@ public class PDFReportExporterIndividual implements ReportExporter {
 
                 List<DataTemplateItem> dtis = hng.getDataTemplateItems(true); // include block children
 
-                weightedMeansBlocks = this.getWeightedMeansBlocks(dtis);
+                numbering.weightedMeansBlocks = this.getWeightedMeansBlocks(dtis);
 
                 for (int i = 0; i < dtis.size(); i++) {
                     DataTemplateItem dti = dtis.get(i);
@@ -237,16 +255,25 @@ public class PDFReportExporterIndividual implements ReportExporter {
 						continue;
 					}
                     
-                    renderDataTemplateItem(evalPDFReportBuilder, dti);
+                    renderDataTemplateItem(evalPDFReportBuilder, dti, numbering);
                 }
-                blockNumber=0;
-                weightedMeansBlocks.clear();
+                numbering.blockNumber = 0;
+                numbering.weightedMeansBlocks.clear();
             }
         }
 
         evalPDFReportBuilder.close();
     }
     
+    /**
+     * The question and block numbering for a single report while it is being rendered
+     */
+    private static class ReportNumbering {
+        int displayNumber = 0;
+        int blockNumber = 0;
+        List<Double> weightedMeansBlocks;
+    }
+
     /**
      * Remove tags & inclusive content
      * 
@@ -267,9 +294,11 @@ public class PDFReportExporterIndividual implements ReportExporter {
      * @param evalPDFReportBuilder
      * @param dti
      *            the data template item
+     * @param numbering
+     *            the question numbering for the report being rendered
      */
     private void renderDataTemplateItem(EvalPDFReportBuilder evalPDFReportBuilder,
-            DataTemplateItem dti) {
+            DataTemplateItem dti, ReportNumbering numbering) {
         EvalTemplateItem templateItem = dti.templateItem;
         EvalItem item = templateItem.getItem();
         //HTML has data like color or size. Size is important because we can replicate it in the report.
@@ -290,20 +319,20 @@ public class PDFReportExporterIndividual implements ReportExporter {
         {
             evalPDFReportBuilder.addSectionHeader(questionText, lastElementIsHeader, itemSize);
 
-            if (weightedMeansBlocks.get(blockNumber)!=-1.0)
+            if (numbering.weightedMeansBlocks.get(numbering.blockNumber)!=-1.0)
             {
-                evalPDFReportBuilder.addBoldText(messageLocator.getMessage("viewreport.blockWeightedMean")+": "+new DecimalFormat("#.##").format(weightedMeansBlocks.get(blockNumber)));
+                evalPDFReportBuilder.addBoldText(messageLocator.getMessage("viewreport.blockWeightedMean")+": "+new DecimalFormat("#.##").format(numbering.weightedMeansBlocks.get(numbering.blockNumber)));
             }
-            blockNumber++;
+            numbering.blockNumber++;
         }
         else if (EvalConstants.ITEM_TYPE_TEXT.equals(templateItemType))
         {
-            displayNumber++;
+            numbering.displayNumber++;
             List<String> essays = new ArrayList<>();
             for (EvalAnswer answer : itemAnswers) {
                 essays.add(answer.getText());
             }
-            evalPDFReportBuilder.addTextItemsList(displayNumber + ". " + questionText, essays, false, messageLocator.getMessage("viewreport.numberanswers"));
+            evalPDFReportBuilder.addTextItemsList(numbering.displayNumber + ". " + questionText, essays, false, messageLocator.getMessage("viewreport.numberanswers"));
         }
         else if (EvalConstants.ITEM_TYPE_MULTIPLEANSWER.equals(templateItemType)
                 || EvalConstants.ITEM_TYPE_MULTIPLECHOICE.equals(templateItemType)
@@ -318,17 +347,12 @@ public class PDFReportExporterIndividual implements ReportExporter {
             // }
 
             int responseNo = itemAnswers.size();
-            displayNumber++;
+            numbering.displayNumber++;
             String[] itemScaleOptions = item.getScale().getOptions();
             int[] responseArray = TemplateItemDataList.getAnswerChoicesCounts(templateItemType,
                     itemScaleOptions.length, itemAnswers);
 
-            String[] optionLabels = RenderingUtils.makeReportingScaleLabels(templateItem, itemScaleOptions);
-            if (templateItem.getUsesNA()) {
-                // add in the N/A label to the end
-                optionLabels = Arrays.copyOf(optionLabels, optionLabels.length+1);
-                optionLabels[optionLabels.length - 1] = messageLocator.getMessage("reporting.notapplicable.longlabel");
-            }
+            String[] optionLabels = makeOptionLabels(templateItem, itemScaleOptions);
 
             // http://www.caret.cam.ac.uk/jira/browse/CTL-1504
             /*
@@ -351,7 +375,7 @@ public class PDFReportExporterIndividual implements ReportExporter {
              }
              else answersAndMean = answersAndMean + " ";
 
-             evalPDFReportBuilder.addLikertResponse(displayNumber + ". " + questionText,
+             evalPDFReportBuilder.addLikertResponse(numbering.displayNumber + ". " + questionText,
                      optionLabels, responseArray, responseNo, showPercentages, answersAndMean,lastElementIsHeader);
 
             // handle comments
@@ -370,6 +394,47 @@ public class PDFReportExporterIndividual implements ReportExporter {
         }
     }
 
+    /**
+     * Start rendering the charts for all the likert items,
+     * the values must match the ones used in {@link #renderDataTemplateItem(EvalPDFReportBuilder, DataTemplateItem, ReportNumbering)}
+     * 
+     * @param evalPDFReportBuilder
+     * @param dtis the data template items which will be in the report
+     */
+    private void prerenderLikertCharts(EvalPDFReportBuilder evalPDFReportBuilder, List<DataTemplateItem> dtis) {
+        for (DataTemplateItem dti : dtis) {
+            EvalTemplateItem templateItem = dti.templateItem;
+            String templateItemType = TemplateItemUtils.getTemplateItemType(templateItem);
+            if (!EvalConstants.ITEM_TYPE_MULTIPLEANSWER.equals(templateItemType)
+                    && !EvalConstants.ITEM_TYPE_MULTIPLECHOICE.equals(templateItemType)
+                    && !EvalConstants.ITEM_TYPE_SCALED.equals(templateItemType)
+                    && !EvalConstants.ITEM_TYPE_BLOCK_CHILD.equals(templateItemType)) {
+                continue;
+            }
+            String[] itemScaleOptions = templateItem.getItem().getScale().getOptions();
+            List<EvalAnswer> itemAnswers = dti.getAnswers();
+            int responseNo = itemAnswers.size();
+            int[] responseArray = TemplateItemDataList.getAnswerChoicesCounts(templateItemType,
+                    itemScaleOptions.length, itemAnswers);
+            // always showing percentages for now
+            evalPDFReportBuilder.prerenderLikertChart(makeOptionLabels(templateItem, itemScaleOptions), 
+                    responseArray, responseNo, true);
+        }
+    }
+
+    /**
+     * @return the labels for the choices of a scaled item (including N/A if it is used)
+     */
+    private String[] makeOptionLabels(EvalTemplateItem templateItem, String[] itemScaleOptions) {
+        String[] optionLabels = RenderingUtils.makeReportingScaleLabels(templateItem, itemScaleOptions);
+        if (templateItem.getUsesNA()) {
+            // add in the N/A label to the end
+            optionLabels = Arrays.copyOf(optionLabels, optionLabels.length+1);
+            optionLabels[optionLabels.length - 1] = messageLocator.getMessage("reporting.notapplicable.longlabel");
+        }
+        return optionLabels;
+    }
+
     private float calculateFontSize(String itemText)
     {
         //20140226 - daniel.merino@unavarra.es - https://jira.sakaiproject.org/browse/EVALSYS-1100
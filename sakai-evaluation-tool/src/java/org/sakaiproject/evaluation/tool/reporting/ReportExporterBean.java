@@ -14,10 +14,18 @@
  */
 package org.sakaiproject.evaluation.tool.reporting;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -25,8 +33,12 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.evaluation.logic.EvalCommonLogic;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
+import org.sakaiproject.evaluation.logic.EvalEvaluationService.GroupReportHandler;
+import org.sakaiproject.evaluation.logic.EvalReportCache;
 import org.sakaiproject.evaluation.logic.ReportingPermissions;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.evaluation.tool.reporting.SinglePassReportExporter.ReportWriter;
+import org.sakaiproject.evaluation.tool.utils.EvalResponseAggregatorUtil;
 import org.sakaiproject.evaluation.tool.viewparams.DownloadReportViewParams;
 import org.sakaiproject.evaluation.toolaccess.EvaluationAccessAPI;
 import org.sakaiproject.evaluation.toolaccess.ToolApi;
@@ -100,6 +112,16 @@ public class ReportExporterBean implements ToolApi {
         this.reportingPermissions = perms;
     }
     
+    private EvalResponseAggregatorUtil responseAggregator;
+    public void setEvalResponseAggregatorUtil(EvalResponseAggregatorUtil bean) {
+        this.responseAggregator = bean;
+    }
+
+    private EvalReportCache reportCache;
+    public void setReportCache(EvalReportCache reportCache) {
+        this.reportCache = reportCache;
+    }
+
     private Map<String, ReportExporter> exportersMap;
     public void setExportersMap(Map<String, ReportExporter> exportersMap) {
         this.exportersMap = exportersMap;
@@ -144,9 +166,265 @@ public class ReportExporterBean implements ToolApi {
       if (LOG.isDebugEnabled()) {
         LOG.debug("Found exporter: " + exporter.getClass() + " for drvp.viewID " + exportType);
       }
+      groupIds = checkReportPermissions(evaluation, groupIds);
+
+      // closed evaluation reports do not change so they can come from the cache
+      String reportKey = null;
+      if (reportCache != null) {
+        reportKey = reportCache.makeReportKey(evaluation.getId(), groupIds, getViewerClass(evaluation),
+            exportType, evaluateeId, String.valueOf(newReportStyle));
+        if (reportCache.copyReport(reportKey, outputStream)) {
+          LOG.debug("Sent cached report " + exportType + " for evaluation " + evaluation.getId());
+          return;
+        }
+      }
+      OutputStream reportStream = outputStream;
+      if (reportKey != null) {
+        reportStream = reportCache.startReport(reportKey, evaluation.getId(), outputStream);
+      }
+
+      MyMessageLocator messageLocator = new MyMessageLocator();
+      exporter.setMessageLocator(messageLocator);
+      // the exporters look up the same instructors for every item
+      commonLogic.startUserRequestCache();
+      boolean complete = false;
+      try {
+        if (EvalEvaluationService.PDF_RESULTS_REPORT_INDIVIDUAL.equals(exportType)) {
+          exporter.buildReport(evaluation, groupIds, evaluateeId, reportStream, newReportStyle);
+        } else {
+          exporter.buildReport(evaluation, groupIds, reportStream, newReportStyle);
+        }
+        complete = true;
+      } finally {
+        commonLogic.endUserRequestCache();
+        if (reportKey != null) {
+          reportCache.endReport(reportStream, complete);
+        }
+      }
+
+    }
+
+    public Set<String> exportReports(EvalEvaluation evaluation, String[] groupIds, Map<String, OutputStream> outputStreams) {
+      groupIds = checkReportPermissions(evaluation, groupIds);
+
+      Set<String> completed = new LinkedHashSet<>();
+      // the reports which are not cached and can be written from the same pass over the responses
+      Map<String, SinglePassReportExporter> singlePassExporters = new LinkedHashMap<>();
+      Map<String, String> reportKeys = new HashMap<>();
+      for (Map.Entry<String, OutputStream> entry : outputStreams.entrySet()) {
+        String exportType = entry.getKey();
+        ReportExporter exporter = exportersMap.get(exportType);
+        if (exporter == null) {
+          throw new IllegalArgumentException("No exporter found for ViewID: " + exportType);
+        }
+        if (newReportStyle || ! (exporter instanceof SinglePassReportExporter)) {
+          // the other report styles work out their own data so they are exported one at a time
+          try {
+            exportReport(evaluation, groupIds, null, entry.getValue(), exportType);
+            completed.add(exportType);
+          } catch (RuntimeException e) {
+            LOG.warn("Unable to export the " + exportType + " report for evaluation " + evaluation.getId() + ": " + e, e);
+          }
+          continue;
+        }
+        if (reportCache != null) {
+          String reportKey = reportCache.makeReportKey(evaluation.getId(), groupIds, getViewerClass(evaluation),
+              exportType, null, String.valueOf(newReportStyle));
+          if (reportCache.copyReport(reportKey, entry.getValue())) {
+            LOG.debug("Sent cached report " + exportType + " for evaluation " + evaluation.getId());
+            completed.add(exportType);
+            continue;
+          }
+          if (reportKey != null) {
+            reportKeys.put(exportType, reportKey);
+          }
+        }
+        singlePassExporters.put(exportType, (SinglePassReportExporter) exporter);
+      }
+      if (! singlePassExporters.isEmpty()) {
+        buildSinglePassReports(evaluation, groupIds, singlePassExporters, outputStreams, reportKeys, completed);
+      }
+      return completed;
+    }
+
+    /**
+     * Loads the report data once and writes all the reports from a single pass over the responses,
+     * a report which fails is dropped and the rest carry on
+     * 
+     * @param reportKeys the report cache keys for the reports (report type -> key) which should be cached
+     * @param completed the report types which were completed are added to this
+     */
+    private void buildSinglePassReports(EvalEvaluation evaluation, String[] groupIds, Map<String, SinglePassReportExporter> exporters,
+        Map<String, OutputStream> outputStreams, Map<String, String> reportKeys, Set<String> completed) {
+      MyMessageLocator messageLocator = new MyMessageLocator();
+      final Map<String, ReportWriter> writers = new LinkedHashMap<>();
+      Map<String, OutputStream> reportStreams = new HashMap<>();
+      // the exporters look up the same instructors for every item
+      commonLogic.startUserRequestCache();
+      try {
+        SharedReportData data = new SharedReportData(evaluation, groupIds, responseAggregator, commonLogic, evaluationService);
+        for (Map.Entry<String, SinglePassReportExporter> entry : exporters.entrySet()) {
+          String exportType = entry.getKey();
+          OutputStream reportStream = outputStreams.get(exportType);
+          if (reportKeys.containsKey(exportType)) {
+            reportStream = reportCache.startReport(reportKeys.get(exportType), evaluation.getId(), reportStream);
+          }
+          reportStreams.put(exportType, reportStream);
+          try {
+            entry.getValue().setMessageLocator(messageLocator);
+            writers.put(exportType, entry.getValue().startReport(data, reportStream));
+          } catch (RuntimeException e) {
+            LOG.warn("Unable to start the " + exportType + " report for evaluation " + evaluation.getId() + ": " + e, e);
+          }
+        }
+
+        responseAggregator.streamAnswers(evaluation.getId(), groupIds, (responseId, evalGroupId, answers) -> {
+          Iterator<Map.Entry<String, ReportWriter>> it = writers.entrySet().iterator();
+          while (it.hasNext()) {
+            Map.Entry<String, ReportWriter> writer = it.next();
+            try {
+              writer.getValue().handleResponseAnswers(responseId, evalGroupId, answers);
+            } catch (RuntimeException e) {
+              LOG.warn("Unable to write the " + writer.getKey() + " report for evaluation " + evaluation.getId() + ": " + e, e);
+              it.remove();
+            }
+          }
+        });
+
+        for (Map.Entry<String, ReportWriter> writer : writers.entrySet()) {
+          try {
+            writer.getValue().finish();
+            completed.add(writer.getKey());
+          } catch (RuntimeException e) {
+            LOG.warn("Unable to finish the " + writer.getKey() + " report for evaluation " + evaluation.getId() + ": " + e, e);
+          }
+        }
+      } finally {
+        commonLogic.endUserRequestCache();
+        for (Map.Entry<String, OutputStream> entry : reportStreams.entrySet()) {
+          if (reportKeys.containsKey(entry.getKey())) {
+            reportCache.endReport(entry.getValue(), completed.contains(entry.getKey()));
+          }
+        }
+      }
+    }
+
+    public int exportGroupPDFReports(EvalEvaluation evaluation, String[] groupIds, final GroupReportHandler handler) {
+      PDFReportExporter exporter = getGroupPDFExporter();
+      groupIds = checkReportPermissions(evaluation, groupIds);
+
+      // the groups which were already exported come from the cache, only the rest are built
+      final Map<String, String> reportKeys = new HashMap<>();
+      List<String> buildGroupIds = new ArrayList<>();
+      int completed = 0;
+      for (String groupId : groupIds) {
+        String reportKey = null;
+        if (reportCache != null) {
+          reportKey = reportCache.makeReportKey(evaluation.getId(), new String[] {groupId}, getViewerClass(evaluation),
+              EvalEvaluationService.PDF_RESULTS_REPORT, null, String.valueOf(newReportStyle));
+          ByteArrayOutputStream cached = new ByteArrayOutputStream();
+          if (reportKey != null && reportCache.copyReport(reportKey, cached)) {
+            if (writeCachedGroupReport(groupId, cached, handler)) {
+              completed++;
+            }
+            continue;
+          }
+        }
+        if (reportKey != null) {
+          reportKeys.put(groupId, reportKey);
+        }
+        buildGroupIds.add(groupId);
+      }
+      if (buildGroupIds.isEmpty()) {
+        return completed;
+      }
+
+      // store the newly built reports in the cache as they are written out
+      final Long evaluationId = evaluation.getId();
+      final Map<String, OutputStream> handlerStreams = new HashMap<>();
+      GroupReportHandler cachingHandler = new GroupReportHandler() {
+        public OutputStream startGroupReport(String evalGroupId) throws IOException {
+          OutputStream outputStream = handler.startGroupReport(evalGroupId);
+          if (! reportKeys.containsKey(evalGroupId)) {
+            return outputStream;
+          }
+          handlerStreams.put(evalGroupId, outputStream);
+          return reportCache.startReport(reportKeys.get(evalGroupId), evaluationId, outputStream);
+        }
+        public void endGroupReport(String evalGroupId, OutputStream outputStream, boolean complete) throws IOException {
+          if (handlerStreams.containsKey(evalGroupId)) {
+            reportCache.endReport(outputStream, complete);
+            outputStream = handlerStreams.remove(evalGroupId);
+          }
+          handler.endGroupReport(evalGroupId, outputStream, complete);
+        }
+      };
+
+      exporter.setMessageLocator(new MyMessageLocator());
+      commonLogic.startUserRequestCache();
+      try {
+        completed += exporter.buildGroupReports(evaluation, buildGroupIds.toArray(new String[buildGroupIds.size()]), cachingHandler);
+      } finally {
+        commonLogic.endUserRequestCache();
+      }
+      return completed;
+    }
+
+    public void exportGroupPDFReports(EvalEvaluation evaluation, String[] groupIds, OutputStream outputStream) {
+      PDFReportExporter exporter = getGroupPDFExporter();
+      groupIds = checkReportPermissions(evaluation, groupIds);
+
+      String reportKey = null;
+      if (reportCache != null) {
+        reportKey = reportCache.makeReportKey(evaluation.getId(), groupIds, getViewerClass(evaluation),
+            EvalEvaluationService.PDF_RESULTS_REPORT, "groups", String.valueOf(newReportStyle));
+        if (reportCache.copyReport(reportKey, outputStream)) {
+          LOG.debug("Sent cached group reports for evaluation " + evaluation.getId());
+          return;
+        }
+      }
+      OutputStream reportStream = outputStream;
+      if (reportKey != null) {
+        reportStream = reportCache.startReport(reportKey, evaluation.getId(), outputStream);
+      }
+
+      exporter.setMessageLocator(new MyMessageLocator());
+      commonLogic.startUserRequestCache();
+      boolean complete = false;
+      try {
+        exporter.buildGroupReports(evaluation, groupIds, reportStream);
+        complete = true;
+      } finally {
+        commonLogic.endUserRequestCache();
+        if (reportKey != null) {
+          reportCache.endReport(reportStream, complete);
+        }
+      }
+    }
+
+    /**
+     * @return the PDF exporter which can build the reports for several groups at once
+     */
+    private PDFReportExporter getGroupPDFExporter() {
+      ReportExporter exporter = exportersMap.get(EvalEvaluationService.PDF_RESULTS_REPORT);
+      if (! (exporter instanceof PDFReportExporter)) {
+        throw new IllegalStateException("No group PDF exporter found for ViewID: " + EvalEvaluationService.PDF_RESULTS_REPORT);
+      }
+      return (PDFReportExporter) exporter;
+    }
+
+    /**
+     * Checks the current user can view the reports for these groups
+     * 
+     * @param evaluation
+     * @param groupIds the groups to report on, if null or empty the viewable groups for the current user are used
+     * @return the group ids to export (the viewable groups for the current user if none were given)
+     * @throws SecurityException if the current user cannot view the reports
+     */
+    public String[] checkReportPermissions(EvalEvaluation evaluation, String[] groupIds) {
       if (groupIds == null || groupIds.length==0) {
         //Get the default groupIds
-    	String[] groupIdsArray = new String [] {};
+        String[] groupIdsArray = new String [] {};
         groupIds = reportingPermissions.getResultsViewableEvalGroupIdsForCurrentUser(evaluation).toArray(groupIdsArray);
       }
 
@@ -156,21 +434,59 @@ public class ReportExporterBean implements ToolApi {
         throw new SecurityException("Invalid user attempting to access report downloads: "
             + currentUserId);
       }
+      return groupIds;
+    }
 
-      MyMessageLocator messageLocator = new MyMessageLocator();
-      exporter.setMessageLocator(messageLocator);
-      if (EvalEvaluationService.PDF_RESULTS_REPORT_INDIVIDUAL.equals(exportType)) {
-        exporter.buildReport(evaluation, groupIds, evaluateeId, outputStream, newReportStyle);
-      } else {
-        exporter.buildReport(evaluation, groupIds, outputStream, newReportStyle);
+    /**
+     * Sends the cached report for a group to the handler
+     * 
+     * @return true if the report was sent
+     */
+    private boolean writeCachedGroupReport(String groupId, ByteArrayOutputStream cached, GroupReportHandler handler) {
+      OutputStream outputStream;
+      try {
+        outputStream = handler.startGroupReport(groupId);
+      } catch (IOException e) {
+        LOG.warn("Unable to start the PDF report for group " + groupId + ": " + e);
+        return false;
       }
-
+      boolean complete = false;
+      try {
+        cached.writeTo(outputStream);
+        complete = true;
+      } catch (IOException e) {
+        LOG.warn("Unable to write the cached PDF report for group " + groupId + ": " + e);
+      } finally {
+        try {
+          handler.endGroupReport(groupId, outputStream, complete);
+        } catch (IOException e) {
+          LOG.warn("Unable to finish the PDF report for group " + groupId + ": " + e);
+        }
+      }
+      return complete;
     }
 
     public void init() {
       evaluationAccessAPI.setToolApi(this);
     }
 
+    /**
+     * The exporters only leave out the instructor items for other users when the instructors
+     * cannot view all results, so everyone else sees the same report
+     * 
+     * @param evaluation
+     * @return the viewer class for the report cache key
+     */
+    private String getViewerClass(EvalEvaluation evaluation) {
+      String currentUserId = commonLogic.getCurrentUserId();
+      if (Boolean.TRUE.equals(evaluation.getInstructorViewAllResults())
+          || commonLogic.isUserAdmin(currentUserId)
+          || currentUserId.equals(evaluation.getOwner())) {
+        return "all";
+      }
+      return "user:" + currentUserId;
+    }
+
     public boolean export(DownloadReportViewParams drvp, HttpServletResponse response) {
         // get evaluation and template from DAO
         EvalEvaluation evaluation = evaluationService.getEvaluationById(drvp.evalId);
@@ -180,28 +496,44 @@ public class ReportExporterBean implements ToolApi {
          // Get rid of spaces in the filename
         drvp.filename = drvp.filename.replaceAll( " ", "_" );
 
-        ReportExporter exporter = exportersMap.get(drvp.viewID);
+        resultsOutputStream = getOutputStream(response);
+
+        setDownloadHeaders(response, drvp.viewID, drvp.filename);
+
+        //Support drvp.evaluateeId
+        this.exportReport(evaluation,drvp.groupIds,drvp.evaluateeId,resultsOutputStream,drvp.viewID);
+
+        return true;
+    }
+
+    /**
+     * Sets the headers for sending a report to the browser
+     * 
+     * @param response
+     * @param exportType the type of report (the exporter view id)
+     * @param filename the name of the report file
+     */
+    public void setDownloadHeaders(HttpServletResponse response, String exportType, String filename) {
+        ReportExporter exporter = exportersMap.get(exportType);
 	
         if (exporter == null) {
-            throw new IllegalArgumentException("No exporter found for ViewID: " + drvp.viewID);
+            throw new IllegalArgumentException("No exporter found for ViewID: " + exportType);
         }
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Found exporter: " + exporter.getClass() + " for drvp.viewID " + drvp.viewID);
+            LOG.debug("Found exporter: " + exporter.getClass() + " for drvp.viewID " + exportType);
         }
 
-        resultsOutputStream = getOutputStream(response);
-
         // If it's a CSV export in the new report format, we need to change the filename extension to '.zip' instead of '.csv',
         // as it will contain 2 files (instructor items and course items)
-        if( isCSV( drvp.viewID ) && newReportStyle )
+        if( isCSV( exportType ) && newReportStyle )
         {
-            drvp.filename = drvp.filename.replace( ".csv", ".zip" );
+            filename = filename.replace( ".csv", ".zip" );
         }
 
         // If it's a .csv or .pdf download, force the browser to download the file instead of displaying it inside the iframe
-        if( isCSVTakers( drvp.viewID ) || isCSV( drvp.viewID ) || isPDF( drvp.viewID ) )
+        if( isCSVTakers( exportType ) || isCSV( exportType ) || isPDF( exportType ) )
         {
-            response.setHeader( "Content-disposition", "attachment; filename=\"" + drvp.filename + "\"" );
+            response.setHeader( "Content-disposition", "attachment; filename=\"" + filename + "\"" );
             response.setHeader( "Pragma", "public" );
             response.setHeader( "Expires", "0" );
             response.setHeader( "Cache-Control", "must-revalidate, post-check=0, pre-check=0" );
@@ -212,14 +544,17 @@ public class ReportExporterBean implements ToolApi {
         // If it's anything else, just do the normal header content
         else
         {
-            response.setHeader("Content-disposition", "inline; filename=\"" + drvp.filename+"\"");
+            response.setHeader("Content-disposition", "inline; filename=\"" + filename+"\"");
             response.setContentType(exporter.getContentType());
         }
+    }
 
-        //Support drvp.evaluateeId
-        this.exportReport(evaluation,drvp.groupIds,drvp.evaluateeId,resultsOutputStream,drvp.viewID);
-
-        return true;
+    /**
+     * @param exportType the type of report (the exporter view id)
+     * @return true if there is an exporter for this type of report
+     */
+    public boolean isExportType(String exportType) {
+        return exportType != null && exportersMap.containsKey(exportType);
     }
 
     // Utility methods
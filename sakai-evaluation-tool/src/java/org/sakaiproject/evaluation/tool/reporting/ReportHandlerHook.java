@@ -18,7 +18,9 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.evaluation.tool.producers.ReportJobProducer;
 import org.sakaiproject.evaluation.tool.viewparams.DownloadReportViewParams;
+import org.sakaiproject.evaluation.tool.viewparams.ReportJobViewParams;
 
 import uk.org.ponder.rsf.viewstate.ViewParameters;
 
@@ -46,6 +48,11 @@ public class ReportHandlerHook {
    public void setReportExporterBean(ReportExporterBean reportExporterBean) {
        this.reportExporterBean = reportExporterBean;
    }
+
+   private AsyncReportExporter asyncReportExporter;
+   public void setAsyncReportExporter(AsyncReportExporter asyncReportExporter) {
+       this.asyncReportExporter = asyncReportExporter;
+   }
    
    
    /* (non-Javadoc)
@@ -56,6 +63,11 @@ public class ReportHandlerHook {
           LOG.debug("Handing viewparams and response off to the reportExporter");
           return reportExporterBean.export((DownloadReportViewParams) viewparams, response);
       }
+      if (viewparams instanceof ReportJobViewParams
+            && ReportJobProducer.DOWNLOAD_VIEW_ID.equals(viewparams.viewID)) {
+          LOG.debug("Sending the finished report for the report job");
+          return asyncReportExporter.download(((ReportJobViewParams) viewparams).jobId, response);
+      }
       return false;
    }
 
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.tool.reporting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.logic.EvalCommonLogic;
+import org.sakaiproject.evaluation.logic.EvalEvaluationService;
+import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.evaluation.tool.utils.EvalResponseAggregatorUtil;
+import org.sakaiproject.evaluation.utils.TemplateItemDataList;
+import org.sakaiproject.evaluation.utils.TemplateItemDataList.DataTemplateItem;
+
+/**
+ * The report data which does not depend on the report format (the template items, the current user and the counts),
+ * this is loaded once and then shared by all the {@link SinglePassReportExporter}s writing reports for the same groups
+ */
+public class SharedReportData {
+
+    private final EvalEvaluation evaluation;
+    private final String[] groupIds;
+    private final TemplateItemDataList tidl;
+    private final String currentUserId;
+    private final boolean isCurrentUserAdmin;
+    private final boolean instructorViewAllResults;
+    private final EvalCommonLogic commonLogic;
+    private final EvalEvaluationService evaluationService;
+    private List<DataTemplateItem> currentUserItems;
+    private Integer responsesCount;
+    private Integer enrollmentsCount;
+
+    /**
+     * Loads the template item structure (without any answers) for the evaluation and groups
+     * 
+     * @param evaluation the {@link EvalEvaluation} object to build the reports for
+     * @param groupIds the set of groups to include results data from
+     */
+    public SharedReportData(EvalEvaluation evaluation, String[] groupIds, EvalResponseAggregatorUtil responseAggregator,
+            EvalCommonLogic commonLogic, EvalEvaluationService evaluationService) {
+        this.evaluation = evaluation;
+        this.groupIds = groupIds;
+        this.commonLogic = commonLogic;
+        this.evaluationService = evaluationService;
+        currentUserId = commonLogic.getCurrentUserId();
+        isCurrentUserAdmin = commonLogic.isUserAdmin(currentUserId);
+        instructorViewAllResults = Boolean.TRUE.equals(evaluation.getInstructorViewAllResults());
+        // the answers are streamed one response at a time to the report writers
+        tidl = responseAggregator.prepareTemplateItemStructure(evaluation.getId(), groupIds);
+        responseAggregator.prefetchAssociateUsers(tidl);
+    }
+
+    public EvalEvaluation getEvaluation() {
+        return evaluation;
+    }
+
+    public String[] getGroupIds() {
+        return groupIds;
+    }
+
+    /**
+     * @return the TIDL for the evaluation and groups (without answers)
+     */
+    public TemplateItemDataList getTemplateItemDataList() {
+        return tidl;
+    }
+
+    public String getCurrentUserId() {
+        return currentUserId;
+    }
+
+    public boolean isCurrentUserAdmin() {
+        return isCurrentUserAdmin;
+    }
+
+    public boolean isInstructorViewAllResults() {
+        return instructorViewAllResults;
+    }
+
+    /**
+     * @param associateType the associate type of the items (e.g. {@link EvalConstants#ITEM_CATEGORY_INSTRUCTOR})
+     * @param associateId the associate (e.g. instructor) the items are for
+     * @return true if the current user can see the results for the items with this associate,
+     * false for instructor items that aren't for the current user (unless the eval is configured to show them)
+     */
+    public boolean isForCurrentUser(String associateType, String associateId) {
+        return instructorViewAllResults // If the eval is so configured,
+                || isCurrentUserAdmin // or currentUser is an admin
+                || currentUserId.equals(evaluation.getOwner()) // or currentUser is the eval creator
+                || EvalConstants.ITEM_CATEGORY_COURSE.equals(associateType)
+                || currentUserId.equals(commonLogic.getEvalUserById(associateId).userId);
+    }
+
+    /**
+     * @return the DTIs the current user can see the results for (in order)
+     */
+    public synchronized List<DataTemplateItem> getCurrentUserDataTemplateItems() {
+        if (currentUserItems == null) {
+            currentUserItems = new ArrayList<>();
+            for (DataTemplateItem dti : tidl.getFlatListOfDataTemplateItems(true)) {
+                if (isForCurrentUser(dti.associateType, dti.associateId)) {
+                    currentUserItems.add(dti);
+                }
+            }
+        }
+        return currentUserItems;
+    }
+
+    /**
+     * @return the number of responses in the groups
+     */
+    public synchronized int getResponsesCount() {
+        if (responsesCount == null) {
+            responsesCount = evaluationService.countResponses(null, new Long[] {evaluation.getId()}, groupIds, null);
+        }
+        return responsesCount;
+    }
+
+    /**
+     * @return the number of participants in the groups
+     */
+    public synchronized int getEnrollmentsCount() {
+        if (enrollmentsCount == null) {
+            enrollmentsCount = evaluationService.countParticipantsForEval(evaluation.getId(), groupIds);
+        }
+        return enrollmentsCount;
+    }
+
+}
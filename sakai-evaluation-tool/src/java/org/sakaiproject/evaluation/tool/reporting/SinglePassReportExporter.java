@@ -0,0 +1,47 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.tool.reporting;
+
+import java.io.OutputStream;
+
+import org.sakaiproject.evaluation.dao.ResponseAnswersHandler;
+
+/**
+ * An exporter which can write its report from a single pass over the responses,
+ * so one load of the {@link SharedReportData} and answers can drive the reports in several formats at once
+ */
+public interface SinglePassReportExporter extends ReportExporter {
+
+   /**
+    * Starts a report in this format, the answers for each response are then passed to the returned writer
+    * (in order by response id) and the report is completed by {@link ReportWriter#finish()}
+    * 
+    * @param data the report data shared by all the formats
+    * @param outputStream the resulting data will be placed into this
+    * @return the writer for the report
+    */
+   public ReportWriter startReport(SharedReportData data, OutputStream outputStream);
+
+   /**
+    * Writes one report as the responses are streamed to it
+    */
+   public static interface ReportWriter extends ResponseAnswersHandler {
+      /**
+       * Completes the report once all the responses have been handled
+       */
+      public void finish();
+   }
+
+}
@@ -17,9 +17,13 @@ package org.sakaiproject.evaluation.tool.reporting;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import org.apache.commons.lang3.StringUtils;
@@ -27,22 +31,21 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CreationHelper;
 import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.EvalCommonLogic;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
 import org.sakaiproject.evaluation.logic.model.EvalUser;
 import org.sakaiproject.evaluation.model.EvalAnswer;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
-import org.sakaiproject.evaluation.tool.reporting.CSVReportExporter.SortBySectionOrSiteComparator;
 import org.sakaiproject.evaluation.tool.utils.EvalResponseAggregatorUtil;
 import org.sakaiproject.evaluation.utils.EvalUtils;
 import org.sakaiproject.evaluation.utils.TemplateItemDataList;
 import org.sakaiproject.evaluation.utils.TemplateItemDataList.DataTemplateItem;
+import org.sakaiproject.evaluation.utils.TemplateItemUtils;
 import org.sakaiproject.user.api.User;
 import org.sakaiproject.user.api.UserNotDefinedException;
 import org.sakaiproject.user.api.UserDirectoryService;
@@ -51,23 +54,20 @@ import uk.org.ponder.messageutil.MessageLocator;
 import uk.org.ponder.util.UniversalRuntimeException;
 
 /**
+ * Builds the spreadsheet reports with a streaming workbook, only a window of rows is held in memory
+ * and the rest are flushed to a temp file, the rows are filled in from the answers as they are streamed
+ * one response at a time so memory use does not depend on the number of responses
  * 
  * @author Steven Githens
  * @author Aaron Zeckoski (aaronz@vt.edu)
  */
-public class XLSReportExporter implements ReportExporter {
+public class XLSReportExporter implements SinglePassReportExporter {
 
     private static final short QUESTION_CAT_ROW = 3; // Course, Instructor, etc
     private static final short QUESTION_TYPE_ROW = 4;
     private static final short QUESTION_TEXT_ROW = 5;
     private static final short FIRST_ANSWER_ROW = 6;
-    private static final short SECTION_OR_SITE_COLUMN_NUM = 0;
-    private static final short RESPONSE_ID_COLUMN_NUM = 1;
-    private static final short INSTRUCTOR_ID_COLUMN_NUM = 2;
-    private static final short INSTRUCTOR_FIRST_NAME_COLUMN_NUM = 3;
-    private static final short INSTRUCTOR_LAST_NAME_COLUMN_NUM = 4;
-    private static final short QUESTION_COMMENTS_COLUMN_START_INDEX_INSTRUCTOR_SHEET = 5;
-    private static final short QUESTION_COMMENTS_COLUMN_START_INDEX_COURSE_SHEET = 2;
+    private static final short INDEX_COLUMN_NUM = 0;
 
     private EvalCommonLogic commonLogic;
     public void setCommonLogic(EvalCommonLogic commonLogic) {
@@ -95,8 +95,112 @@ public class XLSReportExporter implements ReportExporter {
         this.userDirectoryService = userDirectoryService;
     }
 
-    CellStyle dateCellStyle;
-    CreationHelper creationHelper;
+    /**
+     * The number of rows (per sheet) held in memory while building a report, older rows are flushed to a temp file,
+     * this must be at least large enough to hold the header rows
+     */
+    private int rowAccessWindowSize = 100;
+    public void setRowAccessWindowSize(int rowAccessWindowSize) {
+        this.rowAccessWindowSize = rowAccessWindowSize;
+    }
+
+    /**
+     * The cell styles for one workbook, these are created once and shared by all the cells
+     * (workbooks have a limited number of styles and this exporter is shared by all requests)
+     */
+    private static class ReportStyles {
+        final CellStyle mainTitleStyle;
+        final CellStyle boldHeaderStyle;
+        final CellStyle italicMiniHeaderStyle;
+        final CellStyle dateCellStyle;
+
+        ReportStyles(Workbook wb) {
+            // Title style
+            Font font = wb.createFont();
+            font.setFontHeightInPoints( (short) 12 );
+            font.setBold(true);
+            mainTitleStyle = wb.createCellStyle();
+            mainTitleStyle.setFont( font );
+
+            // Bold header style
+            font = wb.createFont();
+            font.setFontHeightInPoints( (short) 10 );
+            font.setBold(true);
+            boldHeaderStyle = wb.createCellStyle();
+            boldHeaderStyle.setFont( font );
+
+            // Italic meta header style
+            font = wb.createFont();
+            font.setFontHeightInPoints( (short) 10 );
+            font.setItalic( true );
+            italicMiniHeaderStyle = wb.createCellStyle();
+            italicMiniHeaderStyle.setFont( font );
+
+            // Date meta Style
+            dateCellStyle = wb.createCellStyle();
+            // TODO FIXME HELPME To properly
+            // String dateCellFormat = ((SimpleDateFormat)DateFormat.getDateInstance(DateFormat.MEDIUM,
+            // localeGetter.get())).toLocalizedPattern();
+            // http://poi.apache.org/apidocs/org/apache/poi/hssf/usermodel/HSSFDataFormat.html
+            dateCellStyle.setDataFormat( (short) 0x16 );
+        }
+    }
+
+    /**
+     * @return a new streaming workbook, must be finished with {@link #writeWorkbook(SXSSFWorkbook, OutputStream)}
+     */
+    private SXSSFWorkbook makeWorkbook()
+    {
+        SXSSFWorkbook wb = new SXSSFWorkbook( Math.max( rowAccessWindowSize, FIRST_ANSWER_ROW ) );
+        wb.setCompressTempFiles( true );
+        return wb;
+    }
+
+    /**
+     * Dump the workbook to the output stream and remove the temp files behind it
+     */
+    private void writeWorkbook( SXSSFWorkbook wb, OutputStream outputStream )
+    {
+        try { wb.write( outputStream ); }
+        catch( IOException e ) { throw UniversalRuntimeException.accumulate( e, "Could not get Writer to dump output to xls" ); }
+        finally { wb.dispose(); }
+    }
+
+    /**
+     * Map the answers for a single response by the template item answer key (same as {@link DataTemplateItem#getKey()})
+     * 
+     * @param answers - the answers for one response
+     * @return the map of answer key to answer
+     */
+    private Map<String, EvalAnswer> mapAnswersByKey( List<EvalAnswer> answers )
+    {
+        Map<String, EvalAnswer> answerMap = new HashMap<>( answers.size() * 2 );
+        for( EvalAnswer answer : answers )
+        {
+            answerMap.put( TemplateItemUtils.makeTemplateItemAnswerKey( answer.getTemplateItem().getId(),
+                    answer.getAssociatedType(), answer.getAssociatedId() ), answer );
+        }
+        return answerMap;
+    }
+
+    /**
+     * Look up an instructor (once per export)
+     * 
+     * @param instructors - the instructors found so far in this export
+     * @param userID - the internal user id of the instructor
+     * @return the instructor or null if the user cannot be found
+     */
+    private User getInstructor( Map<String, User> instructors, String userID )
+    {
+        if( !instructors.containsKey( userID ) )
+        {
+            User instructor;
+            try { instructor = userDirectoryService.getUser( userID ); }
+            catch( UserNotDefinedException ex ) { instructor = null; }
+            instructors.put( userID, instructor );
+        }
+        return instructors.get( userID );
+    }
 
     /**
      * Build the .xls report in the new (section based) format.
@@ -112,37 +216,25 @@ public class XLSReportExporter implements ReportExporter {
         String currentUserId = commonLogic.getCurrentUserId();
         String evalOwner = evaluation.getOwner();
 
-        TemplateItemDataList tidl = getEvalTIDL( evaluation, groupIDs );
-        List<DataTemplateItem> dtiList = tidl.getFlatListOfDataTemplateItems( true );
-        Workbook wb = new XSSFWorkbook();
-        creationHelper = wb.getCreationHelper();
+        // Get the TIDL and DTIs for this evaluation, the answers are streamed one response at a time below
+        TemplateItemDataList tidl = responseAggregator.prepareTemplateItemStructure( evaluation.getId(), groupIDs );
+        responseAggregator.prefetchAssociateUsers( tidl );
+        final List<DataTemplateItem> dtiList = new ArrayList<>();
+        for( DataTemplateItem dti : tidl.getFlatListOfDataTemplateItems( true ) )
+        {
+            // Skip items that aren't for the current user
+            if( !isItemNotForCurrentUser( instructorViewAllResults, currentUserId, evalOwner, dti ) )
+            {
+                dtiList.add( dti );
+            }
+        }
+
+        SXSSFWorkbook wb = makeWorkbook();
+        final ReportStyles styles = new ReportStyles( wb );
 
         // Title style
-        Sheet courseSheet = wb.createSheet( messageLocator.getMessage( "viewreport.xls.courseSheet.name" ) );
-        Sheet instructorSheet = wb.createSheet( messageLocator.getMessage( "viewreport.xls.instructorSheet.name" ) );
-        Font font = wb.createFont();
-        font.setFontHeightInPoints( (short) 12 );
-        font.setBold(true);
-        CellStyle mainTitleStyle = wb.createCellStyle();
-        mainTitleStyle.setFont( font );
-
-        // Bold header style
-        font = wb.createFont();
-        font.setFontHeightInPoints( (short) 10 );
-        font.setBold(true);
-        CellStyle boldHeaderStyle = wb.createCellStyle();
-        boldHeaderStyle.setFont( font );
-
-        // Italic meta header style
-        font = wb.createFont();
-        font.setFontHeightInPoints( (short) 10 );
-        font.setItalic( true );
-        CellStyle italicMiniHeaderStyle = wb.createCellStyle();
-        italicMiniHeaderStyle.setFont( font );
-
-        // Date meta Style
-        dateCellStyle = wb.createCellStyle();
-        dateCellStyle.setDataFormat( (short) 0x16 );
+        final Sheet courseSheet = wb.createSheet( messageLocator.getMessage( "viewreport.xls.courseSheet.name" ) );
+        final Sheet instructorSheet = wb.createSheet( messageLocator.getMessage( "viewreport.xls.instructorSheet.name" ) );
 
         // Evaluation Title
         int rowCounter = 0;
@@ -152,8 +244,8 @@ public class XLSReportExporter implements ReportExporter {
         Cell instructorSheetCellA1 = instructorSheetRow1.createCell( (short) 0 );
         setPlainStringCell( courseSheetCellA1, evaluation.getTitle() + " - " + messageLocator.getMessage( "viewreport.xls.courseSheet.name" ) );
         setPlainStringCell( instructorSheetCellA1, evaluation.getTitle() + " - " + messageLocator.getMessage( "viewreport.xls.instructorSheet.name" ) );
-        courseSheetCellA1.setCellStyle( mainTitleStyle );
-        instructorSheetCellA1.setCellStyle( mainTitleStyle );
+        courseSheetCellA1.setCellStyle( styles.mainTitleStyle );
+        instructorSheetCellA1.setCellStyle( styles.mainTitleStyle );
 
         // Calculate the response rate
         rowCounter++;
@@ -163,22 +255,22 @@ public class XLSReportExporter implements ReportExporter {
         Row instructorSheetRow2 = instructorSheet.createRow( rowCounter );
         Cell courseSheetCellA2 = courseSheetRow2.createCell( (short) 0 );
         Cell instructorSheetCellA2 = instructorSheetRow2.createCell( (short) 0 );
-        courseSheetCellA2.setCellStyle( boldHeaderStyle );
-        instructorSheetCellA2.setCellStyle( boldHeaderStyle );
+        courseSheetCellA2.setCellStyle( styles.boldHeaderStyle );
+        instructorSheetCellA2.setCellStyle( styles.boldHeaderStyle );
         setPlainStringCell( courseSheetCellA2, EvalUtils.makeResponseRateStringFromCounts( responsesCount, enrollmentsCount ) );
         setPlainStringCell( instructorSheetCellA2, EvalUtils.makeResponseRateStringFromCounts( responsesCount, enrollmentsCount ) );
 
         // Dates
         setPlainStringCell( courseSheetRow1.createCell( (short) 2 ), messageLocator.getMessage( "evalsettings.start.date.header" ) );
         setPlainStringCell( instructorSheetRow1.createCell( (short)  2 ), messageLocator.getMessage( "evalsettings.start.date.header" ) );
-        setDateCell( courseSheetRow2.createCell( (short) 2 ), evaluation.getStartDate() );
-        setDateCell( instructorSheetRow2.createCell( (short)  2 ), evaluation.getStartDate() );
+        setDateCell( courseSheetRow2.createCell( (short) 2 ), evaluation.getStartDate(), styles );
+        setDateCell( instructorSheetRow2.createCell( (short)  2 ), evaluation.getStartDate(), styles );
         if( evaluation.getDueDate() != null )
         {
             setPlainStringCell( courseSheetRow1.createCell( (short) 3 ), messageLocator.getMessage( "evalsettings.due.date.header" ) );
             setPlainStringCell( instructorSheetRow1.createCell( (short) 3), messageLocator.getMessage( "evalsettings.due.date.header" ) );
-            setDateCell( courseSheetRow2.createCell( (short) 3 ), evaluation.getDueDate() );
-            setDateCell( instructorSheetRow2.createCell( (short) 3), evaluation.getDueDate() );
+            setDateCell( courseSheetRow2.createCell( (short) 3 ), evaluation.getDueDate(), styles );
+            setDateCell( instructorSheetRow2.createCell( (short) 3), evaluation.getDueDate(), styles );
         }
 
         // List of groups
@@ -215,34 +307,28 @@ public class XLSReportExporter implements ReportExporter {
             courseSheetSectionHeaderCell.setCellValue( messageLocator.getMessage( "viewreport.site.header" ) );
             instructorSheetSectionHeaderCell.setCellValue( messageLocator.getMessage( "viewreport.site.header" ) );
         }
-        courseSheetSectionHeaderCell.setCellStyle( boldHeaderStyle );
-        instructorSheetSectionHeaderCell.setCellStyle( boldHeaderStyle );
+        courseSheetSectionHeaderCell.setCellStyle( styles.boldHeaderStyle );
+        instructorSheetSectionHeaderCell.setCellStyle( styles.boldHeaderStyle );
         Cell courseSheetResponseIdHeaderCell = courseSheetHeaderRow.createCell( courseSheetHeaderCount++ );
         Cell instructorSheetResponseIdHeaderCell = instructorSheetHeaderRow.createCell( instructorSheetHeaderCount++ );
         courseSheetResponseIdHeaderCell.setCellValue( messageLocator.getMessage( "viewreport.responseID.header" ) );
         instructorSheetResponseIdHeaderCell.setCellValue( messageLocator.getMessage( "viewreport.responseID.header" ) );
-        courseSheetResponseIdHeaderCell.setCellStyle( boldHeaderStyle );
-        instructorSheetResponseIdHeaderCell.setCellStyle( boldHeaderStyle );
+        courseSheetResponseIdHeaderCell.setCellStyle( styles.boldHeaderStyle );
+        instructorSheetResponseIdHeaderCell.setCellStyle( styles.boldHeaderStyle );
         Cell instructorSheetInstructorIdHeaderCell = instructorSheetHeaderRow.createCell( instructorSheetHeaderCount++ );
         instructorSheetInstructorIdHeaderCell.setCellValue( messageLocator.getMessage( "viewreport.instructorID.header" ) );
-        instructorSheetInstructorIdHeaderCell.setCellStyle( boldHeaderStyle );
+        instructorSheetInstructorIdHeaderCell.setCellStyle( styles.boldHeaderStyle );
         Cell instructorSheetFirstNameHeaderCell = instructorSheetHeaderRow.createCell( instructorSheetHeaderCount++ );
         instructorSheetFirstNameHeaderCell.setCellValue( messageLocator.getMessage( "viewreport.firstName.header" ) );
-        instructorSheetFirstNameHeaderCell.setCellStyle( boldHeaderStyle );
+        instructorSheetFirstNameHeaderCell.setCellStyle( styles.boldHeaderStyle );
         Cell instructorSheetLastNameHeaderCell = instructorSheetHeaderRow.createCell( instructorSheetHeaderCount++ );
         instructorSheetLastNameHeaderCell.setCellValue( messageLocator.getMessage( "viewreport.lastName.header" ) );
-        instructorSheetLastNameHeaderCell.setCellStyle( boldHeaderStyle );
+        instructorSheetLastNameHeaderCell.setCellStyle( styles.boldHeaderStyle );
 
         // Generate dynamic question headers
         List<String> instructorRelatedQuestions = new ArrayList<>();
         for( DataTemplateItem dti : dtiList )
         {
-            // Skip items that aren't for the current user
-            if( isItemNotForCurrentUser( instructorViewAllResults, currentUserId, evalOwner, dti ) )
-            {
-                continue;
-            }
-
             // If there's already a header for a specific instructor question, don't list it twice
             String questionText = commonLogic.makePlainTextFromHTML( dti.templateItem.getItem().getItemText() );
             if( instructorRelatedQuestions.contains( questionText ) )
@@ -256,218 +342,121 @@ public class XLSReportExporter implements ReportExporter {
             {
                 instructorRelatedQuestions.add( questionText );
                 questionTextHeaderCell = instructorSheetHeaderRow.createCell( instructorSheetHeaderCount++ );
-                questionTextHeaderCell.setCellStyle( boldHeaderStyle );
+                questionTextHeaderCell.setCellStyle( styles.boldHeaderStyle );
                 if( dti.usesComments() )
                 {
                     setPlainStringCell( instructorSheetHeaderRow.createCell( instructorSheetHeaderCount++ ),
-                            messageLocator.getMessage( "viewreport.comments.header" ) ).setCellStyle( italicMiniHeaderStyle );
+                            messageLocator.getMessage( "viewreport.comments.header" ) ).setCellStyle( styles.italicMiniHeaderStyle );
                 }
             }
             else
             {
                 questionTextHeaderCell = courseSheetHeaderRow.createCell( courseSheetHeaderCount++ );
-                questionTextHeaderCell.setCellStyle( boldHeaderStyle );
+                questionTextHeaderCell.setCellStyle( styles.boldHeaderStyle );
                 if( dti.usesComments() )
                 {
                     setPlainStringCell( courseSheetHeaderRow.createCell( courseSheetHeaderCount++ ),
-                            messageLocator.getMessage( "viewreport.comments.header" ) ).setCellStyle( italicMiniHeaderStyle );
+                            messageLocator.getMessage( "viewreport.comments.header" ) ).setCellStyle( styles.italicMiniHeaderStyle );
                 }
             }
             setPlainStringCell( questionTextHeaderCell, questionText );
         }
 
-        // Parse out the instructor and course related responeses into separate structures
-        List<Long> responseIDs = tidl.getResponseIdsForAnswers();
-        List<List<String>> courseRelatedResponses = new ArrayList<>();
-        Map<Long, Map<User, List<EvalAnswer>>> answerMap = new HashMap<>();
-        for( Long responseID : responseIDs )
+        // The rows are sorted by section/site, so stream the answers one group at a time in order by the group names
+        final Map<String, String> groupNames = new HashMap<>();
+        for( String groupID : groupIDs )
+        {
+            groupNames.put( groupID, StringUtils.defaultString( responseAggregator.getCommaSeparatedGroupNames( new String[] { groupID } ) ) );
+        }
+        List<String> sortedGroupIDs = new ArrayList<>( new LinkedHashSet<>( Arrays.asList( groupIDs ) ) );
+        Collections.sort( sortedGroupIDs, Comparator.comparing( groupNames::get ) );
+
+        // Both sheets are filled in as each response is streamed, one row per response in the course sheet
+        // and one row per response and instructor in the instructor sheet
+        final int[] rowCounters = new int[2];
+        final Map<String, User> instructors = new HashMap<>();
+        for( String groupID : sortedGroupIDs )
         {
-            // Dump the (course related) data into a list of strings representing a spreadsheet row (so it can be sorted)
-            List<String> row = new ArrayList<>();
-            String groupID = "";
-            List<EvalAnswer> answers = tidl.getAnswersByResponseId( responseID );
-            if( answers != null && !answers.isEmpty() )
+            responseAggregator.streamAnswers( evaluation.getId(), new String[] { groupID }, ( responseID, evalGroupID, answers ) ->
             {
-                groupID = answers.get( 0 ).getResponse().getEvalGroupId();
-            }
-            row.add( SECTION_OR_SITE_COLUMN_NUM, responseAggregator.getCommaSeparatedGroupNames( new String[] { groupID } ) );
-            row.add( RESPONSE_ID_COLUMN_NUM, responseID.toString() );
+                Map<String, EvalAnswer> answerMap = mapAnswersByKey( answers );
+                String sectionName = groupNames.get( evalGroupID );
 
-            // Add the response ID to the answer map
-            answerMap.put( responseID, new HashMap<>() );
-
-            // Loop through the data template items...
-            int questionCounter = 0;
-            for( DataTemplateItem dti : dtiList )
-            {
-                // Skip items that aren't for the current user
-                if( isItemNotForCurrentUser( instructorViewAllResults, currentUserId, evalOwner, dti ) )
-                {
-                    continue;
-                }
+                // Course sheet answer row: index, section, response ID
+                Row courseSheetAnswerRow = courseSheet.createRow( FIRST_ANSWER_ROW + rowCounters[0] );
+                int columnCounter = writeRowStart( courseSheetAnswerRow, ++rowCounters[0], sectionName, responseID, styles );
 
-                // If it's an instructor related item... 
-                EvalAnswer answer = dti.getAnswer( responseID );
-                if( EvalConstants.ITEM_CATEGORY_ASSISTANT.equals( dti.associateType ) || EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals( dti.associateType ) )
+                // Course related responses and comments, the instructor related answers are grouped by instructor (in item order)
+                Map<User, List<EvalAnswer>> instructorAnswers = new LinkedHashMap<>();
+                for( DataTemplateItem dti : dtiList )
                 {
-                    // If the answer is NOT null (it would be null for an instructor from a different section than the evaluator)
-                    if( answer != null )
+                    EvalAnswer answer = answerMap.get( dti.getKey() );
+                    if( EvalConstants.ITEM_CATEGORY_ASSISTANT.equals( dti.associateType ) || EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals( dti.associateType ) )
                     {
-                        // Get the instructor
-                        User instructor;
-                        try { instructor = userDirectoryService.getUser( answer.getAssociatedId() ); }
-                        catch( UserNotDefinedException ex ) { continue; }
-
-                        // If the answer map has a list of answers for this response and this instructor, add the answer to the list
-                        Map<User, List<EvalAnswer>> responseAnswers = answerMap.get( responseID );
-                        List<EvalAnswer> instructorAnswers = responseAnswers.get( instructor );
-                        if( instructorAnswers != null )
+                        // The answer is null for an instructor from a different section than the evaluator
+                        if( answer != null )
                         {
-                            instructorAnswers.add( answer );
-                        }
-
-                        // Otherwise, the answer map doesn't have a list of answers for this response and this instructor,
-                        // create the list and add the answer to it
-                        else
-                        {
-                            instructorAnswers = new ArrayList<>();
-                            instructorAnswers.add( answer );
-                            responseAnswers.put( instructor, instructorAnswers );
+                            User instructor = getInstructor( instructors, answer.getAssociatedId() );
+                            if( instructor != null )
+                            {
+                                instructorAnswers.computeIfAbsent( instructor, k -> new ArrayList<>() ).add( answer );
+                            }
                         }
+                        continue;
                     }
-                }
 
-                // If it's a course related item, just add it normally to the course worksheet
-                else
-                {    
-                    row.add( QUESTION_COMMENTS_COLUMN_START_INDEX_COURSE_SHEET + questionCounter, "" );
-                    if( answer != null )
-                    {
-                        row.set( QUESTION_COMMENTS_COLUMN_START_INDEX_COURSE_SHEET + questionCounter, responseAggregator.formatForSpreadSheet( answer.getTemplateItem(), answer ) );
-                    }
+                    setPlainStringCell( courseSheetAnswerRow.createCell( columnCounter++ ),
+                            answer != null ? responseAggregator.formatForSpreadSheet( answer.getTemplateItem(), answer ) : "" );
                     if( dti.usesComments() )
                     {
-                        row.add( QUESTION_COMMENTS_COLUMN_START_INDEX_COURSE_SHEET + ++questionCounter, StringUtils.trimToEmpty( answer.getComment() ) );
+                        setPlainStringCell( courseSheetAnswerRow.createCell( columnCounter++ ),
+                                answer != null ? StringUtils.trimToEmpty( answer.getComment() ) : "" );
                     }
-                    questionCounter++;
-                }
-            }
-
-            // Add the course row data to the list of course data rows
-            courseRelatedResponses.add( row );
-        }
-
-        // Convert the map structure of instructor responses into a List<List<String>>, representing rows of data
-        List<List<String>> instructorRelatedResponses = new ArrayList<>();
-        for( Long responseID : answerMap.keySet() )
-        {
-            // Loop through the instructors for the current response
-            for( User instructor : answerMap.get( responseID ).keySet() )
-            {
-                // Dump the data into a list of strings representing a spreadsheet row (so it can be sorted)
-                List<String> row = new ArrayList<>();
-                row.add( SECTION_OR_SITE_COLUMN_NUM, "" );
-                row.add( RESPONSE_ID_COLUMN_NUM, responseID.toString() );
-                row.add( INSTRUCTOR_ID_COLUMN_NUM, "" );
-                row.add( INSTRUCTOR_FIRST_NAME_COLUMN_NUM, "" );
-                row.add( INSTRUCTOR_LAST_NAME_COLUMN_NUM, "" );
-                if( instructor != null )
-                {
-                    row.set( INSTRUCTOR_ID_COLUMN_NUM, instructor.getDisplayId() );
-                    row.set( INSTRUCTOR_FIRST_NAME_COLUMN_NUM, instructor.getFirstName() );
-                    row.set( INSTRUCTOR_LAST_NAME_COLUMN_NUM, instructor.getLastName() );
                 }
 
-                int questionCounter = 0;
-                for( EvalAnswer answer : answerMap.get( responseID ).get( instructor ) )
+                for( Map.Entry<User, List<EvalAnswer>> instructorEntry : instructorAnswers.entrySet() )
                 {
-                    row.set( SECTION_OR_SITE_COLUMN_NUM, responseAggregator.getCommaSeparatedGroupNames( new String[] { answer.getResponse().getEvalGroupId() } ) );
-                    row.add( QUESTION_COMMENTS_COLUMN_START_INDEX_INSTRUCTOR_SHEET + questionCounter, "" );
-                    row.set( QUESTION_COMMENTS_COLUMN_START_INDEX_INSTRUCTOR_SHEET + questionCounter, responseAggregator.formatForSpreadSheet( answer.getTemplateItem(), answer ) );
-                    String comment = StringUtils.trimToEmpty( answer.getComment() );
-                    if( !comment.isEmpty() )
+                    // Instructor sheet answer row: index, section, response ID, instructor identifiers
+                    User instructor = instructorEntry.getKey();
+                    Row instructorSheetAnswerRow = instructorSheet.createRow( FIRST_ANSWER_ROW + rowCounters[1] );
+                    int instructorColumnCounter = writeRowStart( instructorSheetAnswerRow, ++rowCounters[1], sectionName, responseID, styles );
+                    instructorSheetAnswerRow.createCell( instructorColumnCounter++ ).setCellValue( instructor.getDisplayId() );
+                    instructorSheetAnswerRow.createCell( instructorColumnCounter++ ).setCellValue( instructor.getFirstName() );
+                    instructorSheetAnswerRow.createCell( instructorColumnCounter++ ).setCellValue( instructor.getLastName() );
+
+                    // Responses and comments
+                    for( EvalAnswer answer : instructorEntry.getValue() )
                     {
-                        row.add( QUESTION_COMMENTS_COLUMN_START_INDEX_INSTRUCTOR_SHEET + ++questionCounter, ( StringUtils.trimToEmpty( answer.getComment() ) ) );
+                        setPlainStringCell( instructorSheetAnswerRow.createCell( instructorColumnCounter++ ),
+                                responseAggregator.formatForSpreadSheet( answer.getTemplateItem(), answer ) );
+                        String comment = StringUtils.trimToEmpty( answer.getComment() );
+                        if( !comment.isEmpty() )
+                        {
+                            setPlainStringCell( instructorSheetAnswerRow.createCell( instructorColumnCounter++ ), comment );
+                        }
                     }
-                    questionCounter++;
                 }
-
-                // Add the row to the list of rows
-                instructorRelatedResponses.add( row );
-            }
-        }
-
-        // Sort the row data lists
-        SortBySectionOrSiteComparator sorter = new SortBySectionOrSiteComparator();
-        Collections.sort( instructorRelatedResponses, sorter );
-        Collections.sort( courseRelatedResponses, sorter );
-
-        // Output the sorted course related data into the course spreadsheet
-        rowCounter = 0;
-        for( List<String> row : courseRelatedResponses )
-        {
-            // Course sheet answer row, index cell
-            short columnCounter = SECTION_OR_SITE_COLUMN_NUM;
-            Row courseSheetAnswerRow = courseSheet.createRow( FIRST_ANSWER_ROW + rowCounter );
-            Cell courseAnswerIndexCell = courseSheetAnswerRow.createCell( columnCounter++ );
-            courseAnswerIndexCell.setCellValue( rowCounter + 1 );
-            courseAnswerIndexCell.setCellStyle( boldHeaderStyle );
-
-            // Course sheet section cell, response ID cell
-            Cell courseSheetSectionCell = courseSheetAnswerRow.createCell( columnCounter++ );
-            Cell courseSheetResponseIdCell = courseSheetAnswerRow.createCell( columnCounter++ );
-            courseSheetSectionCell.setCellValue( row.get( SECTION_OR_SITE_COLUMN_NUM ) );
-            courseSheetResponseIdCell.setCellValue( Integer.parseInt( row.get( RESPONSE_ID_COLUMN_NUM ) ) );
-
-            // Responses and comments
-            for( int i = QUESTION_COMMENTS_COLUMN_START_INDEX_COURSE_SHEET; i < row.size(); i++ )
-            {
-                setPlainStringCell( courseSheetAnswerRow.createCell( columnCounter++ ), row.get( i ) );
-            }
-
-            // Increment the row counter
-            rowCounter++;
-        }
-
-        // Output the sorted instructor related data into the instructor spreadsheet
-        rowCounter = 0;
-        for( List<String> row : instructorRelatedResponses )
-        {
-            // Answer row, index cell
-            short columnCounter = SECTION_OR_SITE_COLUMN_NUM;
-            Row instructorSheetAnswerRow = instructorSheet.createRow( FIRST_ANSWER_ROW + rowCounter );
-            Cell instructorAnswerIndexCell = instructorSheetAnswerRow.createCell( columnCounter++ );
-            instructorAnswerIndexCell.setCellValue( rowCounter + 1 );
-            instructorAnswerIndexCell.setCellStyle( boldHeaderStyle );
-
-            // Section cell, response ID cell
-            Cell instructorSheetSectionCell = instructorSheetAnswerRow.createCell( columnCounter++ );
-            Cell instructorSheetResponseIdCell = instructorSheetAnswerRow.createCell( columnCounter++ );
-            instructorSheetSectionCell.setCellValue( row.get( SECTION_OR_SITE_COLUMN_NUM ) );
-            instructorSheetResponseIdCell.setCellValue( Integer.parseInt( row.get( RESPONSE_ID_COLUMN_NUM ) ) );
-
-            // Instructor ID, first name, last name cells
-            Cell instructorIdCell = instructorSheetAnswerRow.createCell( columnCounter++ );
-            Cell instructorFirstNameCell = instructorSheetAnswerRow.createCell( columnCounter++ );
-            Cell instructorLastNameCell = instructorSheetAnswerRow.createCell( columnCounter++ );
-            instructorIdCell.setCellValue( row.get( INSTRUCTOR_ID_COLUMN_NUM ) );
-            instructorFirstNameCell.setCellValue( row.get( INSTRUCTOR_FIRST_NAME_COLUMN_NUM ) );
-            instructorLastNameCell.setCellValue( row.get( INSTRUCTOR_LAST_NAME_COLUMN_NUM ) );
-
-            // Responses and comments
-            for( int i = QUESTION_COMMENTS_COLUMN_START_INDEX_INSTRUCTOR_SHEET; i < row.size(); i++ )
-            {
-                setPlainStringCell( instructorSheetAnswerRow.createCell( columnCounter++ ), row.get( i ) );
-            }
-
-            // Increment the row counter
-            rowCounter++;
+            });
         }
 
         // Dump the output to the response stream
-        try { wb.write( outputStream ); }
-        catch( IOException e ) { throw UniversalRuntimeException.accumulate( e, "Could not get Writer to dump output to xls" ); }
+        writeWorkbook( wb, outputStream );
+    }
 
+    /**
+     * Write the index, section/site and response ID cells at the start of an answer row
+     * 
+     * @return the next column number
+     */
+    private int writeRowStart( Row row, int index, String sectionName, Long responseID, ReportStyles styles )
+    {
+        int columnCounter = INDEX_COLUMN_NUM;
+        Cell indexCell = row.createCell( columnCounter++ );
+        indexCell.setCellValue( index );
+        indexCell.setCellStyle( styles.boldHeaderStyle );
+        row.createCell( columnCounter++ ).setCellValue( sectionName );
+        row.createCell( columnCounter++ ).setCellValue( responseID );
+        return columnCounter;
     }
 
     /**
@@ -508,9 +497,9 @@ public class XLSReportExporter implements ReportExporter {
     public void buildReport(EvalEvaluation evaluation, String[] groupIds, String evaluateeId, OutputStream outputStream, boolean newReportStyle) {
     	
         /*
-         * Logic for creating this view 1) make tidl 2) get DTIs for this eval from tidl 3) use DTIs
-         * to make the headers 4) get responseIds from tidl 5) loop over response ids 6) loop over
-         * DTIs 7) check answersmap for an answer, if there put in cell, if missing, insert blank 8)
+         * Logic for creating this view 1) make tidl (without answers) 2) get DTIs for this eval from tidl
+         * 3) use DTIs to make the headers 4) stream the answers one response at a time 5) loop over
+         * DTIs 6) check answersmap for an answer, if there put in cell, if missing, insert blank 7)
          * done
          */
 
@@ -525,207 +514,156 @@ public class XLSReportExporter implements ReportExporter {
         }
         else
         {
-            Boolean instructorViewAllResults = (boolean) evaluation.getInstructorViewAllResults();
-            String currentUserId = commonLogic.getCurrentUserId();
-            String evalOwner = evaluation.getOwner();
-
-            boolean isCurrentUserAdmin = commonLogic.isUserAdmin(currentUserId);
-
-           // 1 Make TIDL
-           TemplateItemDataList tidl = getEvalTIDL(evaluation, groupIds);
-           // 2: get DTIs for this eval from tidl
-           List<DataTemplateItem> dtiList = tidl.getFlatListOfDataTemplateItems(true);
-
-           Workbook wb = new XSSFWorkbook();
-           creationHelper = wb.getCreationHelper();
-
-           Sheet sheet = wb.createSheet(messageLocator.getMessage("reporting.xls.sheetname"));
-
-           // Title Style
-           Font font = wb.createFont();
-           font.setFontHeightInPoints((short) 12);
-           font.setBold(true);
-           CellStyle mainTitleStyle = wb.createCellStyle();
-           mainTitleStyle.setFont(font);
-
-           // Bold header style
-           font = wb.createFont();
-           font.setFontHeightInPoints((short) 10);
-           font.setBold(true);
-           CellStyle boldHeaderStyle = wb.createCellStyle();
-           boldHeaderStyle.setFont(font);
-
-           // Italic meta header style
-           font = wb.createFont();
-           font.setFontHeightInPoints((short) 10);
-           font.setItalic(true);
-           CellStyle italicMiniHeaderStyle = wb.createCellStyle();
-           italicMiniHeaderStyle.setFont(font);
-
-           // Date meta Style
-           dateCellStyle = wb.createCellStyle();
-           // TODO FIXME HELPME To properly
-           // String dateCellFormat = ((SimpleDateFormat)DateFormat.getDateInstance(DateFormat.MEDIUM,
-           // localeGetter.get())).toLocalizedPattern();
-           // http://poi.apache.org/apidocs/org/apache/poi/hssf/usermodel/HSSFDataFormat.html
-           dateCellStyle.setDataFormat((short) 0x16);
-
-           // Evaluation Title
-           Row row1 = sheet.createRow(0);
-           Cell cellA1 = row1.createCell((short) 0);
-           setPlainStringCell(cellA1, evaluation.getTitle());
-           cellA1.setCellStyle(mainTitleStyle);
-
-           // calculate the response rate
-           // int responsesCount = deliveryService.countResponses(evaluation.getId(), null, true);
-           int responsesCount = evaluationService.countResponses(null, new Long[] {evaluation.getId()}, groupIds, null);
-           int enrollmentsCount = evaluationService.countParticipantsForEval(evaluation.getId(), groupIds);
-
-           Row row2 = sheet.createRow(1);
-           Cell cellA2 = row2.createCell((short) 0);
-           cellA2.setCellStyle(boldHeaderStyle);
-           setPlainStringCell(cellA2, EvalUtils.makeResponseRateStringFromCounts(responsesCount,
-                   enrollmentsCount));
-
-           // dates
-           setPlainStringCell(row1.createCell((short) 2), messageLocator
-                   .getMessage("evalsettings.start.date.header"));
-           setDateCell(row2.createCell((short) 2), evaluation.getStartDate());
-           if (evaluation.getDueDate() != null) {
-               setPlainStringCell(row1.createCell((short) 3), messageLocator
-                       .getMessage("evalsettings.due.date.header"));
-               setDateCell(row2.createCell((short) 3), evaluation.getDueDate());
-           }
-
-           // add in list of groups
-           if (groupIds.length > 0) {
-               Row row3 = sheet.createRow(2);
-               Cell cellA3 = row3.createCell((short) 0);
-               setPlainStringCell(cellA3, messageLocator.getMessage("reporting.xls.participants",
-                       new Object[] { responseAggregator.getCommaSeparatedGroupNames(groupIds) }));
-           }
-
-           // 3 use DTIs to make the headers
-           Row questionCatRow = sheet.createRow(QUESTION_CAT_ROW);
-           Row questionTypeRow = sheet.createRow(QUESTION_TYPE_ROW);
-           Row questionTextRow = sheet.createRow(QUESTION_TEXT_ROW);
-           short headerCount = 1;
-           for (DataTemplateItem dti : dtiList) {
-
-               if (!instructorViewAllResults // If the eval is so configured,
-                 && !isCurrentUserAdmin // and currentUser is not an admin
-                 && !currentUserId.equals(evalOwner) // and currentUser is not the eval creator
-                 && !EvalConstants.ITEM_CATEGORY_COURSE.equals(dti.associateType) 
-                 && !currentUserId.equals(commonLogic.getEvalUserById(dti.associateId).userId) ) {
-                   // skip items that aren't for the current user
-                   continue;
-               }
-
-               Cell cell = questionTypeRow.createCell(headerCount);
-
-               setPlainStringCell(cell, responseAggregator.getHeaderLabelForItemType(dti
-                       .getTemplateItemType()));
-               cell.setCellStyle(italicMiniHeaderStyle);
-
-               Cell questionText = questionTextRow.createCell(headerCount);
-               setPlainStringCell(questionText, commonLogic.makePlainTextFromHTML(dti.templateItem
-                       .getItem().getItemText()));
-
-               Cell questionCat = questionCatRow.createCell(headerCount);
-               if (EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals(dti.associateType)) {
-                   EvalUser user = commonLogic.getEvalUserById( dti.associateId );
-                   String instructorMsg = messageLocator.getMessage("reporting.spreadsheet.instructor", 
-                           new Object[] {user.displayName});
-                   setPlainStringCell(questionCat, instructorMsg );
-               } else if (EvalConstants.ITEM_CATEGORY_ASSISTANT.equals(dti.associateType)) {
-                   EvalUser user = commonLogic.getEvalUserById( dti.associateId );
-                   String assistantMsg = messageLocator.getMessage("reporting.spreadsheet.ta", 
-                           new Object[] {user.displayName});
-                   setPlainStringCell(questionCat, assistantMsg );
-               } else if (EvalConstants.ITEM_CATEGORY_COURSE.equals(dti.associateType)) {
-                   setPlainStringCell(questionCat, messageLocator
-                           .getMessage("reporting.spreadsheet.course"));
-               } else {
-                   setPlainStringCell(questionCat, messageLocator.getMessage("unknown.caps"));
-               }
-
-               headerCount++;
-
-               if (dti.usesComments()) {
-                   // add an extra column for comments
-                   setPlainStringCell(questionTypeRow.createCell(headerCount),
-                           messageLocator.getMessage("viewreport.comments.header")).setCellStyle(
-                           italicMiniHeaderStyle);
-                   headerCount++;
-               }
-
-           }
-
-           // 4) get responseIds from tidl
-           List<Long> responseIds = tidl.getResponseIdsForAnswers();
-
-           // 5) loop over response ids
-           short responseIdCounter = 0;
-           for (Long responseId : responseIds) {
-               Row row = sheet.createRow(responseIdCounter + FIRST_ANSWER_ROW);
-               Cell indexCell = row.createCell((short) 0);
-               indexCell.setCellValue(responseIdCounter + 1);
-               indexCell.setCellStyle(boldHeaderStyle);
-               // 6) loop over DTIs
-               short dtiCounter = 1;
-               for (DataTemplateItem dti : dtiList) {
-
-                   if (!instructorViewAllResults // If the eval is so configured,
-                     && !isCurrentUserAdmin // and currentUser is not an admin
-                     && !currentUserId.equals(evalOwner) // and currentUser is not the eval creator
-                     && !EvalConstants.ITEM_CATEGORY_COURSE.equals(dti.associateType) 
-                     && !currentUserId.equals(commonLogic.getEvalUserById(dti.associateId).userId) ) {
-                       //skip instructor items that aren't for the current user
-                       continue;
-                   }
-
-                   // 7) check answersmap for an answer, if there put in cell, if missing, insert blank
-                   EvalAnswer answer = dti.getAnswer(responseId);
-                   Cell responseCell = row.createCell(dtiCounter);
-                   // In Eval, users can leave questions blank, in which case this will be null
-                   if (answer != null) {
-                       setPlainStringCell(responseCell, responseAggregator.formatForSpreadSheet(answer.getTemplateItem(), answer));
-                   }
-                   if (dti.usesComments()) {
-                       // put comment in the extra column
-                       dtiCounter++;
-                       setPlainStringCell(row.createCell(dtiCounter), 
-                               (answer == null || EvalUtils.isBlank(answer.getComment())) ? "" : answer.getComment());
-                   }
-                   dtiCounter++;
-               }
-               responseIdCounter++;
-           }
-
-           // dump the output to the response stream
-           try {
-               wb.write(outputStream);
-           } catch (IOException e) {
-               throw UniversalRuntimeException.accumulate(e,
-                       "Could not get Writer to dump output to xls");
-           }
+            SharedReportData data = new SharedReportData(evaluation, groupIds, responseAggregator, commonLogic, evaluationService);
+            ReportWriter reportWriter = startReport(data, outputStream);
+            // stream the answers in order by response id and write each row as soon as the response is complete
+            responseAggregator.streamAnswers(evaluation.getId(), groupIds, reportWriter);
+            reportWriter.finish();
         }
     }
 
-    private TemplateItemDataList getEvalTIDL(EvalEvaluation evaluation,
-			String[] groupIds) {  	
-        return responseAggregator.prepareTemplateItemDataStructure(evaluation.getId(), groupIds);
-	}
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.tool.reporting.SinglePassReportExporter#startReport(org.sakaiproject.evaluation.tool.reporting.SharedReportData, java.io.OutputStream)
+     */
+    public ReportWriter startReport(SharedReportData data, final OutputStream outputStream) {
+        //Make sure responseAggregator is using this messageLocator
+        responseAggregator.setMessageLocator(messageLocator);
+
+        EvalEvaluation evaluation = data.getEvaluation();
+        String[] groupIds = data.getGroupIds();
+
+        // 1: get DTIs for this eval from the shared tidl
+        final List<DataTemplateItem> dtiList = data.getCurrentUserDataTemplateItems();
+
+        final SXSSFWorkbook wb = makeWorkbook();
+        final ReportStyles styles = new ReportStyles(wb);
+
+        final Sheet sheet = wb.createSheet(messageLocator.getMessage("reporting.xls.sheetname"));
+
+        // Evaluation Title
+        Row row1 = sheet.createRow(0);
+        Cell cellA1 = row1.createCell((short) 0);
+        setPlainStringCell(cellA1, evaluation.getTitle());
+        cellA1.setCellStyle(styles.mainTitleStyle);
+
+        // calculate the response rate
+        Row row2 = sheet.createRow(1);
+        Cell cellA2 = row2.createCell((short) 0);
+        cellA2.setCellStyle(styles.boldHeaderStyle);
+        setPlainStringCell(cellA2, EvalUtils.makeResponseRateStringFromCounts(data.getResponsesCount(),
+                data.getEnrollmentsCount()));
+
+        // dates
+        setPlainStringCell(row1.createCell((short) 2), messageLocator
+                .getMessage("evalsettings.start.date.header"));
+        setDateCell(row2.createCell((short) 2), evaluation.getStartDate(), styles);
+        if (evaluation.getDueDate() != null) {
+            setPlainStringCell(row1.createCell((short) 3), messageLocator
+                    .getMessage("evalsettings.due.date.header"));
+            setDateCell(row2.createCell((short) 3), evaluation.getDueDate(), styles);
+        }
+
+        // add in list of groups
+        if (groupIds.length > 0) {
+            Row row3 = sheet.createRow(2);
+            Cell cellA3 = row3.createCell((short) 0);
+            setPlainStringCell(cellA3, messageLocator.getMessage("reporting.xls.participants",
+                    new Object[] { responseAggregator.getCommaSeparatedGroupNames(groupIds) }));
+        }
+
+        // 2 use DTIs to make the headers
+        Row questionCatRow = sheet.createRow(QUESTION_CAT_ROW);
+        Row questionTypeRow = sheet.createRow(QUESTION_TYPE_ROW);
+        Row questionTextRow = sheet.createRow(QUESTION_TEXT_ROW);
+        short headerCount = 1;
+        for (DataTemplateItem dti : dtiList) {
+
+            Cell cell = questionTypeRow.createCell(headerCount);
+
+            setPlainStringCell(cell, responseAggregator.getHeaderLabelForItemType(dti
+                    .getTemplateItemType()));
+            cell.setCellStyle(styles.italicMiniHeaderStyle);
+
+            Cell questionText = questionTextRow.createCell(headerCount);
+            setPlainStringCell(questionText, commonLogic.makePlainTextFromHTML(dti.templateItem
+                    .getItem().getItemText()));
+
+            Cell questionCat = questionCatRow.createCell(headerCount);
+            if (EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals(dti.associateType)) {
+                EvalUser user = commonLogic.getEvalUserById( dti.associateId );
+                String instructorMsg = messageLocator.getMessage("reporting.spreadsheet.instructor", 
+                        new Object[] {user.displayName});
+                setPlainStringCell(questionCat, instructorMsg );
+            } else if (EvalConstants.ITEM_CATEGORY_ASSISTANT.equals(dti.associateType)) {
+                EvalUser user = commonLogic.getEvalUserById( dti.associateId );
+                String assistantMsg = messageLocator.getMessage("reporting.spreadsheet.ta", 
+                        new Object[] {user.displayName});
+                setPlainStringCell(questionCat, assistantMsg );
+            } else if (EvalConstants.ITEM_CATEGORY_COURSE.equals(dti.associateType)) {
+                setPlainStringCell(questionCat, messageLocator
+                        .getMessage("reporting.spreadsheet.course"));
+            } else {
+                setPlainStringCell(questionCat, messageLocator.getMessage("unknown.caps"));
+            }
+
+            headerCount++;
+
+            if (dti.usesComments()) {
+                // add an extra column for comments
+                setPlainStringCell(questionTypeRow.createCell(headerCount),
+                        messageLocator.getMessage("viewreport.comments.header")).setCellStyle(
+                        styles.italicMiniHeaderStyle);
+                headerCount++;
+            }
+
+        }
+
+        // 3) write each row as soon as the response is complete
+        final int[] responseIdCounter = new int[1];
+        return new ReportWriter() {
+            public void handleResponseAnswers(Long responseId, String evalGroupId, List<EvalAnswer> answers) {
+                Map<String, EvalAnswer> answerMap = mapAnswersByKey(answers);
+                Row row = sheet.createRow(responseIdCounter[0] + FIRST_ANSWER_ROW);
+                Cell indexCell = row.createCell((short) 0);
+                indexCell.setCellValue(responseIdCounter[0] + 1);
+                indexCell.setCellStyle(styles.boldHeaderStyle);
+                // 4) loop over DTIs
+                int dtiCounter = 1;
+                for (DataTemplateItem dti : dtiList) {
+                    // 5) check answersmap for an answer, if there put in cell, if missing, insert blank
+                    EvalAnswer answer = answerMap.get(dti.getKey());
+                    // In Eval, users can leave questions blank, in which case this will be null
+                    if (answer != null) {
+                        setPlainStringCell(row.createCell(dtiCounter), responseAggregator.formatForSpreadSheet(answer.getTemplateItem(), answer));
+                    }
+                    if (dti.usesComments()) {
+                        // put comment in the extra column
+                        dtiCounter++;
+                        setPlainStringCell(row.createCell(dtiCounter), 
+                                (answer == null || EvalUtils.isBlank(answer.getComment())) ? "" : answer.getComment());
+                    }
+                    dtiCounter++;
+                }
+                responseIdCounter[0]++;
+            }
+
+            public void finish() {
+                // dump the output to the response stream
+                writeWorkbook(wb, outputStream);
+            }
+        };
+    }
 
 	/**
-     * The regular set string value method in POI is deprecated, and this preferred way is much more
-     * bulky, so this is a convenience method.
+     * Sets a plain string in the cell, the streaming workbook writes these inline
+     * so there is no need to make a rich text string for every cell
      * 
      * @param cell
      * @param value
      */
     private Cell setPlainStringCell(Cell cell, String value) {
-        cell.setCellValue( creationHelper.createRichTextString(value) );
+        cell.setCellValue( value );
         return cell;
     }
 
@@ -735,10 +673,11 @@ public class XLSReportExporter implements ReportExporter {
      * 
      * @param cell
      * @param date
+     * @param styles the shared styles for the workbook
      * @return
      */
-    private Cell setDateCell(Cell cell, Date date) {
-        cell.setCellStyle(dateCellStyle);
+    private Cell setDateCell(Cell cell, Date date, ReportStyles styles) {
+        cell.setCellStyle(styles.dateCellStyle);
         cell.setCellValue(date);
         return cell;
     }
@@ -14,17 +14,26 @@
  */
 package org.sakaiproject.evaluation.tool.utils;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.dao.ResponseAnswersHandler;
 import org.sakaiproject.evaluation.logic.EvalAuthoringService;
 import org.sakaiproject.evaluation.logic.EvalCommonLogic;
 import org.sakaiproject.evaluation.logic.EvalDeliveryService;
 import org.sakaiproject.evaluation.logic.externals.ExternalHierarchyLogic;
 import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalItemResults;
 import org.sakaiproject.evaluation.model.EvalTemplateItem;
+import org.sakaiproject.evaluation.utils.AnswerMatrix;
 import org.sakaiproject.evaluation.utils.EvalUtils;
 import org.sakaiproject.evaluation.utils.TemplateItemDataList;
+import org.sakaiproject.evaluation.utils.TemplateItemDataList.DataTemplateItem;
 import org.sakaiproject.evaluation.utils.TemplateItemUtils;
 
 import uk.org.ponder.messageutil.MessageLocator;
@@ -201,6 +210,121 @@ public class EvalResponseAggregatorUtil {
         return tidl;
     }
 
+    /**
+     * Same as {@link #prepareTemplateItemDataStructure(Long, String[])} but the answers are streamed into
+     * a compact {@link AnswerMatrix} instead of being held in the TIDL as entities,
+     * use the aggregate methods on the DTIs (or {@link TemplateItemDataList#getAnswerMatrix()}) for the results<br/>
+     * The counts come from the pre-aggregated item results when they are current so only the answers
+     * for the text items and the items with comments are streamed into the matrix
+     * 
+     * @param evaluationId
+     * @param groupIds
+     * @return a TIDL (with an answer matrix) which is built for the given eval and group ids
+     */
+    public TemplateItemDataList prepareTemplateItemDataMatrix(Long evaluationId, String[] groupIds) {
+        TemplateItemDataList tidl = prepareTemplateItemStructure(evaluationId, groupIds);
+        loadTemplateItemDataMatrix(tidl, evaluationId, groupIds);
+        return tidl;
+    }
+
+    /**
+     * Loads the answers (and pre-aggregated results) for the given groups into an existing TIDL the same way as
+     * {@link #prepareTemplateItemDataMatrix(Long, String[])}, replacing any answer data which was already in it<br/>
+     * Use {@link #prepareGroupTemplateItemDataMatrix(TemplateItemDataList, Long, String)} to reuse one structure
+     * for the results of each group in turn
+     * 
+     * @param tidl a TIDL for this evaluation which was built without answers
+     * @param evaluationId
+     * @param groupIds the groups to load the answer data for
+     */
+    public void loadTemplateItemDataMatrix(TemplateItemDataList tidl, Long evaluationId, String[] groupIds) {
+        AnswerMatrix answerMatrix = new AnswerMatrix();
+        Map<String, EvalItemResults> itemResults = deliveryService.getItemResultsForEval(evaluationId, groupIds);
+        tidl.setItemResults(itemResults);
+        if (itemResults == null) {
+            // the results are not current so everything comes from the answers
+            deliveryService.streamAnswersForEval(evaluationId, groupIds, null, answerMatrix);
+        } else {
+            List<Long> textItemIds = new ArrayList<>();
+            for (DataTemplateItem dti : tidl.getFlatListOfDataTemplateItems(true)) {
+                if (dti.isAnswerable() 
+                        && (EvalConstants.ITEM_TYPE_TEXT.equals(dti.getTemplateItemType()) || dti.usesComments())) {
+                    textItemIds.add(dti.templateItem.getId());
+                }
+            }
+            if (! textItemIds.isEmpty()) {
+                deliveryService.streamAnswersForEval(evaluationId, groupIds, 
+                        textItemIds.toArray(new Long[textItemIds.size()]), answerMatrix);
+            }
+        }
+        tidl.setAnswerMatrix(answerMatrix);
+    }
+
+    /**
+     * Resolves all the associated users (e.g. instructors) in the TIDL in one batch so the
+     * later lookups for each item (via {@link EvalCommonLogic#getEvalUserById(String)}) come from the user cache
+     * 
+     * @param tidl the TIDL for the report
+     */
+    public void prefetchAssociateUsers(TemplateItemDataList tidl) {
+        Set<String> userIds = new LinkedHashSet<>();
+        for (Entry<String, List<String>> entry : tidl.getAssociates().entrySet()) {
+            if (! EvalConstants.ITEM_CATEGORY_COURSE.equals(entry.getKey())) {
+                for (String userId : entry.getValue()) {
+                    if (userId != null) {
+                        userIds.add(userId);
+                    }
+                }
+            }
+        }
+        if (! userIds.isEmpty()) {
+            commonLogic.getEvalUsersByIds(userIds.toArray(new String[userIds.size()]));
+        }
+    }
+
+    /**
+     * Makes a TIDL for a single group from one which was built for several groups
+     * (from {@link #prepareTemplateItemStructure(Long, String[])}) and loads the results for that group into it,
+     * the structure is copied so the items added at the group level for the other groups are not included
+     * 
+     * @param tidl a TIDL for this evaluation and several groups which was built without answers
+     * @param evaluationId
+     * @param groupId the group to make the TIDL for
+     * @return a TIDL (with an answer matrix) for just this group
+     */
+    public TemplateItemDataList prepareGroupTemplateItemDataMatrix(TemplateItemDataList tidl, Long evaluationId, String groupId) {
+        TemplateItemDataList groupTidl = tidl.makeGroupTemplateItemDataList(groupId);
+        loadTemplateItemDataMatrix(groupTidl, evaluationId, new String[] {groupId});
+        return groupTidl;
+    }
+
+    /**
+     * Same as {@link #prepareTemplateItemDataStructure(Long, String[])} but without loading any answers,
+     * use with {@link #streamAnswers(Long, String[], ResponseAnswersHandler)}
+     * to process the answers one response at a time
+     * 
+     * @param evaluationId
+     * @param groupIds
+     * @return a TIDL (without answers) which is built for the given eval and group ids
+     */
+    public TemplateItemDataList prepareTemplateItemStructure(Long evaluationId, String[] groupIds) {
+        return new TemplateItemDataList(evaluationId, groupIds,
+                authoringService, deliveryService, hierarchyLogic, false);
+    }
+
+    /**
+     * Streams the answers for the given eval and group ids one response at a time (in order by response id),
+     * this is just a passthrough to {@link EvalDeliveryService#streamAnswersForEval(Long, String[], Long[], ResponseAnswersHandler)}
+     * 
+     * @param evaluationId
+     * @param groupIds
+     * @param handler called with the answers for each response
+     * @return the number of responses
+     */
+    public int streamAnswers(Long evaluationId, String[] groupIds, ResponseAnswersHandler handler) {
+        return deliveryService.streamAnswersForEval(evaluationId, groupIds, null, handler);
+    }
+
     /**
      * Returns a comma separated list of the human readable names for the array
      * of group ids.  This is used in a number of the reporting classes.
@@ -25,8 +25,13 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletResponse;
 
+import org.sakaiproject.component.cover.ComponentManager;
+import org.sakaiproject.evaluation.logic.EvalCommonLogic;
+
 public class EvalServletFilter implements Filter {
 
+	private EvalCommonLogic commonLogic;
+
 	public void destroy() {
 		// TODO Auto-generated method stub
 		
@@ -40,12 +45,21 @@ public class EvalServletFilter implements Filter {
 		httpServletResponse.setHeader("Cache-Control","private, max-age=0");
 		httpServletResponse.setDateHeader ("Expires", 0);
 		
-        chain.doFilter(request, httpServletResponse);
+		// producers look up the same users many times so remember them for the whole request
+		if (commonLogic != null) {
+			commonLogic.startUserRequestCache();
+		}
+		try {
+			chain.doFilter(request, httpServletResponse);
+		} finally {
+			if (commonLogic != null) {
+				commonLogic.endUserRequestCache();
+			}
+		}
 	}
 
 	public void init(FilterConfig filterConfig) throws ServletException {
-		// TODO Auto-generated method stub
-		
+		commonLogic = (EvalCommonLogic) ComponentManager.get(EvalCommonLogic.class);
 	}
 
 }
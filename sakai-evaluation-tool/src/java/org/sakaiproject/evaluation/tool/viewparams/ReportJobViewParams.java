@@ -0,0 +1,53 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.tool.viewparams;
+
+/**
+ * Identifies a report being generated in the background, or the report to start generating
+ * when there is no job id yet
+ */
+public class ReportJobViewParams extends BaseViewParameters {
+
+	public String jobId;
+	public String reportType;
+	public Long templateId;
+	public Long evalId;
+	public String filename;
+	public String evaluateeId;
+
+	// See the comment in EssayResponseParams.java
+	public String[] groupIds;
+
+	public ReportJobViewParams() {}
+
+	public ReportJobViewParams(String viewID, String jobId) {
+		this.viewID = viewID;
+		this.jobId = jobId;
+	}
+
+	public ReportJobViewParams(String viewID, String reportType, Long templateId, Long evalId, String[] groupIds, String filename) {
+		this.viewID = viewID;
+		this.reportType = reportType;
+		this.templateId = templateId;
+		this.evalId = evalId;
+		this.groupIds = groupIds;
+		this.filename = filename;
+	}
+
+	public String getParseSpec() {
+		// include a comma delimited list of the public properties in this class
+		return super.getParseSpec() + ",jobId,reportType,templateId,evalId,groupIds,filename,evaluateeId";
+	}
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.tool.reporting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.evaluation.logic.EvalCommonLogic;
+import org.sakaiproject.evaluation.logic.EvalEvaluationService;
+import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.api.SessionManager;
+
+/**
+ * Tests the background report jobs
+ */
+public class AsyncReportExporterTest {
+
+	private static final String[] GROUP_IDS = new String[] {"group2", "group1"};
+
+	private AsyncReportExporter asyncExporter;
+	private BlockingExporterBean exporterBean;
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("eval-report-jobs").toFile();
+		exporterBean = new BlockingExporterBean();
+		asyncExporter = new AsyncReportExporter();
+		asyncExporter.setReportExporterBean(exporterBean);
+		asyncExporter.setEvaluationService(stub(EvalEvaluationService.class));
+		asyncExporter.setCommonLogic(stub(EvalCommonLogic.class));
+		asyncExporter.setSessionManager(stub(SessionManager.class));
+		asyncExporter.setReportDirectory(directory.getAbsolutePath());
+		asyncExporter.init();
+	}
+
+	@After
+	public void tearDown() {
+		asyncExporter.destroy();
+		directory.delete();
+	}
+
+	@Test
+	public void testDuplicateRequestsShareJob() throws InterruptedException {
+		String jobId = asyncExporter.submit(1L, GROUP_IDS, null, EvalEvaluationService.CSV_RESULTS_REPORT, "report one.csv");
+		assertNotNull(jobId);
+		assertTrue(exporterBean.started.await(5, TimeUnit.SECONDS));
+		assertEquals(AsyncReportExporter.STATE_RUNNING, asyncExporter.getJob(jobId).getState());
+
+		// the same report (groups in any order) while it is running
+		assertEquals(jobId, asyncExporter.submit(1L, new String[] {"group1", "group2"}, null,
+				EvalEvaluationService.CSV_RESULTS_REPORT, "report one.csv"));
+		exporterBean.release.countDown();
+		waitForJob(jobId);
+		assertEquals(AsyncReportExporter.STATE_DONE, asyncExporter.getJob(jobId).getState());
+		assertEquals("report_one.csv", asyncExporter.getJob(jobId).getFilename());
+		assertEquals(6, asyncExporter.getJob(jobId).getSize());
+
+		// the finished report is used until it expires
+		assertEquals(jobId, asyncExporter.submit(1L, GROUP_IDS, null, EvalEvaluationService.CSV_RESULTS_REPORT, "report one.csv"));
+		assertEquals(1, exporterBean.exports.get());
+
+		// a different report gets its own job
+		String otherJobId = asyncExporter.submit(1L, GROUP_IDS, null, EvalEvaluationService.XLS_RESULTS_REPORT, "report one.xls");
+		assertFalse(jobId.equals(otherJobId));
+		waitForJob(otherJobId);
+		assertEquals(2, exporterBean.exports.get());
+	}
+
+	@Test
+	public void testFailedJobNotShared() throws InterruptedException {
+		exporterBean.release.countDown();
+		exporterBean.failure = new IllegalStateException("Report failed");
+		String jobId = asyncExporter.submit(1L, GROUP_IDS, null, EvalEvaluationService.CSV_RESULTS_REPORT, "report.csv");
+		waitForJob(jobId);
+		assertEquals(AsyncReportExporter.STATE_FAILED, asyncExporter.getJob(jobId).getState());
+		assertEquals("Report failed", asyncExporter.getJob(jobId).getError());
+
+		exporterBean.failure = null;
+		String retryJobId = asyncExporter.submit(1L, GROUP_IDS, null, EvalEvaluationService.CSV_RESULTS_REPORT, "report.csv");
+		assertFalse(jobId.equals(retryJobId));
+		waitForJob(retryJobId);
+		assertEquals(AsyncReportExporter.STATE_DONE, asyncExporter.getJob(retryJobId).getState());
+		assertEquals(2, exporterBean.exports.get());
+	}
+
+	@Test
+	public void testRemoveExpiredJobs() throws InterruptedException {
+		exporterBean.release.countDown();
+		String jobId = asyncExporter.submit(1L, GROUP_IDS, null, EvalEvaluationService.CSV_RESULTS_REPORT, "report.csv");
+		waitForJob(jobId);
+		assertEquals(1, directory.listFiles().length);
+
+		// not expired yet
+		asyncExporter.removeExpiredJobs();
+		assertNotNull(asyncExporter.getJob(jobId));
+		assertEquals(1, directory.listFiles().length);
+
+		asyncExporter.setExpiryTime(0);
+		Thread.sleep(5);
+		assertNull(asyncExporter.getJob(jobId));
+		asyncExporter.removeExpiredJobs();
+		assertEquals(0, directory.listFiles().length);
+
+		// the expired report is generated again
+		asyncExporter.setExpiryTime(60000);
+		String newJobId = asyncExporter.submit(1L, GROUP_IDS, null, EvalEvaluationService.CSV_RESULTS_REPORT, "report.csv");
+		assertFalse(jobId.equals(newJobId));
+		waitForJob(newJobId);
+		assertEquals(2, exporterBean.exports.get());
+	}
+
+	private void waitForJob(String jobId) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < end) {
+			String state = asyncExporter.getJob(jobId).getState();
+			if (AsyncReportExporter.STATE_DONE.equals(state) || AsyncReportExporter.STATE_FAILED.equals(state)) {
+				return;
+			}
+			Thread.sleep(10);
+		}
+		fail("Report job did not finish: " + jobId);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(Class<T> type) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+			if ("getCurrentUserId".equals(method.getName()) || "getUserEid".equals(method.getName())) {
+				return "admin";
+			}
+			if ("getCurrentSession".equals(method.getName())) {
+				return stub(Session.class);
+			}
+			if ("getEvaluationById".equals(method.getName())) {
+				EvalEvaluation evaluation = new EvalEvaluation();
+				evaluation.setId((Long) args[0]);
+				return evaluation;
+			}
+			if (method.getReturnType() == boolean.class) {
+				return false;
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Writes a small report once it is released and counts the exports
+	 */
+	private static class BlockingExporterBean extends ReportExporterBean {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger exports = new AtomicInteger();
+		volatile RuntimeException failure;
+
+		@Override
+		public boolean isExportType(String exportType) {
+			return true;
+		}
+
+		@Override
+		public String[] checkReportPermissions(EvalEvaluation evaluation, String[] groupIds) {
+			return groupIds;
+		}
+
+		@Override
+		public void exportReport(EvalEvaluation evaluation, String[] groupIds, String evaluateeId, OutputStream outputStream, String exportType) {
+			exports.incrementAndGet();
+			started.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+				if (failure != null) {
+					throw failure;
+				}
+				outputStream.write("report".getBytes("UTF-8"));
+			} catch (IOException | InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.tool.reporting;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public class EvalLikertChartRendererTest {
+
+	private static final String[] CHOICES = new String[] {"Agree", "Neutral", "Disagree"};
+	private EvalLikertChartRenderer renderer;
+
+	@Before
+	public void setUp() {
+		renderer = new EvalLikertChartRenderer();
+		renderer.setRenderThreads(2);
+		renderer.init();
+	}
+
+	@After
+	public void tearDown() {
+		renderer.destroy();
+	}
+
+	@Test
+	public void testRenderChart() throws Exception {
+		byte[] chart = renderer.renderChart(CHOICES, new int[] {3, 2, 1}, 6, true, 200, 45).get();
+		assertNotNull(chart);
+		// PNG signature
+		assertEquals((byte) 0x89, chart[0]);
+		assertEquals('P', chart[1]);
+
+		// identical charts come from the cache
+		assertSame(chart, renderer.renderChart(CHOICES.clone(), new int[] {3, 2, 1}, 6, true, 200, 45).get());
+		assertEquals(Long.valueOf(1), renderer.getStats().get(EvalLikertChartRenderer.STAT_HITS));
+
+		// anything that changes the chart is a new chart
+		assertFalse(chart == renderer.renderChart(CHOICES, new int[] {1, 2, 3}, 6, true, 200, 45).get());
+		assertFalse(chart == renderer.renderChart(CHOICES, new int[] {3, 2, 1}, 6, false, 200, 45).get());
+		assertFalse(chart == renderer.renderChart(CHOICES, new int[] {3, 2, 1}, 6, true, 300, 45).get());
+		assertEquals(Long.valueOf(4), renderer.getStats().get(EvalLikertChartRenderer.STAT_COUNT));
+	}
+
+	@Test
+	public void testCacheLimit() throws Exception {
+		byte[] chart = renderer.renderChart(CHOICES, new int[] {3, 2, 1}, 6, true, 200, 45).get();
+		renderer.setMaxCacheSize(chart.length);
+		renderer.renderChart(CHOICES, new int[] {1, 2, 3}, 6, true, 200, 45).get();
+		assertEquals(Long.valueOf(1), renderer.getStats().get(EvalLikertChartRenderer.STAT_COUNT));
+	}
+
+	@Test
+	public void testMakeChartKey() {
+		String key = EvalLikertChartRenderer.makeChartKey(CHOICES, new int[] {3, 2, 1}, 6, true, 200, 45);
+		assertEquals(key, EvalLikertChartRenderer.makeChartKey(CHOICES.clone(), new int[] {3, 2, 1}, 6, true, 200, 45));
+		assertFalse(key.equals(EvalLikertChartRenderer.makeChartKey(new String[] {"Agree", "Neutral", "Other"}, new int[] {3, 2, 1}, 6, true, 200, 45)));
+		assertFalse(key.equals(EvalLikertChartRenderer.makeChartKey(CHOICES, new int[] {3, 2, 1}, 7, true, 200, 45)));
+	}
+
+}
@@ -0,0 +1,313 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.tool.reporting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.evaluation.dao.ResponseAnswersHandler;
+import org.sakaiproject.evaluation.logic.EvalCommonLogic;
+import org.sakaiproject.evaluation.logic.EvalEvaluationService;
+import org.sakaiproject.evaluation.logic.EvalReportCache;
+import org.sakaiproject.evaluation.logic.ReportingPermissions;
+import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.evaluation.tool.utils.EvalResponseAggregatorUtil;
+import org.sakaiproject.evaluation.utils.TemplateItemDataList;
+
+import uk.org.ponder.messageutil.MessageLocator;
+
+/**
+ * Tests exporting several report formats from a single pass over the responses
+ */
+public class ReportExporterBeanTest {
+
+	private static final String[] GROUP_IDS = new String[] {"group1", "group2"};
+
+	private ReportExporterBean bean;
+	private CountingAggregator aggregator;
+	private MemoryReportCache reportCache;
+	private FakeExporter csvExporter;
+	private FakeExporter xlsExporter;
+	private EvalEvaluation evaluation;
+
+	@Before
+	public void setUp() {
+		aggregator = new CountingAggregator();
+		reportCache = new MemoryReportCache();
+		csvExporter = new FakeExporter("csv");
+		xlsExporter = new FakeExporter("xls");
+		Map<String, ReportExporter> exporters = new HashMap<>();
+		exporters.put(EvalEvaluationService.CSV_RESULTS_REPORT, csvExporter);
+		exporters.put(EvalEvaluationService.XLS_RESULTS_REPORT, xlsExporter);
+
+		bean = new ReportExporterBean();
+		bean.setCommonLogic(stub(EvalCommonLogic.class));
+		bean.setEvaluationService(stub(EvalEvaluationService.class));
+		bean.setReportingPermissions(stub(ReportingPermissions.class));
+		bean.setEvalResponseAggregatorUtil(aggregator);
+		bean.setExportersMap(exporters);
+
+		evaluation = new EvalEvaluation();
+		evaluation.setId(1L);
+	}
+
+	@Test
+	public void testExportReportsInOnePass() {
+		Map<String, OutputStream> streams = makeStreams();
+		Set<String> completed = bean.exportReports(evaluation, GROUP_IDS, streams);
+
+		assertEquals(2, completed.size());
+		assertTrue(completed.contains(EvalEvaluationService.CSV_RESULTS_REPORT));
+		assertTrue(completed.contains(EvalEvaluationService.XLS_RESULTS_REPORT));
+		assertEquals(1, aggregator.passes);
+		assertEquals("csv:1\ncsv:2\ncsv:3\ncsv:done\n", streams.get(EvalEvaluationService.CSV_RESULTS_REPORT).toString());
+		assertEquals("xls:1\nxls:2\nxls:3\nxls:done\n", streams.get(EvalEvaluationService.XLS_RESULTS_REPORT).toString());
+	}
+
+	@Test
+	public void testExportReportsDropsFailedFormat() {
+		xlsExporter.failOnResponseId = 2L;
+		Map<String, OutputStream> streams = makeStreams();
+		Set<String> completed = bean.exportReports(evaluation, GROUP_IDS, streams);
+
+		assertEquals(1, completed.size());
+		assertTrue(completed.contains(EvalEvaluationService.CSV_RESULTS_REPORT));
+		assertFalse(completed.contains(EvalEvaluationService.XLS_RESULTS_REPORT));
+		assertEquals(1, aggregator.passes);
+		// the failed format does not stop the others
+		assertEquals("csv:1\ncsv:2\ncsv:3\ncsv:done\n", streams.get(EvalEvaluationService.CSV_RESULTS_REPORT).toString());
+		assertEquals("xls:1\n", streams.get(EvalEvaluationService.XLS_RESULTS_REPORT).toString());
+	}
+
+	@Test
+	public void testExportReportsCached() {
+		bean.setReportCache(reportCache);
+		xlsExporter.failOnResponseId = 3L;
+		Set<String> completed = bean.exportReports(evaluation, GROUP_IDS, makeStreams());
+		assertEquals(1, completed.size());
+		assertEquals(1, aggregator.passes);
+		assertEquals(1, reportCache.reports.size());
+
+		// the complete report comes from the cache and only the failed one is built again
+		xlsExporter.failOnResponseId = null;
+		Map<String, OutputStream> streams = makeStreams();
+		completed = bean.exportReports(evaluation, GROUP_IDS, streams);
+		assertEquals(2, completed.size());
+		assertEquals(2, aggregator.passes);
+		assertEquals(1, csvExporter.started);
+		assertEquals(2, xlsExporter.started);
+		assertEquals("csv:1\ncsv:2\ncsv:3\ncsv:done\n", streams.get(EvalEvaluationService.CSV_RESULTS_REPORT).toString());
+		assertEquals("xls:1\nxls:2\nxls:3\nxls:done\n", streams.get(EvalEvaluationService.XLS_RESULTS_REPORT).toString());
+		assertEquals(2, reportCache.reports.size());
+
+		// everything is cached now so there is no pass over the responses
+		streams = makeStreams();
+		completed = bean.exportReports(evaluation, GROUP_IDS, streams);
+		assertEquals(2, completed.size());
+		assertEquals(2, aggregator.passes);
+		assertEquals("xls:1\nxls:2\nxls:3\nxls:done\n", streams.get(EvalEvaluationService.XLS_RESULTS_REPORT).toString());
+	}
+
+	private Map<String, OutputStream> makeStreams() {
+		Map<String, OutputStream> streams = new LinkedHashMap<>();
+		streams.put(EvalEvaluationService.CSV_RESULTS_REPORT, new ByteArrayOutputStream());
+		streams.put(EvalEvaluationService.XLS_RESULTS_REPORT, new ByteArrayOutputStream());
+		return streams;
+	}
+
+	/**
+	 * @return a stub which allows everything for the current user (admin) and returns the defaults otherwise
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(Class<T> type) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+			if ("getCurrentUserId".equals(method.getName())) {
+				return "admin";
+			}
+			if (method.getReturnType() == boolean.class) {
+				return method.getName().startsWith("is") || method.getName().startsWith("can");
+			}
+			if (method.getReturnType() == int.class) {
+				return 0;
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Streams the same 3 responses every time and counts the passes over them
+	 */
+	private static class CountingAggregator extends EvalResponseAggregatorUtil {
+		int passes = 0;
+
+		@Override
+		public TemplateItemDataList prepareTemplateItemStructure(Long evaluationId, String[] groupIds) {
+			return null;
+		}
+
+		@Override
+		public void prefetchAssociateUsers(TemplateItemDataList tidl) {
+			// nothing to fetch
+		}
+
+		@Override
+		public int streamAnswers(Long evaluationId, String[] groupIds, ResponseAnswersHandler handler) {
+			passes++;
+			for (long responseId = 1; responseId <= 3; responseId++) {
+				handler.handleResponseAnswers(responseId, groupIds[0], new ArrayList<EvalAnswer>());
+			}
+			return 3;
+		}
+	}
+
+	/**
+	 * Writes a line for each response and optionally fails on one of them
+	 */
+	private static class FakeExporter implements SinglePassReportExporter {
+		private final String name;
+		Long failOnResponseId;
+		int started = 0;
+
+		FakeExporter(String name) {
+			this.name = name;
+		}
+
+		public ReportWriter startReport(SharedReportData data, final OutputStream outputStream) {
+			started++;
+			return new ReportWriter() {
+				public void handleResponseAnswers(Long responseId, String evalGroupId, List<EvalAnswer> answers) {
+					if (responseId.equals(failOnResponseId)) {
+						throw new IllegalStateException("Failed on response " + responseId);
+					}
+					write(outputStream, name + ":" + responseId + "\n");
+				}
+
+				public void finish() {
+					write(outputStream, name + ":done\n");
+				}
+			};
+		}
+
+		private void write(OutputStream outputStream, String line) {
+			try {
+				outputStream.write(line.getBytes("UTF-8"));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public void buildReport(EvalEvaluation evaluation, String[] groupIds, OutputStream outputStream, boolean newReportStyle) {
+			throw new UnsupportedOperationException();
+		}
+
+		public void buildReport(EvalEvaluation evaluation, String[] groupIds, String evaluateeId, OutputStream outputStream, boolean newReportStyle) {
+			throw new UnsupportedOperationException();
+		}
+
+		public void setMessageLocator(MessageLocator locator) {
+			// not needed
+		}
+
+		public String getContentType() {
+			return "text/plain";
+		}
+	}
+
+	/**
+	 * Keeps the reports in memory
+	 */
+	private static class MemoryReportCache implements EvalReportCache {
+		final Map<String, byte[]> reports = new HashMap<>();
+
+		public String makeReportKey(Long evaluationId, String[] evalGroupIds, String viewerClass, String... variant) {
+			StringBuilder key = new StringBuilder(evaluationId + ":" + String.join(",", evalGroupIds) + ":" + viewerClass);
+			for (String v : variant) {
+				key.append(':').append(v);
+			}
+			return key.toString();
+		}
+
+		public boolean copyReport(String reportKey, OutputStream outputStream) {
+			byte[] report = reports.get(reportKey);
+			if (report == null) {
+				return false;
+			}
+			try {
+				outputStream.write(report);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return true;
+		}
+
+		public OutputStream startReport(String reportKey, Long evaluationId, OutputStream outputStream) {
+			return new TeeStream(reportKey, outputStream);
+		}
+
+		public void endReport(OutputStream reportStream, boolean complete) {
+			TeeStream tee = (TeeStream) reportStream;
+			if (complete) {
+				reports.put(tee.reportKey, tee.copy.toByteArray());
+			}
+		}
+
+		public void invalidate(Long evaluationId) {
+			reports.clear();
+		}
+
+		public Map<String, Long> getStats() {
+			return new HashMap<>();
+		}
+	}
+
+	private static class TeeStream extends FilterOutputStream {
+		final String reportKey;
+		final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+		TeeStream(String reportKey, OutputStream out) {
+			super(out);
+			this.reportKey = reportKey;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			copy.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			copy.write(b, off, len);
+		}
+	}
+
+}
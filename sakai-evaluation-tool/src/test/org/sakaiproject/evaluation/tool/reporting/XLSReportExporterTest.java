@@ -0,0 +1,197 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.tool.reporting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.dao.ResponseAnswersHandler;
+import org.sakaiproject.evaluation.logic.EvalCommonLogic;
+import org.sakaiproject.evaluation.logic.EvalEvaluationService;
+import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.evaluation.model.EvalItem;
+import org.sakaiproject.evaluation.model.EvalTemplateItem;
+import org.sakaiproject.evaluation.tool.utils.EvalResponseAggregatorUtil;
+import org.sakaiproject.evaluation.utils.TemplateItemDataList;
+
+import uk.org.ponder.messageutil.MessageLocator;
+
+/**
+ * Tests the XLS reports written with the streaming workbook
+ */
+public class XLSReportExporterTest {
+
+	// the header rows come before the answers
+	private static final int FIRST_ANSWER_ROW = 6;
+	private static final int RESPONSES = 250;
+
+	private XLSReportExporter exporter;
+	private EvalEvaluation evaluation;
+
+	@Before
+	public void setUp() {
+		EvalItem item1 = new EvalItem("admin", "Question one", EvalConstants.SHARING_PRIVATE, EvalConstants.ITEM_TYPE_TEXT, false);
+		EvalItem item2 = new EvalItem("admin", "Question two", EvalConstants.SHARING_PRIVATE, EvalConstants.ITEM_TYPE_TEXT, false);
+		EvalTemplateItem templateItem1 = new EvalTemplateItem("admin", null, item1, 1, EvalConstants.ITEM_CATEGORY_COURSE,
+				EvalConstants.HIERARCHY_LEVEL_TOP, EvalConstants.HIERARCHY_NODE_ID_NONE);
+		templateItem1.setId(1L);
+		EvalTemplateItem templateItem2 = new EvalTemplateItem("admin", null, item2, 2, EvalConstants.ITEM_CATEGORY_COURSE,
+				EvalConstants.HIERARCHY_LEVEL_TOP, EvalConstants.HIERARCHY_NODE_ID_NONE);
+		templateItem2.setId(2L);
+		templateItem2.setUsesComment(true);
+		List<EvalTemplateItem> templateItems = new ArrayList<>();
+		templateItems.add(templateItem1);
+		templateItems.add(templateItem2);
+
+		exporter = new XLSReportExporter();
+		exporter.setCommonLogic(stub(EvalCommonLogic.class));
+		exporter.setEvaluationService(stub(EvalEvaluationService.class));
+		exporter.setEvalResponseAggregatorUtil(new TextAnswersAggregator(templateItems));
+		exporter.setMessageLocator(new MessageLocator() {
+			public String getMessage(String[] code, Object[] args) {
+				return code[0];
+			}
+		});
+		// much smaller than the number of rows so most of them are flushed to the temp file
+		exporter.setRowAccessWindowSize(10);
+
+		evaluation = new EvalEvaluation();
+		evaluation.setId(1L);
+		evaluation.setTitle("Eval title");
+		evaluation.setStartDate(new Date());
+	}
+
+	@Test
+	public void testStreamingReport() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		exporter.buildReport(evaluation, new String[] {"group1"}, out, false);
+
+		XSSFWorkbook wb = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(1, wb.getNumberOfSheets());
+		Sheet sheet = wb.getSheetAt(0);
+		assertEquals("Eval title", sheet.getRow(0).getCell(0).getStringCellValue());
+		assertEquals("Question one", sheet.getRow(5).getCell(1).getStringCellValue());
+		assertEquals("Question two", sheet.getRow(5).getCell(2).getStringCellValue());
+		assertEquals("viewreport.comments.header", sheet.getRow(4).getCell(3).getStringCellValue());
+
+		// every response is written (including the rows flushed out of the window) in order
+		assertEquals(FIRST_ANSWER_ROW + RESPONSES - 1, sheet.getLastRowNum());
+		for (int i = 1; i <= RESPONSES; i++) {
+			Row row = sheet.getRow(FIRST_ANSWER_ROW + i - 1);
+			assertEquals(i, (int) row.getCell(0).getNumericCellValue());
+			assertEquals("answer " + i + "-1", row.getCell(1).getStringCellValue());
+			if (i % 3 == 0) {
+				// left blank
+				assertNull(row.getCell(2));
+				assertEquals("", row.getCell(3).getStringCellValue());
+			} else {
+				assertEquals("answer " + i + "-2", row.getCell(2).getStringCellValue());
+				assertEquals("comment " + i, row.getCell(3).getStringCellValue());
+			}
+		}
+		wb.close();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(Class<T> type) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+			if ("getCurrentUserId".equals(method.getName())) {
+				return "admin";
+			}
+			if ("makePlainTextFromHTML".equals(method.getName())) {
+				return args[0];
+			}
+			if (method.getReturnType() == boolean.class) {
+				return true;
+			}
+			if (method.getReturnType() == int.class) {
+				return RESPONSES;
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Streams text answers for the 2 items, every third response leaves the second item blank
+	 */
+	private static class TextAnswersAggregator extends EvalResponseAggregatorUtil {
+		private final List<EvalTemplateItem> templateItems;
+
+		TextAnswersAggregator(List<EvalTemplateItem> templateItems) {
+			this.templateItems = templateItems;
+		}
+
+		@Override
+		public TemplateItemDataList prepareTemplateItemStructure(Long evaluationId, String[] groupIds) {
+			return new TemplateItemDataList(templateItems, null, null, null);
+		}
+
+		@Override
+		public void prefetchAssociateUsers(TemplateItemDataList tidl) {
+			// only course items
+		}
+
+		@Override
+		public int streamAnswers(Long evaluationId, String[] groupIds, ResponseAnswersHandler handler) {
+			for (int i = 1; i <= RESPONSES; i++) {
+				List<EvalAnswer> answers = new ArrayList<>();
+				answers.add(makeAnswer(templateItems.get(0), "answer " + i + "-1", null));
+				if (i % 3 != 0) {
+					answers.add(makeAnswer(templateItems.get(1), "answer " + i + "-2", "comment " + i));
+				}
+				handler.handleResponseAnswers((long) i, groupIds[0], answers);
+			}
+			return RESPONSES;
+		}
+
+		private EvalAnswer makeAnswer(EvalTemplateItem templateItem, String text, String comment) {
+			EvalAnswer answer = new EvalAnswer(null, templateItem, templateItem.getItem(), null,
+					EvalConstants.ITEM_CATEGORY_COURSE, text);
+			answer.setComment(comment);
+			return answer;
+		}
+
+		@Override
+		public String formatForSpreadSheet(EvalTemplateItem templateItem, EvalAnswer answer) {
+			return answer.getText();
+		}
+
+		@Override
+		public String getCommaSeparatedGroupNames(String[] groupIds) {
+			return String.join(", ", groupIds);
+		}
+
+		@Override
+		public String getHeaderLabelForItemType(String templateItemType) {
+			return templateItemType;
+		}
+	}
+
+}